@@ -13,10 +13,15 @@ import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
+import picard.metrics.CollectorStateUtil;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.PerUnitMetricCollector;
 import picard.metrics.SAMRecordAndReference;
 import picard.metrics.SAMRecordAndReferenceMultiLevelCollector;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -124,7 +129,7 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
         return false;
     }
 
-    private class GroupAlignmentSummaryMetricsPerUnitMetricCollector implements PerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> {
+    private class GroupAlignmentSummaryMetricsPerUnitMetricCollector implements MergeablePerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> {
         final IndividualAlignmentSummaryMetricsCollector unpairedCollector;
         final IndividualAlignmentSummaryMetricsCollector firstOfPairCollector;
         final IndividualAlignmentSummaryMetricsCollector secondOfPairCollector;
@@ -171,6 +176,22 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
             pairCollector.onComplete();
         }
 
+        @Override
+        public void writeState(final DataOutputStream out) throws IOException {
+            unpairedCollector.writeState(out);
+            firstOfPairCollector.writeState(out);
+            secondOfPairCollector.writeState(out);
+            pairCollector.writeState(out);
+        }
+
+        @Override
+        public void mergeState(final DataInputStream in) throws IOException {
+            unpairedCollector.mergeState(in);
+            firstOfPairCollector.mergeState(in);
+            secondOfPairCollector.mergeState(in);
+            pairCollector.mergeState(in);
+        }
+
         @Override
         public void addMetricsToFile(final MetricsFile<AlignmentSummaryMetrics, Comparable<?>> file) {
             if (firstOfPairCollector.getMetrics().TOTAL_READS > 0) {
@@ -260,6 +281,53 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
                 }
             }
 
+            /** Writes the counts made by addRecord(), but nothing calculated by onComplete() */
+            public void writeState(final DataOutputStream out) throws IOException {
+                out.writeLong(metrics.TOTAL_READS);
+                out.writeLong(metrics.PF_READS);
+                out.writeLong(metrics.PF_NOISE_READS);
+                out.writeLong(metrics.PF_READS_ALIGNED);
+                out.writeLong(metrics.READS_ALIGNED_IN_PAIRS);
+                out.writeLong(metrics.PF_ALIGNED_BASES);
+                out.writeLong(metrics.PF_HQ_ALIGNED_READS);
+                out.writeLong(metrics.PF_HQ_ALIGNED_BASES);
+                out.writeLong(metrics.PF_HQ_ALIGNED_Q20_BASES);
+                out.writeLong(numPositiveStrand);
+                out.writeLong(chimeras);
+                out.writeLong(chimerasDenominator);
+                out.writeLong(adapterReads);
+                out.writeLong(indels);
+                out.writeLong(nonBisulfiteAlignedBases);
+                out.writeLong(hqNonBisulfiteAlignedBases);
+                CollectorStateUtil.writeHistogram(out, readLengthHistogram);
+                CollectorStateUtil.writeHistogram(out, mismatchHistogram);
+                CollectorStateUtil.writeHistogram(out, hqMismatchHistogram);
+                CollectorStateUtil.writeHistogram(out, badCycleHistogram);
+            }
+
+            public void mergeState(final DataInputStream in) throws IOException {
+                metrics.TOTAL_READS += in.readLong();
+                metrics.PF_READS += in.readLong();
+                metrics.PF_NOISE_READS += in.readLong();
+                metrics.PF_READS_ALIGNED += in.readLong();
+                metrics.READS_ALIGNED_IN_PAIRS += in.readLong();
+                metrics.PF_ALIGNED_BASES += in.readLong();
+                metrics.PF_HQ_ALIGNED_READS += in.readLong();
+                metrics.PF_HQ_ALIGNED_BASES += in.readLong();
+                metrics.PF_HQ_ALIGNED_Q20_BASES += in.readLong();
+                numPositiveStrand += in.readLong();
+                chimeras += in.readLong();
+                chimerasDenominator += in.readLong();
+                adapterReads += in.readLong();
+                indels += in.readLong();
+                nonBisulfiteAlignedBases += in.readLong();
+                hqNonBisulfiteAlignedBases += in.readLong();
+                CollectorStateUtil.mergeIntegerHistogram(in, readLengthHistogram);
+                CollectorStateUtil.mergeLongHistogram(in, mismatchHistogram);
+                CollectorStateUtil.mergeLongHistogram(in, hqMismatchHistogram);
+                CollectorStateUtil.mergeIntegerHistogram(in, badCycleHistogram);
+            }
+
             private void collectReadData(final SAMRecord record, final ReferenceSequence ref) {
                 metrics.TOTAL_READS++;
                 readLengthHistogram.increment(record.getReadBases().length);
@@ -60,7 +60,7 @@ import java.util.Set;
  * 
  * @author Doug Voet (dvoet at broadinstitute dot org)
  */
-public class CollectAlignmentSummaryMetrics extends SinglePassSamProgram {
+public class CollectAlignmentSummaryMetrics extends MergeableMetricsProgram {
 
     private static final Log log = Log.getInstance(CollectAlignmentSummaryMetrics.class);
 
@@ -99,6 +99,7 @@ public class CollectAlignmentSummaryMetrics extends SinglePassSamProgram {
 
     @Override protected void setup(final SAMFileHeader header, final File samFile) {
         IOUtil.assertFileIsWritable(OUTPUT);
+        assertStateFilesAccessible();
 
         if (header.getSequenceDictionary().isEmpty()) {
             log.warn(INPUT.getAbsoluteFile() + " has no sequence dictionary.  If any reads " +
@@ -115,6 +116,7 @@ public class CollectAlignmentSummaryMetrics extends SinglePassSamProgram {
     }
 
     @Override protected void finish() {
+        writeAndMergeState(collector);
         collector.finish();
 
         final MetricsFile<AlignmentSummaryMetrics, Comparable<?>> file = getMetricsFile();
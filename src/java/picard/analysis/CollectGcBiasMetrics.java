@@ -25,29 +25,21 @@
 package picard.analysis;
 
 import htsjdk.samtools.SAMFileHeader;
-import htsjdk.samtools.SAMFileReader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.reference.ReferenceSequence;
-import htsjdk.samtools.reference.ReferenceSequenceFile;
-import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
-import htsjdk.samtools.util.PeekableIterator;
-import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.QualityUtil;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
-import picard.PicardException;
-import picard.cmdline.CommandLineProgram;
 import picard.cmdline.Option;
-import picard.cmdline.StandardOptionDefinitions;
 import picard.util.RExecutor;
 
 import java.io.File;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -58,22 +50,16 @@ import java.util.List;
  * the "normalized coverage" in each bin - i.e. the number of reads per window normalized
  * to the average number of reads per window across the whole genome.
  *
+ * The reads are counted as they go by, with the GC of the windows of each reference sequence looked up when its
+ * first read arrives, so that this may be run by CollectMultipleMetrics in the same pass as other programs.  The GC
+ * of the windows is kept in a GcWindowCache beside the reference, so it is only calculated the first time.
+ *
  * @author Tim Fennell
  */
-public class CollectGcBiasMetrics extends CommandLineProgram {
+public class CollectGcBiasMetrics extends SinglePassSamProgram {
     /** The location of the R script to do the plotting. */
     private static final String R_SCRIPT = "picard/analysis/gcBias.R";
 
-    @Option(shortName=StandardOptionDefinitions.REFERENCE_SHORT_NAME, doc="The reference sequence fasta file.")
-    public File REFERENCE_SEQUENCE;
-
-    @Option(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="The BAM or SAM file containing aligned reads.  " +
-            "Must be coordinate-sorted.")
-    public File INPUT;
-
-    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The text file to write the metrics table to.")
-    public File OUTPUT;
-
     @Option(shortName="CHART", doc="The PDF file to render the chart to.")
     public File CHART_OUTPUT;
 
@@ -86,103 +72,105 @@ public class CollectGcBiasMetrics extends CommandLineProgram {
     @Option(doc="For summary metrics, exclude GC windows that include less than this fraction of the genome.")
     public double MINIMUM_GENOME_FRACTION = 0.00001;
 
-    @Option(doc="If true, assume that the input file is coordinate sorted, even if the header says otherwise.",
-            shortName=StandardOptionDefinitions.ASSUME_SORTED_SHORT_NAME)
-    public boolean ASSUME_SORTED = false;
-
     @Option(shortName="BS", doc="Whether the SAM or BAM file consists of bisulfite sequenced reads.  ")
     public boolean IS_BISULFITE_SEQUENCED = false;
 
+    @Option(doc="If true, the GC of the reference's windows is kept in a file beside it, named for the WINDOW_SIZE, " +
+            "e.g. reference.fasta.gc100.bin, so that it is calculated only by the first run against the reference.  " +
+            "The file is made if it doesn't exist or doesn't match the reference.")
+    public boolean USE_GC_CACHE = true;
+
     private static final Log log = Log.getInstance(CollectGcBiasMetrics.class);
 
     // Used to keep track of the total clusters as this is kinda important for bias
     private int totalClusters = 0;
     private int totalAlignedReads = 0;
 
+    // Histograms to track the number of windows at each GC, and the number of read starts
+    // at windows of each GC
+    private final int[] windowsByGc = new int[GcWindowCache.NUM_GC_BINS];
+    private final int[] readsByGc   = new int[GcWindowCache.NUM_GC_BINS];
+    private final long[] basesByGc  = new long[GcWindowCache.NUM_GC_BINS];
+    private final long[] errorsByGc = new long[GcWindowCache.NUM_GC_BINS];
+
+    private SAMFileHeader header;
+    /** The GC of every window, if USE_GC_CACHE and the cache could be made. */
+    private GcWindowCache gcCache;
+    /** For the windows of the sequences with no reads, if there is no gcCache. */
+    private ReferenceSequenceFetcher unreadSequences;
+
+    /** The reference sequence of the reads being counted, or -1 before the first read, and its bases and GC by window. */
+    private int sequenceIndex = -1;
+    private byte[] refBases;
+    private GcWindowCache.SequenceGc gc;
+
     /** Stock main method. */
     public static void main(final String[] args) {
         System.exit(new CollectGcBiasMetrics().instanceMain(args));
     }
 
-    protected int doWork() {
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (REFERENCE_SEQUENCE == null) {
+            return new String[]{"REFERENCE_SEQUENCE must be given to compute GC bias metrics."};
+        }
+        return super.customCommandLineValidation();
+    }
+
+    @Override
+    protected void setup(final SAMFileHeader header, final File samFile) {
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
-        IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsWritable(OUTPUT);
         IOUtil.assertFileIsWritable(CHART_OUTPUT);
         if (SUMMARY_OUTPUT != null) IOUtil.assertFileIsWritable(SUMMARY_OUTPUT);
 
-        // Histograms to track the number of windows at each GC, and the number of read starts
-        // at windows of each GC
-        final int[] windowsByGc = new int[101];
-        final int[] readsByGc   = new int[101];
-        final long[] basesByGc  = new long[101];
-        final long[] errorsByGc = new long[101];
+        this.header = header;
+        if (USE_GC_CACHE) gcCache = GcWindowCache.open(REFERENCE_SEQUENCE, header.getSequenceDictionary(), WINDOW_SIZE);
+        if (gcCache == null) unreadSequences = new ReferenceSequenceFetcher(REFERENCE_SEQUENCE, header.getSequenceDictionary());
+    }
 
-        final SAMFileReader sam = new SAMFileReader(INPUT);
+    @Override
+    protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+        if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++this.totalClusters;
 
-        if (!ASSUME_SORTED && sam.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
-            throw new PicardException("Header of input file " + INPUT.getAbsolutePath() + " indicates that it is not coordinate sorted.  " +
-            "If you believe the records are in coordinate order, pass option ASSUME_SORTED=true.  If not, sort the file with SortSam.");
-        }
-        final PeekableIterator<SAMRecord> iterator = new PeekableIterator<SAMRecord>(sam.iterator());
-        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
-
-        {
-            // Check that the sequence dictionaries match if present
-            final SAMSequenceDictionary referenceDictionary= referenceFile.getSequenceDictionary();
-            final SAMSequenceDictionary samFileDictionary = sam.getFileHeader().getSequenceDictionary();
-            if (referenceDictionary != null && samFileDictionary != null) {
-                SequenceUtil.assertSequenceDictionariesEqual(referenceDictionary, samFileDictionary);
-            }
-        }
+        // Reads with no reference index are the unaligned ones at the end
+        if (rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) return;
 
-        ////////////////////////////////////////////////////////////////////////////
-        // Loop over the reference and the reads and calculate the basic metrics
-        ////////////////////////////////////////////////////////////////////////////
-        ReferenceSequence ref = null;
-        final ProgressLogger
-                progress = new ProgressLogger(log);
-        while ((ref = referenceFile.nextSequence()) != null) {
-            final byte[] refBases = ref.getBases();
+        if (rec.getReferenceIndex() != sequenceIndex) {
+            countWindowsBefore(rec.getReferenceIndex());
+            // The bases are shared with any other programs being run, so upper-case a copy of them
+            refBases = Arrays.copyOf(ref.getBases(), ref.getBases().length);
             StringUtil.toUpperCase(refBases);
-            final int refLength = refBases.length;
-            final int lastWindowStart = refLength - WINDOW_SIZE;
-
-            final byte[] gc = calculateAllGcs(refBases, windowsByGc, lastWindowStart);
-            while (iterator.hasNext() && iterator.peek().getReferenceIndex() == ref.getContigIndex()) {
-                final SAMRecord rec = iterator.next();
-
-                if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++this.totalClusters;
-
-                if (!rec.getReadUnmappedFlag()) {
-                    final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - WINDOW_SIZE : rec.getAlignmentStart();
-                    ++this.totalAlignedReads;
-
-                    if (pos > 0) {
-                        final int windowGc = gc[pos];
-
-                        if (windowGc >= 0) {
-                            ++readsByGc[windowGc];
-                            basesByGc[windowGc]  += rec.getReadLength();
-                            errorsByGc[windowGc] +=
-                                    SequenceUtil.countMismatches(rec, refBases, IS_BISULFITE_SEQUENCED) +
-                                            SequenceUtil.countInsertedBases(rec) + SequenceUtil.countDeletedBases(rec);
-                        }
-                    }
-                }
-
-                progress.record(rec);
-            }
-
-            log.info("Processed reference sequence: " + ref.getName());
+            gc = gcCache != null ? gcCache.getSequence(rec.getReferenceIndex()) : GcWindowCache.calculate(refBases, WINDOW_SIZE);
+            addWindows(gc);
+            sequenceIndex = rec.getReferenceIndex();
+            log.info("Processing reference sequence: " + ref.getName());
         }
 
-        // Finish up the reads, presumably all unaligned
-        while (iterator.hasNext()) {
-            final SAMRecord rec = iterator.next();
-            if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++this.totalClusters;
+        if (!rec.getReadUnmappedFlag()) {
+            final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - WINDOW_SIZE : rec.getAlignmentStart();
+            ++this.totalAlignedReads;
 
+            if (pos > 0) {
+                final int windowGc = gc.getGc(pos);
+
+                if (windowGc >= 0) {
+                    ++readsByGc[windowGc];
+                    basesByGc[windowGc]  += rec.getReadLength();
+                    errorsByGc[windowGc] +=
+                            SequenceUtil.countMismatches(rec, refBases, IS_BISULFITE_SEQUENCED) +
+                                    SequenceUtil.countInsertedBases(rec) + SequenceUtil.countDeletedBases(rec);
+                }
+            }
         }
+    }
+
+    @Override
+    protected void finish() {
+        countWindowsBefore(header.getSequenceDictionary().size());
+        if (unreadSequences != null) unreadSequences.close();
+        refBases = null;
+        gc = null;
 
         /////////////////////////////////////////////////////////////////////////////
         // Synthesize the normalized coverage metrics and write it all out to a file
@@ -230,7 +218,7 @@ public class CollectGcBiasMetrics extends CommandLineProgram {
         String title = INPUT.getName().replace(".duplicates_marked", "").replace(".aligned.bam", "");
 
         // Qualify the title with the library name iff it's for a single sample
-        final List<SAMReadGroupRecord> readGroups = sam.getFileHeader().getReadGroups();
+        final List<SAMReadGroupRecord> readGroups = header.getReadGroups();
         if (readGroups.size() == 1) {
             title += "." + readGroups.get(0).getLibrary();
         }
@@ -240,10 +228,31 @@ public class CollectGcBiasMetrics extends CommandLineProgram {
                                        title,
                                        subtitle,
                                        String.valueOf(WINDOW_SIZE));
+    }
 
-        return 0;
+    /**
+     * Counts the windows by GC of the reference sequences after the current one up to index, which have no aligned
+     * reads, so that windowsByGc covers the whole genome.
+     */
+    private void countWindowsBefore(final int index) {
+        for (int i = sequenceIndex + 1; i < index; ++i) {
+            if (gcCache != null) {
+                addWindows(gcCache.getSequence(i));
+            } else {
+                final byte[] bases = unreadSequences.get(i).getBases();
+                StringUtil.toUpperCase(bases);
+                addWindows(GcWindowCache.calculate(bases, WINDOW_SIZE));
+            }
+        }
+        sequenceIndex = Math.max(sequenceIndex, index - 1);
     }
 
+    private void addWindows(final GcWindowCache.SequenceGc sequenceGc) {
+        final int[] sequenceWindowsByGc = sequenceGc.getWindowsByGc();
+        for (int i = 0; i < windowsByGc.length; ++i) {
+            windowsByGc[i] += sequenceWindowsByGc[i];
+        }
+    }
 
     /** Sums the values in an int[]. */
     private double sum(final int[] values) {
@@ -285,53 +294,4 @@ public class CollectGcBiasMetrics extends CommandLineProgram {
         summary.AT_DROPOUT = atDropout;
         summary.GC_DROPOUT = gcDropout;
     }
-
-    /** Calculcate all the GC values for all windows. */
-    private byte[] calculateAllGcs(final byte [] refBases, final int [] windowsByGc, final int lastWindowStart) {
-        final int refLength = refBases.length;
-        final byte[] gc = new byte[refLength + 1];
-        final CalculateGcState state = new CalculateGcState();
-        for (int i=1; i<lastWindowStart; ++i) {
-            final int windowEnd = i + WINDOW_SIZE;
-            final int windowGc = calculateGc(refBases, i, windowEnd, state) ; 
-            gc[i] = (byte) windowGc;
-            if (windowGc != -1) windowsByGc[windowGc]++;
-        }
-        return gc;
-    }
-
-    /**
-     * Calculates GC as a number from 0 to 100 in the specified window. If the window includes
-     * more than five no-calls then -1 is returned.
-     */
-    private int calculateGc(final byte[] bases, final int startIndex, final int endIndex, final CalculateGcState state) {
-        if (state.init) {
-            state.init = false ;
-            state.gcCount = 0;
-            state.nCount  = 0;
-            for (int i=startIndex; i<endIndex; ++i) {
-                final byte base = bases[i];
-                if (base == 'G' || base == 'C') ++state.gcCount;
-                else if (base == 'N') ++state.nCount;
-            }
-        } else {
-            final byte newBase = bases[endIndex-1];
-            if (newBase == 'G' || newBase == 'C') ++state.gcCount;
-            else if (newBase == 'N') ++state.nCount;
-
-            if (state.priorBase == 'G' || state.priorBase == 'C') --state.gcCount;
-            else if (state.priorBase == 'N') --state.nCount;
-        }
-        state.priorBase = bases[startIndex];
-        if (state.nCount > 4) return -1;
-        else return (state.gcCount * 100) / (endIndex - startIndex);
-    }
-
-    /** Keeps track of current GC calculation state. */
-    class CalculateGcState {
-        boolean init = true ;
-        int nCount ;
-        int gcCount ;
-        byte priorBase ;
-    }
 }
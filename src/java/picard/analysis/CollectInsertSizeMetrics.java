@@ -46,7 +46,7 @@ import java.util.Set;
  *
  * @author Doug Voet (dvoet at broadinstitute dot org)
  */
-public class CollectInsertSizeMetrics extends SinglePassSamProgram {
+public class CollectInsertSizeMetrics extends MergeableMetricsProgram {
     private static final Log log = Log.getInstance(CollectInsertSizeMetrics.class);
     private static final String Histogram_R_SCRIPT = "picard/analysis/insertSizeHistogram.R";
     // Usage and parameters
@@ -105,6 +105,7 @@ public class CollectInsertSizeMetrics extends SinglePassSamProgram {
     @Override protected void setup(final SAMFileHeader header, final File samFile) {
         IOUtil.assertFileIsWritable(OUTPUT);
         IOUtil.assertFileIsWritable(Histogram_FILE);
+        assertStateFilesAccessible();
 
         //Delegate actual collection to InsertSizeMetricCollector
         multiCollector = new InsertSizeMetricsCollector(METRIC_ACCUMULATION_LEVEL, header.getReadGroups(), MINIMUM_PCT, Histogram_WIDTH, DEVIATIONS);
@@ -115,6 +116,7 @@ public class CollectInsertSizeMetrics extends SinglePassSamProgram {
     }
 
     @Override protected void finish() {
+        writeAndMergeState(multiCollector);
         multiCollector.finish();
 
         final MetricsFile<InsertSizeMetrics, Integer> file = getMetricsFile();
@@ -1,6 +1,7 @@
 package picard.analysis;
 
 import htsjdk.samtools.util.CollectionUtil;
+import picard.analysis.directed.RnaSeqMetricsCollector;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
@@ -27,7 +28,19 @@ public class CollectMultipleMetrics extends CommandLineProgram {
         SinglePassSamProgram makeInstance(final String outbase);
     }
 
-    public static enum Program implements ProgramInterface {
+    /**
+     * A Program that also needs options of CollectMultipleMetrics beyond INPUT and REFERENCE_SEQUENCE, which
+     * CollectMultipleMetrics makes with makeInstance(outbase, options) rather than makeInstance(outbase).
+     */
+    public static interface ProgramWithOptionsInterface extends ProgramInterface {
+        /**
+         * @param outbase The base name of the output files.
+         * @param options The CollectMultipleMetrics being run, from which to take the options needed by the program.
+         */
+        SinglePassSamProgram makeInstance(final String outbase, final CollectMultipleMetrics options);
+    }
+
+    public static enum Program implements ProgramWithOptionsInterface {
         CollectAlignmentSummaryMetrics {
             @Override public SinglePassSamProgram makeInstance(final String outbase) {
                 final CollectAlignmentSummaryMetrics program = new CollectAlignmentSummaryMetrics();
@@ -67,15 +80,101 @@ public class CollectMultipleMetrics extends CommandLineProgram {
                 program.CHART_OUTPUT = new File(outbase + ".base_distribution_by_cycle.pdf");
                 return program;
             }
+        },
+        CollectGcBiasMetrics {
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase) {
+                final CollectGcBiasMetrics program = new CollectGcBiasMetrics();
+                program.OUTPUT         = new File(outbase + ".gc_bias.detail_metrics");
+                program.SUMMARY_OUTPUT = new File(outbase + ".gc_bias.summary_metrics");
+                program.CHART_OUTPUT   = new File(outbase + ".gc_bias.pdf");
+                return program;
+            }
+
+            @Override
+            String checkOptions(final CollectMultipleMetrics options) {
+                return options.REFERENCE_SEQUENCE == null ? "REFERENCE_SEQUENCE must be given to run " + name() : null;
+            }
+        },
+        CollectWgsMetrics {
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase) {
+                final SinglePassWgsMetrics program = new SinglePassWgsMetrics();
+                program.OUTPUT = new File(outbase + ".wgs_metrics");
+                return program;
+            }
+
+            @Override
+            String checkOptions(final CollectMultipleMetrics options) {
+                return options.REFERENCE_SEQUENCE == null ? "REFERENCE_SEQUENCE must be given to run " + name() : null;
+            }
+        },
+        CalculateHsMetrics {
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase) {
+                final picard.analysis.directed.CalculateHsMetrics program = new picard.analysis.directed.CalculateHsMetrics();
+                program.OUTPUT = new File(outbase + ".hybrid_selection_metrics");
+                return program;
+            }
+
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase, final CollectMultipleMetrics options) {
+                final picard.analysis.directed.CalculateHsMetrics program =
+                        (picard.analysis.directed.CalculateHsMetrics) makeInstance(outbase);
+                program.TARGET_INTERVALS = options.TARGET_INTERVALS;
+                program.BAIT_INTERVALS   = options.BAIT_INTERVALS;
+                return program;
+            }
+
+            @Override
+            String checkOptions(final CollectMultipleMetrics options) {
+                return options.TARGET_INTERVALS.isEmpty() || options.BAIT_INTERVALS.isEmpty() ?
+                        "TARGET_INTERVALS and BAIT_INTERVALS must be given to run " + name() : null;
+            }
+        },
+        CollectRnaSeqMetrics {
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase) {
+                final CollectRnaSeqMetrics program = new CollectRnaSeqMetrics();
+                program.OUTPUT              = new File(outbase + ".rna_metrics");
+                program.CHART_OUTPUT        = new File(outbase + ".rna_coverage.pdf");
+                return program;
+            }
+
+            @Override
+            public SinglePassSamProgram makeInstance(final String outbase, final CollectMultipleMetrics options) {
+                final CollectRnaSeqMetrics program = (CollectRnaSeqMetrics) makeInstance(outbase);
+                program.REF_FLAT            = options.REF_FLAT;
+                program.RIBOSOMAL_INTERVALS = options.RIBOSOMAL_INTERVALS;
+                program.STRAND_SPECIFICITY  = options.STRAND_SPECIFICITY;
+                return program;
+            }
+
+            @Override
+            String checkOptions(final CollectMultipleMetrics options) {
+                return options.REF_FLAT == null || options.STRAND_SPECIFICITY == null ?
+                        "REF_FLAT and STRAND_SPECIFICITY must be given to run " + name() : null;
+            }
         };
 
+        /** Most programs need no options beyond INPUT and REFERENCE_SEQUENCE, which are set on every instance. */
+        @Override
+        public SinglePassSamProgram makeInstance(final String outbase, final CollectMultipleMetrics options) {
+            return makeInstance(outbase);
+        }
+
+        /** @return A message saying what is missing from options to run this program, or null if nothing is. */
+        String checkOptions(final CollectMultipleMetrics options) {
+            return null;
+        }
     }
 
     @Usage
     public final String USAGE = getStandardUsagePreamble() +
 			"Takes an input BAM and reference sequence and runs one or more Picard " +
             "metrics modules at the same time to cut down on I/O. Currently all programs are run with " +
-            "default options and fixed output extesions, but this may become more flexible in future.";
+            "default options, other than those below that they need, and fixed output extesions, but this may become " +
+            "more flexible in future.";
 
     @Option(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input SAM or BAM file.")
     public File INPUT;
@@ -93,8 +192,34 @@ public class CollectMultipleMetrics extends CommandLineProgram {
     @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Base name of output files.")
     public String OUTPUT;
 
-    @Option(doc="List of metrics programs to apply during the pass through the SAM file.")
-    public List<Program> PROGRAM = CollectionUtil.makeList(Program.values());
+    @Option(doc="List of metrics programs to apply during the pass through the SAM file.  CollectGcBiasMetrics and " +
+            "CollectWgsMetrics need REFERENCE_SEQUENCE, and CalculateHsMetrics and CollectRnaSeqMetrics need the options " +
+            "below that are named after them.")
+    public List<Program> PROGRAM = CollectionUtil.makeList(Program.CollectAlignmentSummaryMetrics,
+            Program.CollectInsertSizeMetrics, Program.QualityScoreDistribution, Program.MeanQualityByCycle,
+            Program.CollectBaseDistributionByCycle);
+
+    @Option(shortName="TI", doc="For CalculateHsMetrics, an interval list file that contains the locations of the targets.")
+    public List<File> TARGET_INTERVALS = new ArrayList<File>();
+
+    @Option(shortName="BI", doc="For CalculateHsMetrics, an interval list file that contains the locations of the baits used.")
+    public List<File> BAIT_INTERVALS = new ArrayList<File>();
+
+    @Option(doc="For CollectRnaSeqMetrics, gene annotations in refFlat form.", optional=true)
+    public File REF_FLAT;
+
+    @Option(doc="For CollectRnaSeqMetrics, the location of rRNA sequences in genome, in interval_list format.", optional=true)
+    public File RIBOSOMAL_INTERVALS;
+
+    @Option(shortName="STRAND", doc="For CollectRnaSeqMetrics, the strand-specificity of the library prep.", optional=true)
+    public RnaSeqMetricsCollector.StrandSpecificity STRAND_SPECIFICITY;
+
+    @Option(doc="The number of threads on which to run the programs, each program always running on the same thread, " +
+            "while another thread reads the input.  More threads than programs are not used.  If NUM_PROCESSORS = 0, " +
+            "number of cores is automatically set to the number of cores available on the machine. If " +
+            "NUM_PROCESSORS < 0, then the number of cores used will be the number available on the machine less " +
+            "NUM_PROCESSORS.")
+    public int NUM_PROCESSORS = 1;
 
     /**
      * Contents of PROGRAM list is transferred to this list during command-line validation, so that an outside
@@ -110,6 +235,13 @@ public class CollectMultipleMetrics extends CommandLineProgram {
 
     @Override
     protected String[] customCommandLineValidation() {
+        final List<String> errors = new ArrayList<String>();
+        for (final Program program : PROGRAM) {
+            final String error = program.checkOptions(this);
+            if (error != null) errors.add(error);
+        }
+        if (!errors.isEmpty()) return errors.toArray(new String[errors.size()]);
+
         programsToRun = new ArrayList<ProgramInterface>(PROGRAM);
         return super.customCommandLineValidation();
     }
@@ -129,7 +261,8 @@ public class CollectMultipleMetrics extends CommandLineProgram {
 
         final List<SinglePassSamProgram> programs = new ArrayList<SinglePassSamProgram>();
         for (ProgramInterface program : new HashSet<ProgramInterface>(programsToRun)) {
-            SinglePassSamProgram instance = program.makeInstance(OUTPUT);
+            SinglePassSamProgram instance = program instanceof ProgramWithOptionsInterface ?
+                    ((ProgramWithOptionsInterface) program).makeInstance(OUTPUT, this) : program.makeInstance(OUTPUT);
 
             // Generally programs should not be accessing these directly but it might make things smoother
             // to just set them anyway
@@ -141,7 +274,16 @@ public class CollectMultipleMetrics extends CommandLineProgram {
             programs.add(instance);
         }
 
-        SinglePassSamProgram.makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, programs);
+        final int numThreads;
+        if (NUM_PROCESSORS == 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS);
+        } else {
+            numThreads = NUM_PROCESSORS;
+        }
+
+        SinglePassSamProgram.makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, programs, numThreads);
 
         return 0;
     }
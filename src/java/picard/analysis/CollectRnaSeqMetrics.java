@@ -47,7 +47,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public class CollectRnaSeqMetrics extends SinglePassSamProgram {
+public class CollectRnaSeqMetrics extends MergeableMetricsProgram {
     private static final Log LOG = Log.getInstance(CollectRnaSeqMetrics.class);
 
     @Usage
@@ -101,6 +101,7 @@ public class CollectRnaSeqMetrics extends SinglePassSamProgram {
     protected void setup(final SAMFileHeader header, final File samFile) {
 
         if (CHART_OUTPUT != null) IOUtil.assertFileIsWritable(CHART_OUTPUT);
+        assertStateFilesAccessible();
 
         final OverlapDetector<Gene> geneOverlapDetector = GeneAnnotationReader.loadRefFlat(REF_FLAT, header.getSequenceDictionary());
         LOG.info("Loaded " + geneOverlapDetector.getAll().size() + " genes.");
@@ -129,6 +130,7 @@ public class CollectRnaSeqMetrics extends SinglePassSamProgram {
 
     @Override
     protected void finish() {
+        writeAndMergeState(collector);
         collector.finish();
 
         final MetricsFile<RnaSeqMetrics, Integer> file = getMetricsFile();
@@ -1,19 +1,28 @@
 package picard.analysis;
 
 import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileReader;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.filter.SecondaryAlignmentFilter;
 import htsjdk.samtools.metrics.MetricBase;
 import htsjdk.samtools.metrics.MetricsFile;
-import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.SamLocusIterator;
+import htsjdk.samtools.util.SequenceUtil;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
@@ -22,8 +31,15 @@ import picard.util.MathUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Computes a number of metrics that are useful for evaluating coverage and performance of whole genome sequencing experiments.
@@ -54,14 +70,29 @@ public class CollectWgsMetrics extends CommandLineProgram {
     @Option(shortName="CAP", doc="Treat bases with coverage exceeding this value as if they had coverage at this value.")
     public int COVERAGE_CAP = 250;
 
+    @Option(doc="An interval list of the regions of the genome over which to compute the metrics, e.g. the autosomes " +
+            "or a callable region.  If INPUT is indexed, only reads overlapping these regions are read.", optional=true)
+    public File INTERVALS;
+
     @Option(doc="For debugging purposes, stop after processing this many genomic bases.")
     public long STOP_AFTER = -1;
 
+    @Option(doc="The number of threads to run in parallel.  If INPUT is an indexed BAM and REFERENCE_SEQUENCE is an " +
+            "indexed fasta, each reference sequence is processed separately, with its own readers, by one of the threads, " +
+            "and the results are merged; otherwise, or if STOP_AFTER is set, the genome is processed by a single thread.  " +
+            "The metrics are the same either way.  If NUM_PROCESSORS = 0, number of cores is automatically set to the " +
+            "number of cores available on the machine. If NUM_PROCESSORS < 0, then the number of cores used will be the " +
+            "number available on the machine less NUM_PROCESSORS.")
+    public int NUM_PROCESSORS = 1;
+
     private final Log log = Log.getInstance(CollectWgsMetrics.class);
 
+    /** How many reference bases to fetch at a time when the reference is read with random access. */
+    private static final int REFERENCE_WINDOW = 1000000;
+
     /** Metrics for evaluating the performance of whole genome sequencing experiments. */
     public static class WgsMetrics extends MetricBase {
-        /** The number of non-N bases in the genome reference over which coverage will be evaluated. */
+        /** The number of non-N bases in the genome reference (or in INTERVALS, if given) over which coverage will be evaluated. */
         public long GENOME_TERRITORY;
         /** The mean coverage in bases of the genome territory, after all filters are applied. */
         public double MEAN_COVERAGE;
@@ -124,61 +155,38 @@ public class CollectWgsMetrics extends CommandLineProgram {
         IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsWritable(OUTPUT);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
+        if (INTERVALS != null) IOUtil.assertFileIsReadable(INTERVALS);
+
+        final int numThreads;
+        if (NUM_PROCESSORS == 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS);
+        } else {
+            numThreads = NUM_PROCESSORS;
+        }
 
-        // Setup all the inputs
-        final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
-        final ReferenceSequenceFileWalker refWalker = new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
-        final SAMFileReader in        = new SAMFileReader(INPUT);
-
-        final SamLocusIterator iterator = new SamLocusIterator(in);
-        final List<SamRecordFilter> filters   = new ArrayList<SamRecordFilter>();
-        final CountingFilter dupeFilter       = new CountingDuplicateFilter();
-        final CountingFilter mapqFilter       = new CountingMapQFilter(MINIMUM_MAPPING_QUALITY);
-        final CountingPairedFilter pairFilter = new CountingPairedFilter();
-        filters.add(mapqFilter);
-        filters.add(dupeFilter);
-        filters.add(pairFilter);
-        filters.add(new SecondaryAlignmentFilter()); // Not a counting filter because we never want to count reads twice
-        iterator.setSamFilters(filters);
-        iterator.setEmitUncoveredLoci(true);
-        iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
-        iterator.setQualityScoreCutoff(0);        // Handled separately because we want to count bases
-        iterator.setIncludeNonPfReads(false);
-
-        final int max = COVERAGE_CAP;
-        final long[] HistogramArray = new long[max + 1];
-        final boolean usingStopAfter = STOP_AFTER > 0;
-        final long stopAfter = STOP_AFTER-1;
-        long counter = 0;
-
-        long basesExcludedByBaseq   = 0;
-        long basesExcludedByOverlap = 0;
-        long basesExcludedByCapping = 0;
-
-        // Loop through all the loci
-        while (iterator.hasNext()) {
-            final SamLocusIterator.LocusInfo info = iterator.next();
-
-            // Check that the reference is not N
-            final ReferenceSequence ref = refWalker.get(info.getSequenceIndex());
-            final byte base = ref.getBases()[info.getPosition()-1];
-            if (base == 'N') continue;
+        final IntervalList intervals = INTERVALS == null ? null : loadIntervals();
+        final CoverageAccumulator coverage;
+        if (numThreads > 1 && STOP_AFTER <= 0 && canProcessBySequence()) {
+            coverage = collectBySequence(intervals, numThreads);
+        } else {
+            coverage = collect(intervals, STOP_AFTER);
+        }
 
-            // Figure out the coverage while not counting overlapping reads twice, and excluding various things
-            final HashSet<String> readNames = new HashSet<String>(info.getRecordAndPositions().size());
-            for (final SamLocusIterator.RecordAndOffset recs : info.getRecordAndPositions()) {
-                if (recs.getBaseQuality() < MINIMUM_BASE_QUALITY)                   { ++basesExcludedByBaseq;   continue; }
-                if (!readNames.add(recs.getRecord().getReadName()))                 { ++basesExcludedByOverlap; continue; }
-            }
+        final MetricsFile<WgsMetrics, Integer> out = getMetricsFile();
+        addMetrics(coverage, out);
+        out.write(OUTPUT);
 
-            final int depth = Math.min(readNames.size(), max);
-            if (depth < readNames.size()) basesExcludedByCapping += readNames.size() - max;
-            HistogramArray[depth]++;
+        return 0;
+    }
 
-            // Record progress and perhaps stop
-            progress.record(info.getSequenceName(), info.getPosition());
-            if (usingStopAfter && ++counter > stopAfter) break;
-        }
+    /** Adds the WgsMetrics and depth histogram for the accumulated coverage to out. */
+    static void addMetrics(final CoverageAccumulator coverage, final MetricsFile<WgsMetrics, Integer> out) {
+        final long[] HistogramArray = coverage.histogramArray;
+        final long basesExcludedByBaseq   = coverage.basesExcludedByBaseq;
+        final long basesExcludedByOverlap = coverage.basesExcludedByOverlap;
+        final long basesExcludedByCapping = coverage.basesExcludedByCapping;
 
         // Construct and write the outputs
         final Histogram<Integer> histo = new Histogram<Integer>("coverage", "count");
@@ -193,9 +201,9 @@ public class CollectWgsMetrics extends CommandLineProgram {
         metrics.MEDIAN_COVERAGE  = histo.getMedian();
         metrics.MAD_COVERAGE     = histo.getMedianAbsoluteDeviation();
 
-        final long basesExcludedByDupes   = dupeFilter.getFilteredBases();
-        final long basesExcludedByMapq    = mapqFilter.getFilteredBases();
-        final long basesExcludedByPairing = pairFilter.getFilteredBases();
+        final long basesExcludedByDupes   = coverage.basesExcludedByDupes;
+        final long basesExcludedByMapq    = coverage.basesExcludedByMapq;
+        final long basesExcludedByPairing = coverage.basesExcludedByPairing;
         final double total             = histo.getSum();
         final double totalWithExcludes = total + basesExcludedByDupes + basesExcludedByMapq + basesExcludedByPairing + basesExcludedByBaseq + basesExcludedByOverlap + basesExcludedByCapping;
         metrics.PCT_EXC_DUPE     = basesExcludedByDupes   / totalWithExcludes;
@@ -220,12 +228,280 @@ public class CollectWgsMetrics extends CommandLineProgram {
         metrics.PCT_90X    = MathUtil.sum(HistogramArray, 90, HistogramArray.length)  / (double) metrics.GENOME_TERRITORY;
         metrics.PCT_100X   = MathUtil.sum(HistogramArray, 100, HistogramArray.length) / (double) metrics.GENOME_TERRITORY;
 
-        final MetricsFile<WgsMetrics, Integer> out = getMetricsFile();
         out.addMetric(metrics);
         out.addHistogram(histo);
-        out.write(OUTPUT);
+    }
 
-        return 0;
+    /** Processing by sequence needs to query INPUT by its index and to fetch bases from anywhere in the reference. */
+    private boolean canProcessBySequence() {
+        final SAMFileReader in = new SAMFileReader(INPUT);
+        final ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+        try {
+            if (!in.hasIndex()) {
+                log.warn("INPUT is not indexed, so it will be processed by a single thread.");
+                return false;
+            }
+            if (!ref.isIndexed()) {
+                log.warn("REFERENCE_SEQUENCE is not indexed, so INPUT will be processed by a single thread.");
+                return false;
+            }
+            return true;
+        } finally {
+            CloserUtil.close(ref);
+            in.close();
+        }
+    }
+
+    /** Reads INTERVALS, merging overlapping intervals, and checks that their sequences are all in INPUT. */
+    private IntervalList loadIntervals() {
+        final IntervalList intervals = IntervalList.fromFile(INTERVALS).uniqued();
+        final SAMFileReader in = new SAMFileReader(INPUT);
+        final SAMSequenceDictionary dictionary = in.getFileHeader().getSequenceDictionary();
+        in.close();
+        // The locus iterator and reference mask use the sequence indices of the interval list's dictionary
+        SequenceUtil.assertSequenceDictionariesEqual(dictionary, intervals.getHeader().getSequenceDictionary());
+        return intervals;
+    }
+
+    /**
+     * Runs a CoverageAccumulator for each reference sequence, over the parts of it in intervals if intervals is not
+     * null, largest first so that the last one to finish is small, and merges them.
+     */
+    private CoverageAccumulator collectBySequence(final IntervalList intervals, final int numThreads) {
+        final SAMFileReader in = new SAMFileReader(INPUT);
+        final SAMFileHeader header = in.getFileHeader();
+        in.close();
+
+        final List<IntervalList> shards = new ArrayList<IntervalList>();
+        for (final SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+            final IntervalList shard = new IntervalList(header);
+            if (intervals == null) {
+                shard.add(new Interval(sequence.getSequenceName(), 1, sequence.getSequenceLength()));
+            } else {
+                for (final Interval interval : intervals) {
+                    if (interval.getSequence().equals(sequence.getSequenceName())) shard.add(interval);
+                }
+            }
+            if (shard.size() > 0) shards.add(shard);
+        }
+        Collections.sort(shards, new Comparator<IntervalList>() {
+            @Override
+            public int compare(final IntervalList lhs, final IntervalList rhs) {
+                return Long.valueOf(rhs.getBaseCount()).compareTo(lhs.getBaseCount());
+            }
+        });
+
+        log.info("Processing " + shards.size() + " reference sequences with " + numThreads + " threads.");
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<CoverageAccumulator>> results = new ArrayList<Future<CoverageAccumulator>>(shards.size());
+            for (final IntervalList shard : shards) {
+                results.add(executor.submit(new Callable<CoverageAccumulator>() {
+                    @Override
+                    public CoverageAccumulator call() {
+                        return collect(shard, -1);
+                    }
+                }));
+            }
+
+            final CoverageAccumulator coverage = new CoverageAccumulator(COVERAGE_CAP, MINIMUM_MAPPING_QUALITY);
+            for (final Future<CoverageAccumulator> result : results) {
+                try {
+                    coverage.merge(result.get());
+                } catch (final InterruptedException e) {
+                    throw new PicardException("Interrupted while collecting coverage", e);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new PicardException("Error collecting coverage", e.getCause());
+                }
+            }
+            return coverage;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Accumulates the coverage of the whole genome, or only of intervals if it is not null, reading it through its own
+     * readers so that it may be called by several threads at once.
+     * @param stopAfter If positive, stop after this many non-N loci.
+     */
+    private CoverageAccumulator collect(final IntervalList intervals, final long stopAfter) {
+        final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
+        final SAMFileReader in = new SAMFileReader(INPUT);
+        final ReferenceBases ref = new ReferenceBases(in.getFileHeader().getSequenceDictionary());
+        final CoverageAccumulator coverage = new CoverageAccumulator(COVERAGE_CAP, MINIMUM_MAPPING_QUALITY);
+        try {
+            if (intervals != null && !in.hasIndex()) {
+                log.warn("INPUT is not indexed, so all of it will be read to find the reads in INTERVALS.");
+            }
+            final SamLocusIterator iterator = makeLocusIterator(in, intervals, coverage);
+            long counter = 0;
+
+            // Loop through all the loci
+            while (iterator.hasNext()) {
+                final SamLocusIterator.LocusInfo info = iterator.next();
+
+                // Check that the reference is not N
+                if (ref.getBase(info) == 'N') continue;
+
+                coverage.addLocus(info, MINIMUM_BASE_QUALITY);
+
+                // Record progress and perhaps stop
+                progress.record(info.getSequenceName(), info.getPosition());
+                if (stopAfter > 0 && ++counter >= stopAfter) break;
+            }
+            coverage.addFilterCounts();
+            return coverage;
+        } finally {
+            ref.close();
+            in.close();
+        }
+    }
+
+    /**
+     * Makes a locus iterator over in, or over only the given intervals of in if intervals is not null, whose reads
+     * have been through coverage's counting filters.
+     */
+    private static SamLocusIterator makeLocusIterator(final SAMFileReader in, final IntervalList intervals,
+                                                      final CoverageAccumulator coverage) {
+        final SamLocusIterator iterator = intervals == null ? new SamLocusIterator(in) : new SamLocusIterator(in, intervals, in.hasIndex());
+        final List<SamRecordFilter> filters   = new ArrayList<SamRecordFilter>();
+        filters.add(coverage.mapqFilter);
+        filters.add(coverage.dupeFilter);
+        filters.add(coverage.pairFilter);
+        filters.add(new SecondaryAlignmentFilter()); // Not a counting filter because we never want to count reads twice
+        iterator.setSamFilters(filters);
+        iterator.setEmitUncoveredLoci(true);
+        iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
+        iterator.setQualityScoreCutoff(0);        // Handled separately because we want to count bases
+        iterator.setIncludeNonPfReads(false);
+        return iterator;
+    }
+
+    /**
+     * The bases of REFERENCE_SEQUENCE at loci visited in order.  If the reference is indexed, they are fetched by
+     * random access a window at a time, so only the parts of the genome that are visited are read; otherwise each
+     * sequence is read whole in turn.
+     */
+    private class ReferenceBases {
+        private final ReferenceSequenceFile refFile;
+        private final ReferenceSequenceFileWalker refWalker;
+        private final SAMSequenceDictionary dictionary;
+
+        private int windowSequenceIndex = -1;
+        private int windowStart = 0;
+        private byte[] window = null;
+
+        ReferenceBases(final SAMSequenceDictionary dictionary) {
+            this.dictionary = dictionary;
+            final ReferenceSequenceFile file = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+            if (file.isIndexed()) {
+                refFile = file;
+                refWalker = null;
+            } else {
+                refFile = null;
+                refWalker = new ReferenceSequenceFileWalker(file);
+            }
+        }
+
+        byte getBase(final SamLocusIterator.LocusInfo info) {
+            final int position = info.getPosition();
+            if (refWalker != null) {
+                return refWalker.get(info.getSequenceIndex()).getBases()[position - 1];
+            }
+            if (info.getSequenceIndex() != windowSequenceIndex || position < windowStart || position >= windowStart + window.length) {
+                final int sequenceLength = dictionary.getSequence(info.getSequenceIndex()).getSequenceLength();
+                final int windowEnd = Math.min(sequenceLength, position + REFERENCE_WINDOW - 1);
+                window = refFile.getSubsequenceAt(info.getSequenceName(), position, windowEnd).getBases();
+                windowSequenceIndex = info.getSequenceIndex();
+                windowStart = position;
+            }
+            return window[position - windowStart];
+        }
+
+        void close() {
+            CloserUtil.close(refFile != null ? refFile : refWalker);
+        }
+    }
+
+    /**
+     * The depth histogram and exclusion counts for some part of the genome.  Accumulators for disjoint parts of the
+     * genome can be merged to give the same counts as one accumulator for all of them.
+     */
+    static class CoverageAccumulator {
+        final long[] histogramArray;
+        long basesExcludedByBaseq   = 0;
+        long basesExcludedByOverlap = 0;
+        long basesExcludedByCapping = 0;
+        long basesExcludedByDupes   = 0;
+        long basesExcludedByMapq    = 0;
+        long basesExcludedByPairing = 0;
+
+        final CountingFilter dupeFilter       = new CountingDuplicateFilter();
+        final CountingFilter mapqFilter;
+        final CountingPairedFilter pairFilter = new CountingPairedFilter();
+
+        CoverageAccumulator(final int coverageCap, final int minimumMappingQuality) {
+            histogramArray = new long[coverageCap + 1];
+            mapqFilter = new CountingMapQFilter(minimumMappingQuality);
+        }
+
+        /**
+         * Applies the counting filters to rec in the order in which the locus iterator applies them, so that a read
+         * is counted by the first filter to exclude it only.
+         * @return true if rec is to be excluded.
+         */
+        boolean filterOut(final SAMRecord rec) {
+            return mapqFilter.filterOut(rec) || dupeFilter.filterOut(rec) || pairFilter.filterOut(rec);
+        }
+
+        /** Adds the coverage at a locus whose reference base is not N. */
+        void addLocus(final SamLocusIterator.LocusInfo info, final int minimumBaseQuality) {
+            // Figure out the coverage while not counting overlapping reads twice, and excluding various things
+            final HashSet<String> readNames = new HashSet<String>(info.getRecordAndPositions().size());
+            for (final SamLocusIterator.RecordAndOffset recs : info.getRecordAndPositions()) {
+                if (recs.getBaseQuality() < minimumBaseQuality)                     { ++basesExcludedByBaseq;   continue; }
+                if (!readNames.add(recs.getRecord().getReadName()))                 { ++basesExcludedByOverlap; continue; }
+            }
+            addDepth(readNames.size());
+        }
+
+        /**
+         * Adds the coverage at a locus whose reference base is not N, given the number of distinct reads covering it
+         * with bases of good quality, and the numbers of bases excluded there for low quality and for overlap.
+         */
+        void addLocus(final int uncappedDepth, final int baseqExcluded, final int overlapExcluded) {
+            basesExcludedByBaseq   += baseqExcluded;
+            basesExcludedByOverlap += overlapExcluded;
+            addDepth(uncappedDepth);
+        }
+
+        private void addDepth(final int uncappedDepth) {
+            final int max = histogramArray.length - 1;
+            final int depth = Math.min(uncappedDepth, max);
+            if (depth < uncappedDepth) basesExcludedByCapping += uncappedDepth - max;
+            histogramArray[depth]++;
+        }
+
+        /** Adds the bases excluded by the counting filters; call once the locus iterator is finished. */
+        void addFilterCounts() {
+            basesExcludedByDupes   += dupeFilter.getFilteredBases();
+            basesExcludedByMapq    += mapqFilter.getFilteredBases();
+            basesExcludedByPairing += pairFilter.getFilteredBases();
+        }
+
+        void merge(final CoverageAccumulator other) {
+            for (int i = 0; i < histogramArray.length; ++i) {
+                histogramArray[i] += other.histogramArray[i];
+            }
+            basesExcludedByBaseq   += other.basesExcludedByBaseq;
+            basesExcludedByOverlap += other.basesExcludedByOverlap;
+            basesExcludedByCapping += other.basesExcludedByCapping;
+            basesExcludedByDupes   += other.basesExcludedByDupes;
+            basesExcludedByMapq    += other.basesExcludedByMapq;
+            basesExcludedByPairing += other.basesExcludedByPairing;
+        }
     }
 }
 
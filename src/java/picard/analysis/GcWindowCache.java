@@ -0,0 +1,298 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The GC of every window of a reference, as calculated by CollectGcBiasMetrics for a window size, kept in a file beside
+ * the reference so that it is calculated only once per reference and window size.  The file is made the first time it
+ * is asked for, and is memory-mapped a sequence at a time when read.
+ *
+ * The file is named for the reference and window size, e.g. reference.fasta.gc100.bin, and holds, after a header
+ * describing the reference's sequences (name, length and MD5 from the sequence dictionary, where it has them), the
+ * number of windows at each GC then the GC of the window starting at each position, for each sequence in turn.  It is
+ * remade if its version, window size or sequences don't match, or if the reference is newer than it.
+ */
+public class GcWindowCache {
+    private static final Log log = Log.getInstance(GcWindowCache.class);
+
+    private static final int MAGIC = 0x50474357; // "PGCW"
+    private static final int VERSION = 1;
+    /** GC is a percentage. */
+    public static final int NUM_GC_BINS = 101;
+    /** The windows by GC of a sequence come before its GC by position. */
+    private static final int WINDOWS_BY_GC_LENGTH = NUM_GC_BINS * 4;
+
+    private final File file;
+    private final long[] sequenceOffsets;
+    private final int[] sequenceLengths;
+
+    /** The windows and GC of one reference sequence. */
+    public static class SequenceGc {
+        private final int[] windowsByGc;
+        private final ByteBuffer gc;
+
+        SequenceGc(final int[] windowsByGc, final ByteBuffer gc) {
+            this.windowsByGc = windowsByGc;
+            this.gc = gc;
+        }
+
+        /** @return The number of windows of the sequence at each GC from 0 to 100, excluding windows with too many Ns. */
+        public int[] getWindowsByGc() { return windowsByGc; }
+
+        /**
+         * @return The GC of the window starting at the 1-based position, or -1 if the window has too many Ns, or 0 if
+         * no window of the sequence starts there, as for CollectGcBiasMetrics.
+         */
+        public int getGc(final int position) { return gc.get(position); }
+    }
+
+    private GcWindowCache(final File file, final long[] sequenceOffsets, final int[] sequenceLengths) {
+        this.file = file;
+        this.sequenceOffsets = sequenceOffsets;
+        this.sequenceLengths = sequenceLengths;
+    }
+
+    /** @return The file in which the GC of reference's windows of windowSize is kept. */
+    public static File getCacheFile(final File reference, final int windowSize) {
+        return new File(reference.getAbsolutePath() + ".gc" + windowSize + ".bin");
+    }
+
+    /**
+     * Opens the cache of GC of windowSize windows of reference, making it first if it doesn't exist or is out of date.
+     *
+     * @param dictionary The sequences of reference, against which the cache is checked.
+     * @return The cache, or null if it could not be made, e.g. because the reference's directory isn't writable or the
+     * reference doesn't match dictionary.
+     */
+    public static GcWindowCache open(final File reference, final SAMSequenceDictionary dictionary, final int windowSize) {
+        final File file = getCacheFile(reference, windowSize);
+        try {
+            if (file.exists() && file.lastModified() >= reference.lastModified()) {
+                final GcWindowCache cache = read(file, dictionary, windowSize);
+                if (cache != null) return cache;
+                log.info("GC window cache " + file + " doesn't match " + reference + ", so it will be remade.");
+            }
+            write(reference, dictionary, windowSize, file);
+            final GcWindowCache cache = read(file, dictionary, windowSize);
+            if (cache == null) throw new PicardException("GC window cache " + file + " was not made properly.");
+            return cache;
+        } catch (final IOException e) {
+            log.warn("Could not use GC window cache " + file + ", so GC will be calculated in memory: " + e.getMessage());
+            return null;
+        } catch (final PicardException e) {
+            // e.g. the reference doesn't match the dictionary, which the in-memory calculation will report if it matters
+            log.warn("Could not make GC window cache " + file + ", so GC will be calculated in memory: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param sequenceIndex The index of a sequence in the dictionary with which the cache was opened.
+     * @return Its windows and GC, mapped from the cache file.
+     */
+    public SequenceGc getSequence(final int sequenceIndex) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        sequenceOffsets[sequenceIndex], WINDOWS_BY_GC_LENGTH + sequenceLengths[sequenceIndex] + 1L);
+                final int[] windowsByGc = new int[NUM_GC_BINS];
+                for (int i = 0; i < NUM_GC_BINS; ++i) {
+                    windowsByGc[i] = buffer.getInt();
+                }
+                return new SequenceGc(windowsByGc, buffer.slice());
+            } finally {
+                raf.close();
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Error reading GC window cache " + file, e);
+        }
+    }
+
+    /**
+     * Calculates the GC of every window of bases in memory, for references not cached.
+     * @param bases Upper-cased bases of a sequence.
+     */
+    public static SequenceGc calculate(final byte[] bases, final int windowSize) {
+        final int[] windowsByGc = new int[NUM_GC_BINS];
+        final byte[] gc = calculateAllGcs(bases, windowsByGc, windowSize);
+        return new SequenceGc(windowsByGc, ByteBuffer.wrap(gc));
+    }
+
+    /** @return The cache, or null if file's header doesn't match. */
+    private static GcWindowCache read(final File file, final SAMSequenceDictionary dictionary, final int windowSize)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != windowSize) return null;
+            final int numSequences = in.readInt();
+            if (numSequences != dictionary.size()) return null;
+            final long[] offsets = new long[numSequences];
+            final int[] lengths = new int[numSequences];
+            for (int i = 0; i < numSequences; ++i) {
+                final SAMSequenceRecord sequence = dictionary.getSequence(i);
+                final String name = in.readUTF();
+                final int length = in.readInt();
+                final String md5 = in.readUTF();
+                offsets[i] = in.readLong();
+                if (!name.equals(sequence.getSequenceName()) || length != sequence.getSequenceLength() ||
+                        !md5.equals(getMd5(sequence))) {
+                    return null;
+                }
+                lengths[i] = length;
+            }
+            final long expectedLength = numSequences == 0 ? 0 :
+                    offsets[numSequences - 1] + WINDOWS_BY_GC_LENGTH + lengths[numSequences - 1] + 1;
+            if (numSequences > 0 && file.length() != expectedLength) return null;
+            return new GcWindowCache(file, offsets, lengths);
+        } catch (final EOFException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Calculates the GC of all the windows of reference and writes it to file, via a temporary file. */
+    private static void write(final File reference, final SAMSequenceDictionary dictionary, final int windowSize,
+                              final File file) throws IOException {
+        log.info("Making GC window cache " + file);
+
+        // The header is written before the sequences, so work out where they will start first
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        writeHeader(new DataOutputStream(headerBytes), dictionary, windowSize, 0);
+        final long firstOffset = headerBytes.size();
+        headerBytes.reset();
+        writeHeader(new DataOutputStream(headerBytes), dictionary, windowSize, firstOffset);
+
+        final File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                headerBytes.writeTo(out);
+                for (final SAMSequenceRecord sequence : dictionary.getSequences()) {
+                    final ReferenceSequence ref = refFile.nextSequence();
+                    if (ref == null || !ref.getName().equals(sequence.getSequenceName()) ||
+                            ref.length() != sequence.getSequenceLength()) {
+                        throw new PicardException("Sequence " + sequence.getSequenceName() + " of the dictionary is " +
+                                "not the next sequence of " + reference);
+                    }
+                    final byte[] bases = ref.getBases();
+                    StringUtil.toUpperCase(bases);
+                    final int[] windowsByGc = new int[NUM_GC_BINS];
+                    final byte[] gc = calculateAllGcs(bases, windowsByGc, windowSize);
+                    for (final int windows : windowsByGc) {
+                        out.writeInt(windows);
+                    }
+                    out.write(gc);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } finally {
+            CloserUtil.close(refFile);
+            if (tmp.exists()) tmp.delete();
+        }
+    }
+
+    /** Writes the header, whose length doesn't depend on firstOffset, the offset of the first sequence. */
+    private static void writeHeader(final DataOutputStream header, final SAMSequenceDictionary dictionary,
+                                    final int windowSize, final long firstOffset) throws IOException {
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(windowSize);
+        header.writeInt(dictionary.size());
+        long offset = firstOffset;
+        for (final SAMSequenceRecord sequence : dictionary.getSequences()) {
+            header.writeUTF(sequence.getSequenceName());
+            header.writeInt(sequence.getSequenceLength());
+            header.writeUTF(getMd5(sequence));
+            header.writeLong(offset);
+            offset += WINDOWS_BY_GC_LENGTH + sequence.getSequenceLength() + 1;
+        }
+        header.flush();
+    }
+
+    private static String getMd5(final SAMSequenceRecord sequence) {
+        final String md5 = sequence.getAttribute(SAMSequenceRecord.MD5_TAG);
+        return md5 == null ? "" : md5;
+    }
+
+    /**
+     * Calculcate all the GC values for all windows.
+     * @return The GC of the window starting at each position, indexed by the 1-based position.
+     */
+    static byte[] calculateAllGcs(final byte [] refBases, final int [] windowsByGc, final int windowSize) {
+        final int refLength = refBases.length;
+        final int lastWindowStart = refLength - windowSize;
+        final byte[] gc = new byte[refLength + 1];
+        final CalculateGcState state = new CalculateGcState();
+        for (int i=1; i<lastWindowStart; ++i) {
+            final int windowEnd = i + windowSize;
+            final int windowGc = calculateGc(refBases, i, windowEnd, state) ;
+            gc[i] = (byte) windowGc;
+            if (windowGc != -1) windowsByGc[windowGc]++;
+        }
+        return gc;
+    }
+
+    /**
+     * Calculates GC as a number from 0 to 100 in the specified window. If the window includes
+     * more than five no-calls then -1 is returned.
+     */
+    private static int calculateGc(final byte[] bases, final int startIndex, final int endIndex, final CalculateGcState state) {
+        if (state.init) {
+            state.init = false ;
+            state.gcCount = 0;
+            state.nCount  = 0;
+            for (int i=startIndex; i<endIndex; ++i) {
+                final byte base = bases[i];
+                if (base == 'G' || base == 'C') ++state.gcCount;
+                else if (base == 'N') ++state.nCount;
+            }
+        } else {
+            final byte newBase = bases[endIndex-1];
+            if (newBase == 'G' || newBase == 'C') ++state.gcCount;
+            else if (newBase == 'N') ++state.nCount;
+
+            if (state.priorBase == 'G' || state.priorBase == 'C') --state.gcCount;
+            else if (state.priorBase == 'N') --state.nCount;
+        }
+        state.priorBase = bases[startIndex];
+        if (state.nCount > 4) return -1;
+        else return (state.gcCount * 100) / (endIndex - startIndex);
+    }
+
+    /** Keeps track of current GC calculation state. */
+    private static class CalculateGcState {
+        boolean init = true ;
+        int nCount ;
+        int gcCount ;
+        byte priorBase ;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis;
+
+import htsjdk.samtools.util.IOUtil;
+import picard.cmdline.Option;
+import picard.metrics.MultiLevelCollector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SinglePassSamProgram whose metrics collector can write its state, and merge the states written by runs over other
+ * parts of the same data set, so that the metrics of a data set can be collected over its parts in parallel.
+ */
+public abstract class MergeableMetricsProgram extends SinglePassSamProgram {
+    @Option(doc="If given, the state of the metrics collector is also written to this file before the metrics are calculated, " +
+            "so that it can be merged with STATE_INPUT into the metrics of a larger data set, e.g. when INPUT is one of " +
+            "several chunks of a BAM.", optional=true)
+    public File STATE_OUTPUT;
+
+    @Option(doc="States written with STATE_OUTPUT by runs of this program with the same options over other parts of the same " +
+            "data set, e.g. the other chunks of a BAM.  These are merged into the metrics, which are then those of INPUT and " +
+            "all the parts together.  INPUT may have no reads, only the header of the data set.")
+    public List<File> STATE_INPUT = new ArrayList<File>();
+
+    /** Checks that STATE_OUTPUT can be written and STATE_INPUT read.  Call from setup(). */
+    protected void assertStateFilesAccessible() {
+        if (STATE_OUTPUT != null) IOUtil.assertFileIsWritable(STATE_OUTPUT);
+        for (final File state : STATE_INPUT) IOUtil.assertFileIsReadable(state);
+    }
+
+    /** @return true if the state of the collector is written or merged, and so must be kept whole until finish(). */
+    protected boolean usesState() {
+        return STATE_OUTPUT != null || !STATE_INPUT.isEmpty();
+    }
+
+    /** Writes the state of collector to STATE_OUTPUT, if given, then merges STATE_INPUT into it.  Call before its finish(). */
+    protected void writeAndMergeState(final MultiLevelCollector<?, ?, ?> collector) {
+        if (STATE_OUTPUT != null) collector.writeState(STATE_OUTPUT);
+        for (final File state : STATE_INPUT) collector.mergeState(state);
+    }
+}
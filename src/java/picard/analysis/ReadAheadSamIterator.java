@@ -0,0 +1,342 @@
+package picard.analysis;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.SAMValidationError;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import picard.PicardException;
+import picard.util.ParallelBlockCompressedInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over the records of a SAM or BAM file, in file order, with the reference sequence of each, doing the
+ * reading on other threads so that the caller's thread is left for whatever it does with the records.  For linear
+ * scanners such as SinglePassSamProgram.
+ *
+ * A decode thread reads the records in batches, decoding all their fields, and looks up their reference sequences.
+ * BAM blocks are inflated ahead of the decode thread on a pool of threads, and the next reference sequence is loaded
+ * on another thread while the reads are still on the current one.  SAM files, even BGZF-compressed ones, are read
+ * with SAMFileReader on the decode thread.  The records are validated as SAMFileReader would with the default
+ * validation stringency.
+ */
+public class ReadAheadSamIterator implements CloseableIterator<ReadAheadSamIterator.RecordAndReference> {
+    private static final int BATCH_SIZE = 1000;
+    private static final int BATCHES_IN_FLIGHT = 16;
+    /** Put on the queue after the last batch, or after a failure. */
+    private static final List<RecordAndReference> END = Collections.emptyList();
+
+    /** A record, and the reference sequence to which it is aligned if a reference was given and it is aligned. */
+    public static class RecordAndReference {
+        public final SAMRecord record;
+        public final ReferenceSequence reference;
+
+        RecordAndReference(final SAMRecord record, final ReferenceSequence reference) {
+            this.record = record;
+            this.reference = reference;
+        }
+    }
+
+    private final File input;
+    private final SAMFileHeader header;
+    private final PrefetchingReferenceWalker reference;
+    private final ExecutorService inflaterPool;
+    private final ExecutorService decodeThread = Executors.newSingleThreadExecutor(newDaemonThreadFactory("SamDecoder"));
+    private final BlockingQueue<List<RecordAndReference>> batches =
+            new ArrayBlockingQueue<List<RecordAndReference>>(BATCHES_IN_FLIGHT);
+    private final Future<Void> decoding;
+
+    private Iterator<RecordAndReference> batch = Collections.<RecordAndReference>emptyList().iterator();
+    private boolean ended = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param input      SAM or BAM file to read.
+     * @param header     The header of input, e.g. as read by SAMFileReader.
+     * @param walker     If not null, the reference to which input is aligned.  Used only by this iterator from now on.
+     * @param numThreads The number of threads on which to inflate BAM blocks.
+     */
+    public ReadAheadSamIterator(final File input, final SAMFileHeader header, final ReferenceSequenceFileWalker walker,
+                                final int numThreads) {
+        this.input = input;
+        this.header = header;
+        this.reference = walker == null ? null : new PrefetchingReferenceWalker(walker);
+        this.inflaterPool = ParallelBlockCompressedInputStream.newInflaterPool(Math.max(1, numThreads));
+        decoding = decodeThread.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    decode();
+                } finally {
+                    put(END);
+                }
+                return null;
+            }
+        });
+        decodeThread.shutdown();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!batch.hasNext() && !ended) {
+            final List<RecordAndReference> next;
+            try {
+                next = batches.take();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while reading " + input.getAbsolutePath(), e);
+            }
+            if (next == END) {
+                ended = true;
+                checkDecoding();
+            } else {
+                batch = next.iterator();
+            }
+        }
+        return batch.hasNext();
+    }
+
+    @Override
+    public RecordAndReference next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return batch.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Stops reading, even if not all records have been returned. */
+    @Override
+    public void close() {
+        closed = true;
+        decodeThread.shutdownNow();
+        inflaterPool.shutdownNow();
+        if (reference != null) reference.close();
+    }
+
+    /** Rethrows whatever stopped the decode thread, if anything did. */
+    private void checkDecoding() {
+        try {
+            decoding.get();
+        } catch (final InterruptedException e) {
+            throw new PicardException("Interrupted while reading " + input.getAbsolutePath(), e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new PicardException("Error reading " + input.getAbsolutePath(), e.getCause());
+        }
+    }
+
+    /** Runs on the decode thread. */
+    private void decode() throws IOException, InterruptedException {
+        if (ParallelBlockCompressedInputStream.isBlockCompressed(input)) {
+            final InputStream stream = new ParallelBlockCompressedInputStream(input, inflaterPool);
+            try {
+                if (readBamMagic(stream)) {
+                    decodeBam(stream);
+                    return;
+                }
+            } finally {
+                stream.close();
+            }
+        }
+
+        // SAM text, which may itself be BGZF-compressed and is then inflated by SAMFileReader.
+        final SAMFileReader in = new SAMFileReader(input);
+        try {
+            List<RecordAndReference> batch = new ArrayList<RecordAndReference>(BATCH_SIZE);
+            for (final SAMRecord rec : in) {
+                batch = add(batch, rec);
+            }
+            if (!batch.isEmpty()) put(batch);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Decodes the records of a BAM file from stream, which is positioned just after the magic number. */
+    private void decodeBam(final InputStream stream) throws IOException, InterruptedException {
+        skipBamHeader(stream);
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(stream);
+        final ValidationStringency stringency = SAMFileReader.getDefaultValidationStringency();
+        long recordNumber = 0;
+        List<RecordAndReference> batch = new ArrayList<RecordAndReference>(BATCH_SIZE);
+        for (SAMRecord rec = codec.decode(); rec != null; rec = codec.decode()) {
+            ++recordNumber;
+            if (stringency != ValidationStringency.SILENT) {
+                final List<SAMValidationError> errors = rec.isValid();
+                if (errors != null) SAMUtils.processValidationErrors(errors, recordNumber, stringency);
+            }
+            batch = add(batch, rec);
+        }
+        if (!batch.isEmpty()) put(batch);
+    }
+
+    /**
+     * Decodes rec and adds it to batch, handing batch to the caller if it is full.
+     * @return The batch to which to add the next record.
+     */
+    private List<RecordAndReference> add(final List<RecordAndReference> batch, final SAMRecord rec)
+            throws InterruptedException {
+        // BAM records decode their fields when first asked for them, so ask for them all now.
+        rec.getReadName();
+        rec.getCigar();
+        rec.getReadBases();
+        rec.getBaseQualities();
+        rec.getAttributes();
+        rec.getAlignmentBlocks();
+        rec.getAlignmentEnd();
+
+        final ReferenceSequence ref;
+        if (reference == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+            ref = null;
+        } else {
+            ref = reference.get(rec.getReferenceIndex());
+        }
+        batch.add(new RecordAndReference(rec, ref));
+        if (batch.size() < BATCH_SIZE) return batch;
+        put(batch);
+        return new ArrayList<RecordAndReference>(BATCH_SIZE);
+    }
+
+    /**
+     * Hands batch to the caller, waiting for room in the queue unless close() has been called, in which case the
+     * caller is no longer taking batches.
+     */
+    private void put(final List<RecordAndReference> batch) throws InterruptedException {
+        while (!closed) {
+            if (batches.offer(batch, 100, TimeUnit.MILLISECONDS)) return;
+        }
+        throw new InterruptedException("Reading was stopped by close()");
+    }
+
+    /** Reads the first four bytes of stream and returns whether they are the magic number of a BAM file. */
+    private boolean readBamMagic(final InputStream stream) throws IOException {
+        final byte[] magic = new byte[4];
+        int total = 0;
+        while (total < magic.length) {
+            final int n = stream.read(magic, total, magic.length - total);
+            if (n < 0) return false;
+            total += n;
+        }
+        return magic[0] == 'B' && magic[1] == 'A' && magic[2] == 'M' && magic[3] == 1;
+    }
+
+    /** Skips the text header and binary sequence dictionary that follow the magic number of a BAM file. */
+    private void skipBamHeader(final InputStream stream) throws IOException {
+        readFully(stream, new byte[readInt(stream)]);
+        final int numSequences = readInt(stream);
+        for (int i = 0; i < numSequences; ++i) {
+            readFully(stream, new byte[readInt(stream) + 4]); // name, then length
+        }
+    }
+
+    private int readInt(final InputStream stream) throws IOException {
+        final byte[] bytes = new byte[4];
+        readFully(stream, bytes);
+        return (bytes[0] & 0xff) | ((bytes[1] & 0xff) << 8) | ((bytes[2] & 0xff) << 16) | ((bytes[3] & 0xff) << 24);
+    }
+
+    private void readFully(final InputStream stream, final byte[] bytes) throws IOException {
+        int total = 0;
+        while (total < bytes.length) {
+            final int n = stream.read(bytes, total, bytes.length - total);
+            if (n < 0) throw new PicardException("Premature end of BAM header in " + input.getAbsolutePath());
+            total += n;
+        }
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns reference sequences from a ReferenceSequenceFileWalker, which must be asked for in increasing order
+     * as for the walker, loading the sequence after each one asked for on another thread in anticipation of it being
+     * asked for next.  At most the current and the next sequence are held in memory.
+     */
+    private static class PrefetchingReferenceWalker {
+        private final ReferenceSequenceFileWalker walker;
+        private final ExecutorService loader = Executors.newSingleThreadExecutor(newDaemonThreadFactory("ReferencePrefetcher"));
+        private final int numSequences;
+
+        private int currentIndex = -1;
+        private ReferenceSequence current = null;
+        private int nextIndex = -1;
+        private Future<ReferenceSequence> next = null;
+
+        PrefetchingReferenceWalker(final ReferenceSequenceFileWalker walker) {
+            this.walker = walker;
+            this.numSequences = walker.getSequenceDictionary() == null ? Integer.MAX_VALUE : walker.getSequenceDictionary().size();
+        }
+
+        ReferenceSequence get(final int index) {
+            if (index == currentIndex) return current;
+            final Future<ReferenceSequence> future = index == nextIndex ? next : load(index);
+            try {
+                current = future.get();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while loading reference sequence " + index, e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new PicardException("Error loading reference sequence " + index, e.getCause());
+            }
+            currentIndex = index;
+            if (index + 1 < numSequences) {
+                nextIndex = index + 1;
+                next = load(nextIndex);
+            } else {
+                nextIndex = -1;
+                next = null;
+            }
+            return current;
+        }
+
+        void close() {
+            loader.shutdownNow();
+            CloserUtil.close(walker);
+        }
+
+        /** Loads are run in the order in which they are asked for, since the walker only moves forward. */
+        private Future<ReferenceSequence> load(final int index) {
+            return loader.submit(new Callable<ReferenceSequence>() {
+                @Override
+                public ReferenceSequence call() {
+                    return walker.get(index);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloserUtil;
+
+import java.io.File;
+
+/**
+ * Fetches the reference sequences on which there are no reads, for SinglePassSamPrograms that count something over
+ * the whole genome and so need those sequences too, e.g. their loci or windows.  The reads' own sequences come from
+ * the walker of SinglePassSamProgram, so if the reference is indexed only the sequences asked for here are read, by
+ * name.  Otherwise the reference is walked a second time, and sequences must be asked for in increasing order.
+ */
+class ReferenceSequenceFetcher {
+    private final SAMSequenceDictionary dictionary;
+    private final ReferenceSequenceFile indexedReference;
+    private final ReferenceSequenceFileWalker walker;
+
+    /** @param dictionary The sequences of reference, by index. */
+    ReferenceSequenceFetcher(final File reference, final SAMSequenceDictionary dictionary) {
+        this.dictionary = dictionary;
+        final ReferenceSequenceFile referenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+        if (referenceFile.isIndexed()) {
+            this.indexedReference = referenceFile;
+            this.walker = null;
+        } else {
+            this.indexedReference = null;
+            this.walker = new ReferenceSequenceFileWalker(referenceFile);
+        }
+    }
+
+    ReferenceSequence get(final int sequenceIndex) {
+        if (indexedReference != null) {
+            return indexedReference.getSequence(dictionary.getSequence(sequenceIndex).getSequenceName());
+        } else {
+            return walker.get(sequenceIndex);
+        }
+    }
+
+    void close() {
+        CloserUtil.close(indexedReference);
+        CloserUtil.close(walker);
+    }
+}
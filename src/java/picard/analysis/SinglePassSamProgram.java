@@ -16,8 +16,18 @@ import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Super class that is designed to provide some consistent structure between subclasses that
@@ -59,14 +69,34 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
                                    final boolean assumeSorted,
                                    final long stopAfter,
                                    final Collection<SinglePassSamProgram> programs) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, programs, 1);
+    }
+
+    /**
+     * As makeItSo() above, but if numThreads > 1 then the programs are run on up to numThreads worker threads, each
+     * program always on the same thread, while the calling thread hands out the records.  The input is read ahead on
+     * other threads by a ReadAheadSamIterator.  The programs are given the same records in the same order as when
+     * run on one thread, so their results are the same; the records must not be modified by acceptRead().
+     */
+    public static void makeItSo(final File input,
+                                   final File referenceSequence,
+                                   final boolean assumeSorted,
+                                   final long stopAfter,
+                                   final Collection<SinglePassSamProgram> programs,
+                                   final int numThreads) {
 
         // Setup the standard inputs
         IOUtil.assertFileIsReadable(input);
         final SAMFileReader in = new SAMFileReader(input);
 
+        boolean anyUseReferenceSequence = false;
+        for (final SinglePassSamProgram program : programs) {
+            anyUseReferenceSequence = anyUseReferenceSequence || program.usesReferenceSequence();
+        }
+
         // Optionally load up the reference sequence and double check sequence dictionaries
         final ReferenceSequenceFileWalker walker;
-        if (referenceSequence == null) {
+        if (referenceSequence == null || !anyUseReferenceSequence) {
             walker = null;
         }
         else {
@@ -79,8 +109,12 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
             }
         }
 
-        // Check on the sort order of the BAM file
-        {
+        // Check on the sort order of the BAM file, if the reference is walked or any program needs it sorted
+        boolean anyRequireCoordinateSortedInput = walker != null;
+        for (final SinglePassSamProgram program : programs) {
+            anyRequireCoordinateSortedInput = anyRequireCoordinateSortedInput || program.requiresCoordinateSortedInput();
+        }
+        if (anyRequireCoordinateSortedInput) {
             final SortOrder sort = in.getFileHeader().getSortOrder();
             if (sort != SortOrder.coordinate) {
                 if (assumeSorted) {
@@ -103,43 +137,228 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
 
 
         final ProgressLogger progress = new ProgressLogger(log);
+        final ProgramRunner runner;
+        final ReadAheadSamIterator readAhead;
+        final Iterator<SAMRecord> records;
+        if (numThreads > 1) {
+            runner = new ProgramRunner(programs, numThreads);
+            readAhead = new ReadAheadSamIterator(input, in.getFileHeader(), walker, numThreads);
+            records = null;
+        }
+        else {
+            runner = null;
+            readAhead = null;
+            records = in.iterator();
+        }
 
-        for (final SAMRecord rec : in) {
-            final ReferenceSequence ref;
-            if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                ref = null;
+        boolean readAll = false;
+        try {
+            while (readAhead != null ? readAhead.hasNext() : records.hasNext()) {
+                final SAMRecord rec;
+                final ReferenceSequence ref;
+                if (readAhead != null) {
+                    final ReadAheadSamIterator.RecordAndReference next = readAhead.next();
+                    rec = next.record;
+                    ref = next.reference;
+                }
+                else {
+                    rec = records.next();
+                    if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                        ref = null;
+                    }
+                    else {
+                        ref = walker.get(rec.getReferenceIndex());
+                    }
+                }
+
+                if (runner == null) {
+                    for (final SinglePassSamProgram program : programs) {
+                        program.acceptRead(rec, ref);
+                    }
+                }
+                else {
+                    runner.acceptRead(rec, ref);
+                }
+
+                progress.record(rec);
+
+                // See if we need to terminate early?
+                if (stopAfter > 0 && progress.getCount() >= stopAfter) {
+                    break;
+                }
+
+                // And see if we're into the unmapped reads at the end
+                if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    break;
+                }
             }
-            else {
-                ref = walker.get(rec.getReferenceIndex());
+            readAll = true;
+        }
+        finally {
+            if (readAhead != null) readAhead.close();
+            // Don't leave the workers waiting for records that will never come
+            if (runner != null && !readAll) runner.cancel();
+        }
+
+        in.close();
+
+        if (runner == null) {
+            for (final SinglePassSamProgram program : programs) {
+                program.finish();
             }
+        }
+        else {
+            runner.finish();
+        }
+    }
 
+    /**
+     * Runs programs on worker threads.  Records are handed out in batches, each of which is shared by all the
+     * workers; each worker has a bounded queue of batches so that a slow program holds back reading rather than
+     * letting batches pile up in memory.
+     */
+    private static class ProgramRunner {
+        private static final int BATCH_SIZE = 1000;
+        private static final int BATCHES_PER_QUEUE = 8;
+        /** Put on every queue after the last batch. */
+        private static final Batch END = new Batch(0);
+
+        private final List<BlockingQueue<Batch>> queues = new ArrayList<BlockingQueue<Batch>>();
+        private final List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        private final ExecutorService executor;
+        private Batch batch = new Batch(BATCH_SIZE);
+
+        ProgramRunner(final Collection<SinglePassSamProgram> programs, final int numThreads) {
+            final int numWorkers = Math.min(numThreads, programs.size());
+            final List<List<SinglePassSamProgram>> programsByWorker = new ArrayList<List<SinglePassSamProgram>>();
+            for (int i = 0; i < numWorkers; ++i) {
+                programsByWorker.add(new ArrayList<SinglePassSamProgram>());
+            }
+            int i = 0;
             for (final SinglePassSamProgram program : programs) {
-                program.acceptRead(rec, ref);
+                programsByWorker.get(i++ % numWorkers).add(program);
             }
 
-            progress.record(rec);
+            log.info("Running " + programs.size() + " programs on " + numWorkers + " threads.");
+            executor = Executors.newFixedThreadPool(numWorkers);
+            for (final List<SinglePassSamProgram> workerPrograms : programsByWorker) {
+                final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(BATCHES_PER_QUEUE);
+                queues.add(queue);
+                workers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        runPrograms(workerPrograms, queue);
+                        return null;
+                    }
+                }));
+            }
+            executor.shutdown();
+        }
 
-            // See if we need to terminate early?
-            if (stopAfter > 0 && progress.getCount() >= stopAfter) {
-                break;
+        /** rec must have been fully decoded, e.g. by ReadAheadSamIterator, since it will be read by several threads. */
+        void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+            batch.add(rec, ref);
+            if (batch.size == BATCH_SIZE) {
+                put(batch);
+                batch = new Batch(BATCH_SIZE);
             }
+        }
 
-            // And see if we're into the unmapped reads at the end
-            if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                break;
+        /** Hands out the last batch and waits for the workers to finish their programs. */
+        void finish() {
+            if (batch.size > 0) put(batch);
+            put(END);
+            try {
+                for (final Future<Void> worker : workers) {
+                    worker.get();
+                }
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while waiting for programs to finish", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new PicardException("Error running program", e.getCause());
             }
         }
 
-        in.close();
+        /** Stops the workers without finishing their programs. */
+        void cancel() {
+            executor.shutdownNow();
+        }
 
-        for (final SinglePassSamProgram program : programs) {
-            program.finish();
+        private void put(final Batch batch) {
+            try {
+                for (final BlockingQueue<Batch> queue : queues) {
+                    queue.put(batch);
+                }
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while reading input", e);
+            }
+        }
+
+        /**
+         * Gives each batch from queue to programs, then finishes them.  If a program fails, the rest of the queue is
+         * still taken, so that reading is not blocked, and the failure is thrown at the end.
+         */
+        private static void runPrograms(final List<SinglePassSamProgram> programs, final BlockingQueue<Batch> queue)
+                throws InterruptedException {
+            RuntimeException runtimeFailure = null;
+            Error errorFailure = null;
+            for (Batch batch = queue.take(); batch != END; batch = queue.take()) {
+                if (runtimeFailure != null || errorFailure != null) continue;
+                try {
+                    for (int i = 0; i < batch.size; ++i) {
+                        for (final SinglePassSamProgram program : programs) {
+                            program.acceptRead(batch.records[i], batch.refs[i]);
+                        }
+                    }
+                } catch (final RuntimeException e) {
+                    runtimeFailure = e;
+                } catch (final Error e) {
+                    errorFailure = e;
+                }
+            }
+            if (runtimeFailure != null) throw runtimeFailure;
+            if (errorFailure != null) throw errorFailure;
+            for (final SinglePassSamProgram program : programs) {
+                program.finish();
+            }
+        }
+    }
+
+    /** Records and their reference sequences, in input order. */
+    private static class Batch {
+        final SAMRecord[] records;
+        final ReferenceSequence[] refs;
+        int size = 0;
+
+        Batch(final int capacity) {
+            records = new SAMRecord[capacity];
+            refs = new ReferenceSequence[capacity];
+        }
+
+        void add(final SAMRecord rec, final ReferenceSequence ref) {
+            records[size] = rec;
+            refs[size] = ref;
+            ++size;
         }
     }
 
     /** Can be overriden and set to false if the section of unmapped reads at the end of the file isn't needed. */
     protected boolean usesNoRefReads() { return true; }
 
+    /**
+     * Can be overriden and set to false if acceptRead() doesn't need the reference sequence of each read, so that
+     * the reference isn't walked, and the reads needn't be coordinate sorted to be given it, for this program.
+     */
+    protected boolean usesReferenceSequence() { return true; }
+
+    /**
+     * Can be overriden and set to false if the program handles reads in any order itself, so that the sort order
+     * of the input isn't checked or warned about for this program.
+     */
+    protected boolean requiresCoordinateSortedInput() { return true; }
+
     /** Should be implemented by subclasses to do one-time initialization work. */
     protected abstract void setup(final SAMFileHeader header, final File samFile);
 
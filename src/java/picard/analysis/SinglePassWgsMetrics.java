@@ -0,0 +1,196 @@
+package picard.analysis;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.util.IOUtil;
+import picard.PicardException;
+import picard.cmdline.Option;
+import picard.cmdline.Usage;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Computes the same metrics as CollectWgsMetrics over the whole genome, but from the reads as they are handed to it
+ * rather than through a locus iterator of its own, so that it can be run by CollectMultipleMetrics in the same pass
+ * over the input as other programs.  The coverage of the loci behind the current read is counted as the reads go by.
+ */
+public class SinglePassWgsMetrics extends SinglePassSamProgram {
+
+    @Usage
+    public final String usage = "Computes a number of metrics that are useful for evaluating coverage and performance of " +
+            "whole genome sequencing experiments, in a single pass over the reads.  The metrics are the same as those of " +
+            "CollectWgsMetrics.";
+
+    @Option(shortName="MQ", doc="Minimum mapping quality for a read to contribute coverage.")
+    public int MINIMUM_MAPPING_QUALITY = 20;
+
+    @Option(shortName="Q", doc="Minimum base quality for a base to contribute coverage.")
+    public int MINIMUM_BASE_QUALITY = 20;
+
+    @Option(shortName="CAP", doc="Treat bases with coverage exceeding this value as if they had coverage at this value.")
+    public int COVERAGE_CAP = 250;
+
+    private SAMSequenceDictionary dictionary;
+    private CollectWgsMetrics.CoverageAccumulator coverage;
+    /** For the bases of the sequences with no reads. */
+    private ReferenceSequenceFetcher unreadSequences;
+
+    /** The sequence whose loci are being counted, or -1 before the first read, and its bases. */
+    private int sequenceIndex = -1;
+    private byte[] bases;
+    /** The first locus of the current sequence whose coverage is not yet known. */
+    private int nextPosition;
+    private final Pileup pileup = new Pileup();
+
+    public static void main(final String[] args) {
+        new SinglePassWgsMetrics().instanceMainWithExit(args);
+    }
+
+    @Override
+    protected void setup(final SAMFileHeader header, final File samFile) {
+        IOUtil.assertFileIsWritable(OUTPUT);
+        if (REFERENCE_SEQUENCE == null) {
+            throw new PicardException("REFERENCE_SEQUENCE must be given to compute WGS metrics.");
+        }
+        dictionary = header.getSequenceDictionary();
+        coverage = new CollectWgsMetrics.CoverageAccumulator(COVERAGE_CAP, MINIMUM_MAPPING_QUALITY);
+        unreadSequences = new ReferenceSequenceFetcher(REFERENCE_SEQUENCE, dictionary);
+    }
+
+    @Override
+    protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+        // Reads with no reference index are at the end, so all the loci are behind them
+        if (rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+            finishSequencesBefore(dictionary.size());
+            return;
+        }
+
+        if (rec.getReferenceIndex() != sequenceIndex) {
+            finishSequencesBefore(rec.getReferenceIndex());
+            sequenceIndex = rec.getReferenceIndex();
+            bases = ref.getBases();
+            nextPosition = 1;
+        }
+        finishLociBefore(rec.getAlignmentStart());
+
+        // As for the locus iterator of CollectWgsMetrics: its filters see every read, then it skips the rest
+        if (coverage.filterOut(rec)) return;
+        if (rec.getNotPrimaryAlignmentFlag() || rec.getReadUnmappedFlag() || rec.getReadFailsVendorQualityCheckFlag()) return;
+
+        final byte[] qualities = rec.getBaseQualities();
+        for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
+            for (int i = 0; i < block.getLength(); ++i) {
+                pileup.add(block.getReferenceStart() + i, rec.getReadName(), qualities[block.getReadStart() - 1 + i] >= MINIMUM_BASE_QUALITY);
+            }
+        }
+    }
+
+    @Override
+    protected void finish() {
+        finishSequencesBefore(dictionary.size());
+        unreadSequences.close();
+        coverage.addFilterCounts();
+
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> out = getMetricsFile();
+        CollectWgsMetrics.addMetrics(coverage, out);
+        out.write(OUTPUT);
+    }
+
+    /** Counts the coverage of all the loci of the current sequence, and of the sequences after it up to index. */
+    private void finishSequencesBefore(final int index) {
+        if (bases != null) {
+            finishLociBefore(bases.length + 1);
+            pileup.clear();
+        }
+        for (int i = sequenceIndex + 1; i < index; ++i) {
+            // No reads at all on this sequence
+            for (final byte base : unreadSequences.get(i).getBases()) {
+                if (base != 'N') coverage.addLocus(0, 0, 0);
+            }
+        }
+        sequenceIndex = Math.max(sequenceIndex, index - 1);
+        bases = null;
+    }
+
+    /** Counts the coverage of the loci of the current sequence before position, which no later read can cover. */
+    private void finishLociBefore(final int position) {
+        for (; nextPosition < position; ++nextPosition) {
+            final Pileup.Column column = pileup.get(nextPosition);
+            if (bases[nextPosition - 1] != 'N') {
+                if (column == null) {
+                    coverage.addLocus(0, 0, 0);
+                } else {
+                    final int depth = column.readNames.size();
+                    coverage.addLocus(depth, column.lowQualityBases, column.goodQualityBases - depth);
+                }
+            }
+            pileup.clear(nextPosition);
+        }
+    }
+
+    /** The reads over the loci of the current sequence from nextPosition on, in a ring buffer of columns. */
+    private class Pileup {
+        private Column[] columns = new Column[1024];
+
+        class Column {
+            final Set<String> readNames = new HashSet<String>();
+            int goodQualityBases = 0;
+            int lowQualityBases = 0;
+            boolean used = false;
+        }
+
+        void add(final int position, final String readName, final boolean goodQuality) {
+            while (position - nextPosition >= columns.length) grow();
+            final int slot = position % columns.length;
+            Column column = columns[slot];
+            if (column == null) {
+                column = new Column();
+                columns[slot] = column;
+            }
+            column.used = true;
+            if (goodQuality) {
+                ++column.goodQualityBases;
+                column.readNames.add(readName);
+            } else {
+                ++column.lowQualityBases;
+            }
+        }
+
+        /** @return The reads at position, or null if there are none.  Call clear() once done with them. */
+        Column get(final int position) {
+            final Column column = columns[position % columns.length];
+            return column == null || !column.used ? null : column;
+        }
+
+        /** Empties the column at position so that it can be reused for a later position. */
+        void clear(final int position) {
+            final Column column = columns[position % columns.length];
+            if (column == null || !column.used) return;
+            column.used = false;
+            column.readNames.clear();
+            column.goodQualityBases = 0;
+            column.lowQualityBases = 0;
+        }
+
+        /** Empties all the columns, e.g. of loci past the end of a sequence covered by reads hanging off it. */
+        void clear() {
+            for (int position = nextPosition; position < nextPosition + columns.length; ++position) {
+                clear(position);
+            }
+        }
+
+        private void grow() {
+            final Column[] grown = new Column[columns.length * 2];
+            for (int position = nextPosition; position < nextPosition + columns.length; ++position) {
+                grown[position % grown.length] = columns[position % columns.length];
+            }
+            columns = grown;
+        }
+    }
+}
@@ -1,22 +1,20 @@
 package picard.analysis.directed;
 
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SamReader;
-import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.Log;
-import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.SequenceUtil;
 import picard.analysis.MetricAccumulationLevel;
-import picard.cmdline.CommandLineProgram;
+import picard.analysis.MergeableMetricsProgram;
 import picard.cmdline.Option;
-import picard.cmdline.StandardOptionDefinitions;
 import picard.metrics.MultilevelMetrics;
 
 import java.io.File;
@@ -30,11 +28,10 @@ import java.util.Set;
  * <p/>
  * This program verifies the input parameters to TargetMetricsCollector and converts all files to
  * the format desired by TargetMetricsCollector.  Then it instantiates a TargetMetricsCollector and
- * collects metric information for all reads in the INPUT sam file.
+ * collects metric information for all reads in the INPUT sam file.  It is a SinglePassSamProgram so that it can be
+ * run by CollectMultipleMetrics in the same pass over the reads as other programs.
  */
-public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, COLLECTOR extends TargetMetricsCollector<METRIC>> extends CommandLineProgram {
-
-    private static final Log log = Log.getInstance(CalculateHsMetrics.class);
+public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, COLLECTOR extends TargetMetricsCollector<METRIC>> extends MergeableMetricsProgram {
 
     protected abstract IntervalList getProbeIntervals();
 
@@ -58,40 +55,35 @@ public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, C
     @Option(shortName = "TI", doc = "An interval list file that contains the locations of the targets.")
     public List<File> TARGET_INTERVALS;
 
-    @Option(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "An aligned SAM or BAM file.")
-    public File INPUT;
-
-    @Option(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "The output file to write the metrics to.")
-    public File OUTPUT;
-
     @Option(shortName = "LEVEL", doc = "The level(s) at which to accumulate metrics.")
     public Set<MetricAccumulationLevel> METRIC_ACCUMULATION_LEVEL = CollectionUtil.makeSet(MetricAccumulationLevel.ALL_READS);
 
-    @Option(shortName = StandardOptionDefinitions.REFERENCE_SHORT_NAME, optional = true, doc = "The reference sequence aligned to.")
-    public File REFERENCE_SEQUENCE;
-
     @Option(optional = true, doc = "An optional file to output per target coverage information to.")
     public File PER_TARGET_COVERAGE;
 
+    private static final Log log = Log.getInstance(CollectTargetedMetrics.class);
+
+    private COLLECTOR collector;
+
     /**
-     * Asserts that files are readable and writable and then fires off an
-     * HsMetricsCalculator instance to do the real work.
+     * Asserts that files are readable and writable and then makes the TargetMetricsCollector
+     * to which the reads are passed.
      */
-    protected int doWork() {
+    @Override
+    protected void setup(final SAMFileHeader header, final File samFile) {
         for (final File targetInterval : TARGET_INTERVALS) IOUtil.assertFileIsReadable(targetInterval);
-        IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsWritable(OUTPUT);
         if (PER_TARGET_COVERAGE != null) IOUtil.assertFileIsWritable(PER_TARGET_COVERAGE);
+        assertStateFilesAccessible();
 
-        final SamReader reader = SamReaderFactory.makeDefault().open(INPUT);
         final IntervalList targetIntervals = IntervalList.fromFiles(TARGET_INTERVALS);
 
         // Validate that the targets and baits have the same references as the reads file
         SequenceUtil.assertSequenceDictionariesEqual(
-                reader.getFileHeader().getSequenceDictionary(),
+                header.getSequenceDictionary(),
                 targetIntervals.getHeader().getSequenceDictionary());
         SequenceUtil.assertSequenceDictionariesEqual(
-                reader.getFileHeader().getSequenceDictionary(),
+                header.getSequenceDictionary(),
                 getProbeIntervals().getHeader().getSequenceDictionary()
         );
 
@@ -100,36 +92,52 @@ public abstract class CollectTargetedMetrics<METRIC extends MultilevelMetrics, C
             IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
             ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
             SequenceUtil.assertSequenceDictionariesEqual(
-                    reader.getFileHeader().getSequenceDictionary(), ref.getSequenceDictionary(),
-                    INPUT, REFERENCE_SEQUENCE
+                    header.getSequenceDictionary(), ref.getSequenceDictionary(),
+                    samFile, REFERENCE_SEQUENCE
             );
         }
 
-        final COLLECTOR collector = makeCollector(
+        collector = makeCollector(
                 METRIC_ACCUMULATION_LEVEL,
-                reader.getFileHeader().getReadGroups(),
+                header.getReadGroups(),
                 ref,
                 PER_TARGET_COVERAGE,
                 targetIntervals,
                 getProbeIntervals(),
                 getProbeSetName()
         );
-
-        final ProgressLogger progress = new ProgressLogger(log);
-        for (final SAMRecord record : reader) {
-            collector.acceptRecord(record, null);
-            progress.record(record);
+        if (header.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+            log.info("File reports sort order '" + header.getSortOrder() + "', so the coverage of all targets is kept " +
+                    "until the end rather than streamed.");
         }
+        // The state must have the coverage of every target, which is otherwise dropped as the reads pass the targets
+        collector.setCoordinateSortedInput(header.getSortOrder() == SAMFileHeader.SortOrder.coordinate &&
+                !usesState());
+    }
+
+    /** The reference is only used for the GC of the targets, which the collector fetches itself. */
+    @Override
+    protected boolean usesReferenceSequence() { return false; }
+
+    /** Reads in any order are handled by keeping the coverage of every target until the end. */
+    @Override
+    protected boolean requiresCoordinateSortedInput() { return false; }
 
+    @Override
+    protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
+        collector.acceptRecord(rec, null);
+    }
+
+    @Override
+    protected void finish() {
         // Write the output file
         final MetricsFile<METRIC, Integer> metrics = getMetricsFile();
+        writeAndMergeState(collector);
         collector.finish();
 
         collector.addAllLevelsToFile(metrics);
 
         metrics.write(OUTPUT);
-
-        return 0;
     }
 
     /** Renders a probe name from the provided file, returning {@link java.io.File#getName()} with all extensions stripped. */
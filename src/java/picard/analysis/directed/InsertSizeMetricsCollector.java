@@ -8,9 +8,14 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.Histogram;
 import picard.analysis.InsertSizeMetrics;
 import picard.analysis.MetricAccumulationLevel;
+import picard.metrics.CollectorStateUtil;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.PerUnitMetricCollector;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
@@ -73,7 +78,7 @@ public class InsertSizeMetricsCollector extends MultiLevelCollector<InsertSizeMe
     }
 
     /** A Collector for individual InsertSizeMetrics for a given SAMPLE or SAMPLE/LIBRARY or SAMPLE/LIBRARY/READ_GROUP (depending on aggregation levels) */
-    public class PerUnitInsertSizeMetricsCollector implements PerUnitMetricCollector<InsertSizeMetrics, Integer, InsertSizeCollectorArgs> {
+    public class PerUnitInsertSizeMetricsCollector implements MergeablePerUnitMetricCollector<InsertSizeMetrics, Integer, InsertSizeCollectorArgs> {
         final EnumMap<SamPairUtil.PairOrientation, Histogram<Integer>> Histograms = new EnumMap<SamPairUtil.PairOrientation, Histogram<Integer>>(SamPairUtil.PairOrientation.class);
         final String sample;
         final String library;
@@ -108,6 +113,15 @@ public class InsertSizeMetricsCollector extends MultiLevelCollector<InsertSizeMe
 
         public void finish() { }
 
+        /** Writes the Histogram of each orientation, in the order of the orientations. */
+        public void writeState(final DataOutputStream out) throws IOException {
+            for (final Histogram<Integer> h : this.Histograms.values()) CollectorStateUtil.writeHistogram(out, h);
+        }
+
+        public void mergeState(final DataInputStream in) throws IOException {
+            for (final Histogram<Integer> h : this.Histograms.values()) CollectorStateUtil.mergeIntegerHistogram(in, h);
+        }
+
         public double getTotalInserts() {
             return totalInserts;
         }
@@ -17,11 +17,17 @@ import picard.analysis.MetricAccumulationLevel;
 import picard.analysis.RnaSeqMetrics;
 import picard.annotation.Gene;
 import picard.annotation.LocusFunction;
+import picard.annotation.LocusFunctionTrack;
+import picard.metrics.CollectorStateUtil;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.PerUnitMetricCollector;
 import picard.metrics.SAMRecordMultiLevelCollector;
 import picard.util.MathUtil;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -41,8 +47,13 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
     final private Set<Integer> ignoredSequenceIndices;
 
     private final OverlapDetector<Gene> geneOverlapDetector;
+    // The function of each locus relative to the genes, for counting the bases of each function
+    private final LocusFunctionTrack locusFunctionTrack;
     private final OverlapDetector<Interval> ribosomalSequenceOverlapDetector;
     private final boolean collectCoverageStatistics;
+
+    // Transcripts by transcriptKey(), for reading the coverage in collector states.  Made when first needed.
+    private Map<String, Gene.Transcript> transcriptsByKey = null;
     
     public RnaSeqMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords,
                                   final Long ribosomalBasesInitialValue, OverlapDetector<Gene> geneOverlapDetector, OverlapDetector<Interval> ribosomalSequenceOverlapDetector,
@@ -51,6 +62,7 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
         this.ribosomalInitialValue  = ribosomalBasesInitialValue;
         this.ignoredSequenceIndices = ignoredSequenceIndices;
         this.geneOverlapDetector    = geneOverlapDetector;
+        this.locusFunctionTrack     = new LocusFunctionTrack(geneOverlapDetector.getAll());
         this.ribosomalSequenceOverlapDetector = ribosomalSequenceOverlapDetector;
         this.minimumLength          = minimumLength;
         this.strandSpecificity      = strandSpecificity;
@@ -95,12 +107,37 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
         return ignoredSequenceIndices;
     }
 
-    private class PerUnitRnaSeqMetricsCollector implements PerUnitMetricCollector<RnaSeqMetrics, Integer, SAMRecord> {
+    /** Identifies a transcript in a collector state, by its gene's location and name and its own name. */
+    private static String transcriptKey(final Gene.Transcript transcript) {
+        final Gene gene = transcript.getGene();
+        return gene.getSequence() + ":" + gene.getStart() + ":" + gene.getName() + ":" + transcript.name;
+    }
+
+    private Gene.Transcript getTranscript(final String key) {
+        if (transcriptsByKey == null) {
+            transcriptsByKey = new HashMap<String, Gene.Transcript>();
+            for (final Gene gene : geneOverlapDetector.getAll()) {
+                for (final Gene.Transcript transcript : gene) {
+                    transcriptsByKey.put(transcriptKey(transcript), transcript);
+                }
+            }
+        }
+        final Gene.Transcript transcript = transcriptsByKey.get(key);
+        if (transcript == null) {
+            throw new PicardException("Collector state has coverage of transcript " + key + " which is not in the gene annotations");
+        }
+        return transcript;
+    }
+
+    private class PerUnitRnaSeqMetricsCollector implements MergeablePerUnitMetricCollector<RnaSeqMetrics, Integer, SAMRecord> {
 
         final RnaSeqMetrics metrics = new RnaSeqMetrics();
         
         private final Map<Gene.Transcript, int[]> coverageByTranscript = new HashMap<Gene.Transcript, int[]>();
 
+        // The number of bases of the current alignment block with each function, by the ordinal of the function
+        private final long[] basesByFunction = new long[LocusFunction.values().length];
+
         public PerUnitRnaSeqMetricsCollector(final String sample,
                                              final String library,
                                              final String readGroup,
@@ -159,59 +196,46 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
                 }
             }
 
-            final Collection<Gene> overlappingGenes                  = geneOverlapDetector.getOverlaps(readInterval);
+            // The genes are only needed for their coverage and strands
+            final Collection<Gene> overlappingGenes;
+            if (collectCoverageStatistics || strandSpecificity != StrandSpecificity.NONE) {
+                overlappingGenes = geneOverlapDetector.getOverlaps(readInterval);
+            } else {
+                overlappingGenes = null;
+            }
             final List<AlignmentBlock> alignmentBlocks               = rec.getAlignmentBlocks();
             boolean overlapsExon = false;
 
             for (final AlignmentBlock alignmentBlock : alignmentBlocks) {
-                // Get functional class for each position in the alignment block.
-                final LocusFunction[] locusFunctions = new LocusFunction[alignmentBlock.getLength()];
-
-                // By default, if base does not overlap with rRNA or gene, it is intergenic.
-                Arrays.fill(locusFunctions, 0, locusFunctions.length, LocusFunction.INTERGENIC);
-
-                for (final Gene gene : overlappingGenes) {
-                    for (final Gene.Transcript transcript : gene) {
-                        transcript.assignLocusFunctionForRange(alignmentBlock.getReferenceStart(), locusFunctions);
-                        // if you want to gather coverage statistics, this variable should be true.
-                        // added for cases with many units [samples/read groups] which overwhelm memory.                
-                        // Add coverage to our coverage counter for this transcript
-                        if (collectCoverageStatistics) {
+                final int blockStart = alignmentBlock.getReferenceStart();
+                final int blockEnd = CoordMath.getEnd(blockStart, alignmentBlock.getLength());
+
+                // if you want to gather coverage statistics, this variable should be true.
+                // added for cases with many units [samples/read groups] which overwhelm memory.
+                if (collectCoverageStatistics) {
+                    for (final Gene gene : overlappingGenes) {
+                        for (final Gene.Transcript transcript : gene) {
+                            // Add coverage to our coverage counter for this transcript
                             int[] coverage = this.coverageByTranscript.get(transcript);
                             if (coverage == null) {
                                 coverage = new int[transcript.length()];
                                 this.coverageByTranscript.put(transcript, coverage);
                             }
-                            transcript.addCoverageCounts(alignmentBlock.getReferenceStart(),
-                                    CoordMath.getEnd(alignmentBlock.getReferenceStart(), alignmentBlock.getLength()),
-                                    coverage);
+                            transcript.addCoverageCounts(blockStart, blockEnd, coverage);
                         }
-
                     }
                 }
 
                 // Tally the function of each base in the alignment block.
-                for (final LocusFunction locusFunction : locusFunctions) {
-                    ++metrics.PF_ALIGNED_BASES;
-                    switch (locusFunction) {
-                        case INTERGENIC:
-                            ++metrics.INTERGENIC_BASES;
-                            break;
-                        case INTRONIC:
-                            ++metrics.INTRONIC_BASES;
-                            break;
-                        case UTR:
-                            ++metrics.UTR_BASES;
-                            overlapsExon = true;
-                            break;
-                        case CODING:
-                            ++metrics.CODING_BASES;
-                            overlapsExon = true;
-                            break;
-                        case RIBOSOMAL:
-                            ++metrics.RIBOSOMAL_BASES;
-                            break;
-                    }
+                Arrays.fill(basesByFunction, 0);
+                locusFunctionTrack.countFunctions(rec.getReferenceName(), blockStart, blockEnd, basesByFunction);
+                metrics.PF_ALIGNED_BASES += alignmentBlock.getLength();
+                metrics.INTERGENIC_BASES += basesByFunction[LocusFunction.INTERGENIC.ordinal()];
+                metrics.INTRONIC_BASES   += basesByFunction[LocusFunction.INTRONIC.ordinal()];
+                metrics.UTR_BASES        += basesByFunction[LocusFunction.UTR.ordinal()];
+                metrics.CODING_BASES     += basesByFunction[LocusFunction.CODING.ordinal()];
+                if (basesByFunction[LocusFunction.UTR.ordinal()] > 0 || basesByFunction[LocusFunction.CODING.ordinal()] > 0) {
+                    overlapsExon = true;
                 }
             }
 
@@ -238,6 +262,58 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
 
         }
 
+        /** Writes the base and read counts, then the coverage of each transcript that has any. */
+        public void writeState(final DataOutputStream out) throws IOException {
+            out.writeLong(metrics.PF_BASES);
+            out.writeLong(metrics.PF_ALIGNED_BASES);
+            out.writeBoolean(metrics.RIBOSOMAL_BASES != null);
+            if (metrics.RIBOSOMAL_BASES != null) out.writeLong(metrics.RIBOSOMAL_BASES);
+            out.writeLong(metrics.CODING_BASES);
+            out.writeLong(metrics.UTR_BASES);
+            out.writeLong(metrics.INTRONIC_BASES);
+            out.writeLong(metrics.INTERGENIC_BASES);
+            out.writeLong(metrics.IGNORED_READS);
+            out.writeLong(metrics.CORRECT_STRAND_READS);
+            out.writeLong(metrics.INCORRECT_STRAND_READS);
+
+            out.writeInt(coverageByTranscript.size());
+            for (final Map.Entry<Gene.Transcript, int[]> entry : coverageByTranscript.entrySet()) {
+                out.writeUTF(transcriptKey(entry.getKey()));
+                CollectorStateUtil.writeInts(out, entry.getValue());
+            }
+        }
+
+        public void mergeState(final DataInputStream in) throws IOException {
+            metrics.PF_BASES += in.readLong();
+            metrics.PF_ALIGNED_BASES += in.readLong();
+            // Both or neither must have counted ribosomal bases, or RIBOSOMAL_BASES would only be those of some parts
+            final boolean hasRibosomalBases = in.readBoolean();
+            if (hasRibosomalBases && metrics.RIBOSOMAL_BASES == null) {
+                throw new PicardException("Collector state has ribosomal bases but no ribosomal intervals were given");
+            } else if (!hasRibosomalBases && metrics.RIBOSOMAL_BASES != null) {
+                throw new PicardException("Ribosomal intervals were given but the collector state has no ribosomal bases");
+            }
+            if (hasRibosomalBases) metrics.RIBOSOMAL_BASES += in.readLong();
+            metrics.CODING_BASES += in.readLong();
+            metrics.UTR_BASES += in.readLong();
+            metrics.INTRONIC_BASES += in.readLong();
+            metrics.INTERGENIC_BASES += in.readLong();
+            metrics.IGNORED_READS += in.readLong();
+            metrics.CORRECT_STRAND_READS += in.readLong();
+            metrics.INCORRECT_STRAND_READS += in.readLong();
+
+            final int numTranscripts = in.readInt();
+            for (int i = 0; i < numTranscripts; ++i) {
+                final Gene.Transcript transcript = getTranscript(in.readUTF());
+                int[] coverage = this.coverageByTranscript.get(transcript);
+                if (coverage == null) {
+                    coverage = new int[transcript.length()];
+                    this.coverageByTranscript.put(transcript, coverage);
+                }
+                CollectorStateUtil.mergeInts(in, coverage);
+            }
+        }
+
         public void finish() {
             if (metrics.PF_ALIGNED_BASES > 0) {
                 if (metrics.RIBOSOMAL_BASES != null) {
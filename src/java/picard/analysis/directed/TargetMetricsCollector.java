@@ -38,28 +38,32 @@ import htsjdk.samtools.util.FormatUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.Log;
-import htsjdk.samtools.util.OverlapDetector;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
 import picard.analysis.MetricAccumulationLevel;
+import picard.metrics.MergeablePerUnitMetricCollector;
+import picard.metrics.MultiLevelCollector;
 import picard.metrics.MultilevelMetrics;
 import picard.metrics.PerUnitMetricCollector;
-import picard.metrics.SAMRecordMultiLevelCollector;
+import picard.util.SortedIntervalSweep;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * TargetMetrics, are metrics to measure how well we hit specific targets (or baits) when using a targeted sequencing process like hybrid selection
@@ -73,11 +77,14 @@ import java.util.Set;
  *
  * @author Jonathan Burke
  */
-public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetrics> extends SAMRecordMultiLevelCollector<METRIC_TYPE, Integer> {
+public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetrics> extends MultiLevelCollector<METRIC_TYPE, Integer, TargetMetricsCollectorArgs> {
 
     // What is considered "near" to the bait
     private static final int NEAR_PROBE_DISTANCE = 250;
 
+    // The number of bins, by percent GC, in which the coverage of the targets is compared with their territory
+    private static final int GC_BINS = 101;
+
     //If perTargetCoverage != null then coverage is computed for each specified target and output to this file
     private final File perTargetCoverage;
 
@@ -92,11 +99,12 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
     //The interval list of the the regions we intend to cover
     private final IntervalList allTargets;
 
-    // Overlap detector for finding overlaps between reads and the experimental targets
-    private final OverlapDetector<Interval> targetDetector;
+    //The unique targets, in the order of targetSweep, whose coverage is collected
+    private final List<Interval> uniqueTargets;
 
-    // Overlap detector for finding overlaps between the reads and the baits (and the near bait space)
-    private final OverlapDetector<Interval> probeDetector;
+    // Sweeps for finding overlaps between the (sorted) reads and the experimental targets, and the probes
+    private final SortedIntervalSweep targetSweep;
+    private final SortedIntervalSweep probeSweep;
 
     private Map<Interval,Double> intervalToGc = null;
 
@@ -108,12 +116,12 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
 
     private final long genomeSize;
 
-    //A map of coverage by target in which coverage is reset every read, this is done
-    //so that we can calculate overlap for a read once and the resulting coverage is
-    //than added to the cumulative coverage of every collector that collects
-    //information on that read
-    private Map<Interval, Coverage> coverageByTargetForRead;
-    private Coverage [] cov;
+    //The overlaps of the current record with the targets and probes, worked out once by makeArg() for all the
+    //collectors that collect information on that record, and reused for every record
+    private final TargetMetricsCollectorArgs args = new TargetMetricsCollectorArgs();
+
+    //If true the coverage of each target is summarized and dropped as soon as the reads have passed it
+    private boolean coordinateSortedInput = false;
 
     //Converts a targetMetric into a more specific metric of METRIC_TYPE
     public abstract METRIC_TYPE convertMetric(final TargetMetrics targetMetrics);
@@ -193,25 +201,13 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         this.allTargets = targetIntervals;
 
         final List<Interval> uniqueBaits = this.allProbes.getUniqueIntervals();
-        this.probeDetector = new OverlapDetector<Interval>(-NEAR_PROBE_DISTANCE, 0);
-        this.probeDetector.addAll(uniqueBaits, uniqueBaits);
+        this.probeSweep = new SortedIntervalSweep(uniqueBaits);
         this.probeTerritory = Interval.countBases(uniqueBaits);
 
-        final List<Interval> uniqueTargets = this.allTargets.getUniqueIntervals();
-        targetDetector = new OverlapDetector<Interval>(0,0);
-        this.targetDetector.addAll(uniqueTargets, uniqueTargets);
+        this.uniqueTargets = this.allTargets.getUniqueIntervals();
+        this.targetSweep = new SortedIntervalSweep(uniqueTargets);
         this.targetTerritory = Interval.countBases(uniqueTargets);
 
-        // Populate the coverage by target map
-        int i = 0;
-        cov = new Coverage[uniqueTargets.size()];
-        this.coverageByTargetForRead = new LinkedHashMap<Interval, Coverage>(uniqueTargets.size() * 2, 0.5f);
-        for (final Interval target : uniqueTargets) {
-            final Coverage coverage = new Coverage(target, 0);
-            this.coverageByTargetForRead.put(target, coverage);
-            cov[i++] = coverage;
-        }
-
         long genomeSizeAccumulator = 0;
         for (final SAMSequenceRecord seq : this.allProbes.getHeader().getSequenceDictionary().getSequences()) {
             genomeSizeAccumulator += seq.getSequenceLength();
@@ -230,9 +226,74 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         setup(accumulationLevels, samRgRecords);
     }
 
+    /**
+     * Tells the collector whether the records will be given to it in coordinate order.  If so, the coverage of each
+     * target is summarized and dropped once a record starts after it, so that only the coverage of the targets the
+     * records are passing over is held, rather than that of every target until finish().  The state of the collector
+     * can then no longer be written or merged.
+     */
+    public void setCoordinateSortedInput(final boolean coordinateSortedInput) {
+        this.coordinateSortedInput = coordinateSortedInput;
+    }
+
+    /**
+     * Works out which bases of rec's alignment blocks are on which targets and probes.  The overlaps of each block
+     * with the targets and probes are calculated from their ends, moving through the sorted targets and probes as
+     * the sorted records do.
+     */
     @Override
-    protected PerUnitMetricCollector<METRIC_TYPE, Integer, SAMRecord> makeChildCollector(final String sample, final String library, final String readGroup) {
-        final PerUnitTargetMetricCollector collector =  new PerUnitTargetMetricCollector(probeSetName, coverageByTargetForRead.keySet(),
+    protected TargetMetricsCollectorArgs makeArg(final SAMRecord rec, final ReferenceSequence refSeq) {
+        args.reset(rec);
+        // The collectors skip these before looking at any overlaps
+        if (rec.isSecondaryOrSupplementary() || rec.getReadFailsVendorQualityCheckFlag() || rec.getReadUnmappedFlag()) {
+            return args;
+        }
+
+        final String sequence = rec.getReferenceName();
+        final int readStart = rec.getAlignmentStart();
+        final int readEnd = rec.getAlignmentEnd();
+        final List<AlignmentBlock> blocks = rec.getAlignmentBlocks();
+        for (final AlignmentBlock block : blocks) args.mappedBases += block.getLength();
+
+        // Targets overlapping each block, and how much
+        int target = targetSweep.seek(sequence, readStart);
+        args.targetFrontier = target;
+        final int targetLimit = targetSweep.getLimit();
+        for (final AlignmentBlock block : blocks) {
+            final int blockStart = block.getReferenceStart();
+            final int blockEnd = CoordMath.getEnd(blockStart, block.getLength());
+            while (target < targetLimit && targetSweep.getEnd(target) < blockStart) ++target;
+            for (int t = target; t < targetLimit && targetSweep.getStart(t) <= blockEnd; ++t) {
+                final int targetStart = targetSweep.getStart(t);
+                final int start = Math.max(blockStart, targetStart);
+                final int end = Math.min(blockEnd, targetSweep.getEnd(t));
+                if (start <= end) args.addTargetRange(t, start - targetStart, end - targetStart);
+            }
+        }
+
+        // Probes overlapping the read or up to NEAR_PROBE_DISTANCE after it, and how many bases are on them
+        int probe = probeSweep.seek(sequence, readStart);
+        final int probeLimit = probeSweep.getLimit();
+        args.nearProbe = probe < probeLimit && probeSweep.getStart(probe) - NEAR_PROBE_DISTANCE <= readEnd;
+        if (args.nearProbe) {
+            for (final AlignmentBlock block : blocks) {
+                final int blockStart = block.getReferenceStart();
+                final int blockEnd = CoordMath.getEnd(blockStart, block.getLength());
+                while (probe < probeLimit && probeSweep.getEnd(probe) < blockStart) ++probe;
+                for (int p = probe; p < probeLimit && probeSweep.getStart(p) <= blockEnd; ++p) {
+                    final int start = Math.max(blockStart, probeSweep.getStart(p));
+                    final int end = Math.min(blockEnd, probeSweep.getEnd(p));
+                    if (start <= end) args.onProbeBases += end - start + 1;
+                }
+            }
+        }
+
+        return args;
+    }
+
+    @Override
+    protected PerUnitMetricCollector<METRIC_TYPE, Integer, TargetMetricsCollectorArgs> makeChildCollector(final String sample, final String library, final String readGroup) {
+        final PerUnitTargetMetricCollector collector =  new PerUnitTargetMetricCollector(probeSetName, uniqueTargets,
                                                                                          sample, library, readGroup, probeTerritory, targetTerritory, genomeSize,
                                                                                          intervalToGc);
         if (this.probeSetName != null) {
@@ -243,7 +304,7 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
     }
 
     @Override
-    protected PerUnitMetricCollector<METRIC_TYPE, Integer, SAMRecord> makeAllReadCollector() {
+    protected PerUnitMetricCollector<METRIC_TYPE, Integer, TargetMetricsCollectorArgs> makeAllReadCollector() {
         final PerUnitTargetMetricCollector collector = (PerUnitTargetMetricCollector) makeChildCollector(null, null, null);
         if (perTargetCoverage != null) {
             collector.setPerTargetOutput(perTargetCoverage);
@@ -255,13 +316,36 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
     /**
      * Collect the Target Metrics for one unit of "accumulation" (i.e. for one sample, or for one library ...)
      */
-    public class PerUnitTargetMetricCollector implements PerUnitMetricCollector<METRIC_TYPE, Integer, SAMRecord> {
+    public class PerUnitTargetMetricCollector implements MergeablePerUnitMetricCollector<METRIC_TYPE, Integer, TargetMetricsCollectorArgs> {
 
         private final Map<Interval,Double> intervalToGc;
         private File perTargetOutput;
 
-        // A Map to accumulate per-bait-region (i.e. merge of overlapping targets) coverage. */
-        private final Map<Interval, Coverage> coverageByTarget;
+        // The unique targets, by the index used in TargetMetricsCollectorArgs
+        private final List<Interval> targets;
+
+        // Per-bait-region (i.e. merge of overlapping targets) coverage of the targets that have been read but not
+        // yet finished, by the index of the target
+        private final SortedMap<Integer,Coverage> coverageByTarget = new TreeMap<Integer,Coverage>();
+
+        // The targets whose coverage has been finished, i.e. summarized below and dropped
+        private final BitSet finishedTargets = new BitSet();
+
+        // The sequence of the last record, if the targets are finished as the records pass them
+        private String currentSequence = null;
+
+        // Summaries of the coverage of the finished targets that have coverage > 1 at some base: the number of
+        // such targets, their bases, the total of their depths, and the number of their bases at each depth
+        private int coveredTargets = 0;
+        private long basesConsidered = 0;
+        private long totalCoverage = 0;
+        private long[] basesByDepth = new long[128];
+
+        // The total depth of the finished targets in each GC bin, if there is a reference
+        private final long[] alignedBasesByGc = new long[GC_BINS];
+
+        // The total depth of each finished target, if the coverage of each target is to be output
+        private long[] totalByTarget = null;
 
         private final TargetMetrics metrics = new TargetMetrics();
 
@@ -269,7 +353,7 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
          * Constructor that parses the squashed reference to genome reference file and stores the
          * information in a map for later use.
          */
-        public PerUnitTargetMetricCollector(final String probeSetName, final Set<Interval> coverageTargets,
+        public PerUnitTargetMetricCollector(final String probeSetName, final List<Interval> coverageTargets,
                                             final String sample, final String library, final String readGroup,
                                             final long probeTerritory, final long targetTerritory, final long genomeSize,
                                             final Map<Interval, Double> intervalToGc) {
@@ -282,10 +366,7 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
             metrics.TARGET_TERRITORY = targetTerritory;
             metrics.GENOME_SIZE      = genomeSize;
 
-            this.coverageByTarget = new LinkedHashMap<Interval, Coverage>(coverageTargets.size() * 2, 0.5f);
-            for (Interval target : coverageTargets) {
-                this.coverageByTarget.put(target, new Coverage(target,0));
-            }
+            this.targets = coverageTargets;
 
             this.intervalToGc = intervalToGc;
         }
@@ -293,6 +374,7 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         /** If set, the metrics collector will output per target coverage information to this file. */
         public void setPerTargetOutput(final File perTargetOutput) {
             this.perTargetOutput = perTargetOutput;
+            this.totalByTarget = new long[this.targets.size()];
         }
 
         /** Sets the name of the bait set explicitly instead of inferring it from the bait file. */
@@ -301,10 +383,17 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         }
 
         /** Adds information about an individual SAMRecord to the statistics. */
-        public void acceptRecord(final SAMRecord rec) {
+        public void acceptRecord(final TargetMetricsCollectorArgs args) {
+            final SAMRecord rec = args.getRecord();
+
             // Just plain avoid records that are marked as not-primary
             if (rec.isSecondaryOrSupplementary()) return;
 
+            // No later record can cover the targets this one has passed
+            if (coordinateSortedInput && args.targetFrontier >= 0) {
+                finishPassedTargets(rec.getReferenceName(), args.targetFrontier);
+            }
+
             this.metrics.TOTAL_READS += 1;
 
             // Check for PF reads
@@ -312,26 +401,12 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
                 return;
             }
 
-            // Prefetch the list of target and bait overlaps here as they're needed multiple times.
-            final Collection<Interval> targets;
-            final Collection<Interval> probes;
-
-            if (!rec.getReadUnmappedFlag()) {
-                final Interval read = new Interval(rec.getReferenceName(), rec.getAlignmentStart(), rec.getAlignmentEnd());
-                targets = targetDetector.getOverlaps(read);
-                probes   = probeDetector.getOverlaps(read);
-            }
-            else {
-                targets = null;
-                probes = null;
-            }
-
             ++this.metrics.PF_READS;
             this.metrics.PF_BASES += rec.getReadLength();
 
             // And now calculate the values we need for HS_LIBRARY_SIZE
             if (rec.getReadPairedFlag() && rec.getFirstOfPairFlag() && !rec.getReadUnmappedFlag() && !rec.getMateUnmappedFlag()) {
-                if (probes != null && !probes.isEmpty()) {
+                if (args.nearProbe) {
                     ++this.metrics.PF_SELECTED_PAIRS;
                     if (!rec.getDuplicateReadFlag()) ++this.metrics.PF_SELECTED_UNIQUE_PAIRS;
                 }
@@ -351,57 +426,200 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
             }
 
             this.metrics.PF_UQ_READS_ALIGNED += 1;
-            for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
-                this.metrics.PF_UQ_BASES_ALIGNED += block.getLength();
-            }
+            this.metrics.PF_UQ_BASES_ALIGNED += args.mappedBases;
 
             final boolean mappedInPair = rec.getReadPairedFlag() && !rec.getMateUnmappedFlag();
 
-            // Find the target overlaps
-            if (targets != null && !targets.isEmpty()) {
-                for (final Interval target : targets) {
-                    final Coverage coverage = this.coverageByTarget.get(target);
-
-                    for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
-                        final int end = CoordMath.getEnd(block.getReferenceStart(), block.getLength());
-                        for (int pos=block.getReferenceStart(); pos<=end; ++ pos) {
-                            if (pos >= target.getStart() && pos <= target.getEnd()) {
-                                ++this.metrics.ON_TARGET_BASES;
-                                if (mappedInPair) ++this.metrics.ON_TARGET_FROM_PAIR_BASES;
-                                coverage.addBase(pos - target.getStart());
-                            }
-                        }
-                    }
-                }
+            // Add the target overlaps
+            final int[] ranges = args.targetRanges;
+            for (int r = 0; r < args.numTargetRanges * 3; r += 3) {
+                final int length = ranges[r + 2] - ranges[r + 1] + 1;
+                this.metrics.ON_TARGET_BASES += length;
+                if (mappedInPair) this.metrics.ON_TARGET_FROM_PAIR_BASES += length;
+                getCoverage(ranges[r], rec).addRange(ranges[r + 1], ranges[r + 2]);
             }
 
             // Now do the bait overlaps
-            int mappedBases = 0;
-            for (final AlignmentBlock block : rec.getAlignmentBlocks()) mappedBases += block.getLength();
-            int onBaitBases = 0;
+            if (args.nearProbe) {
+                this.metrics.ON_PROBE_BASES   += args.onProbeBases;
+                this.metrics.NEAR_PROBE_BASES += (args.mappedBases - args.onProbeBases);
+            }
+            else {
+                this.metrics.OFF_PROBE_BASES += args.mappedBases;
+            }
 
-            if (probes != null && !probes.isEmpty()) {
-                for (final Interval bait : probes) {
-                    for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
-                        final int end = CoordMath.getEnd(block.getReferenceStart(), block.getLength());
+        }
+
+        /** Gets the coverage of the target with the given index, making it if the target has none yet. */
+        private Coverage getCoverage(final int target, final SAMRecord rec) {
+            Coverage coverage = this.coverageByTarget.get(target);
+            if (coverage == null) {
+                if (this.finishedTargets.get(target)) {
+                    throw new PicardException("Reads are not coordinate sorted: " + rec.getReadName() + " covers target " +
+                            this.targets.get(target) + " after reads past the end of it");
+                }
+                coverage = new Coverage(this.targets.get(target), 0);
+                this.coverageByTarget.put(target, coverage);
+            }
+            return coverage;
+        }
+
+        /**
+         * Finishes the targets that no record after one on the given sequence can cover, i.e. those before the one with
+         * the index frontier on the sequence, and all those on the sequences before it.
+         */
+        private void finishPassedTargets(final String sequence, final int frontier) {
+            if (sequence.equals(this.currentSequence)) {
+                finishTargets(this.coverageByTarget.headMap(frontier));
+            } else {
+                finishTargets(this.coverageByTarget);
+                this.currentSequence = sequence;
+            }
+        }
 
-                        for (int pos=block.getReferenceStart(); pos<=end; ++pos) {
-                            if (pos >= bait.getStart() && pos <= bait.getEnd()) ++onBaitBases;
+        /** Folds the coverage of the given targets into the summaries, and drops it. */
+        private void finishTargets(final SortedMap<Integer,Coverage> coverage) {
+            for (final Map.Entry<Integer,Coverage> entry : coverage.entrySet()) {
+                final int target = entry.getKey();
+                final Coverage c = entry.getValue();
+                final int[] depths = c.getDepths();
+
+                long total = 0;
+                boolean covered = false;
+                for (final int depth : depths) {
+                    total += depth;
+                    if (depth > 1) covered = true;
+                }
+
+                if (covered) {
+                    ++this.coveredTargets;
+                    this.basesConsidered += depths.length;
+                    this.totalCoverage += total;
+                    for (final int depth : depths) {
+                        if (depth >= this.basesByDepth.length) {
+                            this.basesByDepth = Arrays.copyOf(this.basesByDepth, Math.max(depth + 1, 2 * this.basesByDepth.length));
                         }
+                        ++this.basesByDepth[depth];
                     }
                 }
 
-                this.metrics.ON_PROBE_BASES   += onBaitBases;
-                this.metrics.NEAR_PROBE_BASES += (mappedBases - onBaitBases);
+                if (this.intervalToGc != null) this.alignedBasesByGc[getGcBin(c.getInterval())] += total;
+                if (this.totalByTarget != null) this.totalByTarget[target] = total;
+                this.finishedTargets.set(target);
             }
-            else {
-                this.metrics.OFF_PROBE_BASES += mappedBases;
+            coverage.clear();
+        }
+
+        private int getGcBin(final Interval target) {
+            return (int) Math.round(this.intervalToGc.get(target) * 100);
+        }
+
+        /**
+         * Writes the read and base counts, then the number of targets, then the index, length and depths of each
+         * target with coverage in the order of the targets.  The depths are written as runs of equal depth, and the
+         * indices, lengths and runs as variable-length ints, so that the state grows with the bases covered rather than
+         * the territory.
+         */
+        @Override
+        public void writeState(final DataOutputStream out) throws IOException {
+            assertNoTargetsFinished();
+            out.writeLong(metrics.TOTAL_READS);
+            out.writeLong(metrics.PF_READS);
+            out.writeLong(metrics.PF_BASES);
+            out.writeLong(metrics.PF_UNIQUE_READS);
+            out.writeLong(metrics.PF_SELECTED_PAIRS);
+            out.writeLong(metrics.PF_SELECTED_UNIQUE_PAIRS);
+            out.writeLong(metrics.PF_UQ_READS_ALIGNED);
+            out.writeLong(metrics.PF_UQ_BASES_ALIGNED);
+            out.writeLong(metrics.ON_PROBE_BASES);
+            out.writeLong(metrics.NEAR_PROBE_BASES);
+            out.writeLong(metrics.OFF_PROBE_BASES);
+            out.writeLong(metrics.ON_TARGET_BASES);
+            out.writeLong(metrics.ON_TARGET_FROM_PAIR_BASES);
+
+            out.writeInt(this.targets.size());
+            out.writeInt(this.coverageByTarget.size());
+            for (final Map.Entry<Integer,Coverage> entry : this.coverageByTarget.entrySet()) {
+                final int[] depths = entry.getValue().getDepths();
+                writeVarInt(out, entry.getKey());
+                writeVarInt(out, depths.length);
+                for (int start = 0; start < depths.length; ) {
+                    int end = start + 1;
+                    while (end < depths.length && depths[end] == depths[start]) ++end;
+                    writeVarInt(out, end - start);
+                    writeVarInt(out, depths[start]);
+                    start = end;
+                }
             }
+        }
 
+        @Override
+        public void mergeState(final DataInputStream in) throws IOException {
+            assertNoTargetsFinished();
+            metrics.TOTAL_READS               += in.readLong();
+            metrics.PF_READS                  += in.readLong();
+            metrics.PF_BASES                  += in.readLong();
+            metrics.PF_UNIQUE_READS           += in.readLong();
+            metrics.PF_SELECTED_PAIRS         += in.readLong();
+            metrics.PF_SELECTED_UNIQUE_PAIRS  += in.readLong();
+            metrics.PF_UQ_READS_ALIGNED       += in.readLong();
+            metrics.PF_UQ_BASES_ALIGNED       += in.readLong();
+            metrics.ON_PROBE_BASES            += in.readLong();
+            metrics.NEAR_PROBE_BASES          += in.readLong();
+            metrics.OFF_PROBE_BASES           += in.readLong();
+            metrics.ON_TARGET_BASES           += in.readLong();
+            metrics.ON_TARGET_FROM_PAIR_BASES += in.readLong();
+
+            final int numTargets = in.readInt();
+            if (numTargets != this.targets.size()) {
+                throw new PicardException("Collector state has coverage of " + numTargets + " targets but there are " +
+                        this.targets.size() + " targets");
+            }
+            final int numCoveredTargets = in.readInt();
+            for (int i = 0; i < numCoveredTargets; ++i) {
+                final int target = readVarInt(in);
+                if (target >= numTargets) {
+                    throw new PicardException("Collector state has coverage of target " + target + " but there are " +
+                            numTargets + " targets");
+                }
+                final Interval interval = this.targets.get(target);
+                final int length = readVarInt(in);
+                if (length != interval.length()) {
+                    throw new PicardException("Collector state has coverage of " + length + " bases for target " +
+                            interval + " of " + interval.length() + " bases");
+                }
+                for (int start = 0; start < length; ) {
+                    final int runLength = readVarInt(in);
+                    final int depth = readVarInt(in);
+                    if (runLength < 1 || start + runLength > length) {
+                        throw new PicardException("Collector state has a run of " + runLength + " bases at offset " +
+                                start + " of target " + interval);
+                    }
+                    if (depth != 0) {
+                        Coverage c = this.coverageByTarget.get(target);
+                        if (c == null) {
+                            c = new Coverage(interval, 0);
+                            this.coverageByTarget.put(target, c);
+                        }
+                        c.addRange(start, start + runLength - 1, depth);
+                    }
+                    start += runLength;
+                }
+            }
+        }
+
+        /** The state has the depths of every target, which are no longer known once a target has been finished. */
+        private void assertNoTargetsFinished() {
+            if (!this.finishedTargets.isEmpty()) {
+                throw new PicardException("The coverage of targets the reads have passed has been dropped, so the " +
+                        "state of the collector can only be written or merged if the input is not taken as coordinate sorted");
+            }
         }
 
         @Override
         public void finish() {
+            finishTargets(this.coverageByTarget);
+
             metrics.PCT_PF_READS         = metrics.PF_READS / (double) metrics.TOTAL_READS;
             metrics.PCT_PF_UQ_READS      = metrics.PF_UNIQUE_READS / (double) metrics.TOTAL_READS;
             metrics.PCT_PF_UQ_READS_ALIGNED = metrics.PF_UQ_READS_ALIGNED / (double) metrics.PF_UNIQUE_READS;
@@ -420,83 +638,39 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
 
         /** Calculates how much additional sequencing is needed to raise 80% of bases to the mean for the lane. */
         private void calculateTargetCoverageMetrics() {
-            final short[] depths = new short[(int) this.metrics.TARGET_TERRITORY];  // may not use entire array
-            int zeroCoverageTargets = 0;
-            int depthIndex = 0;
-            double totalCoverage = 0;
-            int basesConsidered = 0;
-
-            for (final Coverage c : this.coverageByTarget.values()) {
-                if (!c.hasCoverage()) {
-                    ++zeroCoverageTargets;
-                    continue;
-                }
-
-                final short[] targetDepths = c.getDepths();
-                basesConsidered += targetDepths.length;
-
-                for (final short depth : targetDepths) {
-                    depths[depthIndex++] = depth;
-                    totalCoverage += depth;
-                }
+            final long totalTargetBases = this.metrics.TARGET_TERRITORY;
+            final int zeroCoverageTargets = this.targets.size() - this.coveredTargets;
+
+            this.metrics.MEAN_TARGET_COVERAGE = this.totalCoverage / (double) this.basesConsidered;
+
+            // Find the coverage value that lies at the 80% line, i.e. 20% of the way up the depths of the bases
+            // considered, in ascending order after as many zeros as there are bases in targets without coverage
+            // Note.  basesConsidered can be between 0 and totalTargetBases inclusive.  indexOf80thPercentile will be -1 in the latter case
+            final long indexOf80thPercentile = Math.max((totalTargetBases - 1 - this.basesConsidered) + (long) (this.basesConsidered * 0.2), 0);
+            int coverageAt80thPercentile = 0;
+            long basesUpToDepth = totalTargetBases - this.basesConsidered;
+            for (int depth = 0; depth < this.basesByDepth.length && basesUpToDepth <= indexOf80thPercentile; ++depth) {
+                basesUpToDepth += this.basesByDepth[depth];
+                coverageAt80thPercentile = depth;
             }
-
-            this.metrics.MEAN_TARGET_COVERAGE = totalCoverage / basesConsidered;
-
-            // Sort the array (ASCENDING) and then find the base the coverage value that lies at the 80%
-            // line, which is actually at 20% into the array now
-            Arrays.sort(depths);
-            // Note.  basesConsidered can be between 0 and depths.length inclusive.  indexOf80thPercentile will be -1 in the latter case
-            final int indexOf80thPercentile = Math.max((depths.length - 1 - basesConsidered) + (int) (basesConsidered * 0.2), 0);
-            final int coverageAt80thPercentile = depths[indexOf80thPercentile];
             this.metrics.FOLD_80_BASE_PENALTY = this.metrics.MEAN_TARGET_COVERAGE / coverageAt80thPercentile;
             this.metrics.ZERO_CVG_TARGETS_PCT = zeroCoverageTargets / (double) allTargets.getIntervals().size();
 
-            // Now do the "how many bases at X" calculations.
-            int totalTargetBases = 0;
-            int targetBases2x  = 0;
-            int targetBases10x = 0;
-            int targetBases20x = 0;
-	        int targetBases30x = 0;
-	        int targetBases40x = 0;
-	        int targetBases50x = 0;
-	        int targetBases100x = 0;
-
-            for (final Coverage c : this.coverageByTarget.values()) {
-                for (final short depth : c.getDepths()) {
-                    ++totalTargetBases;
-
-                    if (depth >= 2) {
-                        ++targetBases2x;
-                        if (depth >=10) {
-                            ++targetBases10x;
-                            if (depth >= 20) {
-                                ++targetBases20x;
-                                if (depth >=30) {
-                                    ++targetBases30x;
-	                                if (depth >=40) {
-		                                ++targetBases40x;
-		                                if (depth >=50) {
-			                                ++targetBases50x;
-			                                if (depth >=100) {
-				                                ++targetBases100x;
-			                                }
-		                                }
-	                                }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            // Now do the "how many bases at X" calculations.  Targets without coverage have no bases at 2X or more.
+            this.metrics.PCT_TARGET_BASES_2X   = basesAtDepth(2)   / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_10X  = basesAtDepth(10)  / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_20X  = basesAtDepth(20)  / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_30X  = basesAtDepth(30)  / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_40X  = basesAtDepth(40)  / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_50X  = basesAtDepth(50)  / (double) totalTargetBases;
+            this.metrics.PCT_TARGET_BASES_100X = basesAtDepth(100) / (double) totalTargetBases;
+        }
 
-            this.metrics.PCT_TARGET_BASES_2X  = (double) targetBases2x  / (double) totalTargetBases;
-            this.metrics.PCT_TARGET_BASES_10X = (double) targetBases10x / (double) totalTargetBases;
-            this.metrics.PCT_TARGET_BASES_20X = (double) targetBases20x / (double) totalTargetBases;
-	        this.metrics.PCT_TARGET_BASES_30X = (double) targetBases30x / (double) totalTargetBases;
-	        this.metrics.PCT_TARGET_BASES_40X = (double) targetBases40x / (double) totalTargetBases;
-	        this.metrics.PCT_TARGET_BASES_50X = (double) targetBases50x / (double) totalTargetBases;
-	        this.metrics.PCT_TARGET_BASES_100X = (double) targetBases100x / (double) totalTargetBases;
+        /** The number of bases of the covered targets with at least the given depth. */
+        private long basesAtDepth(final int minDepth) {
+            long bases = 0;
+            for (int depth = minDepth; depth < this.basesByDepth.length; ++depth) bases += this.basesByDepth[depth];
+            return bases;
         }
 
         private void calculateGcMetrics() {
@@ -517,22 +691,16 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
                 }
                 catch (IOException ioe) { throw new RuntimeIOException(ioe); }
 
-                final int bins = 101;
-                final long[] targetBasesByGc  = new long[bins];
-                final long[] alignedBasesByGc = new long[bins];
+                final long[] targetBasesByGc  = new long[GC_BINS];
 
-                for (final Map.Entry<Interval,Coverage> entry : this.coverageByTarget.entrySet()) {
-                    final Interval interval = entry.getKey();
-                    final Coverage cov = entry.getValue();
+                for (int target = 0; target < this.targets.size(); ++target) {
+                    final Interval interval = this.targets.get(target);
 
                     final double gcDouble = this.intervalToGc.get(interval);
-                    final int gc = (int) Math.round(gcDouble * 100);
-
-                    targetBasesByGc[gc]  += interval.length();
-                    alignedBasesByGc[gc] += cov.getTotal();
+                    targetBasesByGc[getGcBin(interval)] += interval.length();
 
                     if (out != null) {
-                        final double coverage = cov.getTotal() / (double) interval.length();
+                        final double coverage = this.totalByTarget[target] / (double) interval.length();
 
                         out.println(interval.getSequence() + "\t" +
                                     interval.getStart() + "\t" +
@@ -553,13 +721,13 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
                 long totalBases  = 0;
                 for (int i=0; i<targetBasesByGc.length; ++i) {
                     totalTarget += targetBasesByGc[i];
-                    totalBases  += alignedBasesByGc[i];
+                    totalBases  += this.alignedBasesByGc[i];
                 }
 
                 // Re-express things as % of the totals and calculate dropout metrics
                 for (int i=0; i<targetBasesByGc.length; ++i) {
                     final double targetPct  = targetBasesByGc[i]  / (double) totalTarget;
-                    final double alignedPct = alignedBasesByGc[i] / (double) totalBases;
+                    final double alignedPct = this.alignedBasesByGc[i] / (double) totalBases;
 
                     double dropout = (alignedPct - targetPct) * 100d;
                     if (dropout < 0) {
@@ -579,6 +747,26 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
         }
     }
 
+    /** Writes a non-negative int in 7-bit groups, least significant first, setting the top bit of all but the last. */
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Reads an int written by writeVarInt(). */
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+            if (shift > 21) throw new PicardException("Collector state has a malformed variable-length int");
+        }
+    }
+
     /**
      * A simple class that is used to store the coverage information about an interval.
      *
@@ -586,45 +774,82 @@ public abstract class TargetMetricsCollector<METRIC_TYPE extends MultilevelMetri
      */
     public static class Coverage {
         private final Interval interval;
-        private final short[] depths;
+        // The depth at each offset is the sum of the increments up to and including it.  Ranges of depth are added
+        // at their ends, so the array is one longer than the interval, and the depths are summed when asked for.
+        private final int[] increments;
 
         /** Constructs a new coverage object for the provided mapping with the desired padding either side. */
         public Coverage(final Interval i, final int padding) {
             this.interval = i;
-            this.depths = new short[interval.length() + 2*padding];
+            this.increments = new int[interval.length() + 2*padding + 1];
         }
 
         /** Adds a single point of depth at the desired offset into the coverage array. */
         public void addBase(final int offset) {
-            if (offset >= 0 && offset < this.depths.length) {
-                // Prevent overflow if depth is too great, while avoiding doubling memory requirement.
-                if (this.depths[offset] < Short.MAX_VALUE) {
-                    this.depths[offset] += 1;
-                }
+            addRange(offset, offset);
+        }
+
+        /** Adds a single point of depth at each offset from start to end inclusive that is within the coverage array. */
+        public void addRange(final int start, final int end) {
+            addRange(start, end, 1);
+        }
+
+        /** Adds depth points of depth at each offset from start to end inclusive that is within the coverage array. */
+        public void addRange(final int start, final int end, final int depth) {
+            final int first = Math.max(start, 0);
+            final int last = Math.min(end, this.increments.length - 2);
+            if (first <= last) {
+                this.increments[first] += depth;
+                this.increments[last + 1] -= depth;
+            }
+        }
+
+        /** Adds count points of depth at the desired offset into the coverage array, as if addBase() were called count times. */
+        public void addBases(final int offset, final int count) {
+            if (offset >= 0 && offset < this.increments.length - 1) {
+                this.increments[offset] += count;
+                this.increments[offset + 1] -= count;
             }
         }
 
         /** Returns true if any base in the range has coverage of > 1 */
         public boolean hasCoverage() {
-            for (final short s : depths) {
-                if (s > 1) return true;
+            int depth = 0;
+            for (int i=0; i<increments.length - 1; ++i) {
+                depth += increments[i];
+                if (depth > 1) return true;
             }
 
             return false;
         }
 
-        /** Gets the coverage depths as an array of shorts. */
-        public short[] getDepths() { return this.depths; }
+        /** Gets the interval whose coverage this is. */
+        public Interval getInterval() { return this.interval; }
 
-        public int getTotal() {
-            int total = 0;
-            for (int i=0; i<depths.length; ++i) total += depths[i];
+        /** Gets the coverage depths as a new array of ints. */
+        public int[] getDepths() {
+            final int[] depths = new int[increments.length - 1];
+            int depth = 0;
+            for (int i=0; i<depths.length; ++i) {
+                depth += increments[i];
+                depths[i] = depth;
+            }
+            return depths;
+        }
+
+        public long getTotal() {
+            long total = 0;
+            int depth = 0;
+            for (int i=0; i<increments.length - 1; ++i) {
+                depth += increments[i];
+                total += depth;
+            }
             return total;
         }
 
         @Override
         public String toString() {
-            return "TargetedMetricCollector(interval=" + interval + ", depths = [" + StringUtil.intValuesToString(this.depths) + "])";
+            return "TargetedMetricCollector(interval=" + interval + ", depths = [" + StringUtil.intValuesToString(getDepths()) + "])";
         }
     }
 }
@@ -754,3 +979,43 @@ class TargetMetrics extends MultilevelMetrics {
      */
     public double GC_DROPOUT;
 }
+
+// The overlaps of a SAMRecord with the targets and probes, calculated once per SAMRecord and passed to each
+// PerUnitTargetMetricCollector for the given record
+class TargetMetricsCollectorArgs {
+    private SAMRecord record;
+
+    // Whether the read overlaps a probe or is within NEAR_PROBE_DISTANCE before one
+    boolean nearProbe;
+    // The number of bases of the alignment blocks, and how many of them are on probes
+    int mappedBases;
+    int onProbeBases;
+    // The overlaps of the alignment blocks with the targets, as triples of the index of the target and the first
+    // and last offsets into it
+    int[] targetRanges = new int[3 * 4];
+    int numTargetRanges;
+    // The index of the first target on the sequence of the read that does not end before it, or -1 if the overlaps
+    // were not looked for
+    int targetFrontier;
+
+    public SAMRecord getRecord() {
+        return record;
+    }
+
+    void reset(final SAMRecord record) {
+        this.record = record;
+        this.nearProbe = false;
+        this.mappedBases = 0;
+        this.onProbeBases = 0;
+        this.numTargetRanges = 0;
+        this.targetFrontier = -1;
+    }
+
+    void addTargetRange(final int target, final int startOffset, final int endOffset) {
+        if (3 * numTargetRanges == targetRanges.length) targetRanges = Arrays.copyOf(targetRanges, 2 * targetRanges.length);
+        targetRanges[3 * numTargetRanges] = target;
+        targetRanges[3 * numTargetRanges + 1] = startOffset;
+        targetRanges[3 * numTargetRanges + 2] = endOffset;
+        ++numTargetRanges;
+    }
+}
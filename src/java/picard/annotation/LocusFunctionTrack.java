@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The function of every locus relative to a set of genes, worked out once so that the function of each base of a
+ * range can be looked up rather than worked out from each transcript over the range.  The function of a locus is the
+ * strongest that Gene.Transcript.assignLocusFunctionForRange() gives it for any transcript, or INTERGENIC if it is
+ * in no transcript.
+ *
+ * Each sequence is held as runs of loci with the same function: the start of each run, in order, and its function.
+ * Loci before the first run are INTERGENIC, and the last run, which is always INTERGENIC, goes on to the end of the
+ * sequence.
+ */
+public class LocusFunctionTrack {
+    private static final LocusFunction[] FUNCTIONS = LocusFunction.values();
+
+    // Bits of an event below its position: the ordinal of the function, then whether the event starts or ends it
+    private static final int FUNCTION_SHIFT = 1;
+    private static final int POSITION_SHIFT = 4;
+
+    private final Map<String, Runs> runsBySequence = new HashMap<String, Runs>();
+
+    private static class Runs {
+        final int[] starts;
+        final byte[] functions;
+
+        Runs(final int[] starts, final byte[] functions) {
+            this.starts = starts;
+            this.functions = functions;
+        }
+    }
+
+    public LocusFunctionTrack(final Collection<Gene> genes) {
+        final Map<String, List<Gene>> genesBySequence = new HashMap<String, List<Gene>>();
+        for (final Gene gene : genes) {
+            List<Gene> sequenceGenes = genesBySequence.get(gene.getSequence());
+            if (sequenceGenes == null) {
+                sequenceGenes = new ArrayList<Gene>();
+                genesBySequence.put(gene.getSequence(), sequenceGenes);
+            }
+            sequenceGenes.add(gene);
+        }
+
+        for (final Map.Entry<String, List<Gene>> entry : genesBySequence.entrySet()) {
+            runsBySequence.put(entry.getKey(), makeRuns(entry.getValue()));
+        }
+    }
+
+    /**
+     * Adds to counts, indexed by the ordinal of the function, the number of loci from start to end inclusive on
+     * sequence that have each function.
+     */
+    public void countFunctions(final String sequence, final int start, final int end, final long[] counts) {
+        final Runs runs = runsBySequence.get(sequence);
+        if (runs == null) {
+            counts[LocusFunction.INTERGENIC.ordinal()] += end - start + 1;
+            return;
+        }
+
+        // The run containing start, or -1 if start is before the first run
+        int run = Arrays.binarySearch(runs.starts, start);
+        if (run < 0) run = -run - 2;
+
+        for (int position = start; position <= end; ++run) {
+            final int function = run < 0 ? LocusFunction.INTERGENIC.ordinal() : runs.functions[run];
+            final int runEnd = run + 1 < runs.starts.length ? runs.starts[run + 1] - 1 : Integer.MAX_VALUE;
+            final int last = Math.min(end, runEnd);
+            counts[function] += last - position + 1;
+            position = last + 1;
+        }
+    }
+
+    /**
+     * Sweeps over the starts and ends of the loci with each function in each transcript of genes, all on the same
+     * sequence, starting a run wherever the strongest function of the loci changes.
+     */
+    private static Runs makeRuns(final List<Gene> genes) {
+        long[] events = new long[1024];
+        int numEvents = 0;
+        for (final Gene gene : genes) {
+            for (final Gene.Transcript transcript : gene) {
+                final int start = transcript.transcriptionStart;
+                final int end = transcript.transcriptionEnd;
+                if (numEvents + 6 * (transcript.exons.length + 1) > events.length) {
+                    events = Arrays.copyOf(events, Math.max(2 * events.length, numEvents + 6 * (transcript.exons.length + 1)));
+                }
+
+                // Exons are stronger than introns, so the whole transcript can be INTRONIC
+                numEvents = addEvents(events, numEvents, start, end, LocusFunction.INTRONIC);
+                for (final Gene.Transcript.Exon exon : transcript.exons) {
+                    final int exonStart = Math.max(exon.start, start);
+                    final int exonEnd = Math.min(exon.end, end);
+                    numEvents = addEvents(events, numEvents, exonStart, Math.min(exonEnd, transcript.codingStart - 1), LocusFunction.UTR);
+                    numEvents = addEvents(events, numEvents, Math.max(exonStart, transcript.codingStart),
+                            Math.min(exonEnd, transcript.codingEnd), LocusFunction.CODING);
+                    numEvents = addEvents(events, numEvents, Math.max(exonStart, transcript.codingEnd + 1), exonEnd, LocusFunction.UTR);
+                }
+            }
+        }
+        Arrays.sort(events, 0, numEvents);
+
+        // The number of ranges of each function over the current position
+        final int[] depths = new int[FUNCTIONS.length];
+        int[] starts = new int[64];
+        byte[] functions = new byte[64];
+        int numRuns = 0;
+        int currentFunction = LocusFunction.INTERGENIC.ordinal();
+
+        for (int i = 0; i < numEvents; ) {
+            final int position = (int) (events[i] >>> POSITION_SHIFT);
+            for (; i < numEvents && (int) (events[i] >>> POSITION_SHIFT) == position; ++i) {
+                final int function = (int) (events[i] >>> FUNCTION_SHIFT) & ((1 << (POSITION_SHIFT - FUNCTION_SHIFT)) - 1);
+                if ((events[i] & 1) == 1) ++depths[function];
+                else --depths[function];
+            }
+
+            int function = LocusFunction.INTERGENIC.ordinal();
+            for (int f = FUNCTIONS.length - 1; f > function; --f) {
+                if (depths[f] > 0) {
+                    function = f;
+                    break;
+                }
+            }
+
+            if (function != currentFunction) {
+                if (numRuns == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * numRuns);
+                    functions = Arrays.copyOf(functions, 2 * numRuns);
+                }
+                starts[numRuns] = position;
+                functions[numRuns] = (byte) function;
+                ++numRuns;
+                currentFunction = function;
+            }
+        }
+
+        return new Runs(Arrays.copyOf(starts, numRuns), Arrays.copyOf(functions, numRuns));
+    }
+
+    /** Adds events for the start and end of a range of loci with the given function, if the range is not empty. */
+    private static int addEvents(final long[] events, int numEvents, final int start, final int end, final LocusFunction function) {
+        if (start > end) return numEvents;
+        events[numEvents++] = ((long) start << POSITION_SHIFT) | (function.ordinal() << FUNCTION_SHIFT) | 1;
+        events[numEvents++] = ((long) end + 1) << POSITION_SHIFT | (function.ordinal() << FUNCTION_SHIFT);
+        return numEvents;
+    }
+}
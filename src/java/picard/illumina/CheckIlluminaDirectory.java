@@ -19,10 +19,17 @@ import picard.illumina.parser.ReadStructure;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Program to check a lane of an Illumina output directory.  This program checks that files exist, are non-zero in length, for every tile/cycle and
@@ -38,7 +45,8 @@ public class CheckIlluminaDirectory extends CommandLineProgram {
             +
             "Reasonably sized means non-zero sized for files that exist per tile and equal size for binary files that exist per cycle/per tile. "
             +
-            "CheckIlluminaDirectory DOES NOT check that the individual records in a file are well-formed.\n";
+            "With CHECK_FILE_HEADERS, the headers of binary files are also checked against each other and against " +
+            "the lengths of the files.  CheckIlluminaDirectory DOES NOT check that the individual records in a file are well-formed.\n";
 
     @Option(doc = "The basecalls output directory. ", shortName = "B")
     public File BASECALLS_DIR;
@@ -79,6 +87,16 @@ public class CheckIlluminaDirectory extends CommandLineProgram {
             optional = true)
     public Boolean LINK_LOCS = false;
 
+    @Option(doc = "Check that the headers of the BCL, filter and multi-tile files agree with each other and with the " +
+            "lengths of the files.  This reads the start of every file, so is slower than only checking that the " +
+            "files exist.", optional = true)
+    public Boolean CHECK_FILE_HEADERS = false;
+
+    @Option(doc = "The number of threads with which to check files. If NUM_PROCESSORS = 0, number of cores is " +
+            "automatically set to the number of cores available on the machine. If NUM_PROCESSORS < 0, then the " +
+            "number of cores used will be the number available on the machine less NUM_PROCESSORS.")
+    public Integer NUM_PROCESSORS = 0;
+
     /**
      * Required main method implementation.
      */
@@ -102,32 +120,47 @@ public class CheckIlluminaDirectory extends CommandLineProgram {
                 .getAbsolutePath() + ")\n");
         log.info("Expected cycles: " + StringUtil.intValuesToString(expectedCycles));
 
-        for (final Integer lane : LANES) {
-            IlluminaFileUtil fileUtil = new IlluminaFileUtil(BASECALLS_DIR, lane);
-            final List<Integer> expectedTiles = fileUtil.getExpectedTiles();
-            if (!TILE_NUMBERS.isEmpty()) {
-                expectedTiles.retainAll(TILE_NUMBERS);
-            }
+        final int numThreads;
+        if (NUM_PROCESSORS == 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS);
+        } else {
+            numThreads = NUM_PROCESSORS;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+        try {
+            for (final Integer lane : LANES) {
+                IlluminaFileUtil fileUtil = new IlluminaFileUtil(BASECALLS_DIR, lane);
+                final List<Integer> expectedTiles = fileUtil.getExpectedTiles();
+                if (!TILE_NUMBERS.isEmpty()) {
+                    expectedTiles.retainAll(TILE_NUMBERS);
+                }
 
-            if (LINK_LOCS) {
-                createLocFileSymlinks(fileUtil, lane);
-                //we need to create a new file util because it stores a cache to the files it found on
-                //construction and this doesn't inclue the recently created symlinks
-                fileUtil = new IlluminaFileUtil(BASECALLS_DIR, lane);
-            }
+                if (LINK_LOCS) {
+                    createLocFileSymlinks(fileUtil, lane);
+                    //we need to create a new file util because it stores a cache to the files it found on
+                    //construction and this doesn't inclue the recently created symlinks
+                    fileUtil = new IlluminaFileUtil(BASECALLS_DIR, lane);
+                }
 
-            log.info("Checking lane " + lane);
-            log.info("Expected tiles: " + StringUtil.join(", ", expectedTiles));
+                log.info("Checking lane " + lane);
+                log.info("Expected tiles: " + StringUtil.join(", ", expectedTiles));
 
-            final int numFailures = verifyLane(fileUtil, expectedTiles, expectedCycles, DATA_TYPES, FAKE_FILES);
+                final int numFailures = verifyLane(fileUtil, expectedTiles, expectedCycles, DATA_TYPES, FAKE_FILES,
+                        CHECK_FILE_HEADERS, executor);
 
-            if (numFailures > 0) {
-                log.info("Lane " + lane + " FAILED " + " Total Errors: " + numFailures);
-                failingLanes.add(lane);
-                totalFailures += numFailures;
-            } else {
-                log.info("Lane " + lane + " SUCCEEDED ");
+                if (numFailures > 0) {
+                    log.info("Lane " + lane + " FAILED " + " Total Errors: " + numFailures);
+                    failingLanes.add(lane);
+                    totalFailures += numFailures;
+                } else {
+                    log.info("Lane " + lane + " SUCCEEDED ");
+                }
             }
+        } finally {
+            executor.shutdownNow();
         }
 
         int status = 0;
@@ -173,17 +206,21 @@ public class CheckIlluminaDirectory extends CommandLineProgram {
     /**
      * Use fileUtil to find the data types that would be used by IlluminaDataProvider.  Verify that for the expected
      * tiles/cycles/data types that all the files needed to provide their data is present.  This method logs every
-     * error that is found (excluding file faking errors) and returns the number of errors found
+     * error that is found (excluding file faking errors) and returns the number of errors found.  The formats, and
+     * if checkHeaders is set the tiles, are checked in parallel on executor.
      *
      * @param fileUtil      A file util paramterized with the directory/lane to check
      * @param expectedTiles The tiles we expect to be available/well-formed
      * @param cycles        The cycles we expect to be available/well-formed
      * @param dataTypes     The data types we expect to be available/well-formed
+     * @param checkHeaders  Whether to also check the headers of the files of each tile
+     * @param executor      The executor on which to run the checks
      * @return The number of errors found/logged for this directory/lane
      */
     private static final int verifyLane(final IlluminaFileUtil fileUtil, final List<Integer> expectedTiles,
                                         final int[] cycles,
-                                        final Set<IlluminaDataType> dataTypes, final boolean fakeFiles) {
+                                        final Set<IlluminaDataType> dataTypes, final boolean fakeFiles,
+                                        final boolean checkHeaders, final ExecutorService executor) {
         if (expectedTiles.isEmpty()) {
             throw new PicardException(
                     "0 input tiles were specified!  Check to make sure this lane is in the InterOp file!");
@@ -216,24 +253,85 @@ public class CheckIlluminaDirectory extends CommandLineProgram {
             numFailures += unmatchedDataTypes.size();
         }
 
+        // getUtil() creates the utils lazily and is not thread-safe, so get them all before checking any.
+        final Map<IlluminaFileUtil.SupportedIlluminaFormat, ParameterizedFileUtil> utils =
+                new LinkedHashMap<IlluminaFileUtil.SupportedIlluminaFormat, ParameterizedFileUtil>();
         for (final IlluminaFileUtil.SupportedIlluminaFormat format : formatToDataTypes.keySet()) {
-            final ParameterizedFileUtil util = fileUtil.getUtil(format);
-            final List<String> failures = util.verify(expectedTiles, cycles);
-            //if we have failures and we want to fake files then fake them now.
-            if (!failures.isEmpty() && fakeFiles) {
-                //fake files
-                util.fakeFiles(expectedTiles, cycles, format);
+            utils.put(format, fileUtil.getUtil(format));
+        }
 
+        final Map<IlluminaFileUtil.SupportedIlluminaFormat, Future<List<String>>> verifications =
+                new LinkedHashMap<IlluminaFileUtil.SupportedIlluminaFormat, Future<List<String>>>();
+        for (final Map.Entry<IlluminaFileUtil.SupportedIlluminaFormat, ParameterizedFileUtil> entry : utils.entrySet()) {
+            final ParameterizedFileUtil util = entry.getValue();
+            verifications.put(entry.getKey(), executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    return util.verify(expectedTiles, cycles);
+                }
+            }));
+        }
+
+        final Map<Integer, Future<List<String>>> headerChecks = new LinkedHashMap<Integer, Future<List<String>>>();
+        if (checkHeaders) {
+            for (final Integer tile : expectedTiles) {
+                headerChecks.put(tile, executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        final List<String> failures = new ArrayList<String>();
+                        for (final ParameterizedFileUtil util : utils.values()) {
+                            failures.addAll(util.verifyHeaders(tile, cycles));
+                        }
+                        return failures;
+                    }
+                }));
             }
+        }
+
+        final Set<IlluminaFileUtil.SupportedIlluminaFormat> formatsToFake =
+                new LinkedHashSet<IlluminaFileUtil.SupportedIlluminaFormat>();
+        for (final Map.Entry<IlluminaFileUtil.SupportedIlluminaFormat, Future<List<String>>> entry : verifications.entrySet()) {
+            final List<String> failures = getResult(entry.getValue());
+            if (!failures.isEmpty()) formatsToFake.add(entry.getKey());
             numFailures += failures.size();
             for (final String failure : failures) {
                 log.info(failure);
             }
         }
 
+        for (final Map.Entry<Integer, Future<List<String>>> entry : headerChecks.entrySet()) {
+            final List<String> failures = getResult(entry.getValue());
+            if (!failures.isEmpty()) {
+                log.info("Tile " + entry.getKey() + " has " + failures.size() + " malformed file header(s):");
+            }
+            numFailures += failures.size();
+            for (final String failure : failures) {
+                log.info(failure);
+            }
+        }
+
+        //if we have failures and we want to fake files then fake them now, once nothing is reading the files.
+        if (fakeFiles) {
+            for (final IlluminaFileUtil.SupportedIlluminaFormat format : formatsToFake) {
+                utils.get(format).fakeFiles(expectedTiles, cycles, format);
+            }
+        }
+
         return numFailures;
     }
 
+    private static List<String> getResult(final Future<List<String>> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PicardException("Interrupted while checking files", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new PicardException("Error while checking files", e.getCause());
+        }
+    }
+
     @Override
     protected String[] customCommandLineValidation() {
         IOUtil.assertDirectoryIsReadable(BASECALLS_DIR);
@@ -23,6 +23,9 @@
  */
 package picard.illumina;
 
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.PeekIterator;
 import htsjdk.samtools.util.ProgressLogger;
@@ -32,17 +35,29 @@ import picard.illumina.parser.ClusterData;
 import picard.illumina.parser.IlluminaDataProvider;
 import picard.illumina.parser.IlluminaDataProviderFactory;
 import picard.illumina.parser.IlluminaDataType;
+import picard.illumina.parser.IlluminaFileUtil;
+import picard.illumina.parser.OutputMapping;
+import picard.illumina.parser.ParameterizedFileUtil;
 import picard.illumina.parser.ReadStructure;
 import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
 import picard.util.FileChannelJDKBugWorkAround;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +68,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -136,6 +152,12 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
     private final SortingCollection.Codec<CLUSTER_OUTPUT_RECORD> codecPrototype;
     // Annoying that we need this.
     private final Class<CLUSTER_OUTPUT_RECORD> outputRecordClass;
+    // If non-null, the sorted records of each tile are saved here once it has been read.  See setCheckpointDirectory().
+    private File checkpointDir = null;
+    // The inputs and settings of this converter that affect the records of a tile; part of checkpointKey.
+    private final String converterSettings;
+    // Identifies the inputs and settings that checkpointed tiles were read with.
+    private String checkpointKey;
 
     /**
 	 * @param basecallsDir           Where to read basecalls from.
@@ -221,6 +243,12 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         this.outputRecordClass = outputRecordClass;
         this.bclQualityEvaluationStrategy = bclQualityEvaluationStrategy;
         this.includeNonPfReads = includeNonPfReads;
+        final List<String> barcodes = new ArrayList<String>();
+        for (final String barcode : barcodeRecordWriterMap.keySet()) barcodes.add(String.valueOf(barcode));
+        Collections.sort(barcodes);
+        this.converterSettings = String.format("%s\t%s\t%s\t%d\t%s\t%s\t%s\t%s\t%s\t%s\t%s", outputRecordClass.getName(),
+                basecallsDir.getAbsolutePath(), barcodesDir == null ? null : barcodesDir.getAbsolutePath(), lane,
+                readStructure, demultiplex, includeNonPfReads, applyEamssFiltering, firstTile, tileLimit, barcodes);
 
         // If we're forcing garbage collection, collect every 5 minutes in a daemon thread.
         if (forceGc) {
@@ -283,6 +311,31 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         this.converter = converter;
     }
 
+    /**
+     * Save the sorted records of each tile, per barcode, in checkpointDir as soon as the tile has been read, along with
+     * a manifest for the tile once they are all saved.  Tiles that already have a manifest there, from an earlier run
+     * with the same inputs and settings that died or was killed before it finished, are not read again; their saved
+     * records are written out in their place.  The output files are always written from the beginning, but only the
+     * tiles that were not finished are decoded.  The checkpoint files are deleted once all the output has been written.
+     *
+     * Tiles are saved on a thread of their own, so that the threads reading tiles do not wait for them to be saved.
+     *
+     * @param checkpointDir  Directory to save tiles in, which is created if necessary, or null not to save tiles.
+     * @param callerSettings The caller's options that affect the records of a tile, e.g. those used by the converter,
+     *                       which are not otherwise known to this class.  A tile saved by a run with different settings,
+     *                       or with different inputs or settings of this class, is not used.
+     */
+    public void setCheckpointDirectory(final File checkpointDir, final String callerSettings) {
+        if (checkpointDir != null) {
+            if (!checkpointDir.exists() && !checkpointDir.mkdirs()) {
+                throw new PicardException("Could not create checkpoint directory " + checkpointDir.getAbsolutePath());
+            }
+            IOUtil.assertDirectoryIsWritable(checkpointDir);
+        }
+        this.checkpointDir = checkpointDir;
+        this.checkpointKey = converterSettings + "\t" + callerSettings;
+    }
+
     /**
      * In case caller needs to get some info from factory.
      */
@@ -305,8 +358,14 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                 tiles.add(new Tile(tileNumber));
             }
 
+            // Read big tiles early, within limits, so that they do not hold up the end of the run
+            final List<Tile> readOrder = new ArrayList<Tile>();
+            for (final Integer tileNumber : orderTilesForReading(this.tiles, factory.estimateTileClusterCounts(), 2 * numThreads)) {
+                readOrder.add(new Tile(tileNumber));
+            }
+
             final TileReadAggregator tileReadAggregator = new TileReadAggregator(tiles);
-            tileReadAggregator.submit();
+            tileReadAggregator.submit(readOrder);
             try {
                 tileReadAggregator.awaitWorkComplete();
             } catch (final InterruptedException e) {
@@ -334,6 +393,192 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                 writer.close();
             }
         }
+
+        // Only reached if all the output was written, so the saved tiles are no longer needed.
+        if (checkpointDir != null) deleteCheckpoints();
+    }
+
+    /**
+     * Orders tiles for reading.  Output is written in tile order and a tile that has been read holds on to its records
+     * until all the tiles before it have been written, so tiles are read in consecutive windows of windowSize tiles in
+     * output order.  Within each window the tiles with the most clusters are read first, so that a big tile late in the
+     * lane does not start last and leave the other threads idle while it is read.
+     *
+     * @param tilesInOutputOrder The tiles to read, in the order in which they are written
+     * @param clusterCounts      Estimated number of clusters of each tile; tiles that are missing are read last in
+     *                           their window.  If empty, the tiles are read in output order.
+     * @param windowSize         How many tiles may be reordered among themselves
+     * @return The tiles, in the order in which to start reading them
+     */
+    static List<Integer> orderTilesForReading(final List<Integer> tilesInOutputOrder, final Map<Integer, Long> clusterCounts,
+                                              final int windowSize) {
+        final List<Integer> readOrder = new ArrayList<Integer>(tilesInOutputOrder.size());
+        for (int start = 0; start < tilesInOutputOrder.size(); start += windowSize) {
+            final List<Integer> window = new ArrayList<Integer>(
+                    tilesInOutputOrder.subList(start, Math.min(start + windowSize, tilesInOutputOrder.size())));
+            // Stable, so tiles with the same count stay in output order
+            Collections.sort(window, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer tile1, final Integer tile2) {
+                    final Long count1 = clusterCounts.get(tile1);
+                    final Long count2 = clusterCounts.get(tile2);
+                    final long cost1 = count1 == null ? -1 : count1;
+                    final long cost2 = count2 == null ? -1 : count2;
+                    return cost1 > cost2 ? -1 : (cost1 < cost2 ? 1 : 0);
+                }
+            });
+            readOrder.addAll(window);
+        }
+        return readOrder;
+    }
+
+    private File getCheckpointManifest(final int tileNumber) {
+        return new File(checkpointDir, "tile_" + tileNumber + ".manifest");
+    }
+
+    private File getCheckpointChunk(final int tileNumber, final int barcodeIndex) {
+        return new File(checkpointDir, "tile_" + tileNumber + "." + barcodeIndex + ".chunk");
+    }
+
+    /**
+     * Writes the sorted records of each barcode of the tile to a chunk file, and then the manifest of the tile, which
+     * is renamed into place only once it is complete so that a tile with a manifest is a tile with all its chunks.
+     * Afterwards, the tile's records are written to output from the chunks.
+     */
+    private void saveCheckpoint(final Tile tile, final TileProcessingRecord tileRecord) {
+        final File manifest = getCheckpointManifest(tile.getNumber());
+        final File tmpManifest = new File(manifest.getPath() + ".tmp");
+        try {
+            final BufferedWriter manifestWriter = IOUtil.openFileForBufferedWriting(tmpManifest);
+            manifestWriter.write(checkpointKey);
+            manifestWriter.newLine();
+            int barcodeIndex = 0;
+            for (final String barcode : tileRecord.getBarcodes()) {
+                final File chunk = getCheckpointChunk(tile.getNumber(), barcodeIndex++);
+                final SortingCollection<CLUSTER_OUTPUT_RECORD> records = tileRecord.getBarcodeRecords().get(barcode);
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(chunk));
+                final SortingCollection.Codec<CLUSTER_OUTPUT_RECORD> codec = codecPrototype.clone();
+                codec.setOutputStream(out);
+                final CloseableIterator<CLUSTER_OUTPUT_RECORD> it = records.iterator();
+                while (it.hasNext()) {
+                    codec.encode(it.next());
+                }
+                it.close();
+                out.close();
+                records.cleanup();
+                tileRecord.setBarcodeChunk(barcode, chunk);
+
+                // Barcodes cannot contain tabs, and the null barcode (of non-demultiplexed or unmatched reads) is empty.
+                manifestWriter.write((barcode == null ? "" : barcode) + "\t" + chunk.getName());
+                manifestWriter.newLine();
+            }
+            manifestWriter.close();
+        } catch (final IOException e) {
+            throw new PicardException("Error saving checkpoint of tile " + tile.getNumber() + " in " +
+                    checkpointDir.getAbsolutePath(), e);
+        }
+        if (!tmpManifest.renameTo(manifest)) {
+            throw new PicardException("Could not rename " + tmpManifest.getAbsolutePath() + " to " + manifest.getAbsolutePath());
+        }
+    }
+
+    /**
+     * If a manifest was saved for the tile, marks the tile as read and each of the barcodes in it as read from its chunk.
+     *
+     * @return true if the tile was restored from a checkpoint and so does not need to be read.
+     */
+    private boolean restoreCheckpoint(final Tile tile, final TileProcessingRecord tileRecord) {
+        final File manifest = getCheckpointManifest(tile.getNumber());
+        if (!manifest.exists()) return false;
+        try {
+            final BufferedReader manifestReader = IOUtil.openFileForBufferedReading(manifest);
+            if (!checkpointKey.equals(manifestReader.readLine())) {
+                manifestReader.close();
+                throw new PicardException("Checkpoint " + manifest.getAbsolutePath() + " was saved by a run with different " +
+                        "inputs or settings.  Remove the files in " + checkpointDir.getAbsolutePath() + " to start again.");
+            }
+            String line;
+            while ((line = manifestReader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                final String barcode = tab == 0 ? null : line.substring(0, tab);
+                final File chunk = new File(checkpointDir, line.substring(tab + 1));
+                if (!barcodeRecordWriterMap.containsKey(barcode)) {
+                    manifestReader.close();
+                    throw new PicardException(String.format("Checkpoint %s has records with barcode %s, but this barcode " +
+                            "was not expected.", manifest.getAbsolutePath(), barcode));
+                }
+                IOUtil.assertFileIsReadable(chunk);
+                tileRecord.restoreBarcode(barcode, chunk);
+            }
+            manifestReader.close();
+        } catch (final IOException e) {
+            throw new PicardException("Error reading checkpoint " + manifest.getAbsolutePath(), e);
+        }
+        tileRecord.setState(TileProcessingState.DONE_READING);
+        log.info(String.format("Tile %s was read by an earlier run; using its checkpoint.", tile.getNumber()));
+        return true;
+    }
+
+    /** Deletes the manifest of each tile, and then the chunks of the tiles whose manifests were deleted. */
+    private void deleteCheckpoints() {
+        final Set<String> chunkPrefixes = new HashSet<String>();
+        for (final Integer tileNumber : this.tiles) {
+            final File manifest = getCheckpointManifest(tileNumber);
+            if (manifest.delete()) {
+                chunkPrefixes.add("tile_" + tileNumber + ".");
+            } else if (manifest.exists()) {
+                log.warn("Could not delete " + manifest.getAbsolutePath());
+            }
+        }
+        final String[] names = checkpointDir.list();
+        if (names == null) return;
+        for (final String name : names) {
+            if (name.endsWith(".chunk") && chunkPrefixes.contains(name.substring(0, name.indexOf('.') + 1))) {
+                new File(checkpointDir, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the records saved in a chunk by saveCheckpoint().
+     */
+    private class ChunkIterator implements CloseableIterator<CLUSTER_OUTPUT_RECORD> {
+        private final InputStream in;
+        private final SortingCollection.Codec<CLUSTER_OUTPUT_RECORD> codec = codecPrototype.clone();
+        private CLUSTER_OUTPUT_RECORD next;
+
+        ChunkIterator(final File chunk) {
+            try {
+                in = IOUtil.maybeBufferInputStream(new FileInputStream(chunk));
+            } catch (final IOException e) {
+                throw new PicardException("Error opening checkpoint " + chunk.getAbsolutePath(), e);
+            }
+            codec.setInputStream(in);
+            next = codec.decode();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public CLUSTER_OUTPUT_RECORD next() {
+            if (next == null) throw new NoSuchElementException();
+            final CLUSTER_OUTPUT_RECORD ret = next;
+            next = codec.decode();
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            CloserUtil.close(in);
+        }
     }
 
     /**
@@ -400,6 +645,8 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         final private Map<String, SortingCollection<CLUSTER_OUTPUT_RECORD>> barcodeToRecordCollection =
                 new HashMap<String, SortingCollection<CLUSTER_OUTPUT_RECORD>>();
         final private Map<String, TileBarcodeProcessingState> barcodeToProcessingState = new HashMap<String, TileBarcodeProcessingState>();
+        // When checkpointing, where the sorted records of each barcode were saved by this or an earlier run.
+        final private Map<String, File> barcodeToChunk = new HashMap<String, File>();
         private TileProcessingState state = TileProcessingState.NOT_DONE_READING;
         private long recordCount = 0;
 
@@ -504,6 +751,32 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
             }
         }
 
+        /**
+         * Records that the sorted records of the barcode have been saved to chunk, from which they are to be written.
+         */
+        public synchronized void setBarcodeChunk(final String barcode, final File chunk) {
+            this.barcodeToChunk.put(barcode, chunk);
+        }
+
+        /**
+         * Records that the barcode was read from this tile by an earlier run, which saved its sorted records to chunk.
+         */
+        public synchronized void restoreBarcode(final String barcode, final File chunk) {
+            this.barcodeToChunk.put(barcode, chunk);
+            this.barcodeToProcessingState.put(barcode, TileBarcodeProcessingState.READ);
+        }
+
+        /**
+         * Returns the sorted records of the barcode, from its saved chunk if there is one.
+         */
+        public synchronized CloseableIterator<CLUSTER_OUTPUT_RECORD> getRecordIterator(final String barcode) {
+            final File chunk = this.barcodeToChunk.get(barcode);
+            if (chunk != null) {
+                return new ChunkIterator(chunk);
+            }
+            return this.barcodeToRecordCollection.get(barcode).iterator();
+        }
+
         /**
          * Returns the distinct set of barcodes for which data has been collected in this record.
          *
@@ -593,6 +866,8 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
          * The object acting as a latch to notify when the aggregator completes its work.
          */
         private final Object completionLatch = new Object();
+        // Guarded by completionLatch, so that completion is not missed if it is signalled before it is awaited.
+        private boolean workCompleted = false;
 
         /**
          * Stores the thread that is executing this work so that it can be interrupted upon failure.
@@ -601,6 +876,12 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         private final Object workEnqueueMonitor = new Object();
         private final AtomicBoolean submitted = new AtomicBoolean(false);
 
+        /**
+         * When checkpointing, saves each tile once it has been read, so that the thread that read it can go on to
+         * read another tile.
+         */
+        private final ExecutorService checkpointExecutor = checkpointDir == null ? null : Executors.newSingleThreadExecutor();
+
 
         /**
          * Creates a TileReadAggregator that reads from the provided tiles.
@@ -609,7 +890,9 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
          */
         public TileReadAggregator(final Collection<Tile> tiles) {
             for (final Tile t : tiles) {
-                tileRecords.put(t, new TileProcessingRecord());
+                final TileProcessingRecord tileRecord = new TileProcessingRecord();
+                if (checkpointDir != null) restoreCheckpoint(t, tileRecord);
+                tileRecords.put(t, tileRecord);
             }
         }
 
@@ -617,9 +900,11 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
          * Execute the tile aggregator's work.  Creates a thread pool to read data from tiles and write them to file.
          * Invoke this method only once.
          *
+         * @param readOrder The tiles of this aggregator, in the order in which to start reading them
+         *
          * @throws IllegalStateException If submit was called more than once.
          */
-        public void submit() {
+        public void submit(final List<Tile> readOrder) {
             // Ensure the aggregator as not yet been submitted
             if (!this.submitted.compareAndSet(false, true)) {
                 throw new IllegalStateException("The submit() method may not be called more than once.");
@@ -630,11 +915,14 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
 
             /**
              * For each tile, create and submit a tile processor.  Give it a negative execution priority (so that
-             * prioritized tasks with a positive execution priority execute first), and give later tiles a lesser
-             * (more negative) priority.
+             * prioritized tasks with a positive execution priority execute first), and give tiles later in the read
+             * order a lesser (more negative) priority.
              */
             int priority = 0;
-            for (final Tile tile : this.tileRecords.keySet()) {
+            for (final Tile tile : readOrder) {
+                // Restored from a checkpoint
+                if (this.tileRecords.get(tile).getState() == TileProcessingState.DONE_READING) continue;
+
                 final TileReader reader = new TileReader(tile, this, this.tileRecords.get(tile));
                 this.prioritizingThreadPool.execute(new PriorityRunnable(--priority) {
                     @Override
@@ -656,6 +944,9 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                     }
                 });
             }
+
+            // Start writing any tiles restored from checkpoints, or signal completion if there are no tiles at all.
+            this.findAndEnqueueWorkOrSignalCompletion();
         }
 
         /**
@@ -676,6 +967,33 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                 tileRecord.setBarcodeState(barcode, TileBarcodeProcessingState.READ);
                 tileRecord.barcodeToRecordCollection.get(barcode).doneAdding();
             }
+
+            if (checkpointDir == null) {
+                finishTile(tile, tileRecord);
+            } else {
+                // The tile is written from its checkpoint, so it is not done reading until it has been saved.
+                this.checkpointExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            saveCheckpoint(tile, tileRecord);
+                            finishTile(tile, tileRecord);
+                        } catch (final RuntimeException e) {
+                            parentThread.interrupt();
+                            throw e;
+                        } catch (final Error e) {
+                            parentThread.interrupt();
+                            throw e;
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Marks a tile that has been read, and saved if checkpointing, as done reading, so that it can be written.
+         */
+        private void finishTile(final Tile tile, final TileProcessingRecord tileRecord) {
             tileRecord.setState(TileProcessingState.DONE_READING);
 
             log.debug(String.format("Completed reading tile %s; collected %s reads spanning %s barcodes.",
@@ -692,7 +1010,9 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
          */
         public void awaitWorkComplete() throws InterruptedException {
             synchronized (this.completionLatch) {
-                this.completionLatch.wait();
+                while (!this.workCompleted) {
+                    this.completionLatch.wait();
+                }
             }
         }
 
@@ -702,6 +1022,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
          */
         private void signalWorkComplete() {
             synchronized (this.completionLatch) {
+                this.workCompleted = true;
                 this.completionLatch.notifyAll();
             }
         }
@@ -782,12 +1103,12 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                 @Override
                 public void run() {
                     try {
-                        final SortingCollection<CLUSTER_OUTPUT_RECORD> records = tileRecord.getBarcodeRecords().get(barcode);
+                        final CloseableIterator<CLUSTER_OUTPUT_RECORD> records = tileRecord.getRecordIterator(barcode);
                         final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer = barcodeRecordWriterMap.get(barcode);
 
                         log.debug(String.format("Writing records from tile %s with barcode %s ...", tile.getNumber(), barcode));
 
-                        final PeekIterator<CLUSTER_OUTPUT_RECORD> it = new PeekIterator<CLUSTER_OUTPUT_RECORD>(records.iterator());
+                        final PeekIterator<CLUSTER_OUTPUT_RECORD> it = new PeekIterator<CLUSTER_OUTPUT_RECORD>(records);
                         while (it.hasNext()) {
                             final CLUSTER_OUTPUT_RECORD rec = it.next();
 
@@ -817,6 +1138,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                             writer.write(rec);
                             writeProgressLogger.record(null, 0);
                         }
+                        records.close();
 
                         tileRecord.setBarcodeState(barcode, TileBarcodeProcessingState.WRITTEN);
                         findAndEnqueueWorkOrSignalCompletion();
@@ -867,12 +1189,152 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
 
         /**
          * Terminates the threads currently exiting in the thread pool abruptly via ThreadPoolExecutor.shutdownNow().
+         * If checkpointing, tiles that have been read are saved first, so that a run that failed can resume from them.
          */
         public void shutdown() {
+            if (this.checkpointExecutor != null) {
+                this.checkpointExecutor.shutdown();
+                try {
+                    this.checkpointExecutor.awaitTermination(Long.MAX_VALUE, MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    log.warn("Interrupted while saving checkpoints of tiles that have been read.");
+                    this.checkpointExecutor.shutdownNow();
+                }
+            }
             this.prioritizingThreadPool.shutdownNow();
         }
     }
 
+    /**
+     * Block until every file needed to convert the given lane is present, as CheckIlluminaDirectory would check it, and
+     * finished, so that conversion can be launched while the sequencer is still writing the run and begin as soon as
+     * the files for the last cycle of every tile have landed.  Cycles are not converted as they arrive; conversion only
+     * starts once the whole lane is complete.  The run folder is rescanned on each poll, because the file utils only
+     * see the files present when they are created.
+     *
+     * Some formats are only checked for existence, and a file may exist before it has been completely written, so the
+     * files are taken to be finished only once RTAComplete.txt is in the run folder, or once the sizes of all the files
+     * of the lane are unchanged from one poll to the next.  If basecallsDir is not deep enough to be in a run folder,
+     * only the file sizes are checked.
+     *
+     * @param pollIntervalMillis How long to sleep between checks.
+     * @param timeoutMillis      Give up after this long.
+     * @throws PicardException if the lane is still incomplete when timeoutMillis has elapsed.
+     */
+    public static void awaitCompleteBasecalls(final File basecallsDir, final File barcodesDir, final int lane,
+                                              final ReadStructure readStructure, final boolean demultiplex,
+                                              final long pollIntervalMillis, final long timeoutMillis) {
+        final Set<IlluminaDataType> dataTypes =
+                new HashSet<IlluminaDataType>(Arrays.asList(getDataTypesFromReadStructure(readStructure, demultiplex)));
+        final int[] expectedCycles = new OutputMapping(readStructure).getOutputCycles();
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final File runDir = getRunDirectory(basecallsDir);
+        final File rtaComplete = runDir == null ? null : new File(runDir, "RTAComplete.txt");
+        Map<String, Long> lastFileSizes = null;
+
+        while (true) {
+            List<String> problems;
+            try {
+                problems = findMissingBasecalls(new IlluminaFileUtil(basecallsDir, barcodesDir, lane), expectedCycles, dataTypes);
+            } catch (final PicardException e) {
+                // e.g. TileMetricsOut.bin or a newly listed file is still being written
+                problems = Collections.singletonList(e.getMessage());
+            }
+            if (problems.isEmpty()) {
+                if (rtaComplete != null && rtaComplete.exists()) {
+                    log.info(String.format("All basecall files for lane %d are present and %s exists.", lane, rtaComplete));
+                    return;
+                }
+                final Map<String, Long> fileSizes = getLaneFileSizes(basecallsDir, barcodesDir, lane);
+                if (fileSizes.equals(lastFileSizes)) {
+                    log.info(String.format("All basecall files for lane %d are present and no longer growing.", lane));
+                    return;
+                }
+                lastFileSizes = fileSizes;
+                problems = Collections.singletonList("files may still be being written");
+            } else {
+                lastFileSizes = null;
+            }
+            if (System.currentTimeMillis() + pollIntervalMillis > deadline) {
+                throw new PicardException(String.format("Basecalls for lane %d still incomplete after waiting %d minutes: %s",
+                        lane, MILLISECONDS.toMinutes(timeoutMillis), problems.get(0)));
+            }
+            log.info(String.format("Waiting for basecalls in lane %d (%d problems, e.g. %s)", lane, problems.size(), problems.get(0)));
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while waiting for basecalls", e);
+            }
+        }
+    }
+
+    /**
+     * @return The run folder, i.e. the directory three above basecallsDir (Data/Intensities/BaseCalls), or null if
+     * basecallsDir does not have that many ancestors.
+     */
+    private static File getRunDirectory(final File basecallsDir) {
+        File dir = basecallsDir.getAbsoluteFile();
+        for (int i = 0; i < 3 && dir != null; ++i) dir = dir.getParentFile();
+        return dir;
+    }
+
+    /**
+     * @return The size of each file of the lane, by path: everything in the lane directories of the basecalls and
+     * intensities, the files directly in the basecalls and barcodes directories, and the tile metrics.
+     */
+    private static Map<String, Long> getLaneFileSizes(final File basecallsDir, final File barcodesDir, final int lane) {
+        final Map<String, Long> sizes = new TreeMap<String, Long>();
+        final String laneDir = IlluminaFileUtil.longLaneStr(lane);
+        addFileSizes(new File(basecallsDir, laneDir), true, sizes);
+        addFileSizes(new File(basecallsDir.getAbsoluteFile().getParentFile(), laneDir), true, sizes);
+        addFileSizes(basecallsDir, false, sizes);
+        if (barcodesDir != null) addFileSizes(barcodesDir, false, sizes);
+        final File tileMetricsOut = new IlluminaFileUtil(basecallsDir, barcodesDir, lane).tileMetricsOut();
+        sizes.put(tileMetricsOut.getAbsolutePath(), tileMetricsOut.length());
+        return sizes;
+    }
+
+    private static void addFileSizes(final File dir, final boolean recurse, final Map<String, Long> sizes) {
+        final File[] files = dir.listFiles();
+        if (files == null) return;
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                if (recurse) addFileSizes(file, true, sizes);
+            } else {
+                sizes.put(file.getAbsolutePath(), file.length());
+            }
+        }
+    }
+
+    /**
+     * @return A description of each file that is missing or inconsistently sized for the lane's expected tiles and
+     * the given cycles, or of the tile metrics file if the expected tiles are not yet known.  Empty if the lane is
+     * complete.
+     */
+    private static List<String> findMissingBasecalls(final IlluminaFileUtil fileUtil, final int[] expectedCycles,
+                                                     final Set<IlluminaDataType> dataTypes) {
+        if (!fileUtil.tileMetricsOut().exists()) {
+            return Collections.singletonList(fileUtil.tileMetricsOut().getAbsolutePath() + " does not exist");
+        }
+        final List<Integer> expectedTiles = fileUtil.getExpectedTiles();
+        final List<String> problems = new ArrayList<String>();
+        if (expectedTiles.isEmpty()) {
+            problems.add("No tiles for lane " + fileUtil.getLane() + " found in " + fileUtil.tileMetricsOut().getAbsolutePath());
+            return problems;
+        }
+
+        final Map<IlluminaFileUtil.SupportedIlluminaFormat, Set<IlluminaDataType>> formatToDataTypes =
+                IlluminaDataProviderFactory.determineFormats(dataTypes, fileUtil);
+        for (final IlluminaDataType unmatched : IlluminaDataProviderFactory.findUnmatchedTypes(dataTypes, formatToDataTypes)) {
+            problems.add("No files found for data type " + unmatched);
+        }
+        for (final IlluminaFileUtil.SupportedIlluminaFormat format : formatToDataTypes.keySet()) {
+            final ParameterizedFileUtil util = fileUtil.getUtil(format);
+            problems.addAll(util.verify(expectedTiles, expectedCycles));
+        }
+        return problems;
+    }
+
     /**
      * Given a read structure return the data types that need to be parsed for this run
      */
@@ -33,6 +33,7 @@ import htsjdk.samtools.fastq.FastqWriterFactory;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.Md5CalculatingOutputStream;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
@@ -48,6 +49,7 @@ import picard.illumina.parser.ReadData;
 import picard.illumina.parser.ReadStructure;
 import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
 import picard.util.IlluminaUtil;
+import picard.util.ParallelBlockCompressedOutputStream;
 import picard.util.TabbedTextFileWithHeaderParser;
 
 import java.io.BufferedReader;
@@ -65,6 +67,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class IlluminaBasecallsToFastq extends CommandLineProgram {
     // The following attributes define the command-line arguments
@@ -156,7 +162,31 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
 
     @Option(shortName = "GZIP", doc = "Compress output FASTQ files using gzip and append a .gz extension to the file names.")
     public boolean COMPRESS_OUTPUTS = false;
-    
+
+    @Option(doc = "The number of threads used to compress output FASTQs when COMPRESS_OUTPUTS is true.  Compressed output " +
+            "is written in the block-gzip (BGZF) format, which any gzip reader can read.  If 0, the number of cores " +
+            "available on the machine is used.")
+    public int COMPRESSION_THREADS = 0;
+
+    @Option(doc = "If COMPRESS_OUTPUTS is true, also write a bgzip-style .gzi block offset index alongside each FASTQ, " +
+            "to allow random access into it.")
+    public boolean CREATE_FASTQ_INDEX = false;
+
+    @Option(doc = "If set, the basecalls may still be being written, e.g. because the run is in progress.  Check the " +
+            "lane's input files every POLL_INTERVAL_SECONDS, as CheckIlluminaDirectory would, and start converting as soon " +
+            "as every tile and cycle required by READ_STRUCTURE is present.  Fail if that takes more than this many minutes.",
+            optional = true)
+    public Integer WAIT_FOR_BASECALLS_MINUTES;
+
+    @Option(doc = "How often to check for complete basecalls when WAIT_FOR_BASECALLS_MINUTES is set.")
+    public int POLL_INTERVAL_SECONDS = 60;
+
+    @Option(doc = "If set, save each tile's sorted reads in this directory as soon as the tile has been read, so that if " +
+            "this program is killed or dies it can be run again with the same arguments and only read the tiles that " +
+            "were not finished.  Needs about as much space as the output, uncompressed.  Emptied when the output is " +
+            "complete.", optional = true)
+    public File CHECKPOINT_DIR;
+
     /** Simple switch to control the read name format to emit. */
     public enum ReadNameFormat {
         CASAVA_1_8, ILLUMINA
@@ -168,6 +198,7 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
     private static final Log log = Log.getInstance(IlluminaBasecallsToFastq.class);
     private final FastqWriterFactory fastqWriterFactory = new FastqWriterFactory();
     private ReadNameEncoder readNameEncoder;
+    private ExecutorService compressor;
     private static final Comparator<FastqRecordsForCluster> queryNameComparator = new Comparator<FastqRecordsForCluster>() {
         @Override
         public int compare(final FastqRecordsForCluster r1, final FastqRecordsForCluster r2) {
@@ -181,7 +212,11 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
     protected int doWork() {
         initialize();
 
-        basecallsConverter.doTileProcessing();
+        try {
+            basecallsConverter.doTileProcessing();
+        } finally {
+            if (compressor != null) compressor.shutdown();
+        }
 
         return 0;
     }
@@ -196,6 +231,14 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
         if (READ_NAME_FORMAT == ReadNameFormat.CASAVA_1_8 && FLOWCELL_BARCODE == null) {
             errors.add("FLOWCELL_BARCODE is required when using Casava1.8-style read name headers.");
         }
+
+        if (POLL_INTERVAL_SECONDS < 1) {
+            errors.add("POLL_INTERVAL_SECONDS must be at least 1.");
+        }
+
+        if (WAIT_FOR_BASECALLS_MINUTES != null && WAIT_FOR_BASECALLS_MINUTES < 0) {
+            errors.add("WAIT_FOR_BASECALLS_MINUTES must not be negative.");
+        }
         
         if (errors.isEmpty()) {
             return null;
@@ -209,6 +252,10 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
      */
     private void initialize() {
         fastqWriterFactory.setCreateMd5(CREATE_MD5_FILE);
+        if (COMPRESS_OUTPUTS) {
+            compressor = ParallelBlockCompressedOutputStream.newCompressorPool(
+                    COMPRESSION_THREADS > 0 ? COMPRESSION_THREADS : Runtime.getRuntime().availableProcessors());
+        }
         switch (READ_NAME_FORMAT) {
             case CASAVA_1_8:
                 readNameEncoder = new Casava18ReadNameEncoder(MACHINE_NAME, RUN_BARCODE, FLOWCELL_BARCODE);        
@@ -231,6 +278,10 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
             populateWritersFromMultiplexParams();
             demultiplex = true;
         }
+        if (WAIT_FOR_BASECALLS_MINUTES != null) {
+            IlluminaBasecallsConverter.awaitCompleteBasecalls(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure, demultiplex,
+                    SECONDS.toMillis(POLL_INTERVAL_SECONDS), MINUTES.toMillis(WAIT_FOR_BASECALLS_MINUTES));
+        }
         final int readsPerCluster = readStructure.templates.length() + readStructure.barcodes.length();
         basecallsConverter = new IlluminaBasecallsConverter<FastqRecordsForCluster>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                 barcodeFastqWriterMap, demultiplex, MAX_READS_IN_RAM_PER_TILE/readsPerCluster, TMP_DIR, NUM_PROCESSORS,
@@ -241,6 +292,9 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
 
         log.info("READ STRUCTURE IS " + readStructure.toString());
 
+        basecallsConverter.setCheckpointDirectory(CHECKPOINT_DIR, String.format(
+                "READ_NAME_FORMAT=%s\tMACHINE_NAME=%s\tRUN_BARCODE=%s\tFLOWCELL_BARCODE=%s\tMINIMUM_QUALITY=%d",
+                READ_NAME_FORMAT, MACHINE_NAME, RUN_BARCODE, FLOWCELL_BARCODE, MINIMUM_QUALITY));
         basecallsConverter.setConverter(
 		        new ClusterToFastqRecordsForClusterConverter(
 				        basecallsConverter.getFactory().getOutputReadStructure()));
@@ -320,15 +374,32 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
         final FastqWriter[] barcodeWriters = new FastqWriter[readStructure.barcodes.length()];
         for (int i = 0; i < templateWriters.length; ++i) {
             final String filename = String.format("%s.%d.%s", prefixString, i+1, suffixString);
-            templateWriters[i] = fastqWriterFactory.newWriter(new File(outputDir, filename));
+            templateWriters[i] = newWriter(new File(outputDir, filename));
         }
         for (int i = 0; i < barcodeWriters.length; ++i) {
             final String filename = String.format("%s.barcode_%d.%s", prefixString, i+1, suffixString);
-            barcodeWriters[i] = fastqWriterFactory.newWriter(new File(outputDir, filename));
+            barcodeWriters[i] = newWriter(new File(outputDir, filename));
         }
         return new FastqRecordsWriter(templateWriters, barcodeWriters);
     }
 
+    /**
+     * @return A FastqWriter for the given file, which if COMPRESS_OUTPUTS is set writes BGZF, compressing on the
+     * shared compressor pool.
+     */
+    private FastqWriter newWriter(final File file) {
+        if (!COMPRESS_OUTPUTS) {
+            return fastqWriterFactory.newWriter(file);
+        }
+        final File indexFile = CREATE_FASTQ_INDEX ? new File(file.getAbsolutePath() + ".gzi") : null;
+        OutputStream os = new ParallelBlockCompressedOutputStream(file, compressor, COMPRESSION_LEVEL, indexFile);
+        if (CREATE_MD5_FILE) {
+            // As for FastqWriterFactory, the digest is of the uncompressed FASTQ.
+            os = new Md5CalculatingOutputStream(os, new File(file.getAbsolutePath() + ".md5"));
+        }
+        return new BasicFastqWriter(new PrintStream(os));
+    }
+
     public static void main(final String[] args) {
         new IlluminaBasecallsToFastq().instanceMainWithExit(args);
     }
@@ -61,6 +61,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 /**
  * IlluminaBasecallsToSam transforms a lane of Illumina data file formats (bcl, locs, clocs, qseqs, etc.) into
  * SAM or BAM file format.
@@ -196,6 +199,21 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
     @Option(doc="Whether to include non-PF reads", shortName="NONPF", optional=true)
     public boolean INCLUDE_NON_PF_READS = true;
 
+    @Option(doc = "If set, the basecalls may still be being written, e.g. because the run is in progress.  Check the " +
+            "lane's input files every POLL_INTERVAL_SECONDS, as CheckIlluminaDirectory would, and start converting as soon " +
+            "as every tile and cycle required by READ_STRUCTURE is present.  Fail if that takes more than this many minutes.",
+            optional = true)
+    public Integer WAIT_FOR_BASECALLS_MINUTES;
+
+    @Option(doc = "How often to check for complete basecalls when WAIT_FOR_BASECALLS_MINUTES is set.")
+    public int POLL_INTERVAL_SECONDS = 60;
+
+    @Option(doc = "If set, save each tile's sorted reads in this directory as soon as the tile has been read, so that if " +
+            "this program is killed or dies it can be run again with the same arguments and only read the tiles that " +
+            "were not finished.  Needs about as much space as the output, uncompressed.  Emptied when the output is " +
+            "complete.", optional = true)
+    public File CHECKPOINT_DIR;
+
     private final Map<String, SAMFileWriterWrapper> barcodeSamWriterMap = new HashMap<String, SAMFileWriterWrapper>();
     private ReadStructure readStructure;
     IlluminaBasecallsConverter<SAMRecordsForCluster> basecallsConverter;
@@ -233,6 +251,11 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
 
         final int numOutputRecords = readStructure.templates.length();
 
+        if (WAIT_FOR_BASECALLS_MINUTES != null) {
+            IlluminaBasecallsConverter.awaitCompleteBasecalls(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure, true,
+                    SECONDS.toMillis(POLL_INTERVAL_SECONDS), MINUTES.toMillis(WAIT_FOR_BASECALLS_MINUTES));
+        }
+
         basecallsConverter = new IlluminaBasecallsConverter<SAMRecordsForCluster>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                 barcodeSamWriterMap, true, MAX_READS_IN_RAM_PER_TILE/numOutputRecords, TMP_DIR, NUM_PROCESSORS, FORCE_GC,
                 FIRST_TILE, TILE_LIMIT, new QueryNameComparator(), new Codec(numOutputRecords), SAMRecordsForCluster.class,
@@ -247,6 +270,9 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
         final ClusterDataToSamConverter converter = new ClusterDataToSamConverter(RUN_BARCODE, READ_GROUP_ID,
                 basecallsConverter.getFactory().getOutputReadStructure(), ADAPTERS_TO_CHECK);
         basecallsConverter.setConverter(converter);
+        basecallsConverter.setCheckpointDirectory(CHECKPOINT_DIR, String.format(
+                "RUN_BARCODE=%s\tREAD_GROUP_ID=%s\tADAPTERS_TO_CHECK=%s\tMINIMUM_QUALITY=%d",
+                RUN_BARCODE, READ_GROUP_ID, ADAPTERS_TO_CHECK, MINIMUM_QUALITY));
 
     }
 
@@ -438,6 +464,13 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
             }
         }
 
+        if (POLL_INTERVAL_SECONDS < 1) {
+            messages.add("POLL_INTERVAL_SECONDS must be at least 1.");
+        }
+        if (WAIT_FOR_BASECALLS_MINUTES != null && WAIT_FOR_BASECALLS_MINUTES < 0) {
+            messages.add("WAIT_FOR_BASECALLS_MINUTES must not be negative.");
+        }
+
         if (READ_GROUP_ID == null) {
             READ_GROUP_ID = RUN_BARCODE.substring(0, 5) + "." + LANE;
         }
@@ -50,7 +50,14 @@ import picard.util.ClippingUtility;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static picard.util.IlluminaUtil.IlluminaAdapterPair;
 
@@ -120,8 +127,16 @@ public class MarkIlluminaAdapters extends CommandLineProgram {
             "were tied with the adapters being kept).")
     public int NUM_ADAPTERS_TO_KEEP = AdapterMarker.DEFAULT_NUM_ADAPTERS_TO_KEEP;
 
+    @Option(doc="The number of threads on which to mark adapters.  Reads are marked in batches and written in their " +
+            "original order.  If NUM_PROCESSORS = 0, the number of cores available on the machine is used.  If " +
+            "NUM_PROCESSORS < 0, then the number of cores used will be the number available on the machine less NUM_PROCESSORS.")
+    public int NUM_PROCESSORS = 1;
+
     private static final Log log = Log.getInstance(MarkIlluminaAdapters.class);
 
+    /** Number of reads or read pairs marked together as one unit of work when running on more than one thread. */
+    private static final int BATCH_SIZE = 10000;
+
     // Stock main method
     public static void main(final String[] args) {
         System.exit(new MarkIlluminaAdapters().instanceMain(args));
@@ -144,10 +159,14 @@ public class MarkIlluminaAdapters extends CommandLineProgram {
 
         final SAMFileReader in = new SAMFileReader(INPUT);
         final SAMFileHeader.SortOrder order = in.getFileHeader().getSortOrder();
+        final int numThreads = getNumThreads();
         SAMFileWriter out = null;
         if (OUTPUT != null) {
             IOUtil.assertFileIsWritable(OUTPUT);
-            out = new SAMFileWriterFactory().makeSAMOrBAMWriter(in.getFileHeader(), true, OUTPUT);
+            // When marking is multi-threaded, compress the output on a thread of its own too.
+            final SAMFileWriterFactory samFileWriterFactory = new SAMFileWriterFactory();
+            samFileWriterFactory.setUseAsyncIo(numThreads > 1);
+            out = samFileWriterFactory.makeSAMOrBAMWriter(in.getFileHeader(), true, OUTPUT);
         }
 
         final Histogram<Integer> histo = new Histogram<Integer>("clipped_bases", "read_count");
@@ -175,68 +194,193 @@ public class MarkIlluminaAdapters extends CommandLineProgram {
                 setNumAdaptersToKeep(NUM_ADAPTERS_TO_KEEP).
                 setThresholdForSelectingAdaptersToKeep(PRUNE_ADAPTER_LIST_AFTER_THIS_MANY_ADAPTERS_SEEN);
 
-        while (iterator.hasNext()) {
-            final SAMRecord rec = iterator.next();
-            final SAMRecord rec2 = rec.getReadPairedFlag() && iterator.hasNext() ? iterator.next() : null;
-            rec.setAttribute(ReservedTagConstants.XT, null);
-
-            // Do the clipping one way for PE and another for SE reads
-            if (rec.getReadPairedFlag()) {
-                // Assert that the input file is in query name order only if we see some PE reads
-                if (order != SAMFileHeader.SortOrder.queryname) {
-                    throw new PicardException("Input BAM file must be sorted by queryname");
+        if (numThreads == 1) {
+            while (iterator.hasNext()) {
+                final SAMRecord rec = iterator.next();
+                final SAMRecord rec2 = rec.getReadPairedFlag() && iterator.hasNext() ? iterator.next() : null;
+                assertUnit(rec, rec2, order);
+                final SAMRecord[] unit = {rec, rec2};
+                markUnit(unit, adapterMarker, histo);
+
+                // Then output the records and update progress
+                for (final SAMRecord r : unit) {
+                    if (r != null) {
+                        progress.record(r);
+                        if (out != null) out.addAlignment(r);
+                    }
                 }
+            }
+        } else {
+            markOnThreads(iterator, order, numThreads, adapterMarker, out, histo, progress);
+        }
 
-                if (rec2 == null) throw new PicardException("Missing mate pair for paired read: " + rec.getReadName());
-                rec2.setAttribute(ReservedTagConstants.XT, null);
+        if (out != null) out.close();
 
-                // Assert that we did in fact just get two mate pairs
-                if (!rec.getReadName().equals(rec2.getReadName())){
-                    throw new PicardException("Adjacent reads expected to be mate-pairs have different names: " +
-                            rec.getReadName() + ", " + rec2.getReadName());
-                }
+        // Lastly output the metrics to file
+        final MetricsFile<?,Integer> metricsFile = getMetricsFile();
+        metricsFile.setHistogram(histo);
+        metricsFile.write(METRICS);
 
-                // establish which of pair is first and which second
-                final SAMRecord first, second;
+        return 0;
+    }
 
-                if (rec.getFirstOfPairFlag() && rec2.getSecondOfPairFlag()){
-                    first = rec;
-                    second = rec2;
-                }
-                else if (rec.getSecondOfPairFlag() && rec2.getFirstOfPairFlag()) {
-                    first = rec2;
-                    second = rec;
-                }
-                else {
-                    throw new PicardException("Two reads with same name but not correctly marked as 1st/2nd of pair: " + rec.getReadName());
+    /** Resolves NUM_PROCESSORS in the same way as the basecall conversion programs. */
+    private int getNumThreads() {
+        if (NUM_PROCESSORS == 0) {
+            return Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            return Math.max(1, Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS);
+        } else {
+            return NUM_PROCESSORS;
+        }
+    }
+
+    /**
+     * Marks batches of reads on a pool of numThreads threads.  Batches are written in input order as they complete, and
+     * the number of batches in flight is bounded so that reading cannot run arbitrarily far ahead of writing.
+     */
+    private static void markOnThreads(final SAMRecordIterator iterator, final SAMFileHeader.SortOrder order,
+                                      final int numThreads, final AdapterMarker adapterMarker, final SAMFileWriter out,
+                                      final Histogram<Integer> histo, final ProgressLogger progress) {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final Queue<MarkingBatch> pendingBatches = new LinkedList<MarkingBatch>();
+        try {
+            List<SAMRecord[]> units = new ArrayList<SAMRecord[]>(BATCH_SIZE);
+            while (iterator.hasNext()) {
+                final SAMRecord rec = iterator.next();
+                final SAMRecord rec2 = rec.getReadPairedFlag() && iterator.hasNext() ? iterator.next() : null;
+                assertUnit(rec, rec2, order);
+
+                units.add(new SAMRecord[] {rec, rec2});
+                if (units.size() == BATCH_SIZE) {
+                    pendingBatches.add(new MarkingBatch(units, executor, adapterMarker));
+                    units = new ArrayList<SAMRecord[]>(BATCH_SIZE);
+                    if (pendingBatches.size() >= 2 * numThreads) writeNextBatch(pendingBatches, out, histo, progress);
                 }
+            }
+            if (!units.isEmpty()) pendingBatches.add(new MarkingBatch(units, executor, adapterMarker));
+            while (!pendingBatches.isEmpty()) {
+                writeNextBatch(pendingBatches, out, histo, progress);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Checks that rec2 is the mate of rec if rec is paired, and that the input can have pairs together. */
+    private static void assertUnit(final SAMRecord rec, final SAMRecord rec2, final SAMFileHeader.SortOrder order) {
+        if (!rec.getReadPairedFlag()) return;
+
+        // Assert that the input file is in query name order only if we see some PE reads
+        if (order != SAMFileHeader.SortOrder.queryname) {
+            throw new PicardException("Input BAM file must be sorted by queryname");
+        }
+
+        if (rec2 == null) throw new PicardException("Missing mate pair for paired read: " + rec.getReadName());
+
+        // Assert that we did in fact just get two mate pairs
+        if (!rec.getReadName().equals(rec2.getReadName())){
+            throw new PicardException("Adjacent reads expected to be mate-pairs have different names: " +
+                    rec.getReadName() + ", " + rec2.getReadName());
+        }
+
+        // Assert that one is first and the other second of pair
+        if (!(rec.getFirstOfPairFlag() && rec2.getSecondOfPairFlag()) &&
+                !(rec.getSecondOfPairFlag() && rec2.getFirstOfPairFlag())) {
+            throw new PicardException("Two reads with same name but not correctly marked as 1st/2nd of pair: " + rec.getReadName());
+        }
+    }
 
-                adapterMarker.adapterTrimIlluminaPairedReads(first, second);
+    /**
+     * Clears any existing adapter-trimming tags and marks adapters in a unit, which is either a single read and null,
+     * or two reads of a pair in input order, and adds its clipped bases to histo.
+     */
+    private static void markUnit(final SAMRecord[] unit, final AdapterMarker adapterMarker, final Histogram<Integer> histo) {
+        final SAMRecord rec = unit[0];
+        final SAMRecord rec2 = unit[1];
+        rec.setAttribute(ReservedTagConstants.XT, null);
+
+        // Do the clipping one way for PE and another for SE reads
+        if (rec2 != null) {
+            rec2.setAttribute(ReservedTagConstants.XT, null);
+
+            // establish which of pair is first and which second
+            if (rec.getFirstOfPairFlag() && rec2.getSecondOfPairFlag()) {
+                adapterMarker.adapterTrimIlluminaPairedReads(rec, rec2);
+            } else {
+                adapterMarker.adapterTrimIlluminaPairedReads(rec2, rec);
             }
-            else {
-                adapterMarker.adapterTrimIlluminaSingleRead(rec);
+        }
+        else {
+            adapterMarker.adapterTrimIlluminaSingleRead(rec);
+        }
+
+        // Then update metrics
+        for (final SAMRecord r : unit) {
+            if (r != null) {
+                final Integer clip = rec.getIntegerAttribute(ReservedTagConstants.XT);
+                if (clip != null) histo.increment(rec.getReadLength() - clip + 1);
             }
+        }
+    }
 
-            // Then output the records, update progress and metrics
-            for (final SAMRecord r : new SAMRecord[] {rec, rec2}) {
+    /**
+     * Marks adapters in each unit of the batch.
+     *
+     * @return Histogram of clipped bases for the batch, to be merged into the overall histogram.
+     */
+    private static Histogram<Integer> markBatch(final List<SAMRecord[]> units, final AdapterMarker adapterMarker) {
+        final Histogram<Integer> histo = new Histogram<Integer>("clipped_bases", "read_count");
+        for (final SAMRecord[] unit : units) markUnit(unit, adapterMarker, histo);
+        return histo;
+    }
+
+    /** Output the records of a marked batch, and update progress and metrics. */
+    private static void writeBatch(final List<SAMRecord[]> units, final Histogram<Integer> batchHisto,
+                                   final SAMFileWriter out, final Histogram<Integer> histo, final ProgressLogger progress) {
+        for (final SAMRecord[] unit : units) {
+            for (final SAMRecord r : unit) {
                 if (r != null) {
                     progress.record(r);
                     if (out != null) out.addAlignment(r);
-
-                    final Integer clip = rec.getIntegerAttribute(ReservedTagConstants.XT);
-                    if (clip != null) histo.increment(rec.getReadLength() - clip + 1);
                 }
             }
         }
+        for (final Histogram<Integer>.Bin bin : batchHisto.values()) {
+            histo.increment(bin.getId(), bin.getValue());
+        }
+    }
 
-        if (out != null) out.close();
-
-        // Lastly output the metrics to file
-        final MetricsFile<?,Integer> metricsFile = getMetricsFile();
-        metricsFile.setHistogram(histo);
-        metricsFile.write(METRICS);
+    /** Waits for the oldest pending batch to be marked, and writes it. */
+    private static void writeNextBatch(final Queue<MarkingBatch> pendingBatches, final SAMFileWriter out,
+                                       final Histogram<Integer> histo, final ProgressLogger progress) {
+        final MarkingBatch batch = pendingBatches.remove();
+        final Histogram<Integer> batchHisto;
+        try {
+            batchHisto = batch.result.get();
+        } catch (final InterruptedException e) {
+            throw new PicardException("Interrupted while marking adapters", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new PicardException("Exception marking adapters", e.getCause());
+        }
+        writeBatch(batch.units, batchHisto, out, histo, progress);
+    }
 
-        return 0;
+    /** A batch of reads submitted for marking, and its eventual histogram of clipped bases. */
+    private static class MarkingBatch {
+        final List<SAMRecord[]> units;
+        final Future<Histogram<Integer>> result;
+
+        MarkingBatch(final List<SAMRecord[]> units, final ExecutorService executor, final AdapterMarker adapterMarker) {
+            this.units = units;
+            this.result = executor.submit(new Callable<Histogram<Integer>>() {
+                @Override
+                public Histogram<Integer> call() {
+                    return markBatch(units, adapterMarker);
+                }
+            });
+        }
     }
 
     private class CustomAdapterPair implements AdapterPair {
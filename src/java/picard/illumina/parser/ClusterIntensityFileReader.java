@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
@@ -44,6 +45,11 @@ import java.util.Arrays;
  * A file can store its values in either a byte or a short per value, but the API treats them all as shorts.
  * This class does not distinguish btw CIF and CNF files.
  *
+ * Within a cycle, the values of each channel are stored contiguously for all clusters, so getValues() can return
+ * the values of a channel for a range of clusters as a view of the mapped file, which is much faster than calling
+ * getValue() for each of them.  Views, and getValue(), do not share a position, so one reader may be used by several
+ * threads.
+ *
  * @author jburke@broadinstitute.org
  */
 class ClusterIntensityFileReader {
@@ -151,14 +157,64 @@ class ClusterIntensityFileReader {
         if (cluster < 0 || cluster >= header.numClusters) {
             throw new IllegalArgumentException("Requested cluster (" + cluster + ") number out of range. numClustersInTile=" + header.numClusters);
         }
-        final int relativeCycle = cycle - header.firstCycle;
-        final int position = HEADER_SIZE + relativeCycle * cycleSize + channel.ordinal() * channelSize + cluster * header.elementSize;
-        buf.position(position);
+        final int position = getChannelPosition(cycle, channel) + cluster * header.elementSize;
+        if (header.elementSize == 1) {
+            return buf.get(position);
+        } else {
+            return buf.getShort(position);
+        }
+    }
+
+    /**
+     * Get the values of a channel for a range of clusters in one call.  If the file stores shorts, the returned buffer
+     * is a read-only view of the mapped file, so no values are copied; otherwise the values are widened into a new
+     * buffer.  Either way the values are signed, as returned by getValue().
+     * @param cycle Absolute cycle number, as for getValue().
+     * @param channel Which channel is desired.
+     * @param firstCluster 0-based number of the first cluster desired.
+     * @param numClusters How many clusters are desired.
+     * @return A buffer whose position 0 holds the value for firstCluster, with a limit of numClusters.
+     */
+    public ShortBuffer getValues(final int cycle, final IntensityChannel channel, final int firstCluster, final int numClusters) {
+        if (cycle < header.firstCycle || cycle >= header.firstCycle + header.numCycles) {
+            throw new IllegalArgumentException("Requested cycle (" + cycle + ") number out of range.  First cycle=" +
+                    header.firstCycle + "; numCycles=" + header.numCycles);
+        }
+        if (firstCluster < 0 || numClusters < 0 || firstCluster + numClusters > header.numClusters) {
+            throw new IllegalArgumentException("Requested clusters (" + firstCluster + " to " + (firstCluster + numClusters) +
+                    ") out of range. numClustersInTile=" + header.numClusters);
+        }
+        final ByteBuffer view = buf.duplicate();
+        view.position(getChannelPosition(cycle, channel) + firstCluster * header.elementSize);
+        view.limit(view.position() + numClusters * header.elementSize);
         if (header.elementSize == 1) {
-            return buf.get();
+            final short[] values = new short[numClusters];
+            for (int i = 0; i < numClusters; ++i) {
+                values[i] = view.get();
+            }
+            return ShortBuffer.wrap(values);
         } else {
-            return buf.getShort();
+            // slice() resets the byte order, so set it again.
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Get the values of all channels for a range of clusters, i.e. one cycle's block of the file.
+     * @return One buffer per channel, indexed by IntensityChannel.ordinal(), as returned by getValues(cycle, channel,
+     * firstCluster, numClusters).
+     */
+    public ShortBuffer[] getValues(final int cycle, final int firstCluster, final int numClusters) {
+        final ShortBuffer[] values = new ShortBuffer[NUM_CHANNELS];
+        for (final IntensityChannel channel : IntensityChannel.values()) {
+            values[channel.ordinal()] = getValues(cycle, channel, firstCluster, numClusters);
         }
+        return values;
+    }
+
+    private int getChannelPosition(final int cycle, final IntensityChannel channel) {
+        final int relativeCycle = cycle - header.firstCycle;
+        return HEADER_SIZE + relativeCycle * cycleSize + channel.ordinal() * channelSize;
     }
 
     public File getFile() {
@@ -193,6 +249,13 @@ class ClusterIntensityFileReader {
         return header.elementSize;
     }
 
+    /**
+     * @return The length of an uncompressed file with the given header.
+     */
+    public static long getFileSize(final ClusterIntensityFileHeader header) {
+        return HEADER_SIZE + (long) header.numCycles * NUM_CHANNELS * header.numClusters * header.elementSize;
+    }
+
     public static ClusterIntensityFileHeader readHeaders(final File intensityFile) {
         FileInputStream reader = null;
         byte [] headerBytes = new byte[HEADER_SIZE];
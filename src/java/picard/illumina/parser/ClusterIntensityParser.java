@@ -0,0 +1,120 @@
+package picard.illumina.parser;
+
+import picard.PicardException;
+
+import java.io.File;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static htsjdk.samtools.util.CollectionUtil.makeSet;
+
+/**
+ * ClusterIntensityParser parses one CIF (raw intensities) or CNF (noise) file per output cycle and returns an
+ * IntensityData object segmented based on the output read lengths.  The only client of this class should be
+ * IlluminaDataProvider and test classes.  See ClusterIntensityFileReader for more information on CIF and CNF files.
+ *
+ * Rather than seeking to each value, the parser takes a view of each channel of each cycle for the whole tile when
+ * it moves to the tile, so populating a cluster is a read of consecutive positions in each view.
+ */
+class ClusterIntensityParser extends PerTileCycleParser<IntensityData> {
+    private static final Set<IlluminaDataType> RAW_INTENSITY_TYPES = Collections.unmodifiableSet(makeSet(IlluminaDataType.RawIntensities));
+    private static final Set<IlluminaDataType> NOISE_TYPES = Collections.unmodifiableSet(makeSet(IlluminaDataType.Noise));
+
+    private final Set<IlluminaDataType> supportedTypes;
+
+    /**
+     * @param dataType Either RawIntensities, if tilesToCycleFiles holds CIF files, or Noise, if it holds CNF files.
+     */
+    public ClusterIntensityParser(final File directory, final int lane, final CycleIlluminaFileMap tilesToCycleFiles,
+                                  final OutputMapping outputMapping, final IlluminaDataType dataType) {
+        super(directory, lane, tilesToCycleFiles, outputMapping);
+        switch (dataType) {
+            case RawIntensities:
+                supportedTypes = RAW_INTENSITY_TYPES;
+                break;
+            case Noise:
+                supportedTypes = NOISE_TYPES;
+                break;
+            default:
+                throw new PicardException("ClusterIntensityParser does not support data type " + dataType);
+        }
+        this.initialize();
+    }
+
+    @Override
+    protected CycleFilesParser<IntensityData> makeCycleFileParser(final List<File> files) {
+        return new IntensityCycleFilesParser(files);
+    }
+
+    @Override
+    public void initialize() {
+        seekToTile(currentTile);
+    }
+
+    @Override
+    public Set<IlluminaDataType> supportedTypes() {
+        return supportedTypes;
+    }
+
+    /**
+     * Holds a view of every channel of every output cycle of a tile, in output order, and copies one cluster's worth
+     * of values out of them per call to next().
+     */
+    private class IntensityCycleFilesParser implements CycleFilesParser<IntensityData> {
+        private final int[] outputLengths = outputMapping.getOutputReadLengths();
+        // Major index: output cycle; minor index: channel
+        private final ShortBuffer[][] cycleValues;
+        private final int numClusters;
+        private int nextCluster = 0;
+
+        public IntensityCycleFilesParser(final List<File> files) {
+            cycleValues = new ShortBuffer[files.size()][];
+            int tileClusters = -1;
+            for (int i = 0; i < files.size(); ++i) {
+                final ClusterIntensityFileReader reader = new ClusterIntensityFileReader(files.get(i));
+                if (tileClusters == -1) {
+                    tileClusters = reader.getNumClusters();
+                } else if (reader.getNumClusters() != tileClusters) {
+                    throw new PicardException("Cluster intensity file " + files.get(i) + " has " + reader.getNumClusters() +
+                            " clusters but " + files.get(0) + " has " + tileClusters);
+                }
+                cycleValues[i] = reader.getValues(reader.getFirstCycle(), 0, reader.getNumClusters());
+            }
+            numClusters = Math.max(tileClusters, 0);
+        }
+
+        @Override
+        public void close() {
+            // Mapped files are unmapped when the views are garbage collected.
+        }
+
+        @Override
+        public IntensityData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final IntensityData data = new IntensityData(outputLengths);
+            int cycle = 0;
+            for (int read = 0; read < outputLengths.length; ++read) {
+                final FourChannelIntensityData readData = data.intensities[read];
+                for (final IntensityChannel channel : IntensityChannel.values()) {
+                    final short[] values = readData.getChannel(channel);
+                    for (int i = 0; i < values.length; ++i) {
+                        values[i] = cycleValues[cycle + i][channel.ordinal()].get(nextCluster);
+                    }
+                }
+                cycle += outputLengths[read];
+            }
+            ++nextCluster;
+            return data;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextCluster < numClusters;
+        }
+    }
+}
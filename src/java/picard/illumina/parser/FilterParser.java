@@ -27,7 +27,9 @@ import htsjdk.samtools.util.CloseableIterator;
 import picard.illumina.parser.readers.FilterFileReader;
 
 import java.io.File;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import static htsjdk.samtools.util.CollectionUtil.makeSet;
@@ -36,6 +38,9 @@ import static htsjdk.samtools.util.CollectionUtil.makeSet;
  * Sequentially parses filter files for the given tiles.  One tile is processed at a time.  IlluminaDataProvider should
  * be the ONLY client class for this class except for test classes.  For more information on the filterFile format
  * and reading it, see FilterFileReader.
+ *
+ * Each tile's filter file is decoded into a BitSet in one pass when the tile is opened.  The PfData returned by next()
+ * is reused, and is only valid until the following call to next().
  */
 class FilterParser extends PerTileParser<PfData> {
     private static Set<IlluminaDataType> supportedTypes = Collections.unmodifiableSet(makeSet(IlluminaDataType.PF));
@@ -48,27 +53,33 @@ class FilterParser extends PerTileParser<PfData> {
         super(tilesToFiles, startingTile);
     }
 
-    /** Wrap a filterFile reader in a closeable iterator and return it*/
+    /** Load the PF values of a filter file and return a closeable iterator over them */
     @Override
     protected CloseableIterator<PfData> makeTileIterator(final File iterator) {
+        final FilterFileReader reader = new FilterFileReader(iterator);
+        final int numClusters = (int) reader.numClusters;
+        final BitSet pfs = reader.readPfs(numClusters);
+
         return new CloseableIterator<PfData>() {
-            private FilterFileReader reader = new FilterFileReader(iterator);
+            private int nextCluster = 0;
+            private boolean currentValue;
+            private final PfData pfData = new PfData() {
+                public boolean isPf() {
+                    return currentValue;
+                }
+            };
 
             public void close() {
-                reader = null;
             }
 
             public boolean hasNext() {
-                return reader.hasNext();
+                return nextCluster < numClusters;
             }
 
             public PfData next() {
-                final boolean nextValue = reader.next();
-                return new PfData() {
-                    public boolean isPf() {
-                        return nextValue;
-                    }
-                };
+                if (!hasNext()) throw new NoSuchElementException();
+                currentValue = pfs.get(nextCluster++);
+                return pfData;
             }
 
             public void remove() {
@@ -153,6 +153,14 @@ public class IlluminaDataProvider implements Iterator<ClusterData>, Iterable<Clu
                         addReadData(cluster, numReads, (QualityData) ilData);
                         break;
 
+                    case RawIntensities:
+                        addReadData(cluster, numReads, (RawIntensityData) ilData);
+                        break;
+
+                    case Noise:
+                        addReadData(cluster, numReads, (NoiseData) ilData);
+                        break;
+
                     default:
                         throw new PicardException("Unknown data type " + ilDataType + " requested by IlluminaDataProviderFactory");
                 }
@@ -24,11 +24,14 @@
 
 package picard.illumina.parser;
 
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
 import picard.illumina.parser.IlluminaFileUtil.SupportedIlluminaFormat;
 import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
+import picard.illumina.parser.readers.BclReader;
+import picard.illumina.parser.readers.TileMetricsOutReader;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -84,6 +87,8 @@ public class IlluminaDataProviderFactory {
                 SupportedIlluminaFormat.Pos));
 
         DATA_TYPE_TO_PREFERRED_FORMATS.put(IlluminaDataType.Barcodes, makeList(SupportedIlluminaFormat.Barcode));
+        DATA_TYPE_TO_PREFERRED_FORMATS.put(IlluminaDataType.RawIntensities, makeList(SupportedIlluminaFormat.Cif));
+        DATA_TYPE_TO_PREFERRED_FORMATS.put(IlluminaDataType.Noise, makeList(SupportedIlluminaFormat.Cnf));
     }
 
     // The following properties must be specified by caller.
@@ -201,6 +206,58 @@ public class IlluminaDataProviderFactory {
         return availableTiles;
     }
 
+    /**
+     * Estimates the number of clusters in each available tile, as a measure of how long it will take to read, without
+     * reading any clusters.  The counts come from the tile index if the formats in use have one, otherwise from
+     * InterOp/TileMetricsOut.bin if it exists, otherwise from the headers of the first cycle's BCLs if BCLs are in
+     * use.
+     *
+     * @return Map of tile number to its estimated number of clusters, which is empty if there is no way to tell.
+     */
+    public Map<Integer, Long> estimateTileClusterCounts() {
+        final Map<Integer, Long> clusterCounts = new HashMap<Integer, Long>();
+        for (final SupportedIlluminaFormat format : formatToDataTypes.keySet()) {
+            final ParameterizedFileUtil util = fileUtil.getUtil(format);
+            final TileIndex tileIndex;
+            if (util instanceof MultiTileBclFileUtil) {
+                tileIndex = ((MultiTileBclFileUtil) util).tileIndex;
+            } else if (util instanceof MultiTileFileUtil) {
+                tileIndex = ((MultiTileFileUtil) util).tileIndex;
+            } else {
+                continue;
+            }
+            if (tileIndex != null) {
+                for (final TileIndex.TileIndexRecord record : tileIndex) {
+                    clusterCounts.put(record.tile, (long) record.getNumClustersInTile());
+                }
+                return clusterCounts;
+            }
+        }
+
+        if (fileUtil.tileMetricsOut().exists()) {
+            final TileMetricsOutReader tileMetrics = new TileMetricsOutReader(fileUtil.tileMetricsOut());
+            while (tileMetrics.hasNext()) {
+                final TileMetricsOutReader.IlluminaTileMetrics metric = tileMetrics.next();
+                // As in TileMetricsUtil, the last value for each tile is the one that counts.
+                if (metric.getLaneNumber() == lane && metric.getMetricCode() == IlluminaMetricsCode.CLUSTER_ID.getMetricsCode()) {
+                    clusterCounts.put(metric.getTileNumber(), (long) metric.getMetricValue());
+                }
+            }
+            CloserUtil.close(tileMetrics);
+            if (!clusterCounts.isEmpty()) return clusterCounts;
+        }
+
+        if (formatToDataTypes.containsKey(SupportedIlluminaFormat.Bcl)) {
+            final CycleIlluminaFileMap cycleFiles = ((PerTilePerCycleFileUtil) fileUtil.getUtil(SupportedIlluminaFormat.Bcl)).getFiles();
+            if (!cycleFiles.isEmpty()) {
+                for (final Map.Entry<Integer, File> entry : cycleFiles.firstEntry().getValue().entrySet()) {
+                    clusterCounts.put(entry.getKey(), BclReader.getNumberOfClusters(entry.getValue()));
+                }
+            }
+        }
+        return clusterCounts;
+    }
+
     /** Sets whether or not EAMSS filtering will be applied if parsing BCL files for bases and quality scores. */
     public void setApplyEamssFiltering(final boolean applyEamssFiltering) {
         this.applyEamssFiltering = applyEamssFiltering;
@@ -380,6 +437,16 @@ public class IlluminaDataProviderFactory {
                 break;
             }
 
+            case Cif:
+            case Cnf: {
+                final CycleIlluminaFileMap intensityFileMap = ((PerTilePerCycleFileUtil) fileUtil.getUtil(format))
+                        .getFiles(requestedTiles, outputMapping.getOutputCycles());
+                intensityFileMap.assertValid(requestedTiles, outputMapping.getOutputCycles());
+                parser = new ClusterIntensityParser(basecallDirectory.getParentFile(), lane, intensityFileMap, outputMapping,
+                        format == SupportedIlluminaFormat.Cif ? IlluminaDataType.RawIntensities : IlluminaDataType.Noise);
+                break;
+            }
+
             default:
                 throw new PicardException("Unrecognized data type(" + format + ") found by IlluminaDataProviderFactory!");
         }
@@ -31,5 +31,5 @@ package picard.illumina.parser;
  * @author jburke@broadinstitute.org
  */
 public enum IlluminaDataType {
-    Position, BaseCalls, QualityScores, PF, Barcodes
+    Position, BaseCalls, QualityScores, PF, Barcodes, RawIntensities, Noise
 }
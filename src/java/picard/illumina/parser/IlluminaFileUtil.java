@@ -29,6 +29,7 @@ import picard.PicardException;
 import picard.illumina.parser.fakers.BarcodeFileFaker;
 import picard.illumina.parser.fakers.BclFileFaker;
 import picard.illumina.parser.fakers.ClocsFileFaker;
+import picard.illumina.parser.fakers.ClusterIntensityFileFaker;
 import picard.illumina.parser.fakers.FilterFileFaker;
 import picard.illumina.parser.fakers.LocsFileFaker;
 import picard.illumina.parser.fakers.PosFileFaker;
@@ -65,7 +66,9 @@ public class IlluminaFileUtil {
         Barcode,
         MultiTileFilter,
         MultiTileLocs,
-        MultiTileBcl
+        MultiTileBcl,
+        Cif,
+        Cnf
     }
 
     private final File basecallLaneDir;
@@ -77,6 +80,8 @@ public class IlluminaFileUtil {
 
     private final File tileMetricsOut;
     private final Map<SupportedIlluminaFormat, ParameterizedFileUtil> utils = new HashMap<SupportedIlluminaFormat, ParameterizedFileUtil>();
+    // Shared by all the format utils, so that directories they have in common are only listed once.
+    private final RunFolderInventory inventory = new RunFolderInventory();
 
     public IlluminaFileUtil(final File basecallDir, final int lane) {
 		this(basecallDir, null, lane);
@@ -87,15 +92,21 @@ public class IlluminaFileUtil {
         this.lane = lane;
         this.basecallDir = basecallDir;
         this.barcodeDir = barcodeDir;
-        this.intensityDir = basecallDir.getParentFile();
-        final File dataDir = intensityDir.getParentFile();
+        this.intensityDir = getParent(basecallDir);
+        final File dataDir = intensityDir == null ? null : getParent(intensityDir);
         this.basecallLaneDir = new File(basecallDir, longLaneStr(lane));
         this.intensityLaneDir = new File(intensityDir, longLaneStr(lane));
-        final File interopDir = new File(dataDir.getParentFile(), "InterOp");
+        final File interopDir = new File(dataDir == null ? null : getParent(dataDir), "InterOp");
         tileMetricsOut = new File(interopDir, "TileMetricsOut.bin");
     }
 
 
+    /** @return The parent of dir, resolving it against the working directory if dir is relative, or null at the root. */
+    private static File getParent(final File dir) {
+        final File parent = dir.getParentFile();
+        return parent != null ? parent : dir.getAbsoluteFile().getParentFile();
+    }
+
     /**
      * Return the lane we're inspecting
      */
@@ -111,8 +122,8 @@ public class IlluminaFileUtil {
         if (parameterizedFileUtil == null) {
             switch (format) {
                 case Bcl:
-                    final ParameterizedFileUtil bclFileUtil = new PerTilePerCycleFileUtil(".bcl", basecallLaneDir, new BclFileFaker(), lane);
-                    final ParameterizedFileUtil gzBclFileUtil = new PerTilePerCycleFileUtil(".bcl.gz", basecallLaneDir, new BclFileFaker(), lane);
+                    final ParameterizedFileUtil bclFileUtil = new PerTilePerCycleFileUtil(".bcl", basecallLaneDir, new BclFileFaker(), lane, inventory);
+                    final ParameterizedFileUtil gzBclFileUtil = new PerTilePerCycleFileUtil(".bcl.gz", basecallLaneDir, new BclFileFaker(), lane, inventory);
                     if (bclFileUtil.filesAvailable() && !gzBclFileUtil.filesAvailable()) {
                         parameterizedFileUtil = bclFileUtil;
                     } else if (!bclFileUtil.filesAvailable() && gzBclFileUtil.filesAvailable()) {
@@ -126,37 +137,45 @@ public class IlluminaFileUtil {
                     utils.put(SupportedIlluminaFormat.Bcl, parameterizedFileUtil);
                     break;
                 case Locs:
-                    parameterizedFileUtil = new PerTileFileUtil(".locs", intensityLaneDir, new LocsFileFaker(), lane);
+                    parameterizedFileUtil = new PerTileFileUtil(".locs", intensityLaneDir, new LocsFileFaker(), lane, inventory);
                     utils.put(SupportedIlluminaFormat.Locs, parameterizedFileUtil);
                     break;
                 case Clocs:
-                    parameterizedFileUtil = new PerTileFileUtil(".clocs", intensityLaneDir, new ClocsFileFaker(), lane);
+                    parameterizedFileUtil = new PerTileFileUtil(".clocs", intensityLaneDir, new ClocsFileFaker(), lane, inventory);
                     utils.put(SupportedIlluminaFormat.Clocs, parameterizedFileUtil);
                     break;
                 case Pos:
-                    parameterizedFileUtil = new PerTileFileUtil("_pos.txt", intensityDir, new PosFileFaker(), lane);
+                    parameterizedFileUtil = new PerTileFileUtil("_pos.txt", intensityDir, new PosFileFaker(), lane, inventory);
                     utils.put(SupportedIlluminaFormat.Pos, parameterizedFileUtil);
                     break;
                 case Filter:
-                    parameterizedFileUtil = new PerTileFileUtil(".filter", basecallLaneDir, new FilterFileFaker(), lane);
+                    parameterizedFileUtil = new PerTileFileUtil(".filter", basecallLaneDir, new FilterFileFaker(), lane, inventory);
                     utils.put(SupportedIlluminaFormat.Filter, parameterizedFileUtil);
                     break;
                 case Barcode:
-                    parameterizedFileUtil = new PerTileFileUtil("_barcode.txt", barcodeDir != null ? barcodeDir : basecallDir, new BarcodeFileFaker(), lane);
+                    parameterizedFileUtil = new PerTileFileUtil("_barcode.txt", barcodeDir != null ? barcodeDir : basecallDir, new BarcodeFileFaker(), lane, inventory);
                     utils.put(SupportedIlluminaFormat.Barcode, parameterizedFileUtil);
                     break;
                 case MultiTileFilter:
-                    parameterizedFileUtil = new MultiTileFilterFileUtil(basecallLaneDir, lane);
+                    parameterizedFileUtil = new MultiTileFilterFileUtil(basecallLaneDir, lane, inventory);
                     utils.put(SupportedIlluminaFormat.MultiTileFilter, parameterizedFileUtil);
                     break;
                 case MultiTileLocs:
-                    parameterizedFileUtil = new MultiTileLocsFileUtil(new File(intensityDir, basecallLaneDir.getName()), basecallLaneDir, lane);
+                    parameterizedFileUtil = new MultiTileLocsFileUtil(new File(intensityDir, basecallLaneDir.getName()), basecallLaneDir, lane, inventory);
                     utils.put(SupportedIlluminaFormat.MultiTileLocs, parameterizedFileUtil);
                     break;
                 case MultiTileBcl:
-                    parameterizedFileUtil = new MultiTileBclFileUtil(basecallLaneDir, lane);
+                    parameterizedFileUtil = new MultiTileBclFileUtil(basecallLaneDir, lane, inventory);
                     utils.put(SupportedIlluminaFormat.MultiTileBcl, parameterizedFileUtil);
                     break;
+                case Cif:
+                    parameterizedFileUtil = new PerTilePerCycleFileUtil(".cif", intensityLaneDir, new ClusterIntensityFileFaker(), lane, inventory);
+                    utils.put(SupportedIlluminaFormat.Cif, parameterizedFileUtil);
+                    break;
+                case Cnf:
+                    parameterizedFileUtil = new PerTilePerCycleFileUtil(".cnf", intensityLaneDir, new ClusterIntensityFileFaker(), lane, inventory);
+                    utils.put(SupportedIlluminaFormat.Cnf, parameterizedFileUtil);
+                    break;
             }
         }
         return parameterizedFileUtil;
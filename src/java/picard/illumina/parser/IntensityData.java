@@ -0,0 +1,27 @@
+package picard.illumina.parser;
+
+/** A class that implements the IlluminaData interfaces provided by ClusterIntensityParser.
+ * One IntensityData object is returned to IlluminaDataProvider per cluster and each
+ * element of intensities represents a single read in that cluster.  Whether the values
+ * are raw intensities or noise depends on whether they were parsed from CIF or CNF files. */
+public class IntensityData implements RawIntensityData, NoiseData {
+    public final FourChannelIntensityData[] intensities;
+
+    public IntensityData(final int[] outputLengths) {
+        intensities = new FourChannelIntensityData[outputLengths.length];
+
+        for (int i = 0; i < outputLengths.length; i++) {
+            intensities[i] = new FourChannelIntensityData(outputLengths[i]);
+        }
+    }
+
+    @Override
+    public FourChannelIntensityData[] getRawIntensities() {
+        return intensities;
+    }
+
+    @Override
+    public FourChannelIntensityData[] getNoise() {
+        return intensities;
+    }
+}
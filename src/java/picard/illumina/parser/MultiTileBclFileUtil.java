@@ -1,12 +1,16 @@
 package picard.illumina.parser;
 
-import htsjdk.samtools.util.IOUtil;
+import picard.PicardException;
 import picard.illumina.parser.fakers.MultiTileBclFileFaker;
+import picard.illumina.parser.readers.BclReader;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * NextSeq-style bcl's have all tiles for a cycle in a single file.
@@ -16,16 +20,17 @@ public class MultiTileBclFileUtil extends ParameterizedFileUtil {
     final File bci;
     final TileIndex tileIndex;
     final CycleIlluminaFileMap cycleFileMap = new CycleIlluminaFileMap();
+    private final Map<File, Long> numClustersInCycleFiles = new HashMap<File, Long>();
 
-    MultiTileBclFileUtil(final File basecallLaneDir, final int lane) {
+    MultiTileBclFileUtil(final File basecallLaneDir, final int lane, final RunFolderInventory inventory) {
         // Since these file names do not contain lane number, first two args to ctor are the same.
         super("^(\\d{4}).bcl.bgzf$", ".bcl.bgzf", basecallLaneDir,
-                new MultiTileBclFileFaker(), lane);
+                new MultiTileBclFileFaker(), lane, inventory);
         this.basecallLaneDir = basecallLaneDir;
         bci = new File(basecallLaneDir, "s_" + lane + ".bci");
         // Do this once rather than when deciding if these files exist and again later.
-        final File[] cycleFiles = IOUtil.getFilesMatchingRegexp(base, matchPattern);
-        if (bci.exists()) {
+        final File[] cycleFiles = inventory.getFilesMatchingRegexp(base, matchPattern);
+        if (inventory.exists(bci)) {
             tileIndex = new TileIndex(bci);
             if (cycleFiles != null) {
                 for (final File file : cycleFiles) {
@@ -97,6 +102,50 @@ public class MultiTileBclFileUtil extends ParameterizedFileUtil {
         return ret;
     }
 
+    /**
+     * Check that the tile's clusters, as given by the tile index, lie within each cycle's file according to its header.
+     */
+    @Override
+    public List<String> verifyHeaders(final int tile, final int[] expectedCycles) {
+        if (tileIndex == null) return Collections.emptyList();
+        final TileIndex.TileIndexRecord tileRecord;
+        try {
+            tileRecord = tileIndex.findTile(tile);
+        } catch (final NoSuchElementException e) {
+            // Reported by verify()
+            return Collections.emptyList();
+        }
+        final long endOfTile = tileRecord.indexOfFirstClusterInTile + (long) tileRecord.numClustersInTile;
+        final List<String> failures = new ArrayList<String>();
+        for (final int cycle : expectedCycles) {
+            final IlluminaFileMap fileMap = cycleFileMap.get(cycle);
+            final File cycleFile = fileMap == null ? null : fileMap.get(tile);
+            if (cycleFile == null) continue;
+            try {
+                final long numClustersInFile = getNumClusters(cycleFile);
+                if (endOfTile > numClustersInFile) {
+                    failures.add("Tile " + tile + " extends past the " + numClustersInFile + " clusters in " +
+                            cycleFile.getAbsolutePath() + " according to " + bci.getAbsolutePath());
+                }
+            } catch (final PicardException e) {
+                failures.add(e.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    /** Read once per cycle file, since verifyHeaders() is called for every tile. */
+    private long getNumClusters(final File cycleFile) {
+        synchronized (numClustersInCycleFiles) {
+            Long numClusters = numClustersInCycleFiles.get(cycleFile);
+            if (numClusters == null) {
+                numClusters = BclReader.getNumberOfClusters(cycleFile);
+                numClustersInCycleFiles.put(cycleFile, numClusters);
+            }
+            return numClusters;
+        }
+    }
+
     @Override
     public List<String> fakeFiles(final List<Integer> expectedTiles, final int[] expectedCycles,
                                   final IlluminaFileUtil.SupportedIlluminaFormat format) {
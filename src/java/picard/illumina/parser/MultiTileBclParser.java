@@ -77,6 +77,19 @@ public class MultiTileBclParser extends BclParser {
         return cycleFileParser;
     }
 
+    /**
+     * The per-cycle parser (and the seekable reader beneath it) is reused from tile to tile, so the streams are only
+     * released when the parser itself is closed.  Each data provider therefore owns an independent set of file handles
+     * and index readers, and providers for different tiles may be driven concurrently from separate threads.
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (cycleFileParser != null && cycleFileParser.reader != null) {
+            cycleFileParser.getReader().close();
+        }
+    }
+
     /**
      * An iterator wrapper that stops when it has return a pre-determined number of records even if the underlying
      * iterator still had more records.
@@ -95,9 +108,9 @@ public class MultiTileBclParser extends BclParser {
             this.recordLimit = recordLimit;
         }
 
+        /** Deliberately a no-op, because the underlying reader is re-seeked for the next tile rather than reopened. */
         @Override
         public void close() {
-            //underlyingIterator.close();
         }
 
         @Override
@@ -6,11 +6,13 @@ import picard.illumina.parser.fakers.BciFileFaker;
 import picard.illumina.parser.fakers.FileFaker;
 import picard.illumina.parser.fakers.FilterFileFaker;
 import picard.illumina.parser.fakers.MultiTileLocsFileFaker;
+import picard.illumina.parser.readers.FilterFileReader;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * For file types for which there is one file per lane, with fixed record size, and all the tiles in it,
@@ -20,17 +22,18 @@ public abstract class MultiTileFileUtil<OUTPUT_RECORD extends IlluminaData> exte
     protected final File bci;
     protected TileIndex tileIndex;
     protected File dataFile;
+    private Long numClustersInDataFile;
 
     MultiTileFileUtil(final String extension, final File base, final File bciDir, final FileFaker fileFaker,
-                      final int lane) {
-        super(false, extension, base, fileFaker, lane);
+                      final int lane, final RunFolderInventory inventory) {
+        super(false, extension, base, fileFaker, lane, inventory);
         bci = new File(bciDir, "s_" + lane + ".bci");
-        if (bci.exists()) {
+        if (inventory.exists(bci)) {
             tileIndex = new TileIndex(bci);
         } else {
             tileIndex = null;
         }
-        final File[] filesMatchingRegexp = IOUtil.getFilesMatchingRegexp(base, matchPattern);
+        final File[] filesMatchingRegexp = inventory.getFilesMatchingRegexp(base, matchPattern);
         if (filesMatchingRegexp == null || filesMatchingRegexp.length == 0) {
             dataFile = null;
         } else if (filesMatchingRegexp.length == 1) {
@@ -64,6 +67,50 @@ public abstract class MultiTileFileUtil<OUTPUT_RECORD extends IlluminaData> exte
         return tileIndex.verify(expectedTiles);
     }
 
+    /**
+     * Check that the tile's clusters, as given by the tile index, lie within the data file according to its header.
+     */
+    @Override
+    public List<String> verifyHeaders(final int tile, final int[] expectedCycles) {
+        if (tileIndex == null || dataFile == null) return Collections.emptyList();
+        final TileIndex.TileIndexRecord tileRecord;
+        try {
+            tileRecord = tileIndex.findTile(tile);
+        } catch (final NoSuchElementException e) {
+            // Reported by verify()
+            return Collections.emptyList();
+        }
+        final long numClustersInFile;
+        try {
+            numClustersInFile = getNumClustersInDataFile();
+        } catch (final PicardException e) {
+            return Collections.singletonList(e.getMessage());
+        }
+        if (numClustersInFile >= 0 &&
+                tileRecord.indexOfFirstClusterInTile + (long) tileRecord.numClustersInTile > numClustersInFile) {
+            return Collections.singletonList("Tile " + tile + " extends past the " + numClustersInFile +
+                    " clusters in " + dataFile.getAbsolutePath() + " according to " + bci.getAbsolutePath());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Read once, since verifyHeaders() is called for every tile.
+     *
+     * @return The number of clusters according to the header of the data file, or -1 if it has no such header.
+     */
+    private synchronized long getNumClustersInDataFile() {
+        if (numClustersInDataFile == null) {
+            numClustersInDataFile = readNumClustersInDataFile();
+        }
+        return numClustersInDataFile;
+    }
+
+    /** @return The number of clusters according to the header of the data file, or -1 if it has no such header. */
+    protected long readNumClustersInDataFile() {
+        return -1;
+    }
+
     @Override
     public List<String> fakeFiles(final List<Integer> expectedTiles, final int[] expectedCycles,
                                   final IlluminaFileUtil.SupportedIlluminaFormat format) {
@@ -96,20 +143,25 @@ class MultiTileFilterFileUtil extends MultiTileFileUtil<PfData> {
     /**
      * @param basecallLaneDir location of .filter file and also .bci file
      */
-    MultiTileFilterFileUtil(final File basecallLaneDir, final int lane) {
-        super(".filter", basecallLaneDir, basecallLaneDir, new FilterFileFaker(), lane);
+    MultiTileFilterFileUtil(final File basecallLaneDir, final int lane, final RunFolderInventory inventory) {
+        super(".filter", basecallLaneDir, basecallLaneDir, new FilterFileFaker(), lane, inventory);
     }
 
     @Override
     IlluminaParser<PfData> makeParser(final List<Integer> requestedTiles) {
         return new MultiTileFilterParser(tileIndex, requestedTiles, dataFile);
     }
+
+    @Override
+    protected long readNumClustersInDataFile() {
+        return new FilterFileReader(dataFile).numClusters;
+    }
 }
 
 class MultiTileLocsFileUtil extends MultiTileFileUtil<PositionalData> {
 
-    MultiTileLocsFileUtil(final File basecallLaneDir, final File bciDir, final int lane) {
-        super(".locs", basecallLaneDir, bciDir, new MultiTileLocsFileFaker(), lane);
+    MultiTileLocsFileUtil(final File basecallLaneDir, final File bciDir, final int lane, final RunFolderInventory inventory) {
+        super(".locs", basecallLaneDir, bciDir, new MultiTileLocsFileFaker(), lane, inventory);
     }
 
     @Override
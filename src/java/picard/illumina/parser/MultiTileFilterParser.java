@@ -26,6 +26,7 @@ package picard.illumina.parser;
 import picard.illumina.parser.readers.FilterFileReader;
 
 import java.io.File;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
@@ -35,6 +36,14 @@ import java.util.List;
  */
 public class MultiTileFilterParser extends MultiTileParser<PfData> {
     private final FilterFileReader reader;
+    private BitSet tilePfs = new BitSet();
+    private boolean currentValue;
+    private final PfData pfData = new PfData() {
+        @Override
+        public boolean isPf() {
+            return currentValue;
+        }
+    };
 
     public MultiTileFilterParser(final TileIndex tileIndex, final List<Integer> requestedTiles, final File filterFile) {
         super(tileIndex, requestedTiles, Collections.singleton(IlluminaDataType.PF));
@@ -42,14 +51,14 @@ public class MultiTileFilterParser extends MultiTileParser<PfData> {
     }
 
     @Override
-    PfData readNext() {
-        final boolean nextVal = reader.next();
-        return new PfData() {
-            @Override
-            public boolean isPf() {
-                return nextVal;
-            }
-        };
+    void loadTile(final int numClusters) {
+        tilePfs = reader.readPfs(numClusters);
+    }
+
+    @Override
+    PfData getCluster(final int clusterInTile) {
+        currentValue = tilePfs.get(clusterInTile);
+        return pfData;
     }
 
     @Override
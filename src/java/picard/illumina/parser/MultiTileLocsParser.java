@@ -23,7 +23,7 @@
  */
 package picard.illumina.parser;
 
-import picard.illumina.parser.readers.AbstractIlluminaPositionFileReader;
+import picard.PicardException;
 import picard.illumina.parser.readers.LocsFileReader;
 
 import java.io.File;
@@ -36,7 +36,18 @@ import java.util.List;
  */
 public class MultiTileLocsParser extends MultiTileParser<PositionalData> {
     private final LocsFileReader reader;
-    private final int lane;
+    private int[] xCoords = new int[0];
+    private int[] yCoords = new int[0];
+    private int currentCluster;
+    private final PositionalData positionalData = new PositionalData() {
+        public int getXCoordinate() {
+            return xCoords[currentCluster];
+        }
+
+        public int getYCoordinate() {
+            return yCoords[currentCluster];
+        }
+    };
 
     public MultiTileLocsParser(final TileIndex tileIndex, final List<Integer> requestedTiles, final File locsFile, final int lane) {
         super(tileIndex, requestedTiles, Collections.singleton(IlluminaDataType.Position));
@@ -44,30 +55,26 @@ public class MultiTileLocsParser extends MultiTileParser<PositionalData> {
         if (requestedTiles.size() == 1) tileNumber = requestedTiles.get(0);
         else tileNumber = -1;
         this.reader = new LocsFileReader(locsFile, lane, tileNumber);
-        this.lane = lane;
     }
 
+    /** Decodes the tile's coordinates into arrays that are reused from tile to tile where large enough. */
     @Override
-    PositionalData readNext() {
-        final int tile = getTileOfNextCluster();
-        final AbstractIlluminaPositionFileReader.PositionInfo nextVal = reader.next();
-        return new PositionalData() {
-            public int getXCoordinate() {
-                return nextVal.xQseqCoord;
-            }
-
-            public int getYCoordinate() {
-                return nextVal.yQseqCoord;
-            }
-
-            public int getLane() {
-                return lane;
-            }
+    void loadTile(final int numClusters) {
+        if (xCoords.length < numClusters) {
+            xCoords = new int[numClusters];
+            yCoords = new int[numClusters];
+        }
+        final int numRead = reader.readQseqCoords(xCoords, yCoords, 0, numClusters);
+        if (numRead != numClusters) {
+            throw new PicardException(String.format("Expected %d clusters but found %d in %s",
+                    numClusters, numRead, reader.getFile().getAbsolutePath()));
+        }
+    }
 
-            public int getTile() {
-                return tile;
-            }
-        };
+    @Override
+    PositionalData getCluster(final int clusterInTile) {
+        currentCluster = clusterInTile;
+        return positionalData;
     }
 
     @Override
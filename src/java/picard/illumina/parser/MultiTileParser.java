@@ -33,6 +33,8 @@ import java.util.Set;
 
 /**
  * Abstract class for files with fixed-length records for multiple tiles, e.g. .locs and .filter files.
+ * When a tile is reached, all of its records are decoded at once by loadTile(), and next() then hands them out by
+ * index within the tile.
  * @param <OUTPUT_RECORD> The kind of record to be returned (as opposed to the type of the record stored in the file).
  */
 public abstract class MultiTileParser<OUTPUT_RECORD extends IlluminaData> implements IlluminaParser<OUTPUT_RECORD> {
@@ -40,6 +42,7 @@ public abstract class MultiTileParser<OUTPUT_RECORD extends IlluminaData> implem
     private final Iterator<TileIndex.TileIndexRecord> tileIndexIterator;
     private final PeekIterator<Integer> requestedTilesIterator;
     private final Set<IlluminaDataType> supportedTypes;
+    /** Index in the file of the next record that the underlying reader will decode. */
     private int nextRecordIndex = 0;
     private int nextClusterInTile;
     private TileIndex.TileIndexRecord currentTile = null;
@@ -75,17 +78,15 @@ public abstract class MultiTileParser<OUTPUT_RECORD extends IlluminaData> implem
                     String.format("Seem to be in wrong position %d > %d", nextRecordIndex, currentTile.indexOfFirstClusterInTile));
         }
         skipRecords(currentTile.indexOfFirstClusterInTile - nextRecordIndex);
-        nextRecordIndex = currentTile.indexOfFirstClusterInTile;
+        loadTile(currentTile.numClustersInTile);
+        nextRecordIndex = currentTile.indexOfFirstClusterInTile + currentTile.numClustersInTile;
         nextClusterInTile = 0;
     }
 
     @Override
     public OUTPUT_RECORD next() {
         if (!hasNext()) throw new NoSuchElementException();
-        OUTPUT_RECORD ret = readNext();
-        ++nextClusterInTile;
-        ++nextRecordIndex;
-        return ret;
+        return getCluster(nextClusterInTile++);
     }
 
     @Override
@@ -123,6 +124,14 @@ public abstract class MultiTileParser<OUTPUT_RECORD extends IlluminaData> implem
         throw new UnsupportedOperationException();
     }
 
-    abstract OUTPUT_RECORD readNext();
+    /** Decode the next numClusters records of the file, i.e. the whole of the tile just sought. */
+    abstract void loadTile(int numClusters);
+
+    /**
+     * @param clusterInTile Zero-based index of a cluster in the tile most recently loaded.
+     * @return The record for that cluster, which the implementation may reuse on the following call.
+     */
+    abstract OUTPUT_RECORD getCluster(int clusterInTile);
+
     abstract void skipRecords(int numToSkip);
 }
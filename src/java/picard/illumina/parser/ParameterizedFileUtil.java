@@ -1,10 +1,10 @@
 package picard.illumina.parser;
 
-import htsjdk.samtools.util.IOUtil;
 import picard.PicardException;
 import picard.illumina.parser.fakers.FileFaker;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -43,10 +43,12 @@ public abstract class ParameterizedFileUtil {
      */
     protected final File base;
     protected final FileFaker faker;
+    /** Listings of the run folder, shared with the other file utils of the same IlluminaFileUtil. */
+    protected final RunFolderInventory inventory;
 
     public ParameterizedFileUtil(final boolean laneTileRegex, final String extension, final File base,
-                                 final FileFaker faker, final int lane) {
-        this(extension, base, faker, lane);
+                                 final FileFaker faker, final int lane, final RunFolderInventory inventory) {
+        this(extension, base, faker, lane, inventory);
         if (laneTileRegex) {
             matchPattern = Pattern.compile(escapePeriods(makeLaneTileRegex(processTxtExtension(extension), lane)));
         } else {
@@ -55,14 +57,15 @@ public abstract class ParameterizedFileUtil {
     }
 
     public ParameterizedFileUtil(final String pattern, final String extension, final File base, final FileFaker faker,
-                                 final int lane) {
-        this(extension, base, faker, lane);
+                                 final int lane, final RunFolderInventory inventory) {
+        this(extension, base, faker, lane, inventory);
         this.matchPattern = Pattern.compile(pattern);
     }
 
     private ParameterizedFileUtil(final String extension, final File base, final FileFaker faker,
-                                  final int lane) {
+                                  final int lane, final RunFolderInventory inventory) {
         this.faker = faker;
+        this.inventory = inventory;
         this.extension = extension;
         this.base = base;
         this.lane = lane;
@@ -94,6 +97,20 @@ public abstract class ParameterizedFileUtil {
      */
     public abstract List<String> verify(List<Integer> expectedTiles, int[] expectedCycles);
 
+    /**
+     * Check that the headers of the files for the given tile are well-formed and consistent with each other and with
+     * the lengths of the files, without reading any records.  Unlike verify(), this reads each file, so it is
+     * intended to be called for many tiles in parallel.  Missing files are not reported, since verify() does that.
+     *
+     * @param tile           The tile whose files to check
+     * @param expectedCycles An ordered list of cycle numbers that may contain gaps
+     * @return A list of error messages for this format and tile; by default, empty for formats whose files have no
+     * header to check
+     */
+    public List<String> verifyHeaders(final int tile, final int[] expectedCycles) {
+        return Collections.emptyList();
+    }
+
     /**
      * Given the expected tiles/expected cycles for this file type create a set of fake files such that the
      * verification criteria are met.
@@ -158,14 +175,8 @@ public abstract class ParameterizedFileUtil {
      */
     protected IlluminaFileMap getTiledFiles(final File baseDirectory, final Pattern pattern) {
         final IlluminaFileMap fileMap = new IlluminaFileMap();
-        if (baseDirectory.exists()) {
-            IOUtil.assertDirectoryIsReadable(baseDirectory);
-            final File[] files = IOUtil.getFilesMatchingRegexp(baseDirectory, pattern);
-            for (final File file : files) {
-                if (file.length() > 0) {
-                    fileMap.put(fileToTile(file.getName()), file);
-                }
-            }
+        for (final File file : inventory.getNonEmptyFilesMatchingRegexp(baseDirectory, pattern)) {
+            fileMap.put(fileToTile(file.getName()), file);
         }
 
         return fileMap;
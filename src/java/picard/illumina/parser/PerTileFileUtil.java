@@ -1,6 +1,8 @@
 package picard.illumina.parser;
 
+import picard.PicardException;
 import picard.illumina.parser.fakers.FileFaker;
+import picard.illumina.parser.readers.FilterFileReader;
 
 import java.io.File;
 import java.io.IOException;
@@ -13,8 +15,8 @@ public class PerTileFileUtil extends ParameterizedFileUtil {
     private final IlluminaFileMap fileMap;
 
     public PerTileFileUtil(final String extension, final File base,
-                           final FileFaker faker, final int lane) {
-        super(true, extension, base, faker, lane);
+                           final FileFaker faker, final int lane, final RunFolderInventory inventory) {
+        super(true, extension, base, faker, lane, inventory);
         this.fileMap = getTiledFiles(base, matchPattern);
         if (fileMap.size() > 0) {
             this.tiles = Collections.unmodifiableList(new ArrayList<Integer>(this.fileMap.keySet()));
@@ -52,6 +54,23 @@ public class PerTileFileUtil extends ParameterizedFileUtil {
         return failures;
     }
 
+    /**
+     * Filter files are the only per-tile files with a header, which the reader checks against the file's length.
+     */
+    @Override
+    public List<String> verifyHeaders(final int tile, final int[] expectedCycles) {
+        final File file = fileMap.get(tile);
+        if (!extension.equals(".filter") || file == null) {
+            return Collections.emptyList();
+        }
+        try {
+            new FilterFileReader(file);
+            return Collections.emptyList();
+        } catch (final PicardException e) {
+            return Collections.singletonList(e.getMessage());
+        }
+    }
+
     @Override
     public List<String> fakeFiles(final List<Integer> expectedTiles, final int[] cycles,
                                   final IlluminaFileUtil.SupportedIlluminaFormat format) {
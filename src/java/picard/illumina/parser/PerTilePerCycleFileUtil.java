@@ -1,6 +1,5 @@
 package picard.illumina.parser;
 
-import htsjdk.samtools.util.IOUtil;
 import picard.PicardException;
 import picard.illumina.parser.fakers.FileFaker;
 import picard.illumina.parser.readers.BclReader;
@@ -24,8 +23,9 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
     private final Set<Integer> detectedCycles = new TreeSet<Integer>();
 
     public PerTilePerCycleFileUtil(final String extension,
-                                   final File base, final FileFaker faker, final int lane) {
-        super(true, extension, base, faker, lane);
+                                   final File base, final FileFaker faker, final int lane,
+                                   final RunFolderInventory inventory) {
+        super(true, extension, base, faker, lane, inventory);
         //sideEffect, assigned to numCycles
         this.cycleFileMap = getPerTilePerCycleFiles();
     }
@@ -43,7 +43,7 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
 
         final File laneDir = base;
         final File[] tempCycleDirs;
-        tempCycleDirs = IOUtil.getFilesMatchingRegexp(laneDir, IlluminaFileUtil.CYCLE_SUBDIRECTORY_PATTERN);
+        tempCycleDirs = inventory.getFilesMatchingRegexp(laneDir, IlluminaFileUtil.CYCLE_SUBDIRECTORY_PATTERN);
         if (tempCycleDirs == null || tempCycleDirs.length == 0) {
             return cycledMap;
         }
@@ -150,9 +150,10 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
                     for (final int tile : expectedTiles) {
                         final File cycleFile = fileMap.get(tile);
                         if (cycleFile != null) {
+                            final long cycleFileLength = inventory.length(cycleFile);
                             if (tileToFileLengthMap.get(tile) == null) {
-                                tileToFileLengthMap.put(tile, cycleFile.length());
-                            } else if (!extension.equals(".bcl.gz") && tileToFileLengthMap.get(tile) != cycleFile.length()) {
+                                tileToFileLengthMap.put(tile, cycleFileLength);
+                            } else if (!extension.equals(".bcl.gz") && tileToFileLengthMap.get(tile) != cycleFileLength) {
 
                                 // TODO: The gzip bcl files might not be the same length despite having the same content,
                                 // for now we're punting on this but this should be looked into at some point
@@ -160,7 +161,7 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
                                         + " has cycles files of different length.  Current cycle ("
                                         + currentCycle + ") " +
                                         "Length of first non-empty file (" + tileToFileLengthMap.get(tile)
-                                        + ") length of current cycle (" + cycleFile.length() + ")"
+                                        + ") length of current cycle (" + cycleFileLength + ")"
                                         + " File(" + cycleFile.getAbsolutePath() + ")");
                             }
                         } else {
@@ -179,6 +180,61 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
         return failures;
     }
 
+    /**
+     * Check that every cycle's file (BCL, CIF or CNF) for the tile has the same cluster count in its header and,
+     * unless it is compressed, a length that agrees with that count.
+     */
+    @Override
+    public List<String> verifyHeaders(final int tile, final int[] expectedCycles) {
+        final List<String> failures = new LinkedList<String>();
+        File firstFile = null;
+        long firstNumClusters = 0;
+        for (final int cycle : expectedCycles) {
+            final IlluminaFileMap fileMap = cycleFileMap.get(cycle);
+            final File cycleFile = fileMap == null ? null : fileMap.get(tile);
+            if (cycleFile == null) continue;
+
+            final long numClusters;
+            final long expectedLength;
+            try {
+                if (isIntensityFile()) {
+                    final ClusterIntensityFileReader.ClusterIntensityFileHeader header =
+                            ClusterIntensityFileReader.readHeaders(cycleFile);
+                    numClusters = header.numClusters;
+                    expectedLength = ClusterIntensityFileReader.getFileSize(header);
+                } else {
+                    numClusters = BclReader.getNumberOfClusters(cycleFile);
+                    expectedLength = BclReader.HEADER_SIZE + numClusters;
+                }
+            } catch (final PicardException e) {
+                failures.add(e.getMessage());
+                continue;
+            }
+            if (!BclReader.isGzipped(cycleFile) && !BclReader.isBlockGzipped(cycleFile) &&
+                    inventory.length(cycleFile) != expectedLength) {
+                failures.add("File " + cycleFile.getAbsolutePath() + " has " + numClusters + " clusters in its header" +
+                        " but its length is " + inventory.length(cycleFile));
+            }
+            if (firstFile == null) {
+                firstFile = cycleFile;
+                firstNumClusters = numClusters;
+            } else if (numClusters != firstNumClusters) {
+                failures.add("File " + cycleFile.getAbsolutePath() + " has " + numClusters + " clusters but " +
+                        firstFile.getAbsolutePath() + " has " + firstNumClusters);
+            }
+        }
+        return failures;
+    }
+
+    private boolean isIntensityFile() {
+        return extension.equals(".cif") || extension.equals(".cnf");
+    }
+
+    private long getNumberOfClusters(final File cycleFile) {
+        if (isIntensityFile()) return ClusterIntensityFileReader.readHeaders(cycleFile).numClusters;
+        else return BclReader.getNumberOfClusters(cycleFile);
+    }
+
     @Override
     public List<String> fakeFiles(final List<Integer> expectedTiles, final int[] expectedCycles,
                                   final IlluminaFileUtil.SupportedIlluminaFormat format) {
@@ -225,7 +281,7 @@ public class PerTilePerCycleFileUtil extends ParameterizedFileUtil {
                 for (final int tile : expectedTiles) {
                     final File cycleFile = fileMap.get(tile);
                     if (cycleFile != null && !tileToSizeMap.containsKey(tile)) {
-                        tileToSizeMap.put(tile, (int) BclReader.getNumberOfClusters(cycleFile));
+                        tileToSizeMap.put(tile, (int) getNumberOfClusters(cycleFile));
                     }
                     try {
                         if (cycleFile == null) {
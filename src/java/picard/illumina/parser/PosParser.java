@@ -31,7 +31,9 @@ import picard.illumina.parser.readers.LocsFileReader;
 import picard.illumina.parser.readers.PosFileReader;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import static htsjdk.samtools.util.CollectionUtil.makeSet;
@@ -42,10 +44,16 @@ import static htsjdk.samtools.util.CollectionUtil.makeSet;
  * whether or not these are POS,LOCS, or CLOCS files.  The only client classes to this class should be IlluminaDataProvider
  * and test classes.  Check out AbstractIlluminaFileReader, PosFileReader, LocsFileReader, and ClocsFileReader for
  * more information on Position related illumina files.
+ *
+ * Each tile's file is decoded into parallel arrays of QSeq-style coordinates in one pass when the tile is opened.  The
+ * PositionalData returned by next() is reused, and is only valid until the following call to next().
  */
 public class PosParser extends PerTileParser<PositionalData> {
     private static Set<IlluminaDataType> supportedTypes = Collections.unmodifiableSet(makeSet(IlluminaDataType.Position));
 
+    /** Starting array size when the number of clusters in a tile cannot be determined up front. */
+    private static final int INITIAL_CLUSTERS_PER_TILE = 1 << 16;
+
     /** The FileType of the files we are parsing */
     private final IlluminaFileUtil.SupportedIlluminaFormat fileType;
 
@@ -61,8 +69,8 @@ public class PosParser extends PerTileParser<PositionalData> {
 
     /**
      * Make an CloseableIterator<PositionalData> based on the given file and fileType specified at construction.
-     * This method wraps a reader in an iterator that converts it's output to the output format expected by
-     * IlluminaDataProvider (PositionalData).
+     * This method loads the whole file and wraps the resulting coordinates in an iterator that presents them in the
+     * output format expected by IlluminaDataProvider (PositionalData).
      * @param file A file for the current tile being parsed
      * @return An iterator over the PositionalData in that file.
      */
@@ -87,36 +95,47 @@ public class PosParser extends PerTileParser<PositionalData> {
                 throw new PicardException("Unrecognized pos file type " + fileType.name());
         }
 
+        int[] xCoords = new int[INITIAL_CLUSTERS_PER_TILE];
+        int[] yCoords = new int[INITIAL_CLUSTERS_PER_TILE];
+        int clustersRead = 0;
+        try {
+            while (fileReader.hasNext()) {
+                if (clustersRead == xCoords.length) {
+                    xCoords = Arrays.copyOf(xCoords, 2 * xCoords.length);
+                    yCoords = Arrays.copyOf(yCoords, 2 * yCoords.length);
+                }
+                clustersRead += fileReader.readQseqCoords(xCoords, yCoords, clustersRead, xCoords.length - clustersRead);
+            }
+        } finally {
+            fileReader.close();
+        }
+
+        final int numClusters = clustersRead;
+        final int[] xs = xCoords;
+        final int[] ys = yCoords;
         return new CloseableIterator<PositionalData>() {
-            private AbstractIlluminaPositionFileReader reader = fileReader;
+            private int currentCluster = -1;
+            private final PositionalData positionalData = new PositionalData() {
+                public int getXCoordinate() {
+                    return xs[currentCluster];
+                }
+
+                public int getYCoordinate() {
+                    return ys[currentCluster];
+                }
+            };
 
             public void close() {
-                reader.close();
             }
 
             public boolean hasNext() {
-                return reader.hasNext();
+                return currentCluster + 1 < numClusters;
             }
 
             public PositionalData next() {
-                final AbstractIlluminaPositionFileReader.PositionInfo nextValue = reader.next();
-                return new PositionalData() {
-                    public int getXCoordinate() {
-                        return nextValue.xQseqCoord;
-                    }
-
-                    public int getYCoordinate() {
-                        return nextValue.yQseqCoord;
-                    }
-
-                    public int getLane() {
-                        return nextValue.lane;
-                    }
-
-                    public int getTile() {
-                        return nextValue.tile;
-                    }
-                };
+                if (!hasNext()) throw new NoSuchElementException();
+                ++currentCluster;
+                return positionalData;
             }
 
             public void remove() {
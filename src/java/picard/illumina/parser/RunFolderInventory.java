@@ -0,0 +1,96 @@
+package picard.illumina.parser;
+
+import htsjdk.samtools.util.IOUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An inventory of the files in a run folder, shared by all the ParameterizedFileUtils of an IlluminaFileUtil, so that
+ * each directory is listed, and the length of each file is read, at most once no matter how many formats look for
+ * files in it.  A lane has a directory per cycle with a file per tile in each, and several formats (e.g. .bcl and
+ * .bcl.gz, .filter and the multi-tile formats) share directories, so on a network filesystem this saves many round
+ * trips at startup.
+ *
+ * The inventory is a snapshot: files created or grown after their directory was listed, or their length read, are
+ * not seen.  Make a new IlluminaFileUtil (and so a new inventory) to see changes to the run folder.
+ *
+ * The inventory only lives as long as this object: it is not written to disk, and is not shared between runs or
+ * between processes reading the same run folder, each of which lists the directories again.
+ */
+public class RunFolderInventory {
+    // Sorted names of the entries of each directory listed so far, or null if the directory could not be listed.
+    private final Map<File, String[]> directoryListings = new HashMap<File, String[]>();
+    private final Map<File, Long> fileLengths = new HashMap<File, Long>();
+
+    /**
+     * Same as IOUtil.getFilesMatchingRegexp(), except that the directory is only listed the first time, and the
+     * files are returned in name order.
+     *
+     * @return The files in directory whose names match pattern, or null if directory does not exist.
+     */
+    public synchronized File[] getFilesMatchingRegexp(final File directory, final Pattern pattern) {
+        final String[] names = list(directory);
+        if (names == null) return null;
+        final List<File> matches = new ArrayList<File>();
+        for (final String name : names) {
+            if (pattern.matcher(name).matches()) {
+                matches.add(new File(directory, name));
+            }
+        }
+        return matches.toArray(new File[matches.size()]);
+    }
+
+    /**
+     * As getFilesMatchingRegexp(), but skipping empty files, and asserting that the directory is readable if it exists
+     * but could not be listed.
+     *
+     * @return The non-empty files in directory whose names match pattern, or an empty array if directory does not exist.
+     */
+    public synchronized File[] getNonEmptyFilesMatchingRegexp(final File directory, final Pattern pattern) {
+        final File[] files = getFilesMatchingRegexp(directory, pattern);
+        if (files == null) {
+            if (directory.exists()) IOUtil.assertDirectoryIsReadable(directory);
+            return new File[0];
+        }
+        final List<File> nonEmpty = new ArrayList<File>(files.length);
+        for (final File file : files) {
+            if (length(file) > 0) nonEmpty.add(file);
+        }
+        return nonEmpty.toArray(new File[nonEmpty.size()]);
+    }
+
+    /** @return true if file was present when its directory was listed. */
+    public synchronized boolean exists(final File file) {
+        final File directory = file.getParentFile();
+        if (directory == null) return file.exists();
+        final String[] names = list(directory);
+        return names != null && Arrays.binarySearch(names, file.getName()) >= 0;
+    }
+
+    /** @return The length of file when it was first asked about, as for File.length(). */
+    public synchronized long length(final File file) {
+        Long length = fileLengths.get(file);
+        if (length == null) {
+            length = file.length();
+            fileLengths.put(file, length);
+        }
+        return length;
+    }
+
+    private String[] list(final File directory) {
+        final File key = directory.getAbsoluteFile();
+        if (directoryListings.containsKey(key)) {
+            return directoryListings.get(key);
+        }
+        final String[] names = directory.list();
+        if (names != null) Arrays.sort(names);
+        directoryListings.put(key, names);
+        return names;
+    }
+}
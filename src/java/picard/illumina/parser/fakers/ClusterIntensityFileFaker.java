@@ -0,0 +1,37 @@
+package picard.illumina.parser.fakers;
+
+import htsjdk.samtools.util.StringUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fakes a single-cycle CIF or CNF file with a value of 0 for every channel of every cluster.
+ */
+public class ClusterIntensityFileFaker extends FileFaker {
+    private static final int HEADER_SIZE = 13;
+    private static final int NUM_CHANNELS = 4;
+    private static final int ELEMENT_SIZE = 2;
+
+    @Override
+    protected void fakeFile(final ByteBuffer buffer) {
+        buffer.put(StringUtil.stringToBytes("CIF"));
+        buffer.put((byte) 1); // version
+        buffer.put((byte) ELEMENT_SIZE);
+        buffer.putShort((short) 1); // first cycle
+        buffer.putShort((short) 1); // number of cycles
+        buffer.putInt(size);
+        for (int i = 0; i < NUM_CHANNELS * size; ++i) {
+            buffer.putShort((short) 0);
+        }
+    }
+
+    @Override
+    protected boolean addLeadingZeros() {
+        return false;
+    }
+
+    @Override
+    protected int bufferSize() {
+        return HEADER_SIZE + NUM_CHANNELS * size * ELEMENT_SIZE;
+    }
+}
@@ -71,12 +71,7 @@ public abstract class AbstractIlluminaPositionFileReader implements CloseableIte
         public final int yQseqCoord;
 
         public PositionInfo(final float x, final float y, final int lane, final int tile) {
-            if(x < MIN_POS || y < MIN_POS || x > MAX_POS || y > MAX_POS) {
-
-                throw new IllegalArgumentException(
-                        String.format("Cluster location not in the range %f..%f. x: %f; y: %f; lane: %d; tile: %d",
-                                MIN_POS, MAX_POS, x, y, lane, tile));
-            }
+            checkPosition(x, y, lane, tile);
 
             this.xPos = x;
             this.yPos = y;
@@ -86,11 +81,6 @@ public abstract class AbstractIlluminaPositionFileReader implements CloseableIte
             this.tile = tile;
         }
 
-        /** Convert a value in float form as it occurs in pos,locs,and clocs files into integer as it is found in QSeqs */
-        private int posToQSeqCoord(final float pos) {
-            return Math.round(pos * 10 + 1000);
-        }
-
         public boolean equals(final Object other) {
             if(other == null || other.getClass() != AbstractIlluminaPositionFileReader.PositionInfo.class) {
                 return false;
@@ -103,6 +93,21 @@ public abstract class AbstractIlluminaPositionFileReader implements CloseableIte
         }
     }
 
+    /** @throws IllegalArgumentException if either coordinate lies outside MIN_POS..MAX_POS */
+    protected static void checkPosition(final float x, final float y, final int lane, final int tile) {
+        if(x < MIN_POS || y < MIN_POS || x > MAX_POS || y > MAX_POS) {
+
+            throw new IllegalArgumentException(
+                    String.format("Cluster location not in the range %f..%f. x: %f; y: %f; lane: %d; tile: %d",
+                            MIN_POS, MAX_POS, x, y, lane, tile));
+        }
+    }
+
+    /** Convert a value in float form as it occurs in pos,locs,and clocs files into integer as it is found in QSeqs */
+    protected static int posToQSeqCoord(final float pos) {
+        return Math.round(pos * 10 + 1000);
+    }
+
     //Note: Perhaps use the IlluminaFileUtil to do this part
     private static final Pattern FileNamePattern = Pattern.compile("^s_(\\d+)_(\\d+)(_pos\\.txt|\\.locs|\\.clocs|_pos\\.txt.gz|_pos\\.txt.bz2)$");
 
@@ -161,6 +166,24 @@ public abstract class AbstractIlluminaPositionFileReader implements CloseableIte
         return unsafeNextInfo();
     }
 
+    /**
+     * Decode up to maxToRead of the remaining clusters straight into parallel arrays of QSeq-style coordinates,
+     * starting at offset, with the same range checking as next().  Subclasses whose format allows it override this
+     * so that no PositionInfo is created per cluster.
+     *
+     * @return The number of clusters decoded, which is less than maxToRead only if the file has been exhausted.
+     */
+    public int readQseqCoords(final int[] xCoords, final int[] yCoords, final int offset, final int maxToRead) {
+        int numRead = 0;
+        while (numRead < maxToRead && hasNext()) {
+            final PositionInfo info = next();
+            xCoords[offset + numRead] = info.xQseqCoord;
+            yCoords[offset + numRead] = info.yQseqCoord;
+            ++numRead;
+        }
+        return numRead;
+    }
+
     /** Returns the next position info.  Implementations of this method do not need to call hasNext since
      * it is called in next() */
     protected abstract PositionInfo unsafeNextInfo();
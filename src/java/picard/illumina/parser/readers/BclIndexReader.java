@@ -37,7 +37,7 @@ public class BclIndexReader {
     private static final int BCI_HEADER_SIZE = 8;
     private static final int BCI_VERSION = 0;
 
-    private final BinaryFileIterator<Long> bciIterator;
+    private final MMapBackedIteratorFactory.LongMMapIterator bciIterator;
     private final int numTiles;
     private final File bciFile;
     private int nextRecordNumber = 0;
@@ -57,16 +57,20 @@ public class BclIndexReader {
         return numTiles;
     }
 
+    /**
+     * Records may be requested in any order; the underlying buffer is repositioned as needed, so one reader can
+     * service every seek made by a BclReader regardless of the order in which its tiles are visited.
+     */
     public long get(final int recordNumber) {
-        if (recordNumber < nextRecordNumber) {
-            throw new IllegalArgumentException("Can only read forward");
+        if (recordNumber < 0 || recordNumber >= numTiles) {
+            throw new IllegalArgumentException(String.format("Record %d out of range for %s", recordNumber, bciFile.getAbsolutePath()));
         }
-        if (recordNumber > nextRecordNumber) {
+        if (recordNumber != nextRecordNumber) {
             bciIterator.skipElements(recordNumber - nextRecordNumber);
             nextRecordNumber = recordNumber;
         }
         ++nextRecordNumber;
-        return bciIterator.getElement();
+        return bciIterator.nextLong();
     }
 
     public File getBciFile() {
@@ -3,12 +3,14 @@ package picard.illumina.parser.readers;
 import htsjdk.samtools.util.CollectionUtil;
 import picard.PicardException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
 
 /**
  * Describes a mechanism for revising and evaluating qualities read from a BCL file.  This class accumulates observations about low quality
@@ -18,6 +20,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  * not affected.
  *
  * This class is thread-safe and a single instance can and should be passed to {@link BclReader}s running in separate threads.
+ * Each thread counts the low qualities it sees in its own array, without locking, and the counts are summed when they are
+ * asked for, so they only include the observations of other threads once those threads' work is known to be finished
+ * (e.g. after joining them or getting their Futures).
  * 
  * To replicate the functionality of {@link BclReader}s prior to the introduction of this class, create a single instance passing 
  * {@link #ILLUMINA_ALLEGED_MINIMUM_QUALITY} to the constructor, and then call {@link #assertMinimumQualities()} once the readers finish
@@ -28,14 +33,27 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class BclQualityEvaluationStrategy {
     public static final int ILLUMINA_ALLEGED_MINIMUM_QUALITY = 2;
     private final int minimumRevisedQuality;
-    /** A thread-safe defaulting map that injects an AtomicInteger starting at 0 when a uninitialized key is get-ted. */
-    private Map<Byte, AtomicInteger> qualityCountMap = Collections.synchronizedMap(new CollectionUtil.DefaultingMap<Byte, AtomicInteger>(
-            new CollectionUtil.DefaultingMap.Factory<AtomicInteger, Byte>() {
-                @Override
-                public AtomicInteger make(final Byte _) {
-                    return new AtomicInteger(0);
-                }
-            }, true));
+
+    /** Revised quality for every observed quality, indexed by the unsigned value of the observed quality. */
+    private static final byte[] REVISED_QUALITIES = new byte[256];
+    static {
+        for (int i = 0; i < REVISED_QUALITIES.length; ++i) {
+            REVISED_QUALITIES[i] = generateRevisedQuality((byte) i);
+        }
+    }
+
+    /** Every thread's counts, indexed by the unsigned value of the observed quality, for summing on demand. */
+    private final List<long[]> threadQualityCounts = new ArrayList<long[]>();
+    private final ThreadLocal<long[]> qualityCounts = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            final long[] counts = new long[256];
+            synchronized (threadQualityCounts) {
+                threadQualityCounts.add(counts);
+            }
+            return counts;
+        }
+    };
 
     /**
      * @param minimumRevisedQuality The minimum quality that should be seen from revised qualities; controls whether or not an exception
@@ -56,11 +74,10 @@ public class BclQualityEvaluationStrategy {
      * @return The revised new quality score
      */
     public byte reviseAndConditionallyLogQuality(final byte quality) {
-        final byte revisedQuality = generateRevisedQuality(quality);
         if (quality < ILLUMINA_ALLEGED_MINIMUM_QUALITY) {
-            qualityCountMap.get(quality).incrementAndGet();
+            ++qualityCounts.get()[quality & 0xFF];
         }
-        return revisedQuality;
+        return REVISED_QUALITIES[quality & 0xFF];
     }
 
     /**
@@ -68,10 +85,10 @@ public class BclQualityEvaluationStrategy {
      */
     public void assertMinimumQualities() {
         final Collection<String> errorTokens = new LinkedList<String>();
-        for (final Map.Entry<Byte, AtomicInteger> entry : this.qualityCountMap.entrySet()) {
+        for (final Map.Entry<Byte, Long> entry : sumQualityCounts().entrySet()) {
             /**
-             * We're comparing revised qualities here, not observed, but the qualities that are logged in qualityCountMap are observed
-             * qualities.  So as we iterate through it, convert observed qualities into their revised value. 
+             * We're comparing revised qualities here, not observed, but the qualities that are counted are observed
+             * qualities.  So as we iterate through them, convert observed qualities into their revised value.
              */
             if (generateRevisedQuality(entry.getKey()) < minimumRevisedQuality) { 
                 errorTokens.add(String.format("quality %s observed %s times", entry.getKey(), entry.getValue()));
@@ -91,9 +108,26 @@ public class BclQualityEvaluationStrategy {
      */
     public Map<Byte, Integer> getPoorQualityFrequencies() {
         final Map<Byte, Integer> qualityCountMapCopy = new HashMap<Byte, Integer>();
-        for (final Map.Entry<Byte, AtomicInteger> entry : qualityCountMap.entrySet()) {
+        for (final Map.Entry<Byte, Long> entry : sumQualityCounts().entrySet()) {
             qualityCountMapCopy.put(entry.getKey(), entry.getValue().intValue());
         }
         return Collections.unmodifiableMap(qualityCountMapCopy);
     }
+
+    /** Sums the counts of all threads, returning the observed qualities seen at least once in ascending order. */
+    private Map<Byte, Long> sumQualityCounts() {
+        final long[] totals = new long[256];
+        synchronized (threadQualityCounts) {
+            for (final long[] counts : threadQualityCounts) {
+                for (int i = 0; i < totals.length; ++i) {
+                    totals[i] += counts[i];
+                }
+            }
+        }
+        final Map<Byte, Long> qualityCounts = new TreeMap<Byte, Long>();
+        for (int i = 0; i < totals.length; ++i) {
+            if (totals[i] > 0) qualityCounts.put((byte) i, totals[i]);
+        }
+        return qualityCounts;
+    }
 }
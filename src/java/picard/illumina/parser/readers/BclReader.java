@@ -74,7 +74,8 @@ import java.util.zip.GZIPInputStream;
  */
 public class BclReader implements CloseableIterator<BclData> {
     private static final byte BASE_MASK = 0x0003;
-    private static final int HEADER_SIZE = 4;
+    /** Number of bytes before the first cluster; they hold the number of clusters. */
+    public static final int HEADER_SIZE = 4;
     private static final byte[] BASE_LOOKUP = new byte[]{'A', 'C', 'G', 'T'};
 
     private final InputStream[] streams;
@@ -83,6 +84,8 @@ public class BclReader implements CloseableIterator<BclData> {
 
     private final BclQualityEvaluationStrategy bclQualityEvaluationStrategy;
     private BclData queue = null;
+    /** Lazily opened by seek(), one per cycle file. */
+    private BclIndexReader[] indexReaders = null;
 
     public BclReader(final List<File> bclsForOneTile, final int[] outputLengths,
                      final BclQualityEvaluationStrategy bclQualityEvaluationStrategy, final boolean seekable) {
@@ -314,30 +317,39 @@ public class BclReader implements CloseableIterator<BclData> {
         return new BclReader(files, outputLengths, bclQualityEvaluationStrategy, true);
     }
 
+    /**
+     * Position every cycle stream at the start of the given tile.  The .bci index for each cycle file is opened on the
+     * first seek and reused for subsequent ones, and tiles may be visited in any order, so each worker thread can
+     * hold its own seekable reader over the same cycle files and decode an arbitrary range of tiles independently.
+     *
+     * @return the number of clusters in the tile sought
+     */
     public int seek(final List<File> files, final TileIndex tileIndex, final int currentTile) {
-        int count = 0;
-        int numClustersInTile = 0;
-        for (final InputStream inputStream : streams) {
-            final TileIndex.TileIndexRecord tileIndexRecord = tileIndex.findTile(currentTile);
-            final BclIndexReader bclIndexReader = new BclIndexReader(files.get(count));
-            final long virtualFilePointer = bclIndexReader.get(tileIndexRecord.getZeroBasedTileNumber());
+        if (indexReaders == null) {
+            indexReaders = new BclIndexReader[streams.length];
+        }
+        final TileIndex.TileIndexRecord tileIndexRecord = tileIndex.findTile(currentTile);
+        for (int i = 0; i < streams.length; ++i) {
+            final InputStream inputStream = streams[i];
             if (!(inputStream instanceof BlockCompressedInputStream)) {
                 throw new UnsupportedOperationException("Seeking only allowed on bzgf");
-            } else {
-                try {
-                    if (tileIndex.getNumTiles() != bclIndexReader.getNumTiles()) {
-                        throw new PicardException(String.format("%s.getNumTiles(%d) != %s.getNumTiles(%d)",
-                                tileIndex.getFile().getAbsolutePath(), tileIndex.getNumTiles(), bclIndexReader.getBciFile().getAbsolutePath(), bclIndexReader.getNumTiles()));
-                    }
-                    ((BlockCompressedInputStream) inputStream).seek(virtualFilePointer);
-                    numClustersInTile = tileIndexRecord.getNumClustersInTile();
-                } catch (final IOException e) {
-                    throw new PicardException("Problem seeking to " + virtualFilePointer, e);
+            }
+            if (indexReaders[i] == null) {
+                indexReaders[i] = new BclIndexReader(files.get(i));
+                if (tileIndex.getNumTiles() != indexReaders[i].getNumTiles()) {
+                    throw new PicardException(String.format("%s.getNumTiles(%d) != %s.getNumTiles(%d)",
+                            tileIndex.getFile().getAbsolutePath(), tileIndex.getNumTiles(), indexReaders[i].getBciFile().getAbsolutePath(), indexReaders[i].getNumTiles()));
                 }
             }
-            count++;
+            final long virtualFilePointer = indexReaders[i].get(tileIndexRecord.getZeroBasedTileNumber());
+            try {
+                ((BlockCompressedInputStream) inputStream).seek(virtualFilePointer);
+            } catch (final IOException e) {
+                throw new PicardException("Problem seeking to " + virtualFilePointer, e);
+            }
         }
-        return numClustersInTile;
+        queue = null;
+        return tileIndexRecord.getNumClustersInTile();
     }
 }
 
@@ -70,7 +70,7 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
     private final long numBins;
 
     /** An iterator through clocsFile's bytes */
-    private final BinaryFileIterator<Byte> byteIterator;
+    private final MMapBackedIteratorFactory.ByteMMapIterator byteIterator;
 
     //mutable vars
     private float xOffset;
@@ -102,8 +102,8 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
      */
     @Override
     protected PositionInfo unsafeNextInfo() {
-        final byte xByte = byteIterator.next();
-        final byte yByte = byteIterator.next();
+        final byte xByte = byteIterator.nextByte();
+        final byte yByte = byteIterator.nextByte();
 
         final float xPos = UnsignedTypeUtil.uByteToInt(xByte)/10f + xOffset;
         final float yPos = UnsignedTypeUtil.uByteToInt(yByte)/10f + yOffset;
@@ -113,6 +113,23 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
         return new PositionInfo(xPos, yPos, getLane(), getTile());
     }
 
+    @Override
+    public int readQseqCoords(final int[] xCoords, final int[] yCoords, final int offset, final int maxToRead) {
+        int numRead = 0;
+        while (numRead < maxToRead && hasNext()) {
+            final float xPos = UnsignedTypeUtil.uByteToInt(byteIterator.nextByte())/10f + xOffset;
+            final float yPos = UnsignedTypeUtil.uByteToInt(byteIterator.nextByte())/10f + yOffset;
+            ++currentClusterInBin;
+            checkAndAdvanceBin();
+
+            checkPosition(xPos, yPos, getLane(), getTile());
+            xCoords[offset + numRead] = posToQSeqCoord(xPos);
+            yCoords[offset + numRead] = posToQSeqCoord(yPos);
+            ++numRead;
+        }
+        return numRead;
+    }
+
     /** Compute offset for next bin and then increment the bin number and reset block information*/
     private void checkAndAdvanceBin() {
         while(currentClusterInBin >= numClustersInBin && currentBin < numBins) { //While rather than if statement to skip empty blocks
@@ -132,7 +149,7 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
 
     /** Start the next block by reading it's numBlocks byte and setting the currentBlock index to 0 */
     private void startBlock() {
-        numClustersInBin = UnsignedTypeUtil.uByteToInt(byteIterator.next());
+        numClustersInBin = UnsignedTypeUtil.uByteToInt(byteIterator.nextByte());
         currentClusterInBin = 0;
     }
     
@@ -28,6 +28,7 @@ import picard.util.UnsignedTypeUtil;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Iterator;
 
 /**
@@ -45,7 +46,7 @@ public class FilterFileReader implements Iterator<Boolean> {
     public final int EXPECTED_VERSION = 3;
 
     /** Iterator over each cluster in the FilterFile */
-    private final BinaryFileIterator<Byte> bbIterator;
+    private final MMapBackedIteratorFactory.ByteMMapIterator bbIterator;
 
     /** Version number found in the FilterFile, this should equal 3 */
     public final int version;
@@ -61,6 +62,9 @@ public class FilterFileReader implements Iterator<Boolean> {
      * the moment but technically the standard  may be to check only lowest significant bit */
     private final static byte PassedFilter = 0x01;
 
+    /** Upper bound on the number of values decoded per bulk read, to bound the scratch buffer. */
+    private static final int MAX_VALUES_PER_BULK_READ = 65536;
+
     /** The index of the current cluster within the file*/
     private int currentCluster;
 
@@ -91,21 +95,58 @@ public class FilterFileReader implements Iterator<Boolean> {
     }
 
     public Boolean next() {
-        final byte value = bbIterator.next();
+        return nextPf();
+    }
+
+    /** As next(), without boxing the result. */
+    public boolean nextPf() {
+        final byte value = bbIterator.nextByte();
         currentCluster += 1;
         if(value == PassedFilter) {
             return true;
         } else if(value == FailedFilter) {
             return false;
         } else {
-            String hexVal = Integer.toHexString(value);
-            hexVal = (hexVal.length() < 2 ? "0x0" : "0x") + hexVal;
-            throw new PicardException("Didn't recognized PF Byte (" + hexVal + ")" + " for element (" + currentCluster + ") in file(" + bbIterator.getFile().getAbsolutePath() + ")");
+            throw unrecognizedValue(value, currentCluster);
+        }
+    }
+
+    /**
+     * Decode the next numToRead values in a single pass.
+     * @return A BitSet in which bit i is set iff the i'th cluster read passed filter.
+     */
+    public BitSet readPfs(final int numToRead) {
+        if (currentCluster + numToRead > numClusters) {
+            throw new PicardException("Requested " + numToRead + " PF values but only " + (numClusters - currentCluster) +
+                    " remain in file(" + bbIterator.getFile().getAbsolutePath() + ")");
+        }
+        final BitSet pfs = new BitSet(numToRead);
+        final byte[] values = new byte[Math.min(numToRead, MAX_VALUES_PER_BULK_READ)];
+        int numRead = 0;
+        while (numRead < numToRead) {
+            final int numInChunk = bbIterator.readBytes(values, 0, Math.min(values.length, numToRead - numRead));
+            for (int i = 0; i < numInChunk; ++i) {
+                if (values[i] == PassedFilter) {
+                    pfs.set(numRead + i);
+                } else if (values[i] != FailedFilter) {
+                    throw unrecognizedValue(values[i], currentCluster + numRead + i + 1);
+                }
+            }
+            numRead += numInChunk;
         }
+        currentCluster += numToRead;
+        return pfs;
+    }
+
+    private PicardException unrecognizedValue(final byte value, final int element) {
+        String hexVal = Integer.toHexString(value);
+        hexVal = (hexVal.length() < 2 ? "0x0" : "0x") + hexVal;
+        return new PicardException("Didn't recognized PF Byte (" + hexVal + ")" + " for element (" + element + ") in file(" + bbIterator.getFile().getAbsolutePath() + ")");
     }
 
     public void skipRecords(final int numToSkip) {
         bbIterator.skipElements(numToSkip);
+        currentCluster += numToSkip;
     }
 
     public void remove() {
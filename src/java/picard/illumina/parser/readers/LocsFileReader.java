@@ -48,12 +48,15 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
     /** The first four bytes of a locs file should equal a little endian 1 */
     private static final int BYTES_1_TO_4 = 1;
 
+    /** Upper bound on the number of clusters decoded per bulk read, to bound the scratch buffer. */
+    private static final int MAX_CLUSTERS_PER_BULK_READ = 8192;
+
     /** The expected version of locs files */
     private static final float VERSION = 1.0f;
 
     /** An iterator over all of the coordinate values in the file, remember next needs to be called
      * twice per coordinate pair */
-    private BinaryFileIterator<Float> bbIterator;
+    private MMapBackedIteratorFactory.FloatMMapIterator bbIterator;
 
     /** Total clusters in the file as read in the file header */
     private long numClusters;
@@ -93,12 +96,33 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
 
     @Override
     protected PositionInfo unsafeNextInfo() {
-        final float xVal = bbIterator.next();
-        final float yVal = bbIterator.next();
+        final float xVal = bbIterator.nextFloat();
+        final float yVal = bbIterator.nextFloat();
         ++nextCluster;
         return new PositionInfo(xVal, yVal, getLane(), getTile());
     }
 
+    @Override
+    public int readQseqCoords(final int[] xCoords, final int[] yCoords, final int offset, final int maxToRead) {
+        final int numToRead = (int) Math.min(maxToRead, numClusters - nextCluster);
+        final float[] xy = new float[2 * Math.min(numToRead, MAX_CLUSTERS_PER_BULK_READ)];
+        int numRead = 0;
+        while (numRead < numToRead) {
+            final int numInChunk = Math.min(numToRead - numRead, xy.length / 2);
+            bbIterator.readFloats(xy, 0, 2 * numInChunk);
+            for (int i = 0; i < numInChunk; ++i) {
+                final float xVal = xy[2 * i];
+                final float yVal = xy[2 * i + 1];
+                checkPosition(xVal, yVal, getLane(), getTile());
+                xCoords[offset + numRead + i] = posToQSeqCoord(xVal);
+                yCoords[offset + numRead + i] = posToQSeqCoord(yVal);
+            }
+            numRead += numInChunk;
+        }
+        nextCluster += numToRead;
+        return numToRead;
+    }
+
     @Override
     protected String makeExceptionMsg() {
         return "LocsFileReader(file=" + getFile().getAbsolutePath() + ", numClusters=" + numClusters + ") ";
@@ -115,5 +139,6 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
 
     public void skipRecords(final int numToSkip) {
         bbIterator.skipElements(numToSkip * 2);
+        nextCluster += numToSkip;
     }
 }
@@ -46,6 +46,10 @@ import java.util.NoSuchElementException;
  * Note (read to end):
  * This class IS thread-safe and immutable though the iterator and ByteBuffers it produces are NOT.
  * The values read are assumed to be signed, NO promoting/sign conversion happens in this class.
+ *
+ * Besides the boxing Iterator interface, the typed iterators provide nextInt()/nextByte()/etc. and bulk
+ * readInts(dst, off, len)-style methods that copy straight out of a primitive view of the map; readers that
+ * touch every cluster in a tile should prefer these.
  */
 public class MMapBackedIteratorFactory {
     private static int BYTE_SIZE  = 1;
@@ -53,7 +57,7 @@ public class MMapBackedIteratorFactory {
     private static int FLOAT_SIZE = 4;
     private static int LONG_SIZE = 8;
 
-    public static BinaryFileIterator<Integer> getIntegerIterator(final int headerSize, final File binaryFile) {
+    public static IntegerMMapIterator getIntegerIterator(final int headerSize, final File binaryFile) {
         checkFactoryVars(headerSize, binaryFile);
         final ByteBuffer buf = getBuffer(binaryFile);
         final byte [] header = getHeader(buf, headerSize);
@@ -61,7 +65,7 @@ public class MMapBackedIteratorFactory {
         return new IntegerMMapIterator(header, binaryFile, buf);
     }
 
-    public static BinaryFileIterator<Byte> getByteIterator(final int headerSize, final File binaryFile) {
+    public static ByteMMapIterator getByteIterator(final int headerSize, final File binaryFile) {
         checkFactoryVars(headerSize, binaryFile);
         final ByteBuffer buf = getBuffer(binaryFile);
         final byte [] header = getHeader(buf, headerSize);
@@ -69,7 +73,7 @@ public class MMapBackedIteratorFactory {
         return new ByteMMapIterator(header, binaryFile, buf);
     }
 
-    public static BinaryFileIterator<Float> getFloatIterator(final int headerSize, final File binaryFile) {
+    public static FloatMMapIterator getFloatIterator(final int headerSize, final File binaryFile) {
         checkFactoryVars(headerSize, binaryFile);
         final ByteBuffer buf = getBuffer(binaryFile);
         final byte [] header = getHeader(buf, headerSize);
@@ -77,7 +81,7 @@ public class MMapBackedIteratorFactory {
         return new FloatMMapIterator(header, binaryFile, buf);
     }
 
-    public static BinaryFileIterator<Long> getLongIterator(final int headerSize, final File binaryFile) {
+    public static LongMMapIterator getLongIterator(final int headerSize, final File binaryFile) {
         checkFactoryVars(headerSize, binaryFile);
         final ByteBuffer buf = getBuffer(binaryFile);
         final byte [] header = getHeader(buf, headerSize);
@@ -148,6 +152,17 @@ public class MMapBackedIteratorFactory {
             buffer.position(buffer.position() + (numElements * elementSize));
         }
 
+        /** The number of whole elements left between the current position and the end of the file. */
+        public int remainingElements() {
+            return (buffer.limit() - buffer.position()) / elementSize;
+        }
+
+        protected void assertHasNext() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+        }
+
         /** The method that actually retrieves the data from the enclosing buffer */
         protected abstract TYPE getElement();
 
@@ -156,7 +171,7 @@ public class MMapBackedIteratorFactory {
         }
     }
 
-    private static class IntegerMMapIterator extends MMapBackedIterator<Integer> {
+    public static class IntegerMMapIterator extends MMapBackedIterator<Integer> {
         public IntegerMMapIterator(final byte[] header, final File file, final ByteBuffer buf) {
             super(header, file, INT_SIZE, buf);
         }
@@ -165,9 +180,25 @@ public class MMapBackedIteratorFactory {
         protected Integer getElement() {
             return buffer.getInt();
         }
+
+        public int nextInt() {
+            assertHasNext();
+            return buffer.getInt();
+        }
+
+        /**
+         * Copy up to len values into dst starting at off.
+         * @return The number of values actually read, less than len only if the end of the file was reached.
+         */
+        public int readInts(final int[] dst, final int off, final int len) {
+            final int numToRead = Math.min(len, remainingElements());
+            buffer.asIntBuffer().get(dst, off, numToRead);
+            skipElements(numToRead);
+            return numToRead;
+        }
     }
 
-    private static class ByteMMapIterator extends MMapBackedIterator<Byte> {
+    public static class ByteMMapIterator extends MMapBackedIterator<Byte> {
         public ByteMMapIterator(final byte[] header, final File file, final ByteBuffer buf) {
             super(header, file, BYTE_SIZE, buf);
         }
@@ -176,9 +207,24 @@ public class MMapBackedIteratorFactory {
         protected Byte getElement() {
             return buffer.get();
         }
+
+        public byte nextByte() {
+            assertHasNext();
+            return buffer.get();
+        }
+
+        /**
+         * Copy up to len values into dst starting at off.
+         * @return The number of values actually read, less than len only if the end of the file was reached.
+         */
+        public int readBytes(final byte[] dst, final int off, final int len) {
+            final int numToRead = Math.min(len, remainingElements());
+            buffer.get(dst, off, numToRead);
+            return numToRead;
+        }
     }
 
-    private static class FloatMMapIterator extends MMapBackedIterator<Float> {
+    public static class FloatMMapIterator extends MMapBackedIterator<Float> {
         public FloatMMapIterator(final byte[] header, final File file, final ByteBuffer buf) {
             super(header, file, FLOAT_SIZE, buf);
         }
@@ -187,9 +233,25 @@ public class MMapBackedIteratorFactory {
         protected Float getElement() {
             return buffer.getFloat();
         }
+
+        public float nextFloat() {
+            assertHasNext();
+            return buffer.getFloat();
+        }
+
+        /**
+         * Copy up to len values into dst starting at off.
+         * @return The number of values actually read, less than len only if the end of the file was reached.
+         */
+        public int readFloats(final float[] dst, final int off, final int len) {
+            final int numToRead = Math.min(len, remainingElements());
+            buffer.asFloatBuffer().get(dst, off, numToRead);
+            skipElements(numToRead);
+            return numToRead;
+        }
     }
 
-    private static class LongMMapIterator extends MMapBackedIterator<Long> {
+    public static class LongMMapIterator extends MMapBackedIterator<Long> {
         public LongMMapIterator(final byte[] header, final File file, final ByteBuffer buf) {
             super(header, file, LONG_SIZE, buf);
         }
@@ -198,6 +260,22 @@ public class MMapBackedIteratorFactory {
         protected Long getElement() {
             return buffer.getLong();
         }
+
+        public long nextLong() {
+            assertHasNext();
+            return buffer.getLong();
+        }
+
+        /**
+         * Copy up to len values into dst starting at off.
+         * @return The number of values actually read, less than len only if the end of the file was reached.
+         */
+        public int readLongs(final long[] dst, final int off, final int len) {
+            final int numToRead = Math.min(len, remainingElements());
+            buffer.asLongBuffer().get(dst, off, numToRead);
+            skipElements(numToRead);
+            return numToRead;
+        }
     }
 
     //TODO: Add test
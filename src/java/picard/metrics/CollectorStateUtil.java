@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.metrics;
+
+import htsjdk.samtools.util.Histogram;
+import picard.PicardException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes the parts of the state of a MergeablePerUnitMetricCollector that collectors have in common.
+ * Each merge method adds what was written by the corresponding write method to what is already there.
+ */
+public class CollectorStateUtil {
+    private CollectorStateUtil() {}
+
+    /** Writes the bins of a Histogram whose keys are Integers or Longs. */
+    public static <K extends Comparable> void writeHistogram(final DataOutputStream out, final Histogram<K> histogram) throws IOException {
+        out.writeInt(histogram.size());
+        for (final Histogram<K>.Bin bin : histogram.values()) {
+            out.writeLong(((Number) bin.getId()).longValue());
+            out.writeDouble(bin.getValue());
+        }
+    }
+
+    public static void mergeIntegerHistogram(final DataInputStream in, final Histogram<Integer> histogram) throws IOException {
+        final int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            final int id = (int) in.readLong();
+            histogram.increment(id, in.readDouble());
+        }
+    }
+
+    public static void mergeLongHistogram(final DataInputStream in, final Histogram<Long> histogram) throws IOException {
+        final int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            final long id = in.readLong();
+            histogram.increment(id, in.readDouble());
+        }
+    }
+
+    public static void writeInts(final DataOutputStream out, final int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (final int value : values) out.writeInt(value);
+    }
+
+    /** Adds the values written by writeInts() to values, which must be of the same length. */
+    public static void mergeInts(final DataInputStream in, final int[] values) throws IOException {
+        final int length = in.readInt();
+        if (length != values.length) {
+            throw new PicardException("Expected " + values.length + " values in collector state but found " + length);
+        }
+        for (int i = 0; i < length; ++i) values[i] += in.readInt();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.metrics;
+
+import htsjdk.samtools.metrics.MetricBase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A PerUnitMetricCollector whose accumulated data can be written out and added to another collector for the same
+ * unit, so that the records of a data set can be collected in parts (e.g. scattered chunks of one BAM) and the
+ * metrics of the whole calculated from the parts without reading the records again.  The state is everything
+ * accumulated by acceptRecord() (counters, Histograms, coverage), and none of what is calculated by finish().
+ *
+ * Merging is exact: a collector that has accepted some records and merged the state of collectors that accepted the
+ * rest produces the same metrics as one that accepted all the records.
+ */
+public interface MergeablePerUnitMetricCollector<BEAN extends MetricBase, HKEY extends Comparable, ARGTYPE>
+        extends PerUnitMetricCollector<BEAN, HKEY, ARGTYPE> {
+    /**
+     * Writes the state accumulated from the records accepted so far.  Must be called before finish().
+     * @param out Stream to write to, in a format that only mergeState() need read
+     */
+    public void writeState(final DataOutputStream out) throws IOException;
+
+    /**
+     * Adds state written by writeState() to that of this collector, as if this collector had also accepted the
+     * records accepted by the writer.  The writer must have been made with the same arguments as this collector.
+     * Must be called before finish().
+     * @param in Stream positioned at the state written by writeState()
+     */
+    public void mergeState(final DataInputStream in) throws IOException;
+}
@@ -32,11 +32,22 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import picard.PicardException;
 import picard.analysis.MetricAccumulationLevel;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * MultiLevelCollector handles accumulating Metrics at different MetricAccumulationLevels(ALL_READS, SAMPLE, LIBRARY, READ_GROUP).
@@ -60,6 +71,10 @@ import java.util.Set;
  * this class as the ARGTYPE of both the PerUnitMetricCollector and MultiLevelCollector.  You can then do these calculations in the makeArg
  * method and they will only be done once per record.
  *
+ * If the PerUnitMetricCollectors are MergeablePerUnitMetricCollectors, the records may be collected in parts by
+ * collectors made with the same arguments: each part's state is written with writeState(), and merged with
+ * mergeState() into the collector of one part, or of none, before it is finished.
+ *
  * @param <METRIC_TYPE> The type of metrics being collected
  * @param <Histogram_KEY> If there is are Histograms related to metrics of type <BEAN> then <HKEY> is the key value to these Histograms
  * @param <ARGTYPE> The type of argument passed to individual PerUnitMetricCollector (see SAMRecordMultilevelCollector and PerUnitMetricCollector)
@@ -126,6 +141,9 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
 
         protected abstract PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeUnknownCollector();
 
+        //The level at which this Distributor's collectors accumulate metrics
+        protected abstract MetricAccumulationLevel getLevel();
+
         public Distributor(final List<SAMReadGroupRecord> rgRecs) {
             collectors = new LinkedHashMap<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>>();
             for(final SAMReadGroupRecord rg : rgRecs) {
@@ -153,6 +171,16 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
                     key = computedKey;
                 }
             }
+            getCollector(key).acceptRecord(args);
+        }
+
+        /** The collectors of this Distributor by key, in output order */
+        protected Map<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> getCollectors() {
+            return collectors;
+        }
+
+        /** Get the collector for key, making the collector for records of unknown read groups when first asked for */
+        protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getCollector(final String key) {
             PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> collector = collectors.get(key);
             if (collector == null) {
                 if (!UNKNOWN.equals(key)) {
@@ -161,7 +189,32 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
                 collector = makeUnknownCollector();
                 collectors.put(key, collector);
             }
-            collector.acceptRecord(args);
+            return collector;
+        }
+
+        /** Write the level, then the key and state of each collector */
+        public void writeState(final DataOutputStream out) throws IOException {
+            out.writeUTF(getLevel().name());
+            final Map<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> collectors = getCollectors();
+            out.writeInt(collectors.size());
+            for (final Map.Entry<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> entry : collectors.entrySet()) {
+                out.writeBoolean(entry.getKey() != null);
+                if (entry.getKey() != null) out.writeUTF(entry.getKey());
+                mergeable(entry.getValue()).writeState(out);
+            }
+        }
+
+        /** Merge the state written by writeState() of the Distributor for the same level of another collector */
+        public void mergeState(final DataInputStream in) throws IOException {
+            final String level = in.readUTF();
+            if (!level.equals(getLevel().name())) {
+                throw new PicardException("Collector state is for accumulation level " + level + " where " + getLevel() + " was expected");
+            }
+            final int numCollectors = in.readInt();
+            for (int i = 0; i < numCollectors; ++i) {
+                final String key = in.readBoolean() ? in.readUTF() : null;
+                mergeable(getCollector(key)).mergeState(in);
+            }
         }
 
         /** Add all records to the MetricsFile passed in, this will happen in the order they were
@@ -203,6 +256,21 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             throw new UnsupportedOperationException("Should not happen");
         }
 
+        @Override
+        protected MetricAccumulationLevel getLevel() {
+            return MetricAccumulationLevel.ALL_READS;
+        }
+
+        @Override
+        protected Map<String, PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> getCollectors() {
+            return Collections.singletonMap(null, allReadCollector);
+        }
+
+        @Override
+        protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getCollector(final String key) {
+            return allReadCollector;
+        }
+
         @Override
         public void finish() {
             allReadCollector.finish();
@@ -234,6 +302,11 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeUnknownCollector() {
             return makeChildCollector(UNKNOWN, null, null);
         }
+
+        @Override
+        protected MetricAccumulationLevel getLevel() {
+            return MetricAccumulationLevel.SAMPLE;
+        }
     }
 
     //Discriminates between records based on library name, and calls acceptRecord on the appropriate PerUnitMetricCollectors
@@ -256,6 +329,11 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeUnknownCollector() {
             return makeChildCollector(UNKNOWN, UNKNOWN, null);
         }
+
+        @Override
+        protected MetricAccumulationLevel getLevel() {
+            return MetricAccumulationLevel.LIBRARY;
+        }
     }
 
     //Discriminates between records based on read group name, and calls acceptRecord on the appropriate PerUnitMetricCollectors
@@ -278,6 +356,11 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeUnknownCollector() {
             return makeChildCollector(UNKNOWN, UNKNOWN, UNKNOWN);
         }
+
+        @Override
+        protected MetricAccumulationLevel getLevel() {
+            return MetricAccumulationLevel.READ_GROUP;
+        }
     }
 
     /**
@@ -338,4 +421,61 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             collector.addToFile(file);
         }
     }
+
+    /**
+     * Write the state of all PerUnitMetricCollectors, which must be MergeablePerUnitMetricCollectors, to the given
+     * file, gzipped, so that it can be merged by mergeState() into a collector made with the same arguments.  Call
+     * before finish.
+     */
+    public void writeState(final File file) {
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+            try {
+                out.writeUTF(getClass().getName());
+                out.writeInt(outputOrderedDistributors.size());
+                for(final Distributor collector : outputOrderedDistributors) {
+                    collector.writeState(out);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Error writing collector state to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Add the state written by writeState() to the given file to that of the PerUnitMetricCollectors at all levels,
+     * as if this collector had also accepted the records accepted by the writer.  Call before finish.
+     */
+    public void mergeState(final File file) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            try {
+                final String className = in.readUTF();
+                if (!className.equals(getClass().getName())) {
+                    throw new PicardException(file.getAbsolutePath() + " holds the state of a " + className + " not a " + getClass().getName());
+                }
+                final int numDistributors = in.readInt();
+                if (numDistributors != outputOrderedDistributors.size()) {
+                    throw new PicardException(file.getAbsolutePath() + " holds the state of " + numDistributors +
+                            " accumulation levels but " + outputOrderedDistributors.size() + " are being collected");
+                }
+                for(final Distributor collector : outputOrderedDistributors) {
+                    collector.mergeState(in);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Error reading collector state from " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private MergeablePerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> mergeable(final PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> collector) {
+        if (!(collector instanceof MergeablePerUnitMetricCollector)) {
+            throw new PicardException(collector.getClass().getName() + " cannot write or merge its state");
+        }
+        return (MergeablePerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>) collector;
+    }
 }
@@ -24,14 +24,17 @@
 package picard.util;
 
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -50,21 +53,32 @@ public class AdapterMarker {
     public static final int DEFAULT_NUM_ADAPTERS_TO_KEEP = 1;
 
     // It is assumed that these are set once during execution, before the class is used to mark any adapters, but this is not enforced.
-    private int thresholdForSelectingAdaptersToKeep = DEFAULT_PRUNE_ADAPTER_LIST_AFTER_THIS_MANY_ADAPTERS_SEEN;
-    private int numAdaptersToKeep = DEFAULT_NUM_ADAPTERS_TO_KEEP;
-    private int minSingleEndMatchBases = ClippingUtility.MIN_MATCH_BASES;
-    private int minPairMatchBases = ClippingUtility.MIN_MATCH_PE_BASES;
-    private double maxSingleEndErrorRate = ClippingUtility.MAX_ERROR_RATE;
-    private double maxPairErrorRate = ClippingUtility.MAX_PE_ERROR_RATE;
+    // They are volatile so that a marker configured on one thread can be shared by worker threads without locking.
+    private volatile int thresholdForSelectingAdaptersToKeep = DEFAULT_PRUNE_ADAPTER_LIST_AFTER_THIS_MANY_ADAPTERS_SEEN;
+    private volatile int numAdaptersToKeep = DEFAULT_NUM_ADAPTERS_TO_KEEP;
+    private volatile int minSingleEndMatchBases = ClippingUtility.MIN_MATCH_BASES;
+    private volatile int minPairMatchBases = ClippingUtility.MIN_MATCH_PE_BASES;
+    private volatile double maxSingleEndErrorRate = ClippingUtility.MAX_ERROR_RATE;
+    private volatile double maxPairErrorRate = ClippingUtility.MAX_PE_ERROR_RATE;
 
     // This is AtomicReference because one thread could be matching adapters while the threshold has been crossed in another
     // thread and the array is being replaced.
     private final AtomicReference<AdapterPair[]> adapters = new AtomicReference<AdapterPair[]>();
 
-    // All the members below are only accessed within a synchronized block.
-    private boolean thresholdReached = false;
-    private int numAdaptersSeen = 0;
-    private final CollectionUtil.DefaultingMap<AdapterPair, Integer> seenCounts = new CollectionUtil.DefaultingMap<AdapterPair, Integer>(0);
+    // Tallies are kept per thread, so that threads marking reads at the same time do not contend on shared counters.
+    // Each thread's tally is also in tallies, so that their sum can be checked against the threshold.  The first thread
+    // to see the sum at or past the threshold claims pruned, and it alone prunes the adapter list.
+    private final AdapterPair[] allAdapters;
+    private final Queue<AdapterTally> tallies = new ConcurrentLinkedQueue<AdapterTally>();
+    private final ThreadLocal<AdapterTally> threadTally = new ThreadLocal<AdapterTally>() {
+        @Override
+        protected AdapterTally initialValue() {
+            final AdapterTally tally = new AdapterTally(allAdapters.length);
+            tallies.add(tally);
+            return tally;
+        }
+    };
+    private final AtomicBoolean pruned = new AtomicBoolean(false);
 
     /**
      * Truncates adapters to DEFAULT_ADAPTER_LENGTH
@@ -91,7 +105,11 @@ public class AdapterMarker {
                 matchingAdapter.setName(matchingAdapter.getName() + "|" + adapter.getName());
             }
         }
-        adapters.set(truncatedAdapters.toArray(new AdapterPair[truncatedAdapters.size()]));
+        for (int i = 0; i < truncatedAdapters.size(); ++i) {
+            truncatedAdapters.get(i).index = i;
+        }
+        allAdapters = truncatedAdapters.toArray(new AdapterPair[truncatedAdapters.size()]);
+        adapters.set(allAdapters);
     }
 
     public int getNumAdaptersToKeep() {
@@ -101,7 +119,7 @@ public class AdapterMarker {
     /**
      * After seeing the thresholdForSelectingAdapters number of adapters, keep up to this many of the original adapters.
      */
-    public synchronized AdapterMarker setNumAdaptersToKeep(final int numAdaptersToKeep) {
+    public AdapterMarker setNumAdaptersToKeep(final int numAdaptersToKeep) {
         if (numAdaptersToKeep <= 0) {
             throw new IllegalArgumentException(String.format("numAdaptersToKeep should be positive: %d", numAdaptersToKeep));
         }
@@ -117,7 +135,7 @@ public class AdapterMarker {
      * When this number of adapters have been matched, discard the least-frequently matching ones.
      * @param thresholdForSelectingAdaptersToKeep set to -1 to never discard any adapters.
      */
-    public synchronized AdapterMarker setThresholdForSelectingAdaptersToKeep(final int thresholdForSelectingAdaptersToKeep) {
+    public AdapterMarker setThresholdForSelectingAdaptersToKeep(final int thresholdForSelectingAdaptersToKeep) {
         this.thresholdForSelectingAdaptersToKeep = thresholdForSelectingAdaptersToKeep;
         return this;
     }
@@ -130,7 +148,7 @@ public class AdapterMarker {
      *
      * @param minSingleEndMatchBases When marking a single-end read, adapter must match at least this many bases.
      */
-    public synchronized AdapterMarker setMinSingleEndMatchBases(final int minSingleEndMatchBases) {
+    public AdapterMarker setMinSingleEndMatchBases(final int minSingleEndMatchBases) {
         this.minSingleEndMatchBases = minSingleEndMatchBases;
         return this;
     }
@@ -143,7 +161,7 @@ public class AdapterMarker {
      *
      * @param minPairMatchBases When marking a paired-end read, adapter must match at least this many bases.
      */
-    public synchronized AdapterMarker setMinPairMatchBases(final int minPairMatchBases) {
+    public AdapterMarker setMinPairMatchBases(final int minPairMatchBases) {
         this.minPairMatchBases = minPairMatchBases;
         return this;
     }
@@ -156,7 +174,7 @@ public class AdapterMarker {
      * @param maxSingleEndErrorRate For single-end read, no more than this fraction of the bases that align with the adapter can
      *                              mismatch the adapter and still be considered an adapter match.
      */
-    public synchronized AdapterMarker setMaxSingleEndErrorRate(final double maxSingleEndErrorRate) {
+    public AdapterMarker setMaxSingleEndErrorRate(final double maxSingleEndErrorRate) {
         this.maxSingleEndErrorRate = maxSingleEndErrorRate;
         return this;
     }
@@ -169,7 +187,7 @@ public class AdapterMarker {
      * @param maxPairErrorRate For paired-end read, no more than this fraction of the bases that align with the adapter can
      *                         mismatch the adapter and still be considered an adapter match.
      */
-    public synchronized AdapterMarker setMaxPairErrorRate(final double maxPairErrorRate) {
+    public AdapterMarker setMaxPairErrorRate(final double maxPairErrorRate) {
         this.maxPairErrorRate = maxPairErrorRate;
         return this;
     }
@@ -228,57 +246,69 @@ public class AdapterMarker {
      * Keep track of every time an adapter is found, until it is time to prune the list of adapters.
      */
     private void tallyFoundAdapter(final AdapterPair foundAdapter) {
-        // If caller does not want adapter pruning, do nothing.
-        if (thresholdForSelectingAdaptersToKeep < 1) return;
-        synchronized (this) {
-            // Already pruned adapter list, so nothing more to do.
-            if (thresholdReached) return;
-
-            // Tally this adapter
-            seenCounts.put(foundAdapter, seenCounts.get(foundAdapter) + 1);
-
-            // Keep track of the number of times an adapter has been seen.
-            numAdaptersSeen += 1;
-
-            // Reached the threshold for pruning the list.
-            if (numAdaptersSeen >= thresholdForSelectingAdaptersToKeep) {
-
-                // Sort adapters by number of times each has been seen.
-                final TreeMap<Integer, AdapterPair> sortedAdapters = new TreeMap<Integer, AdapterPair>(new Comparator<Integer>() {
-                    @Override
-                    public int compare(final Integer integer, final Integer integer2) {
-                        // Reverse of natural ordering
-                        return integer2.compareTo(integer);
-                    }
-                });
-                for (final Map.Entry<AdapterPair, Integer> entry : seenCounts.entrySet()) {
-                    sortedAdapters.put(entry.getValue(), entry.getKey());
-                }
-
-                // Keep the #numAdaptersToKeep adapters that have been seen the most, plus any ties.
-                final ArrayList<AdapterPair> bestAdapters = new ArrayList<AdapterPair>(numAdaptersToKeep);
-                int countOfLastAdapter = Integer.MAX_VALUE;
-                for (final Map.Entry<Integer, AdapterPair> entry : sortedAdapters.entrySet()) {
-                    if (bestAdapters.size() >= numAdaptersToKeep) {
-                        if (entry.getKey() == countOfLastAdapter) {
-                            bestAdapters.add(entry.getValue());
-                        } else {
-                            break;
-                        }
-                    } else {
-                        countOfLastAdapter = entry.getKey();
-                        bestAdapters.add(entry.getValue());
-                    }
-                }
-                // Replace the existing list with the pruned list.
-                thresholdReached = true;
-                adapters.set(bestAdapters.toArray(new AdapterPair[bestAdapters.size()]));
+        // If caller does not want adapter pruning, or the adapter list has already been pruned, do nothing.
+        if (thresholdForSelectingAdaptersToKeep < 1 || pruned.get()) return;
+
+        // Tally this adapter, and keep track of the number of times an adapter has been seen, in this thread's tally.
+        threadTally.get().add(((TruncatedAdapterPair) foundAdapter).index);
+
+        int numAdaptersSeen = 0;
+        for (final AdapterTally tally : tallies) numAdaptersSeen += tally.numAdaptersSeen.get();
+
+        // Threads may see the total pass the threshold together, but only the one that claims pruned prunes the list.
+        if (numAdaptersSeen < thresholdForSelectingAdaptersToKeep || !pruned.compareAndSet(false, true)) return;
+
+        // Sort adapters by number of times each has been seen, most first, preserving the original order for ties.
+        final int[] counts = new int[allAdapters.length];
+        final Integer[] order = new Integer[allAdapters.length];
+        for (final AdapterTally tally : tallies) {
+            for (int i = 0; i < counts.length; ++i) counts[i] += tally.seenCounts.get(i);
+        }
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                // Reverse of natural ordering
+                return counts[i2] - counts[i1];
             }
+        });
+
+        // Keep the #numAdaptersToKeep adapters that have been seen the most, plus any ties.
+        final ArrayList<AdapterPair> bestAdapters = new ArrayList<AdapterPair>(numAdaptersToKeep);
+        int countOfLastAdapter = Integer.MAX_VALUE;
+        for (final int i : order) {
+            if (counts[i] == 0) break;
+            if (bestAdapters.size() >= numAdaptersToKeep && counts[i] != countOfLastAdapter) break;
+            countOfLastAdapter = counts[i];
+            bestAdapters.add(allAdapters[i]);
+        }
+        // Replace the existing list with the pruned list.
+        adapters.set(bestAdapters.toArray(new AdapterPair[bestAdapters.size()]));
+    }
+
+    /**
+     * The adapters found by one thread: the number of times each truncated adapter was found, indexed by
+     * TruncatedAdapterPair.index, and their total.  Only the owning thread writes a tally, so it increments without
+     * contention, but the counts are atomic so that the thread that prunes can read them.
+     */
+    private static class AdapterTally {
+        final AtomicIntegerArray seenCounts;
+        final AtomicInteger numAdaptersSeen = new AtomicInteger(0);
+
+        AdapterTally(final int numAdapters) {
+            seenCounts = new AtomicIntegerArray(numAdapters);
+        }
+
+        void add(final int index) {
+            seenCounts.lazySet(index, seenCounts.get(index) + 1);
+            numAdaptersSeen.lazySet(numAdaptersSeen.get() + 1);
         }
     }
 
     private static class TruncatedAdapterPair implements AdapterPair {
         String name;
+        // Position in AdapterMarker.allAdapters, used to tally matches.
+        int index;
         final String fivePrime, threePrime, fivePrimeReadOrder;
         final byte[]  fivePrimeBytes, threePrimeBytes, fivePrimeReadOrderBytes;
 
@@ -29,6 +29,8 @@ import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.SequenceUtil;
 
+import java.util.Arrays;
+
 /**
  * Utilities to clip the adapater sequence from a SAMRecord read
  *
@@ -61,6 +63,23 @@ public class ClippingUtility {
 
     private static final Log log = Log.getInstance(ClippingUtility.class);
 
+    /**
+     * Bases that SequenceUtil.basesEqual() considers equal share a class, so that the bit-parallel search can compare
+     * classes rather than calling basesEqual() for every pair of bases.
+     */
+    private static final int[] BASE_CLASSES = new int[256];
+    static {
+        for (int b = 0; b < BASE_CLASSES.length; ++b) {
+            BASE_CLASSES[b] = b;
+            for (int other = 0; other < b; ++other) {
+                if (SequenceUtil.basesEqual((byte) b, (byte) other)) {
+                    BASE_CLASSES[b] = BASE_CLASSES[other];
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * @deprecated          Use the varargs version.  This no longer returns a warning string..
      */
@@ -104,9 +123,10 @@ public class ClippingUtility {
      */
     public static AdapterPair adapterTrimIlluminaSingleRead(final SAMRecord read, final int minMatchBases,
                                                      final double maxErrorRate, final AdapterPair ... adapters) {
+        final byte[] readBases = getReadBases(read);
         for (AdapterPair adapter : adapters) {
             final int indexOfAdapterSequence = findIndexOfClipSequence(
-                    getReadBases(read), adapter.get3PrimeAdapterBytes(), minMatchBases, maxErrorRate);
+                    readBases, adapter.get3PrimeAdapterBytes(), minMatchBases, maxErrorRate);
             if (indexOfAdapterSequence != NO_MATCH) {
                 // Convert to a one-based index for storage on the record.
                 read.setAttribute(ReservedTagConstants.XT, indexOfAdapterSequence + 1);
@@ -164,12 +184,14 @@ public class ClippingUtility {
     public static AdapterPair adapterTrimIlluminaPairedReads(final SAMRecord read1, final SAMRecord read2,
         final int minMatchBases, final double maxErrorRate, final AdapterPair ... adapters) {
         AdapterPair matched = null;
+        final byte[] read1Bases = getReadBases(read1);
+        final byte[] read2Bases = getReadBases(read2);
 
         for (final AdapterPair adapterPair : adapters) {
             final int index1 = findIndexOfClipSequence(
-                    getReadBases(read1), adapterPair.get3PrimeAdapterBytes(), minMatchBases, maxErrorRate);
+                    read1Bases, adapterPair.get3PrimeAdapterBytes(), minMatchBases, maxErrorRate);
             final int index2 = findIndexOfClipSequence(
-                    getReadBases(read2), adapterPair.get5PrimeAdapterBytesInReadOrder(), minMatchBases, maxErrorRate);
+                    read2Bases, adapterPair.get5PrimeAdapterBytesInReadOrder(), minMatchBases, maxErrorRate);
 
             if (index1 == index2) {
                 if (index1 != NO_MATCH) {
@@ -249,30 +271,92 @@ public class ClippingUtility {
      * Finds the first index of the adapterSequence sequence in the read sequence requiring at least minMatch
      * bases of pairwise alignment with a maximum number of errors dictated by maxErrorRate.
      *
+     * Rather than comparing the adapter to the read base-by-base at each start position, the read is encoded as one
+     * bitmask per distinct adapter base, marking the read positions that base would mismatch, and the mismatch counts
+     * for 64 start positions at a time are accumulated in bit-sliced counters that saturate just above the largest
+     * number of mismatches that could be allowed.  Start positions are still considered from the 3' end, so the
+     * result is the same as testing each start position in turn.
+     *
      * @param read
      */
     public static int findIndexOfClipSequence(final byte[] read, final byte[] adapterSequence, final int minMatch, final double maxErrorRate) {
         // If the read's too short we can't possibly match it
         if (read == null || read.length < minMatch) return NO_MATCH;
-        final int minClipPosition = 0;
-
-        // Walk backwards down the read looking for the sequence
-        READ_LOOP:
-        for (int start = read.length - minMatch; start > minClipPosition -1; --start) {
-            final int length = Math.min(read.length - start, adapterSequence.length);
-            final int mismatchesAllowed = (int) (length * maxErrorRate);
-            int mismatches = 0;
-
-            for (int i = 0; i < length; ++i) {
-                if (!SequenceUtil.isNoCall(adapterSequence[i]) && !SequenceUtil.basesEqual(adapterSequence[i], read[start + i])) {
-                    if (++mismatches > mismatchesAllowed) continue READ_LOOP;
+        final int lastStart = read.length - minMatch;
+        final int numWords = (read.length >>> 6) + 1;
+
+        // For each non-no-call adapter base, the read positions it would mismatch
+        final long[][] mismatchMasks = new long[adapterSequence.length][];
+        final long[][] masksByBaseClass = new long[adapterSequence.length][];
+        final int[] baseClasses = new int[adapterSequence.length];
+        int numBaseClasses = 0;
+        for (int i = 0; i < adapterSequence.length; ++i) {
+            if (SequenceUtil.isNoCall(adapterSequence[i])) continue;
+            final int baseClass = BASE_CLASSES[adapterSequence[i] & 0xff];
+            for (int j = 0; j < numBaseClasses && mismatchMasks[i] == null; ++j) {
+                if (baseClasses[j] == baseClass) mismatchMasks[i] = masksByBaseClass[j];
+            }
+            if (mismatchMasks[i] == null) {
+                mismatchMasks[i] = masksByBaseClass[numBaseClasses] = mismatchMask(read, numWords, baseClass);
+                baseClasses[numBaseClasses++] = baseClass;
+            }
+        }
+
+        // Mismatch counts can saturate once they exceed the most mismatches allowed at any start position
+        final int maxMismatchesAllowed = (int) (Math.min(read.length, adapterSequence.length) * maxErrorRate);
+        final long[] counterBits = new long[Math.max(1, 32 - Integer.numberOfLeadingZeros(maxMismatchesAllowed))];
+
+        // Walk backwards down the read looking for the sequence, 64 start positions at a time
+        for (int word = lastStart >>> 6; word >= 0; --word) {
+            final int firstStartInWord = word << 6;
+            final int numCandidates = Math.min(64, lastStart - firstStartInWord + 1);
+            final long candidates = numCandidates == 64 ? -1L : (1L << numCandidates) - 1;
+            Arrays.fill(counterBits, 0L);
+            long saturated = 0;
+
+            for (int i = 0; i < adapterSequence.length && (saturated & candidates) != candidates; ++i) {
+                if (mismatchMasks[i] == null) continue;
+                // Bit k is set if adapter base i, aligned to start position firstStartInWord + k, is a mismatch.
+                long carry = shiftedWord(mismatchMasks[i], word, i);
+                for (int b = 0; b < counterBits.length && carry != 0; ++b) {
+                    final long nextCarry = counterBits[b] & carry;
+                    counterBits[b] ^= carry;
+                    carry = nextCarry;
                 }
+                saturated |= carry;
             }
 
-            // If we got this far without breaking out, then it matches
-            return start;
+            for (int k = numCandidates - 1; k >= 0; --k) {
+                if ((saturated >>> k & 1) != 0) continue;
+                int mismatches = 0;
+                for (int b = 0; b < counterBits.length; ++b) {
+                    mismatches |= (int) (counterBits[b] >>> k & 1) << b;
+                }
+                final int start = firstStartInWord + k;
+                final int length = Math.min(read.length - start, adapterSequence.length);
+                if (mismatches <= (int) (length * maxErrorRate)) return start;
+            }
         }
 
         return NO_MATCH;
     }
-}
\ No newline at end of file
+
+    /** @return A bitmask with bit j set if read[j] is not in the given base class, for j < read.length. */
+    private static long[] mismatchMask(final byte[] read, final int numWords, final int baseClass) {
+        final long[] mask = new long[numWords];
+        for (int j = 0; j < read.length; ++j) {
+            if (BASE_CLASSES[read[j] & 0xff] != baseClass) mask[j >>> 6] |= 1L << j;
+        }
+        return mask;
+    }
+
+    /** @return The given word of mask after shifting the whole mask right by shift bits. */
+    private static long shiftedWord(final long[] mask, final int word, final int shift) {
+        final int source = word + (shift >>> 6);
+        final int bits = shift & 63;
+        if (source >= mask.length) return 0;
+        long result = mask[source] >>> bits;
+        if (bits != 0 && source + 1 < mask.length) result |= mask[source + 1] << (64 - bits);
+        return result;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import picard.PicardException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * InputStream that reads BGZF (e.g. BAM), reading ahead of the caller and inflating the blocks on a shared thread
+ * pool, so that the caller only has to copy out bytes that have already been inflated.  The counterpart of
+ * ParallelBlockCompressedOutputStream.
+ *
+ * Unlike BlockCompressedInputStream, does not support seeking or virtual file pointers; it is meant for reading a
+ * whole file from start to end.  Not thread-safe; a single thread should read each instance, while any number of
+ * instances share the inflation pool.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+    /** Number of blocks that may be read ahead of the caller for a single stream. */
+    public static final int DEFAULT_BLOCKS_IN_FLIGHT = 16;
+
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final InputStream in;
+    private final ExecutorService inflater;
+    private final int maxBlocksInFlight;
+    private final Queue<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+    private byte[] current = NO_BYTES;
+    private int currentOffset = 0;
+    private boolean endOfInput = false;
+    private boolean closed = false;
+
+    /**
+     * @param in       Stream from which the compressed blocks are read.  Closed when this stream is closed.
+     * @param inflater Pool on which blocks are inflated; see newInflaterPool().  Not shut down by this stream.
+     */
+    public ParallelBlockCompressedInputStream(final InputStream in, final ExecutorService inflater) {
+        this(in, inflater, DEFAULT_BLOCKS_IN_FLIGHT);
+    }
+
+    public ParallelBlockCompressedInputStream(final InputStream in, final ExecutorService inflater,
+                                              final int maxBlocksInFlight) {
+        if (maxBlocksInFlight < 1) throw new IllegalArgumentException("maxBlocksInFlight must be positive");
+        this.in = in;
+        this.inflater = inflater;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+    }
+
+    /** Opens the given file for reading and inflates from it. */
+    public ParallelBlockCompressedInputStream(final File file, final ExecutorService inflater) {
+        this(openForReading(file), inflater);
+    }
+
+    /** @return A pool of daemon threads suitable for sharing among many ParallelBlockCompressedInputStreams. */
+    public static ExecutorService newInflaterPool(final int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private int threadsCreated = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "BlockInflater-" + threadsCreated++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /** @return true if file starts with a BGZF block header, e.g. if it is a BAM file rather than a SAM file. */
+    public static boolean isBlockCompressed(final File file) {
+        final InputStream stream = openForReading(file);
+        try {
+            final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+            return readFully(stream, header, 0, header.length) == header.length && isBlockHeader(header);
+        } catch (final IOException e) {
+            throw new PicardException("Could not read " + file.getAbsolutePath(), e);
+        } finally {
+            try {
+                stream.close();
+            } catch (final IOException e) {
+                // Only read from, so nothing can have been lost
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillCurrent()) return -1;
+        return current[currentOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (length == 0) return 0;
+        if (!fillCurrent()) return -1;
+        final int toCopy = Math.min(length, current.length - currentOffset);
+        System.arraycopy(current, currentOffset, bytes, offset, toCopy);
+        currentOffset += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public int available() throws IOException {
+        assertOpen();
+        return current.length - currentOffset;
+    }
+
+    /** Closes the underlying stream and abandons any blocks still being inflated. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (final Future<byte[]> block : pendingBlocks) {
+            block.cancel(false);
+        }
+        pendingBlocks.clear();
+        in.close();
+    }
+
+    private void assertOpen() throws IOException {
+        if (closed) throw new IOException("Stream is closed");
+    }
+
+    /**
+     * Makes sure that current has bytes left to read, waiting for the next non-empty block if necessary.
+     * @return false at the end of the stream.
+     */
+    private boolean fillCurrent() throws IOException {
+        assertOpen();
+        while (currentOffset == current.length) {
+            submitBlocks();
+            if (pendingBlocks.isEmpty()) return false;
+            try {
+                current = pendingBlocks.remove().get();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while inflating block", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new PicardException("Exception inflating block", e.getCause());
+            }
+            currentOffset = 0;
+        }
+        return true;
+    }
+
+    /** Reads compressed blocks and hands them to the inflation pool until enough are in flight. */
+    private void submitBlocks() throws IOException {
+        while (!endOfInput && pendingBlocks.size() < maxBlocksInFlight) {
+            final byte[] block = readBlock();
+            if (block == null) {
+                endOfInput = true;
+            } else {
+                pendingBlocks.add(inflater.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return inflateBlock(block);
+                    }
+                }));
+            }
+        }
+    }
+
+    /** @return The next compressed block, including its header and footer, or null at the end of the input. */
+    private byte[] readBlock() throws IOException {
+        final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        final int headerRead = readFully(in, header, 0, header.length);
+        if (headerRead == 0) return null;
+        if (headerRead < header.length) throw new IOException("Premature end of BGZF input in block header");
+        if (!isBlockHeader(header)) throw new IOException("Input is not BGZF");
+
+        final int blockLength = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+        if (blockLength < BLOCK_HEADER_LENGTH + BLOCK_FOOTER_LENGTH || blockLength > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block length " + blockLength);
+        }
+        final byte[] block = new byte[blockLength];
+        System.arraycopy(header, 0, block, 0, header.length);
+        if (readFully(in, block, header.length, blockLength - header.length) < blockLength - header.length) {
+            throw new IOException("Premature end of BGZF input in block of length " + blockLength);
+        }
+        return block;
+    }
+
+    /** @return The uncompressed contents of a complete BGZF block, after checking its length and CRC. */
+    static byte[] inflateBlock(final byte[] block) throws IOException {
+        final int compressedLength = block.length - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+        final int expectedCrc = getInt(block, block.length - BLOCK_FOOTER_LENGTH);
+        final int uncompressedLength = getInt(block, block.length - 4);
+        if (uncompressedLength < 0 || uncompressedLength > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF uncompressed block length " + uncompressedLength);
+        }
+        final byte[] data = new byte[uncompressedLength];
+
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(block, BLOCK_HEADER_LENGTH, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < uncompressedLength) {
+                final int n = inflater.inflate(data, inflated, uncompressedLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                inflated += n;
+            }
+            if (inflated != uncompressedLength) {
+                throw new IOException("BGZF block inflated to " + inflated + " bytes but its footer says " + uncompressedLength);
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("Corrupt BGZF block", e);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, uncompressedLength);
+        if ((int) crc.getValue() != expectedCrc) throw new IOException("CRC mismatch in BGZF block");
+        return data;
+    }
+
+    private static boolean isBlockHeader(final byte[] header) {
+        return header[0] == 0x1f && header[1] == (byte) 0x8b && header[2] == 8 && (header[3] & 4) != 0 &&
+                header[12] == 'B' && header[13] == 'C';
+    }
+
+    /** @return The number of bytes read, which is less than length only at the end of the stream. */
+    private static int readFully(final InputStream stream, final byte[] bytes, final int offset, final int length)
+            throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int n = stream.read(bytes, offset + total, length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static int getInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8) |
+                ((bytes[offset + 2] & 0xff) << 16) | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    private static InputStream openForReading(final File file) {
+        try {
+            return new BufferedInputStream(new FileInputStream(file), MAX_BLOCK_SIZE);
+        } catch (final IOException e) {
+            throw new PicardException("Could not open " + file.getAbsolutePath() + " for reading", e);
+        }
+    }
+}
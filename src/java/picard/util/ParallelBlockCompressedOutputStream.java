@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import picard.PicardException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream that writes BGZF, i.e. a series of gzip members of at most 64KB each, compressing the blocks on a
+ * shared thread pool and appending them to the underlying stream in the order in which they were written.  The output
+ * can be read by any gzip reader, as well as by BlockCompressedInputStream.
+ *
+ * Optionally writes a bgzip-compatible .gzi index alongside the output, mapping the compressed offset of each block
+ * to the uncompressed offset of its first byte, to allow random access into the uncompressed data.
+ *
+ * Not thread-safe; it is expected that a single thread (or e.g. a PrintStream) serializes writes to each instance,
+ * while any number of instances share the compression pool.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+    /** Same as bgzip; leaves room for the block header and footer even if the data are incompressible. */
+    public static final int UNCOMPRESSED_BLOCK_SIZE = 0xff00;
+    /** Number of blocks that may be awaiting compression for a single stream before writes block. */
+    public static final int DEFAULT_BLOCKS_IN_FLIGHT = 4;
+
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+    private static final byte[] EMPTY_BLOCK = {
+            0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+            0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+    };
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private final OutputStream out;
+    private final ExecutorService compressor;
+    private final int compressionLevel;
+    private final int maxBlocksInFlight;
+    private final File indexFile;
+    private final Queue<PendingBlock> pendingBlocks = new LinkedList<PendingBlock>();
+
+    private byte[] buffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+    private int bufferLength = 0;
+    private long compressedOffset = 0;
+    private long uncompressedOffset = 0;
+    private long[] indexEntries = new long[0];
+    private int numIndexEntries = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out              Stream to which the compressed blocks are written.  Closed when this stream is closed.
+     * @param compressor       Pool on which blocks are compressed; see newCompressorPool().  Not shut down by this stream.
+     * @param compressionLevel Deflater compression level.
+     * @param indexFile        If not null, a .gzi index of the blocks is written here when the stream is closed.
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream out, final ExecutorService compressor,
+                                               final int compressionLevel, final File indexFile) {
+        this(out, compressor, compressionLevel, indexFile, DEFAULT_BLOCKS_IN_FLIGHT);
+    }
+
+    public ParallelBlockCompressedOutputStream(final OutputStream out, final ExecutorService compressor,
+                                               final int compressionLevel, final File indexFile,
+                                               final int maxBlocksInFlight) {
+        if (maxBlocksInFlight < 1) throw new IllegalArgumentException("maxBlocksInFlight must be positive");
+        this.out = out;
+        this.compressor = compressor;
+        this.compressionLevel = compressionLevel;
+        this.indexFile = indexFile;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+    }
+
+    /** Opens the given file for writing and compresses to it. */
+    public ParallelBlockCompressedOutputStream(final File file, final ExecutorService compressor,
+                                               final int compressionLevel, final File indexFile) {
+        this(openForWriting(file), compressor, compressionLevel, indexFile);
+    }
+
+    /** @return A pool of daemon threads suitable for sharing among many ParallelBlockCompressedOutputStreams. */
+    public static ExecutorService newCompressorPool(final int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private int threadsCreated = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "BlockCompressor-" + threadsCreated++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        assertOpen();
+        buffer[bufferLength++] = (byte) b;
+        if (bufferLength == buffer.length) submitBlock();
+    }
+
+    @Override
+    public void write(final byte[] bytes, int offset, int length) throws IOException {
+        assertOpen();
+        while (length > 0) {
+            final int toCopy = Math.min(length, buffer.length - bufferLength);
+            System.arraycopy(bytes, offset, buffer, bufferLength, toCopy);
+            bufferLength += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+            if (bufferLength == buffer.length) submitBlock();
+        }
+    }
+
+    /**
+     * Writes the blocks that have already been compressed, but neither ends the current block nor waits for any, since
+     * e.g. a PrintStream flushes after every record it checks for errors, which would otherwise make a block of each.
+     */
+    @Override
+    public void flush() throws IOException {
+        assertOpen();
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().future.isDone()) writeCompletedBlocks(1);
+        out.flush();
+    }
+
+    /**
+     * Ends the current block, waits for all blocks to be written, and writes the BGZF terminator block, and the index
+     * if one was requested.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        if (bufferLength > 0) submitBlock();
+        writeCompletedBlocks(pendingBlocks.size());
+        out.write(EMPTY_BLOCK);
+        out.close();
+        closed = true;
+        if (indexFile != null) writeIndex();
+    }
+
+    private void assertOpen() throws IOException {
+        if (closed) throw new IOException("Stream is closed");
+    }
+
+    /** Hands the current buffer to the compression pool and starts a new one. */
+    private void submitBlock() throws IOException {
+        final byte[] data = buffer;
+        final int length = bufferLength;
+        final Future<byte[]> future = compressor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compressBlock(data, length, compressionLevel);
+            }
+        });
+        pendingBlocks.add(new PendingBlock(future, length));
+        buffer = new byte[UNCOMPRESSED_BLOCK_SIZE];
+        bufferLength = 0;
+
+        // Write whatever has already been compressed, but only wait if there are too many blocks outstanding.
+        int numToWait = pendingBlocks.size() - maxBlocksInFlight + 1;
+        while (!pendingBlocks.isEmpty() && (numToWait > 0 || pendingBlocks.peek().future.isDone())) {
+            writeCompletedBlocks(1);
+            --numToWait;
+        }
+    }
+
+    /** Waits for the first numBlocks pending blocks to be compressed, and writes them in order. */
+    private void writeCompletedBlocks(final int numBlocks) throws IOException {
+        for (int i = 0; i < numBlocks; ++i) {
+            final PendingBlock block = pendingBlocks.remove();
+            final byte[] compressed;
+            try {
+                compressed = block.future.get();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while compressing block", e);
+            } catch (final ExecutionException e) {
+                throw new PicardException("Exception compressing block", e.getCause());
+            }
+            if (compressedOffset > 0) addIndexEntry(compressedOffset, uncompressedOffset);
+            out.write(compressed);
+            compressedOffset += compressed.length;
+            uncompressedOffset += block.uncompressedLength;
+        }
+    }
+
+    private void addIndexEntry(final long compressed, final long uncompressed) {
+        if (indexFile == null) return;
+        if (2 * numIndexEntries == indexEntries.length) {
+            indexEntries = Arrays.copyOf(indexEntries, Math.max(64, 2 * indexEntries.length));
+        }
+        indexEntries[2 * numIndexEntries] = compressed;
+        indexEntries[2 * numIndexEntries + 1] = uncompressed;
+        ++numIndexEntries;
+    }
+
+    /**
+     * Writes the index in bgzip's .gzi format: the number of entries followed by a (compressed offset,
+     * uncompressed offset) pair for each block after the first, all as little-endian unsigned 64-bit integers.
+     */
+    private void writeIndex() throws IOException {
+        final byte[] bytes = new byte[8 * (1 + 2 * numIndexEntries)];
+        putLong(bytes, 0, numIndexEntries);
+        for (int i = 0; i < 2 * numIndexEntries; ++i) {
+            putLong(bytes, 8 * (i + 1), indexEntries[i]);
+        }
+        final OutputStream indexStream = openForWriting(indexFile);
+        try {
+            indexStream.write(bytes);
+        } finally {
+            indexStream.close();
+        }
+    }
+
+    /** @return A complete BGZF block containing the first length bytes of data. */
+    static byte[] compressBlock(final byte[] data, final int length, final int compressionLevel) {
+        final byte[] block = new byte[MAX_BLOCK_SIZE];
+        final int maxCompressedLength = MAX_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+        int compressedLength = deflate(data, length, compressionLevel, block, maxCompressedLength);
+        if (compressedLength < 0) {
+            // Data are incompressible, so store them, which is guaranteed to fit given UNCOMPRESSED_BLOCK_SIZE.
+            compressedLength = deflate(data, length, Deflater.NO_COMPRESSION, block, maxCompressedLength);
+            if (compressedLength < 0) throw new IllegalStateException("Stored block does not fit in a BGZF block");
+        }
+        final int blockLength = BLOCK_HEADER_LENGTH + compressedLength + BLOCK_FOOTER_LENGTH;
+
+        block[0] = 0x1f;            // gzip ID1
+        block[1] = (byte) 0x8b;     // gzip ID2
+        block[2] = 8;               // CM = deflate
+        block[3] = 4;               // FLG = FEXTRA
+        // MTIME (4 bytes) and XFL are zero
+        block[9] = (byte) 0xff;     // OS = unknown
+        block[10] = 6;              // XLEN
+        block[12] = 'B';            // BGZF subfield
+        block[13] = 'C';
+        block[14] = 2;              // subfield length
+        block[16] = (byte) (blockLength - 1);
+        block[17] = (byte) ((blockLength - 1) >>> 8);
+
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        final int footerOffset = BLOCK_HEADER_LENGTH + compressedLength;
+        putInt(block, footerOffset, (int) crc.getValue());
+        putInt(block, footerOffset + 4, length);
+        return Arrays.copyOf(block, blockLength);
+    }
+
+    /** @return The number of compressed bytes written to dest after the header, or -1 if they did not fit. */
+    private static int deflate(final byte[] data, final int length, final int compressionLevel, final byte[] dest,
+                               final int maxCompressedLength) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setLevel(compressionLevel);
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        // A change of level is applied by the first call to deflate(), which may then return without compressing.
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < maxCompressedLength) {
+            compressedLength += deflater.deflate(dest, BLOCK_HEADER_LENGTH + compressedLength,
+                    maxCompressedLength - compressedLength);
+        }
+        return deflater.finished() ? compressedLength : -1;
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        for (int i = 0; i < 4; ++i) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void putLong(final byte[] bytes, final int offset, final long value) {
+        for (int i = 0; i < 8; ++i) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static OutputStream openForWriting(final File file) {
+        try {
+            return new BufferedOutputStream(new FileOutputStream(file), MAX_BLOCK_SIZE);
+        } catch (final IOException e) {
+            throw new PicardException("Could not open " + file.getAbsolutePath() + " for writing", e);
+        }
+    }
+
+    private static class PendingBlock {
+        final Future<byte[]> future;
+        final int uncompressedLength;
+
+        PendingBlock(final Future<byte[]> future, final int uncompressedLength) {
+            this.future = future;
+            this.uncompressedLength = uncompressedLength;
+        }
+    }
+}
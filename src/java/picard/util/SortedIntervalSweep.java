@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.util.Interval;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the intervals overlapping positions that come in coordinate order, e.g. those of the reads of a coordinate
+ * sorted BAM, by moving forward through sorted, non-overlapping intervals as the positions do, rather than searching
+ * for each position as an OverlapDetector does.  Positions that go backwards, or to a sequence seen before, are
+ * searched for, so unsorted positions give the right answer too, only more slowly.
+ *
+ * The intervals are held in primitive arrays and referred to by their index in the list they were made from.
+ */
+public class SortedIntervalSweep {
+    private final int[] starts;
+    private final int[] ends;
+    /** For each sequence name, the index of its first interval and the index after its last. */
+    private final Map<String, int[]> sequenceRanges = new HashMap<String, int[]>();
+
+    private String currentSequence = null;
+    private int first = 0;
+    private int limit = 0;
+    private int cursor = 0;
+    private int lastPosition = 0;
+
+    /**
+     * @param intervals Intervals sorted by sequence, all the intervals of a sequence together, and by start within a
+     *                  sequence, that don't overlap each other, such as those from IntervalList.getUniqueIntervals().
+     */
+    public SortedIntervalSweep(final List<Interval> intervals) {
+        starts = new int[intervals.size()];
+        ends = new int[intervals.size()];
+        int i = 0;
+        int[] range = null;
+        for (final Interval interval : intervals) {
+            if (range == null || !interval.getSequence().equals(currentSequence)) {
+                if (range != null) range[1] = i;
+                currentSequence = interval.getSequence();
+                if (sequenceRanges.containsKey(currentSequence)) {
+                    throw new IllegalArgumentException("Intervals are not sorted: those on " + currentSequence + " are not together");
+                }
+                range = new int[] {i, i};
+                sequenceRanges.put(currentSequence, range);
+            } else if (interval.getStart() <= ends[i - 1]) {
+                throw new IllegalArgumentException("Intervals are not sorted or overlap: " + interval + " starts at or before the end of the one before it");
+            }
+            starts[i] = interval.getStart();
+            ends[i] = interval.getEnd();
+            ++i;
+        }
+        if (range != null) range[1] = i;
+        currentSequence = null;
+    }
+
+    /** The number of intervals. */
+    public int size() { return starts.length; }
+
+    /** The 1-based inclusive start of interval i. */
+    public int getStart(final int i) { return starts[i]; }
+
+    /** The 1-based inclusive end of interval i. */
+    public int getEnd(final int i) { return ends[i]; }
+
+    /**
+     * Moves to position on sequence.
+     * @return The index of the first interval on sequence that ends at or after position.  If there is none, this is
+     * getLimit().  The intervals on sequence that overlap position onwards are those from this index up to getLimit()
+     * that start at or before the end of whatever is being overlapped.
+     */
+    public int seek(final String sequence, final int position) {
+        if (!sequence.equals(currentSequence) || position < lastPosition) {
+            final int[] range = sequenceRanges.get(sequence);
+            first = range == null ? 0 : range[0];
+            limit = range == null ? 0 : range[1];
+            currentSequence = sequence;
+            cursor = search(position);
+        } else {
+            while (cursor < limit && ends[cursor] < position) ++cursor;
+        }
+        lastPosition = position;
+        return cursor;
+    }
+
+    /** The index after the last interval on the sequence of the last call to seek(). */
+    public int getLimit() { return limit; }
+
+    /** Binary search for the first interval of the current sequence ending at or after position. */
+    private int search(final int position) {
+        int low = first;
+        int high = limit;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (ends[mid] < position) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -24,6 +24,10 @@
 
 package picard.analysis;
 
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.metrics.MetricsFile;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -32,6 +36,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Tests CollectAlignmentSummaryStatistics
@@ -501,4 +507,57 @@ public class CollectAlignmentSummaryMetricsTest {
 
     }
 
+    @Test
+    public void testMergeState() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "summary_alignment_stats_test_multiple.sam");
+        final File[] halves = splitSam(input);
+        final File state = File.createTempFile("alignmentMetrics", ".state");
+        state.deleteOnExit();
+
+        // The metrics of the second half merged with the state of the first are those of the whole input
+        final MetricsFile<AlignmentSummaryMetrics, Comparable<?>> whole = runMultipleLevels(input);
+        runMultipleLevels(halves[0], "STATE_OUTPUT=" + state.getAbsolutePath());
+        final MetricsFile<AlignmentSummaryMetrics, Comparable<?>> merged = runMultipleLevels(halves[1], "STATE_INPUT=" + state.getAbsolutePath());
+
+        Assert.assertTrue(whole.getMetrics().size() > 4);
+        Assert.assertTrue(merged.areMetricsEqual(whole));
+    }
+
+    private MetricsFile<AlignmentSummaryMetrics, Comparable<?>> runMultipleLevels(final File input, final String... extraArgs) throws IOException {
+        final File outfile = File.createTempFile("alignmentMetrics", ".txt");
+        outfile.deleteOnExit();
+        final List<String> args = new ArrayList<String>();
+        args.add("INPUT=" + input.getAbsolutePath());
+        args.add("OUTPUT=" + outfile.getAbsolutePath());
+        args.add("REFERENCE_SEQUENCE=" + new File(TEST_DATA_DIR, "summary_alignment_stats_test.fasta").getAbsolutePath());
+        args.add("METRIC_ACCUMULATION_LEVEL=ALL_READS");
+        args.add("METRIC_ACCUMULATION_LEVEL=SAMPLE");
+        args.add("METRIC_ACCUMULATION_LEVEL=LIBRARY");
+        args.add("METRIC_ACCUMULATION_LEVEL=READ_GROUP");
+        for (final String arg : extraArgs) args.add(arg);
+        Assert.assertEquals(new CollectAlignmentSummaryMetrics().instanceMain(args.toArray(new String[args.size()])), 0);
+
+        final MetricsFile<AlignmentSummaryMetrics, Comparable<?>> output = new MetricsFile<AlignmentSummaryMetrics, Comparable<?>>();
+        output.read(new FileReader(outfile));
+        return output;
+    }
+
+    /** Writes the first half of the records of input, and the second half, to two SAM files with its header. */
+    private File[] splitSam(final File input) throws IOException {
+        final SAMFileReader reader = new SAMFileReader(input);
+        final List<SAMRecord> records = new ArrayList<SAMRecord>();
+        for (final SAMRecord rec : reader) records.add(rec);
+
+        final File[] halves = new File[2];
+        for (int half = 0; half < halves.length; ++half) {
+            halves[half] = File.createTempFile("alignmentMetrics.half" + half + ".", ".sam");
+            halves[half].deleteOnExit();
+            final SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(reader.getFileHeader(), true, halves[half]);
+            final int end = half == 0 ? records.size() / 2 : records.size();
+            for (int i = half == 0 ? 0 : records.size() / 2; i < end; ++i) writer.addAlignment(records.get(i));
+            writer.close();
+        }
+        reader.close();
+        return halves;
+    }
 }
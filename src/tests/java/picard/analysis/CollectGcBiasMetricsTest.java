@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.QualityUtil;
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that CollectGcBiasMetrics, run on its own or by CollectMultipleMetrics, gives the metrics it gave when it
+ * walked the reference itself, calculating the GC of the windows of each sequence before reading its reads.  The
+ * reference has sequences with no reads before, between and after those with reads.
+ */
+public class CollectGcBiasMetricsTest {
+    private static final int[] SEQUENCE_LENGTHS = {3000, 1200, 2500, 900};
+    private static final int[] SEQUENCES_WITH_READS = {0, 2};
+    private static final int WINDOW_SIZE = 100;
+    private static final int READ_LENGTH = 36;
+
+    private File dir;
+    private File bam;
+    private File indexedReference;
+    private File unindexedReference;
+    private final List<byte[]> referenceBases = new ArrayList<byte[]>();
+    private final List<SAMRecord> records = new ArrayList<SAMRecord>();
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        dir = File.createTempFile("CollectGcBiasMetricsTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+
+        final List<SAMSequenceRecord> sequences = new ArrayList<SAMSequenceRecord>();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            sequences.add(new SAMSequenceRecord("chr" + (i + 1), SEQUENCE_LENGTHS[i]));
+        }
+        final Random random = new Random(11);
+        for (final SAMSequenceRecord sequence : sequences) {
+            referenceBases.add(makeBases(random, sequence.getSequenceLength()));
+        }
+        indexedReference = writeFasta(new File(dir, "indexed.fasta"), sequences, true);
+        final File unindexedDir = new File(dir, "unindexed");
+        Assert.assertTrue(unindexedDir.mkdir());
+        unindexedReference = writeFasta(new File(unindexedDir, "unindexed.fasta"), sequences, false);
+
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.getHeader().setSequenceDictionary(new SAMSequenceDictionary(sequences));
+        builder.setRandomSeed(3);
+        for (int i = 0; i < 600; ++i) {
+            final int sequenceIndex = SEQUENCES_WITH_READS[random.nextInt(SEQUENCES_WITH_READS.length)];
+            // Reads from the very start to the very end, where the windows have no GC calculated
+            final int maxStart = SEQUENCE_LENGTHS[sequenceIndex] - READ_LENGTH + 1;
+            if (i % 3 == 0) {
+                builder.addFrag("frag" + i, sequenceIndex, 1 + random.nextInt(maxStart), random.nextBoolean());
+            } else {
+                final int start1 = 1 + random.nextInt(maxStart);
+                final int start2 = 1 + random.nextInt(maxStart);
+                builder.addPair("pair" + i, sequenceIndex, Math.min(start1, start2), Math.max(start1, start2));
+            }
+        }
+        builder.addFrag("firstBaseForward", 0, 1, false);
+        builder.addFrag("firstBaseReverse", 0, 1, true);
+        builder.addPair("mateUnmapped", 2, 700, 700, false, true, "36M", null, false, false, 20);
+        builder.addUnmappedFragment("unmapped1");
+        builder.addUnmappedFragment("unmapped2");
+        records.addAll(builder.getRecords());
+
+        bam = new File(dir, "input.bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(builder.getHeader(), true, bam);
+        for (final SAMRecord rec : records) writer.addAlignment(rec);
+        writer.close();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(dir);
+    }
+
+    @Test
+    public void testMatchesReferenceWalk() throws IOException {
+        final MetricsFile<?, ?>[] expected = calculateExpectedMetrics();
+        Assert.assertTrue(expected[0].getMetrics().size() > 20);
+
+        for (final File reference : new File[]{indexedReference, unindexedReference}) {
+            // The first run with the cache makes it and the second reads it
+            for (final String useGcCache : new String[]{"false", "true", "true"}) {
+                final File outbase = File.createTempFile("gc_bias.", "", dir);
+                final int ret = new CollectGcBiasMetrics().instanceMain(new String[]{
+                        "INPUT=" + bam.getAbsolutePath(),
+                        "OUTPUT=" + outbase.getAbsolutePath() + ".gc_bias.detail_metrics",
+                        "SUMMARY_OUTPUT=" + outbase.getAbsolutePath() + ".gc_bias.summary_metrics",
+                        "CHART_OUTPUT=" + outbase.getAbsolutePath() + ".gc_bias.pdf",
+                        "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+                        "WINDOW_SIZE=" + WINDOW_SIZE,
+                        "USE_GC_CACHE=" + useGcCache
+                });
+                Assert.assertEquals(ret, 0);
+                assertOutputEquals(outbase.getAbsolutePath(), expected, reference.getName() + " USE_GC_CACHE=" + useGcCache);
+            }
+        }
+    }
+
+    @Test
+    public void testCollectMultipleMetricsMatchesReferenceWalk() throws IOException {
+        final MetricsFile<?, ?>[] expected = calculateExpectedMetrics();
+
+        for (final int numProcessors : new int[]{1, 2}) {
+            final File outbase = File.createTempFile("multiple.", "", dir);
+            final int ret = new CollectMultipleMetrics().instanceMain(new String[]{
+                    "INPUT=" + bam.getAbsolutePath(),
+                    "OUTPUT=" + outbase.getAbsolutePath(),
+                    "REFERENCE_SEQUENCE=" + indexedReference.getAbsolutePath(),
+                    "PROGRAM=CollectAlignmentSummaryMetrics",
+                    "PROGRAM=CollectGcBiasMetrics",
+                    "NUM_PROCESSORS=" + numProcessors
+            });
+            Assert.assertEquals(ret, 0);
+            assertOutputEquals(outbase.getAbsolutePath(), expected, "NUM_PROCESSORS=" + numProcessors);
+        }
+    }
+
+    private void assertOutputEquals(final String outbase, final MetricsFile<?, ?>[] expected, final String message) throws IOException {
+        final MetricsFile<?, ?> details = readMetrics(new File(outbase + ".gc_bias.detail_metrics"));
+        final MetricsFile<?, ?> summary = readMetrics(new File(outbase + ".gc_bias.summary_metrics"));
+        Assert.assertTrue(details.areMetricsEqual(expected[0]), message);
+        Assert.assertTrue(summary.areMetricsEqual(expected[1]), message);
+    }
+
+    /**
+     * Calculates the detail and summary metrics as the program did when it walked the reference: the GC of every
+     * window from the second base up to the last WINDOW_SIZE bases, and each read counted at the GC of the window at
+     * its start, or at its end less WINDOW_SIZE if it is on the negative strand.  The metrics are written and read
+     * back, so that they are formatted as the program's are.
+     */
+    private MetricsFile<?, ?>[] calculateExpectedMetrics() throws IOException {
+        final int[] windowsByGc = new int[101];
+        final int[] readsByGc = new int[101];
+        final long[] basesByGc = new long[101];
+        final long[] errorsByGc = new long[101];
+        final List<byte[]> gcBySequence = new ArrayList<byte[]>();
+
+        for (final byte[] bases : referenceBases) {
+            final byte[] refBases = upperCase(bases);
+            final byte[] gc = new byte[refBases.length + 1];
+            for (int i = 1; i < refBases.length - WINDOW_SIZE; ++i) {
+                int gcCount = 0;
+                int nCount = 0;
+                for (int j = i; j < i + WINDOW_SIZE; ++j) {
+                    if (refBases[j] == 'G' || refBases[j] == 'C') ++gcCount;
+                    else if (refBases[j] == 'N') ++nCount;
+                }
+                gc[i] = (byte) (nCount > 4 ? -1 : gcCount * 100 / WINDOW_SIZE);
+                if (gc[i] != -1) ++windowsByGc[gc[i]];
+            }
+            gcBySequence.add(gc);
+        }
+
+        int totalClusters = 0;
+        int alignedReads = 0;
+        for (final SAMRecord rec : records) {
+            if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++totalClusters;
+            if (rec.getReadUnmappedFlag()) continue;
+            ++alignedReads;
+            final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - WINDOW_SIZE : rec.getAlignmentStart();
+            if (pos <= 0) continue;
+            final int windowGc = gcBySequence.get(rec.getReferenceIndex())[pos];
+            if (windowGc < 0) continue;
+            ++readsByGc[windowGc];
+            basesByGc[windowGc] += rec.getReadLength();
+            errorsByGc[windowGc] += SequenceUtil.countMismatches(rec, upperCase(referenceBases.get(rec.getReferenceIndex())), false) +
+                    SequenceUtil.countInsertedBases(rec) + SequenceUtil.countDeletedBases(rec);
+        }
+
+        double totalWindows = 0;
+        double totalReads = 0;
+        for (int i = 0; i < windowsByGc.length; ++i) {
+            totalWindows += windowsByGc[i];
+            totalReads += readsByGc[i];
+        }
+        final double meanReadsPerWindow = totalReads / totalWindows;
+
+        final MetricsFile<GcBiasDetailMetrics, Integer> details = new MetricsFile<GcBiasDetailMetrics, Integer>();
+        double atDropout = 0;
+        double gcDropout = 0;
+        for (int i = 0; i < windowsByGc.length; ++i) {
+            if (windowsByGc[i] == 0) continue;
+            final GcBiasDetailMetrics m = new GcBiasDetailMetrics();
+            m.GC = i;
+            m.WINDOWS = windowsByGc[i];
+            m.READ_STARTS = readsByGc[i];
+            if (errorsByGc[i] > 0) m.MEAN_BASE_QUALITY = QualityUtil.getPhredScoreFromObsAndErrors(basesByGc[i], errorsByGc[i]);
+            m.NORMALIZED_COVERAGE = (m.READ_STARTS / (double) m.WINDOWS) / meanReadsPerWindow;
+            m.ERROR_BAR_WIDTH = (Math.sqrt(m.READ_STARTS) / (double) m.WINDOWS) / meanReadsPerWindow;
+            details.addMetric(m);
+
+            final double dropout = (m.WINDOWS / totalWindows - m.READ_STARTS / totalReads) * 100;
+            if (dropout > 0) {
+                if (i <= 50) atDropout += dropout;
+                if (i >= 50) gcDropout += dropout;
+            }
+        }
+
+        final MetricsFile<GcBiasSummaryMetrics, Integer> summary = new MetricsFile<GcBiasSummaryMetrics, Integer>();
+        final GcBiasSummaryMetrics s = new GcBiasSummaryMetrics();
+        s.WINDOW_SIZE = WINDOW_SIZE;
+        s.TOTAL_CLUSTERS = totalClusters;
+        s.ALIGNED_READS = alignedReads;
+        s.AT_DROPOUT = atDropout;
+        s.GC_DROPOUT = gcDropout;
+        summary.addMetric(s);
+
+        final File detailsFile = File.createTempFile("expected.", ".gc_bias.detail_metrics", dir);
+        final File summaryFile = File.createTempFile("expected.", ".gc_bias.summary_metrics", dir);
+        details.write(detailsFile);
+        summary.write(summaryFile);
+        return new MetricsFile<?, ?>[]{readMetrics(detailsFile), readMetrics(summaryFile)};
+    }
+
+    private static byte[] upperCase(final byte[] bases) {
+        final byte[] copy = bases.clone();
+        StringUtil.toUpperCase(copy);
+        return copy;
+    }
+
+    /**
+     * Makes bases whose GC changes every 150 bases, so that the windows cover many GC bins, with a run of Ns longer
+     * than the windows allow and one shorter, and a stretch of soft-masked lower-case bases.
+     */
+    private static byte[] makeBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        double gcFraction = 0.5;
+        for (int i = 0; i < length; ++i) {
+            if (i % 150 == 0) gcFraction = 0.1 + 0.8 * random.nextDouble();
+            if (i >= 400 && i < 420 || i >= 800 && i < 803) {
+                bases[i] = 'N';
+            } else if (random.nextDouble() < gcFraction) {
+                bases[i] = (byte) (random.nextBoolean() ? 'G' : 'C');
+            } else {
+                bases[i] = (byte) (random.nextBoolean() ? 'A' : 'T');
+            }
+            if (i >= 500 && i < 650) bases[i] = (byte) Character.toLowerCase(bases[i]);
+        }
+        return bases;
+    }
+
+    /** Writes the reference bases in lines of 60, with a .fai index for them if indexed. */
+    private File writeFasta(final File fasta, final List<SAMSequenceRecord> sequences, final boolean indexed) throws IOException {
+        final PrintStream fastaOut = new PrintStream(fasta);
+        final PrintStream indexOut = indexed ? new PrintStream(new File(fasta.getParentFile(), fasta.getName() + ".fai")) : null;
+        long offset = 0;
+        for (int s = 0; s < sequences.size(); ++s) {
+            final SAMSequenceRecord sequence = sequences.get(s);
+            final String header = ">" + sequence.getSequenceName() + "\n";
+            fastaOut.print(header);
+            offset += header.length();
+            if (indexOut != null) {
+                indexOut.println(sequence.getSequenceName() + "\t" + sequence.getSequenceLength() + "\t" + offset + "\t60\t61");
+            }
+            final byte[] bases = referenceBases.get(s);
+            for (int i = 0; i < bases.length; i += 60) {
+                final String line = new String(bases, i, Math.min(60, bases.length - i)) + "\n";
+                fastaOut.print(line);
+                offset += line.length();
+            }
+        }
+        fastaOut.close();
+        if (indexOut != null) indexOut.close();
+        return fasta;
+    }
+
+    private static MetricsFile<?, ?> readMetrics(final File file) throws IOException {
+        final MetricsFile<?, ?> metrics = new MetricsFile();
+        final FileReader reader = new FileReader(file);
+        metrics.read(reader);
+        reader.close();
+        return metrics;
+    }
+}
@@ -193,4 +193,50 @@ public class CollectInsertSizeMetricsTest {
             }
         }
     }
+
+    @Test
+    public void testMergeState() throws IOException {
+        final File input = new File(TEST_DATA_DIR, "insert_size_metrics_test.sam");
+        final File state = File.createTempFile("test", ".insert_size_state");
+        state.deleteOnExit();
+        final MetricsFile<InsertSizeMetrics, Comparable<?>> once = runCollectInsertSizeMetrics(input, "STATE_OUTPUT=" + state.getAbsolutePath());
+        // Merging the state of the same input into its own metrics is the same as collecting every record twice
+        final MetricsFile<InsertSizeMetrics, Comparable<?>> twice = runCollectInsertSizeMetrics(input, "STATE_INPUT=" + state.getAbsolutePath());
+
+        Assert.assertEquals(twice.getMetrics().size(), once.getMetrics().size());
+        for (int i = 0; i < once.getMetrics().size(); ++i) {
+            final InsertSizeMetrics expected = once.getMetrics().get(i);
+            final InsertSizeMetrics actual = twice.getMetrics().get(i);
+            Assert.assertEquals(actual.READ_GROUP, expected.READ_GROUP);
+            Assert.assertEquals(actual.LIBRARY, expected.LIBRARY);
+            Assert.assertEquals(actual.READ_PAIRS, 2 * expected.READ_PAIRS);
+            Assert.assertEquals(actual.MEDIAN_INSERT_SIZE, expected.MEDIAN_INSERT_SIZE);
+            Assert.assertEquals(actual.MIN_INSERT_SIZE, expected.MIN_INSERT_SIZE);
+            Assert.assertEquals(actual.MAX_INSERT_SIZE, expected.MAX_INSERT_SIZE);
+            Assert.assertEquals(actual.MEAN_INSERT_SIZE, expected.MEAN_INSERT_SIZE, 0.0001);
+            Assert.assertEquals(actual.WIDTH_OF_50_PERCENT, expected.WIDTH_OF_50_PERCENT);
+            Assert.assertEquals(actual.WIDTH_OF_90_PERCENT, expected.WIDTH_OF_90_PERCENT);
+        }
+    }
+
+    private MetricsFile<InsertSizeMetrics, Comparable<?>> runCollectInsertSizeMetrics(final File input, final String stateArg) throws IOException {
+        final File outfile = File.createTempFile("test", ".insert_size_metrics");
+        final File pdf = File.createTempFile("test", ".pdf");
+        outfile.deleteOnExit();
+        pdf.deleteOnExit();
+        final int result = new CollectInsertSizeMetrics().instanceMain(new String[] {
+                "INPUT="  + input.getAbsolutePath(),
+                "OUTPUT=" + outfile.getAbsolutePath(),
+                "HISTOGRAM_FILE=" + pdf.getAbsolutePath(),
+                "LEVEL=ALL_READS",
+                "LEVEL=LIBRARY",
+                "LEVEL=READ_GROUP",
+                stateArg
+        });
+        Assert.assertEquals(result, 0);
+
+        final MetricsFile<InsertSizeMetrics, Comparable<?>> output = new MetricsFile<InsertSizeMetrics, Comparable<?>>();
+        output.read(new FileReader(outfile));
+        return output;
+    }
 }
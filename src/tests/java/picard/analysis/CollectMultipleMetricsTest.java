@@ -0,0 +1,58 @@
+package picard.analysis;
+
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Tests that CollectMultipleMetrics gives the same results when its programs run on worker threads.
+ */
+public class CollectMultipleMetricsTest {
+    private static final File TEST_DATA_DIR = new File("testdata/picard/sam/");
+
+    @Test
+    public void testMultipleThreadsMatchOneThread() throws IOException {
+        final File dir = File.createTempFile("CollectMultipleMetricsTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        try {
+            final String serial = runMultipleMetrics(new File(dir, "serial"), 1);
+            final String parallel = runMultipleMetrics(new File(dir, "parallel"), 2);
+
+            for (final String extension : new String[]{".alignment_summary_metrics", ".insert_size_metrics"}) {
+                final MetricsFile<?, ?> serialMetrics = readMetrics(new File(serial + extension));
+                final MetricsFile<?, ?> parallelMetrics = readMetrics(new File(parallel + extension));
+                Assert.assertFalse(serialMetrics.getMetrics().isEmpty());
+                Assert.assertTrue(serialMetrics.areMetricsEqual(parallelMetrics), extension);
+                Assert.assertTrue(serialMetrics.areHistogramsEqual(parallelMetrics), extension);
+            }
+        } finally {
+            IOUtil.deleteDirectoryTree(dir);
+        }
+    }
+
+    private String runMultipleMetrics(final File outputBase, final int numProcessors) {
+        final int ret = new CollectMultipleMetrics().instanceMain(new String[]{
+                "INPUT=" + new File(TEST_DATA_DIR, "insert_size_metrics_test.sam").getAbsolutePath(),
+                "OUTPUT=" + outputBase.getAbsolutePath(),
+                "PROGRAM=CollectAlignmentSummaryMetrics",
+                "PROGRAM=CollectInsertSizeMetrics",
+                "NUM_PROCESSORS=" + numProcessors
+        });
+        Assert.assertEquals(ret, 0);
+        return outputBase.getAbsolutePath();
+    }
+
+    private MetricsFile<?, ?> readMetrics(final File file) throws IOException {
+        final MetricsFile<?, ?> metrics = new MetricsFile();
+        final FileReader reader = new FileReader(file);
+        metrics.read(reader);
+        reader.close();
+        return metrics;
+    }
+}
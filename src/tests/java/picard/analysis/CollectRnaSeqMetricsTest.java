@@ -35,11 +35,16 @@ import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.StringUtil;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import picard.PicardException;
 import picard.annotation.RefFlatReader.RefFlatColumns;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public class CollectRnaSeqMetricsTest {
     @Test
@@ -208,6 +213,126 @@ public class CollectRnaSeqMetricsTest {
     }
 
 
+    @Test
+    public void testMergeState() throws Exception {
+        final SAMRecordSetBuilder builder = makeMergeStateRecords();
+        final File whole = writeSam(builder.getHeader(), builder.getRecords());
+        final File[] halves = splitSam(builder);
+        final File rRnaIntervalsFile = writeRibosomalIntervals(builder.getHeader());
+        final File state = File.createTempFile("tmp.", ".rna_state");
+        state.deleteOnExit();
+
+        // The metrics of the second half merged with the state of the first are those of the whole input
+        final MetricsFile<RnaSeqMetrics, Integer> expected = runRnaSeqMetrics(whole, rRnaIntervalsFile);
+        runRnaSeqMetrics(halves[0], rRnaIntervalsFile, "STATE_OUTPUT=" + state.getAbsolutePath());
+        final MetricsFile<RnaSeqMetrics, Integer> merged = runRnaSeqMetrics(halves[1], rRnaIntervalsFile, "STATE_INPUT=" + state.getAbsolutePath());
+
+        Assert.assertTrue(expected.getMetrics().get(0).RIBOSOMAL_BASES > 0);
+        Assert.assertTrue(merged.areMetricsEqual(expected));
+        Assert.assertTrue(merged.areHistogramsEqual(expected));
+    }
+
+    /** A state with ribosomal bases can't be merged into metrics without them. */
+    @Test(expectedExceptions = PicardException.class)
+    public void testMergeStateWithRibosomalBasesIntoNone() throws Exception {
+        final SAMRecordSetBuilder builder = makeMergeStateRecords();
+        final File[] halves = splitSam(builder);
+        final File state = File.createTempFile("tmp.", ".rna_state");
+        state.deleteOnExit();
+
+        runRnaSeqMetrics(halves[0], writeRibosomalIntervals(builder.getHeader()), "STATE_OUTPUT=" + state.getAbsolutePath());
+        runRnaSeqMetrics(halves[1], null, "STATE_INPUT=" + state.getAbsolutePath());
+    }
+
+    /** Nor can a state without ribosomal bases be merged into metrics with them. */
+    @Test(expectedExceptions = PicardException.class)
+    public void testMergeStateWithoutRibosomalBasesIntoSome() throws Exception {
+        final SAMRecordSetBuilder builder = makeMergeStateRecords();
+        final File[] halves = splitSam(builder);
+        final File state = File.createTempFile("tmp.", ".rna_state");
+        state.deleteOnExit();
+
+        runRnaSeqMetrics(halves[0], null, "STATE_OUTPUT=" + state.getAbsolutePath());
+        runRnaSeqMetrics(halves[1], writeRibosomalIntervals(builder.getHeader()), "STATE_INPUT=" + state.getAbsolutePath());
+    }
+
+    /** Alignments that hit the ribosomal sequence, various parts of the gene, and intergenic, in two libraries. */
+    private SAMRecordSetBuilder makeMergeStateRecords() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate, false);
+        builder.setRandomSeed(0);
+        final int sequenceIndex = builder.getHeader().getSequenceIndex("chr1");
+        final SAMReadGroupRecord rg1 = new SAMReadGroupRecord("2");
+        rg1.setSample("Sample");
+        rg1.setLibrary("foo");
+        builder.setReadGroup(rg1);
+        builder.addPair("pair1", sequenceIndex, 45, 475);
+        builder.addPair("pair2", sequenceIndex, 90, 225);
+        builder.addFrag("frag1", sequenceIndex, 150, true);
+        builder.addFrag("frag2", sequenceIndex, 450, true);
+
+        final SAMReadGroupRecord rg2 = new SAMReadGroupRecord("3");
+        rg2.setSample("Sample");
+        rg2.setLibrary("bar");
+        builder.setReadGroup(rg2);
+        builder.addPair("pair3", sequenceIndex, 120, 600);
+        builder.addFrag("frag3", sequenceIndex, 225, false);
+        builder.addPair("rrnaPair", sequenceIndex, 400, 500);
+        builder.addPair("pair4", sequenceIndex, 60, 300);
+        builder.addFrag("frag4", sequenceIndex, 520, false);
+        return builder;
+    }
+
+    private MetricsFile<RnaSeqMetrics, Integer> runRnaSeqMetrics(final File samFile, final File rRnaIntervalsFile,
+                                                                 final String... extraArgs) throws Exception {
+        final File metricsFile = File.createTempFile("tmp.", ".rna_metrics");
+        metricsFile.deleteOnExit();
+        final List<String> args = new ArrayList<String>();
+        args.add("INPUT=" + samFile.getAbsolutePath());
+        args.add("OUTPUT=" + metricsFile.getAbsolutePath());
+        args.add("REF_FLAT=" + getRefFlatFile("chr1").getAbsolutePath());
+        if (rRnaIntervalsFile != null) args.add("RIBOSOMAL_INTERVALS=" + rRnaIntervalsFile.getAbsolutePath());
+        args.add("STRAND_SPECIFICITY=SECOND_READ_TRANSCRIPTION_STRAND");
+        args.add("LEVEL=null");
+        args.add("LEVEL=ALL_READS");
+        args.add("LEVEL=SAMPLE");
+        args.add("LEVEL=LIBRARY");
+        for (final String arg : extraArgs) args.add(arg);
+        Assert.assertEquals(new CollectRnaSeqMetrics().instanceMain(args.toArray(new String[args.size()])), 0);
+
+        final MetricsFile<RnaSeqMetrics, Integer> output = new MetricsFile<RnaSeqMetrics, Integer>();
+        output.read(new FileReader(metricsFile));
+        return output;
+    }
+
+    /** Writes the first half of the records, and the second half, to two SAM files. */
+    private File[] splitSam(final SAMRecordSetBuilder builder) throws IOException {
+        final List<SAMRecord> records = new ArrayList<SAMRecord>(builder.getRecords());
+        final int half = records.size() / 2;
+        return new File[] {
+                writeSam(builder.getHeader(), records.subList(0, half)),
+                writeSam(builder.getHeader(), records.subList(half, records.size()))
+        };
+    }
+
+    private File writeSam(final SAMFileHeader header, final Collection<SAMRecord> records) throws IOException {
+        final File samFile = File.createTempFile("tmp.collectRnaSeqMetrics.", ".sam");
+        samFile.deleteOnExit();
+        final SAMFileWriter samWriter = new SAMFileWriterFactory().makeSAMWriter(header, true, samFile);
+        for (final SAMRecord rec : records) samWriter.addAlignment(rec);
+        samWriter.close();
+        return samFile;
+    }
+
+    /** An interval list with one ribosomal interval. */
+    private File writeRibosomalIntervals(final SAMFileHeader header) throws IOException {
+        final IntervalList rRnaIntervalList = new IntervalList(header);
+        rRnaIntervalList.add(new Interval("chr1", 300, 520, true, "rRNA"));
+        final File rRnaIntervalsFile = File.createTempFile("tmp.rRna.", ".interval_list");
+        rRnaIntervalsFile.deleteOnExit();
+        rRnaIntervalList.write(rRnaIntervalsFile);
+        return rRnaIntervalsFile;
+    }
+
     public File getRefFlatFile(String sequence) throws Exception {
         // Create a refFlat file with a single gene containing two exons, one of which is overlapped by the
         // ribosomal interval.
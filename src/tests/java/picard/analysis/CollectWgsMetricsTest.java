@@ -0,0 +1,204 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import htsjdk.samtools.util.SequenceUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that CollectWgsMetrics gives the same results whether the genome is processed by one thread or split by
+ * reference sequence across several, and that it can be restricted to intervals, and that SinglePassWgsMetrics gives
+ * the same results as it.
+ */
+public class CollectWgsMetricsTest {
+    private static final int[] SEQUENCE_LENGTHS = {2000, 1500, 800};
+    private static final int READ_LENGTH = 36;
+
+    private File dir;
+    private File bam;
+    private File reference;
+    private SAMFileHeader header;
+    private long nonNBases = 0;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        dir = File.createTempFile("CollectWgsMetricsTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+
+        final List<SAMSequenceRecord> sequences = new ArrayList<SAMSequenceRecord>();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            sequences.add(new SAMSequenceRecord("chr" + (i + 1), SEQUENCE_LENGTHS[i]));
+        }
+        reference = writeIndexedFasta(sequences);
+
+        final Random random = new Random(42);
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.getHeader().setSequenceDictionary(new SAMSequenceDictionary(sequences));
+        builder.setRandomSeed(42);
+        for (int i = 0; i < 400; ++i) {
+            final int sequenceIndex = random.nextInt(sequences.size());
+            final int maxStart = SEQUENCE_LENGTHS[sequenceIndex] - READ_LENGTH;
+            // Half the pairs have overlapping mates
+            final int start1 = 1 + random.nextInt(maxStart);
+            final int start2 = i % 2 == 0 ? Math.min(maxStart, start1 + random.nextInt(READ_LENGTH)) : 1 + random.nextInt(maxStart);
+            builder.addPair("pair" + i, sequenceIndex, Math.min(start1, start2), Math.max(start1, start2));
+        }
+        for (int i = 0; i < 100; ++i) {
+            final int sequenceIndex = random.nextInt(sequences.size());
+            builder.addFrag("frag" + i, sequenceIndex, 1 + random.nextInt(SEQUENCE_LENGTHS[sequenceIndex] - READ_LENGTH), random.nextBoolean());
+        }
+        int i = 0;
+        for (final SAMRecord rec : builder.getRecords()) {
+            if (i % 11 == 0) rec.setDuplicateReadFlag(true);
+            if (i % 13 == 0) rec.setMappingQuality(5);
+            ++i;
+        }
+
+        header = builder.getHeader();
+        bam = new File(dir, "input.bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(builder.getHeader(), true, bam);
+        for (final SAMRecord rec : builder.getRecords()) writer.addAlignment(rec);
+        writer.close();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(dir);
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws IOException {
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> serial = runWgsMetrics(1);
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> parallel = runWgsMetrics(3);
+
+        Assert.assertEquals(serial.getMetrics().get(0).GENOME_TERRITORY, nonNBases);
+        Assert.assertTrue(serial.getMetrics().get(0).PCT_EXC_CAPPED > 0);
+        Assert.assertTrue(serial.areMetricsEqual(parallel));
+        Assert.assertTrue(serial.areHistogramsEqual(parallel));
+    }
+
+    @Test
+    public void testIntervals() throws IOException {
+        // Every sequence has Ns at positions 101-150
+        final IntervalList intervals = new IntervalList(header);
+        intervals.add(new Interval("chr2", 1, 500));
+        intervals.add(new Interval("chr3", 1, SEQUENCE_LENGTHS[2]));
+        final File intervalsFile = new File(dir, "regions.interval_list");
+        intervals.write(intervalsFile);
+
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> serial = runWgsMetrics(1, "INTERVALS=" + intervalsFile.getAbsolutePath());
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> parallel = runWgsMetrics(3, "INTERVALS=" + intervalsFile.getAbsolutePath());
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> wholeGenome = runWgsMetrics(1);
+
+        Assert.assertEquals(serial.getMetrics().get(0).GENOME_TERRITORY, 500 - 50 + SEQUENCE_LENGTHS[2] - 50);
+        Assert.assertTrue(serial.areMetricsEqual(parallel));
+        Assert.assertTrue(serial.areHistogramsEqual(parallel));
+        Assert.assertFalse(serial.areHistogramsEqual(wholeGenome));
+    }
+
+    @Test(expectedExceptions = SequenceUtil.SequenceListsDifferException.class)
+    public void testIntervalsWithReorderedDictionary() throws IOException {
+        final List<SAMSequenceRecord> reordered = new ArrayList<SAMSequenceRecord>();
+        for (int i = SEQUENCE_LENGTHS.length; i > 0; --i) {
+            reordered.add(new SAMSequenceRecord("chr" + i, SEQUENCE_LENGTHS[i - 1]));
+        }
+        final SAMFileHeader intervalsHeader = new SAMFileHeader();
+        intervalsHeader.setSequenceDictionary(new SAMSequenceDictionary(reordered));
+        final IntervalList intervals = new IntervalList(intervalsHeader);
+        intervals.add(new Interval("chr2", 1, 500));
+        final File intervalsFile = new File(dir, "reordered.interval_list");
+        intervals.write(intervalsFile);
+
+        runWgsMetrics(1, "INTERVALS=" + intervalsFile.getAbsolutePath());
+    }
+
+    @Test
+    public void testSinglePassMatchesLocusIterator() throws IOException {
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> locusIterator = runWgsMetrics(1);
+
+        final File metricsFile = File.createTempFile("wgs_metrics.", ".txt", dir);
+        final int ret = new SinglePassWgsMetrics().instanceMain(new String[]{
+                "INPUT=" + bam.getAbsolutePath(),
+                "OUTPUT=" + metricsFile.getAbsolutePath(),
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+                "COVERAGE_CAP=8"
+        });
+        Assert.assertEquals(ret, 0);
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> singlePass = new MetricsFile<CollectWgsMetrics.WgsMetrics, Integer>();
+        singlePass.read(new FileReader(metricsFile));
+
+        Assert.assertTrue(locusIterator.areMetricsEqual(singlePass));
+        Assert.assertTrue(locusIterator.areHistogramsEqual(singlePass));
+    }
+
+    private MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> runWgsMetrics(final int numProcessors, final String... extraArgs) throws IOException {
+        final File metricsFile = File.createTempFile("wgs_metrics.", ".txt", dir);
+        final List<String> args = new ArrayList<String>();
+        args.add("INPUT=" + bam.getAbsolutePath());
+        args.add("OUTPUT=" + metricsFile.getAbsolutePath());
+        args.add("REFERENCE_SEQUENCE=" + reference.getAbsolutePath());
+        args.add("COVERAGE_CAP=8");
+        args.add("NUM_PROCESSORS=" + numProcessors);
+        for (final String arg : extraArgs) args.add(arg);
+        final int ret = new CollectWgsMetrics().instanceMain(args.toArray(new String[args.size()]));
+        Assert.assertEquals(ret, 0);
+
+        final MetricsFile<CollectWgsMetrics.WgsMetrics, Integer> output = new MetricsFile<CollectWgsMetrics.WgsMetrics, Integer>();
+        output.read(new FileReader(metricsFile));
+        return output;
+    }
+
+    /** Writes random bases, with a run of Ns in each sequence, and a .fai index for them. */
+    private File writeIndexedFasta(final List<SAMSequenceRecord> sequences) throws IOException {
+        final Random random = new Random(7);
+        final File fasta = new File(dir, "reference.fasta");
+        final PrintStream fastaOut = new PrintStream(fasta);
+        final PrintStream indexOut = new PrintStream(new File(dir, "reference.fasta.fai"));
+        final byte[] bases = {'A', 'C', 'G', 'T'};
+        long offset = 0;
+        for (final SAMSequenceRecord sequence : sequences) {
+            final String header = ">" + sequence.getSequenceName() + "\n";
+            fastaOut.print(header);
+            offset += header.length();
+            indexOut.println(sequence.getSequenceName() + "\t" + sequence.getSequenceLength() + "\t" + offset + "\t60\t61");
+            final StringBuilder line = new StringBuilder();
+            for (int i = 0; i < sequence.getSequenceLength(); ++i) {
+                if (i >= 100 && i < 150) {
+                    line.append('N');
+                } else {
+                    line.append((char) bases[random.nextInt(bases.length)]);
+                    ++nonNBases;
+                }
+                if (line.length() == 60 || i == sequence.getSequenceLength() - 1) {
+                    fastaOut.print(line.append('\n'));
+                    offset += line.length();
+                    line.setLength(0);
+                }
+            }
+        }
+        fastaOut.close();
+        indexOut.close();
+        return fasta;
+    }
+}
@@ -0,0 +1,114 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that GcWindowCache gives the same GC as calculating it in memory, and that it is made once and remade when it
+ * doesn't match the reference.
+ */
+public class GcWindowCacheTest {
+    private static final int[] SEQUENCE_LENGTHS = {1000, 350, 50};
+    private static final int WINDOW_SIZE = 100;
+
+    private File dir;
+    private File reference;
+    private SAMSequenceDictionary dictionary;
+    private final List<byte[]> bases = new ArrayList<byte[]>();
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = File.createTempFile("GcWindowCacheTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+
+        // Mixed case, with Ns, as in real references
+        final Random random = new Random(1);
+        final List<SAMSequenceRecord> sequences = new ArrayList<SAMSequenceRecord>();
+        reference = new File(dir, "reference.fasta");
+        final PrintStream out = new PrintStream(reference);
+        bases.clear();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            final byte[] sequenceBases = new byte[SEQUENCE_LENGTHS[i]];
+            for (int j = 0; j < sequenceBases.length; ++j) {
+                sequenceBases[j] = (byte) "ACGTacgtN".charAt(random.nextInt(9));
+            }
+            out.println(">chr" + (i + 1));
+            out.println(StringUtil.bytesToString(sequenceBases));
+            bases.add(sequenceBases);
+            sequences.add(new SAMSequenceRecord("chr" + (i + 1), SEQUENCE_LENGTHS[i]));
+        }
+        out.close();
+        dictionary = new SAMSequenceDictionary(sequences);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(dir);
+    }
+
+    @Test
+    public void testCacheMatchesMemory() {
+        final GcWindowCache cache = GcWindowCache.open(reference, dictionary, WINDOW_SIZE);
+        Assert.assertNotNull(cache);
+        Assert.assertTrue(GcWindowCache.getCacheFile(reference, WINDOW_SIZE).exists());
+
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            final byte[] upperBases = bases.get(i).clone();
+            StringUtil.toUpperCase(upperBases);
+            final GcWindowCache.SequenceGc inMemory = GcWindowCache.calculate(upperBases, WINDOW_SIZE);
+            final GcWindowCache.SequenceGc cached = cache.getSequence(i);
+            Assert.assertEquals(cached.getWindowsByGc(), inMemory.getWindowsByGc());
+            for (int position = 0; position <= SEQUENCE_LENGTHS[i]; ++position) {
+                Assert.assertEquals(cached.getGc(position), inMemory.getGc(position), "chr" + (i + 1) + ":" + position);
+            }
+        }
+    }
+
+    @Test
+    public void testCacheIsReusedAndRemade() {
+        final File cacheFile = GcWindowCache.getCacheFile(reference, WINDOW_SIZE);
+        Assert.assertNotNull(GcWindowCache.open(reference, dictionary, WINDOW_SIZE));
+        // Back-date the cache so that remaking it can be seen, but not so far as to be older than the reference
+        Assert.assertTrue(cacheFile.setLastModified(reference.lastModified()));
+        final long lastModified = cacheFile.lastModified();
+
+        Assert.assertNotNull(GcWindowCache.open(reference, dictionary, WINDOW_SIZE));
+        Assert.assertEquals(cacheFile.lastModified(), lastModified);
+
+        // Another window size has its own cache
+        Assert.assertNotNull(GcWindowCache.open(reference, dictionary, WINDOW_SIZE * 2));
+        Assert.assertTrue(GcWindowCache.getCacheFile(reference, WINDOW_SIZE * 2).exists());
+        Assert.assertEquals(cacheFile.lastModified(), lastModified);
+
+        // A dictionary with MD5s no longer matches the cache
+        Assert.assertTrue(cacheFile.setLastModified(lastModified - 1000));
+        Assert.assertTrue(reference.setLastModified(lastModified - 1000));
+        dictionary.getSequence(1).setAttribute(SAMSequenceRecord.MD5_TAG, "0123456789abcdef0123456789abcdef");
+        Assert.assertNotNull(GcWindowCache.open(reference, dictionary, WINDOW_SIZE));
+        Assert.assertTrue(cacheFile.lastModified() > lastModified - 1000);
+    }
+
+    @Test
+    public void testMismatchedReferenceFallsBackToMemory() {
+        // The dictionary has a sequence that the reference doesn't, so the cache can't be written
+        final List<SAMSequenceRecord> sequences = new ArrayList<SAMSequenceRecord>(dictionary.getSequences());
+        sequences.add(new SAMSequenceRecord("chr" + (SEQUENCE_LENGTHS.length + 1), 500));
+        Assert.assertNull(GcWindowCache.open(reference, new SAMSequenceDictionary(sequences), WINDOW_SIZE));
+        Assert.assertFalse(GcWindowCache.getCacheFile(reference, WINDOW_SIZE).exists());
+        Assert.assertEquals(dir.list().length, 1, "temporary file left behind");
+    }
+}
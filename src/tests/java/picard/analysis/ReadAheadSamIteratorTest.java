@@ -0,0 +1,67 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileReader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Tests that ReadAheadSamIterator returns the same records as SAMFileReader, from SAM, BGZF-compressed SAM and BAM
+ * files.
+ */
+public class ReadAheadSamIteratorTest {
+    private static final File TEST_DATA_DIR = new File("testdata/picard/sam/");
+
+    @DataProvider(name = "inputs")
+    public Object[][] inputs() throws IOException {
+        final File sam = new File(TEST_DATA_DIR, "insert_size_metrics_test.sam");
+        final File bam = File.createTempFile("ReadAheadSamIteratorTest.", ".bam");
+        bam.deleteOnExit();
+        final SAMFileReader reader = new SAMFileReader(sam);
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(reader.getFileHeader(), true, bam);
+        for (final SAMRecord rec : reader) writer.addAlignment(rec);
+        writer.close();
+        reader.close();
+
+        // BGZF-compressed SAM text starts with the same block header as a BAM file
+        final File bgzfSam = File.createTempFile("ReadAheadSamIteratorTest.", ".sam.gz");
+        bgzfSam.deleteOnExit();
+        final InputStream in = new FileInputStream(sam);
+        final OutputStream out = new BlockCompressedOutputStream(bgzfSam);
+        IOUtil.copyStream(in, out);
+        out.close();
+        in.close();
+        return new Object[][]{{sam}, {bam}, {bgzfSam}};
+    }
+
+    @Test(dataProvider = "inputs")
+    public void testSameRecordsAsSamFileReader(final File input) {
+        final SAMFileReader reader = new SAMFileReader(input);
+        final ReadAheadSamIterator readAhead = new ReadAheadSamIterator(input, reader.getFileHeader(), null, 2);
+        final Iterator<SAMRecord> expected = reader.iterator();
+        int count = 0;
+        while (expected.hasNext()) {
+            Assert.assertTrue(readAhead.hasNext());
+            final ReadAheadSamIterator.RecordAndReference actual = readAhead.next();
+            Assert.assertEquals(actual.record.getSAMString(), expected.next().getSAMString());
+            Assert.assertNull(actual.reference);
+            ++count;
+        }
+        Assert.assertFalse(readAhead.hasNext());
+        Assert.assertTrue(count > 0);
+        readAhead.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis.directed;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.FormatUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import htsjdk.samtools.util.SequenceUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import picard.analysis.CollectMultipleMetrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests CalculateHsMetrics run on its own and by CollectMultipleMetrics over a small coordinate sorted BAM, against
+ * the counts it made when it found the overlaps of each read with an OverlapDetector and kept the depths of every
+ * target to the end.
+ */
+public class CalculateHsMetricsTest {
+    private static final int[] SEQUENCE_LENGTHS = {5000, 3000, 2000};
+    private static final int READ_LENGTH = 36;
+    private static final int DEEP_TARGET_START = 1000;
+    private static final int DEEP_READS = 34000;
+
+    private File dir;
+    private File bam;
+    private File reference;
+    private final List<byte[]> referenceBases = new ArrayList<byte[]>();
+    private File targetsFile;
+    private File baitsFile;
+    private IntervalList targets;
+    private IntervalList baits;
+    private final List<SAMRecord> records = new ArrayList<SAMRecord>();
+    private SAMFileHeader header;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        dir = File.createTempFile("CalculateHsMetricsTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+
+        final List<SAMSequenceRecord> sequences = new ArrayList<SAMSequenceRecord>();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            sequences.add(new SAMSequenceRecord("chr" + (i + 1), SEQUENCE_LENGTHS[i]));
+        }
+        final Random random = new Random(4);
+        for (final SAMSequenceRecord sequence : sequences) referenceBases.add(makeBases(random, sequence.getSequenceLength()));
+        reference = writeFasta(new File(dir, "reference.fasta"), sequences);
+
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.getHeader().setSequenceDictionary(new SAMSequenceDictionary(sequences));
+        builder.setRandomSeed(9);
+
+        // Each bait is its target and 50 bases either side, short of the end of the sequence.  On chr3 one target is
+        // covered deeper than a short can hold, and the other is the last base, which no read reaches.
+        targets = new IntervalList(builder.getHeader());
+        baits = new IntervalList(builder.getHeader());
+        final int[][] targetRanges = {{0, 500, 650}, {0, 700, 800}, {0, 2000, 2300}, {0, 4000, 4020}, {1, 400, 600}, {1, 2500, 2900}};
+        final int[][] chr3TargetRanges = {{2, DEEP_TARGET_START, DEEP_TARGET_START + 100}, {2, SEQUENCE_LENGTHS[2], SEQUENCE_LENGTHS[2]}};
+        for (final int[][] ranges : new int[][][]{targetRanges, chr3TargetRanges}) {
+            for (final int[] range : ranges) {
+                final SAMSequenceRecord sequence = sequences.get(range[0]);
+                final String name = sequence.getSequenceName() + ":" + range[1];
+                targets.add(new Interval(sequence.getSequenceName(), range[1], range[2], false, "target_" + name));
+                baits.add(new Interval(sequence.getSequenceName(), range[1] - 50, Math.min(range[2] + 50, sequence.getSequenceLength()),
+                        false, "bait_" + name));
+            }
+        }
+        targetsFile = new File(dir, "targets.interval_list");
+        targets.write(targetsFile);
+        baitsFile = new File(dir, "baits.interval_list");
+        baits.write(baitsFile);
+
+        // Pairs near the targets, with some anywhere short of the last base, and fragments either side of the 250
+        // bases before each bait
+        for (int i = 0; i < 1500; ++i) {
+            final int[] range = targetRanges[random.nextInt(targetRanges.length)];
+            final int sequenceIndex = i % 10 == 0 ? random.nextInt(sequences.size()) : range[0];
+            final int maxStart = SEQUENCE_LENGTHS[sequenceIndex] - READ_LENGTH;
+            final int start1 = i % 10 == 0 ? 1 + random.nextInt(maxStart) : Math.max(1, range[1] - 300 + random.nextInt(range[2] - range[1] + 400));
+            final int start2 = Math.min(maxStart, start1 + random.nextInt(200));
+            builder.addPair("pair" + i, sequenceIndex, start1, start2);
+        }
+        for (final int[] range : targetRanges) {
+            final int baitStart = range[1] - 50;
+            builder.addFrag("before" + baitStart, range[0], baitStart - 250 - READ_LENGTH, false);
+            builder.addFrag("near" + baitStart, range[0], baitStart - 250 - READ_LENGTH + 1, true);
+        }
+        for (int i = 0; i < DEEP_READS; ++i) {
+            builder.addFrag("deep" + i, 2, DEEP_TARGET_START + 40, i % 2 == 0);
+        }
+        builder.addUnmappedFragment("unmapped");
+
+        // The reads stacked on the deep target are all counted
+        int i = 0;
+        for (final SAMRecord rec : builder.getRecords()) {
+            if (!rec.getReadName().startsWith("deep")) {
+                if (i % 9 == 0) rec.setDuplicateReadFlag(true);
+                if (i % 31 == 0) rec.setMappingQuality(0);
+                if (i % 37 == 0) rec.setReadFailsVendorQualityCheckFlag(true);
+                ++i;
+            }
+            records.add(rec);
+        }
+
+        header = builder.getHeader();
+        bam = writeBam("input.bam", header, records);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(dir);
+    }
+
+    @Test
+    public void testMatchesOverlapDetectorCounts() throws IOException {
+        final HsMetrics metrics = (HsMetrics) runHsMetrics().getMetrics().get(0);
+
+        final TargetMetricsCollectorTest.BaseByBaseCounts expected =
+                new TargetMetricsCollectorTest.BaseByBaseCounts(targets.getUniqueIntervals(), baits.getUniqueIntervals());
+        for (final SAMRecord rec : records) expected.accept(rec);
+
+        Assert.assertEquals(metrics.BAIT_SET, "baits");
+        Assert.assertEquals(metrics.TOTAL_READS, expected.totalReads);
+        Assert.assertEquals(metrics.PF_READS, expected.pfReads);
+        Assert.assertEquals(metrics.PF_UNIQUE_READS, expected.pfUniqueReads);
+        Assert.assertEquals(metrics.PF_UQ_READS_ALIGNED, expected.pfUqReadsAligned);
+        Assert.assertEquals(metrics.PF_UQ_BASES_ALIGNED, expected.pfUqBasesAligned);
+        Assert.assertEquals(metrics.ON_BAIT_BASES, expected.onProbeBases);
+        Assert.assertEquals(metrics.NEAR_BAIT_BASES, expected.nearProbeBases);
+        Assert.assertEquals(metrics.OFF_BAIT_BASES, expected.offProbeBases);
+        Assert.assertEquals(metrics.ON_TARGET_BASES, expected.onTargetBases);
+        Assert.assertEquals(metrics.MEAN_TARGET_COVERAGE, expected.meanTargetCoverage(), 1e-5);
+    }
+
+    @Test
+    public void testCollectMultipleMetricsMatchesStandalone() throws IOException {
+        final MetricsFile<?, ?> standalone = runHsMetrics();
+
+        for (final int numProcessors : new int[]{1, 2}) {
+            final File outbase = File.createTempFile("multiple.", "", dir);
+            final int ret = new CollectMultipleMetrics().instanceMain(new String[]{
+                    "INPUT=" + bam.getAbsolutePath(),
+                    "OUTPUT=" + outbase.getAbsolutePath(),
+                    "PROGRAM=CollectAlignmentSummaryMetrics",
+                    "PROGRAM=CalculateHsMetrics",
+                    "TARGET_INTERVALS=" + targetsFile.getAbsolutePath(),
+                    "BAIT_INTERVALS=" + baitsFile.getAbsolutePath(),
+                    "NUM_PROCESSORS=" + numProcessors
+            });
+            Assert.assertEquals(ret, 0);
+            final MetricsFile<?, ?> multiple = readMetrics(new File(outbase.getAbsolutePath() + ".hybrid_selection_metrics"));
+            Assert.assertTrue(multiple.areMetricsEqual(standalone), "NUM_PROCESSORS=" + numProcessors);
+        }
+    }
+
+    @Test
+    public void testMergeState() throws IOException {
+        final File firstHalf = writeBam("first_half.bam", header, records.subList(0, records.size() / 2));
+        final File secondHalf = writeBam("second_half.bam", header, records.subList(records.size() / 2, records.size()));
+        final File state = new File(dir, "first_half.hs_state");
+
+        // The metrics of the second half merged with the state of the first are those of the whole input
+        final MetricsFile<?, ?> whole = runHsMetrics();
+        runHsMetrics(firstHalf, "STATE_OUTPUT=" + state.getAbsolutePath());
+        final MetricsFile<?, ?> merged = runHsMetrics(secondHalf, "STATE_INPUT=" + state.getAbsolutePath());
+        Assert.assertTrue(merged.areMetricsEqual(whole));
+    }
+
+    /**
+     * The coverage of each target is folded into a histogram as the reads pass it when the input is coordinate sorted,
+     * and is kept to the end otherwise, or when the state is written.  All three give the same metrics and per-target
+     * coverage, which are those of the depths counted base by base.
+     */
+    @Test
+    public void testStreamedCoverageMatchesWholeCoverage() throws IOException {
+        final SAMFileHeader unsortedHeader = header.clone();
+        unsortedHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        final File unsortedBam = writeBam("unsorted.bam", unsortedHeader, records);
+
+        final File streamedPerTarget = new File(dir, "streamed.per_target_coverage");
+        final File unsortedPerTarget = new File(dir, "unsorted.per_target_coverage");
+        final File statePerTarget = new File(dir, "state.per_target_coverage");
+        final MetricsFile<?, ?> streamed = runHsMetrics(bam,
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(), "PER_TARGET_COVERAGE=" + streamedPerTarget.getAbsolutePath());
+        final MetricsFile<?, ?> unsorted = runHsMetrics(unsortedBam,
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(), "PER_TARGET_COVERAGE=" + unsortedPerTarget.getAbsolutePath());
+        final MetricsFile<?, ?> withState = runHsMetrics(bam,
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(), "PER_TARGET_COVERAGE=" + statePerTarget.getAbsolutePath(),
+                "STATE_OUTPUT=" + new File(dir, "whole.hs_state").getAbsolutePath());
+        Assert.assertTrue(unsorted.areMetricsEqual(streamed));
+        Assert.assertTrue(withState.areMetricsEqual(streamed));
+        Assert.assertEquals(readLines(unsortedPerTarget), readLines(streamedPerTarget));
+        Assert.assertEquals(readLines(statePerTarget), readLines(streamedPerTarget));
+
+        final List<Interval> uniqueTargets = targets.getUniqueIntervals();
+        final TargetMetricsCollectorTest.BaseByBaseCounts expected =
+                new TargetMetricsCollectorTest.BaseByBaseCounts(uniqueTargets, baits.getUniqueIntervals());
+        for (final SAMRecord rec : records) expected.accept(rec);
+        Assert.assertEquals(expected.basesAtDepth(DEEP_READS), READ_LENGTH);
+        Assert.assertTrue(expected.zeroCoverageTargetsPct() > 0);
+
+        final HsMetrics metrics = (HsMetrics) streamed.getMetrics().get(0);
+        final double territory = metrics.TARGET_TERRITORY;
+        Assert.assertEquals(metrics.MEAN_TARGET_COVERAGE, expected.meanTargetCoverage(), 1e-5);
+        Assert.assertEquals(metrics.FOLD_80_BASE_PENALTY, expected.fold80BasePenalty(), 1e-5);
+        Assert.assertEquals(metrics.ZERO_CVG_TARGETS_PCT, expected.zeroCoverageTargetsPct(), 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_2X, expected.basesAtDepth(2) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_10X, expected.basesAtDepth(10) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_20X, expected.basesAtDepth(20) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_30X, expected.basesAtDepth(30) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_40X, expected.basesAtDepth(40) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_50X, expected.basesAtDepth(50) / territory, 1e-5);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_100X, expected.basesAtDepth(100) / territory, 1e-5);
+
+        final double[] gcByTarget = new double[uniqueTargets.size()];
+        final List<String> expectedPerTarget = new ArrayList<String>();
+        expectedPerTarget.add("chrom\tstart\tend\tlength\tname\t%gc\tmean_coverage\tnormalized_coverage");
+        final FormatUtil fmt = new FormatUtil();
+        for (int t = 0; t < uniqueTargets.size(); ++t) {
+            final Interval target = uniqueTargets.get(t);
+            final byte[] bases = referenceBases.get(header.getSequenceIndex(target.getSequence()));
+            gcByTarget[t] = SequenceUtil.calculateGc(Arrays.copyOfRange(bases, target.getStart() - 1, target.getEnd()));
+            final double coverage = expected.totalCoverage(t) / (double) target.length();
+            expectedPerTarget.add(target.getSequence() + "\t" + target.getStart() + "\t" + target.getEnd() + "\t" +
+                    target.length() + "\t" + target.getName() + "\t" + fmt.format(gcByTarget[t]) + "\t" +
+                    fmt.format(coverage) + "\t" + fmt.format(coverage / expected.meanTargetCoverage()));
+        }
+        Assert.assertEquals(readLines(streamedPerTarget), expectedPerTarget);
+        final double[] dropout = expected.dropout(gcByTarget);
+        Assert.assertEquals(metrics.AT_DROPOUT, dropout[0], 1e-5);
+        Assert.assertEquals(metrics.GC_DROPOUT, dropout[1], 1e-5);
+    }
+
+    private MetricsFile<?, ?> runHsMetrics(final String... extraArgs) throws IOException {
+        return runHsMetrics(bam, extraArgs);
+    }
+
+    private MetricsFile<?, ?> runHsMetrics(final File input, final String... extraArgs) throws IOException {
+        final File metricsFile = File.createTempFile("hs_metrics.", ".txt", dir);
+        final List<String> args = new ArrayList<String>();
+        args.add("INPUT=" + input.getAbsolutePath());
+        args.add("OUTPUT=" + metricsFile.getAbsolutePath());
+        args.add("TARGET_INTERVALS=" + targetsFile.getAbsolutePath());
+        args.add("BAIT_INTERVALS=" + baitsFile.getAbsolutePath());
+        for (final String arg : extraArgs) args.add(arg);
+        Assert.assertEquals(new CalculateHsMetrics().instanceMain(args.toArray(new String[args.size()])), 0);
+        return readMetrics(metricsFile);
+    }
+
+    private File writeBam(final String name, final SAMFileHeader bamHeader, final List<SAMRecord> bamRecords) {
+        final File file = new File(dir, name);
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(bamHeader, true, file);
+        for (final SAMRecord rec : bamRecords) writer.addAlignment(rec);
+        writer.close();
+        return file;
+    }
+
+    /** Makes bases whose GC changes every 100 bases, so that the targets fall in different GC bins. */
+    private static byte[] makeBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        double gcFraction = 0.5;
+        for (int i = 0; i < length; ++i) {
+            if (i % 100 == 0) gcFraction = 0.1 + 0.8 * random.nextDouble();
+            if (random.nextDouble() < gcFraction) {
+                bases[i] = (byte) (random.nextBoolean() ? 'G' : 'C');
+            } else {
+                bases[i] = (byte) (random.nextBoolean() ? 'A' : 'T');
+            }
+        }
+        return bases;
+    }
+
+    /** Writes the reference bases in lines of 60, with the .fai index and .dict sequence dictionary for them. */
+    private File writeFasta(final File fasta, final List<SAMSequenceRecord> sequences) throws IOException {
+        final PrintStream fastaOut = new PrintStream(fasta);
+        final PrintStream indexOut = new PrintStream(new File(dir, fasta.getName() + ".fai"));
+        final PrintStream dictionaryOut = new PrintStream(new File(dir, fasta.getName().replaceFirst("\\.fasta$", ".dict")));
+        dictionaryOut.println("@HD\tVN:1.4\tSO:unsorted");
+        long offset = 0;
+        for (int s = 0; s < sequences.size(); ++s) {
+            final SAMSequenceRecord sequence = sequences.get(s);
+            final String header = ">" + sequence.getSequenceName() + "\n";
+            fastaOut.print(header);
+            offset += header.length();
+            indexOut.println(sequence.getSequenceName() + "\t" + sequence.getSequenceLength() + "\t" + offset + "\t60\t61");
+            dictionaryOut.println("@SQ\tSN:" + sequence.getSequenceName() + "\tLN:" + sequence.getSequenceLength());
+            final byte[] bases = referenceBases.get(s);
+            for (int i = 0; i < bases.length; i += 60) {
+                final String line = new String(bases, i, Math.min(60, bases.length - i)) + "\n";
+                fastaOut.print(line);
+                offset += line.length();
+            }
+        }
+        fastaOut.close();
+        indexOut.close();
+        dictionaryOut.close();
+        return fasta;
+    }
+
+    private static List<String> readLines(final File file) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) lines.add(line);
+        reader.close();
+        return lines;
+    }
+
+    private static MetricsFile<?, ?> readMetrics(final File file) throws IOException {
+        final MetricsFile<?, ?> metrics = new MetricsFile();
+        final FileReader reader = new FileReader(file);
+        metrics.read(reader);
+        reader.close();
+        return metrics;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis.directed;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.CollectionUtil;
+import htsjdk.samtools.util.CoordMath;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.PicardException;
+import picard.analysis.MetricAccumulationLevel;
+import picard.sam.DuplicationMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the overlaps that TargetMetricsCollector works out from the ends of the sorted targets and probes with
+ * those counted base by base, as the collector did with OverlapDetector: a probe is near a read if it starts no more
+ * than 250 bases after the read's alignment end and ends no earlier than its alignment start.
+ */
+public class TargetMetricsCollectorTest {
+    private static final int NEAR_PROBE_DISTANCE = 250;
+    private static final int[] SEQUENCE_LENGTHS = {6000, 3000};
+
+    private final SAMFileHeader header = makeHeader();
+
+    @DataProvider(name = "coordinateSortedInput")
+    public Object[][] coordinateSortedInput() {
+        return new Object[][] {{true}, {false}};
+    }
+
+    @Test(dataProvider = "coordinateSortedInput")
+    public void testOverlapsMatchBaseByBaseCounts(final boolean coordinateSortedInput) {
+        final IntervalList targets = makeTargets();
+        final IntervalList probes = makeProbes();
+        final List<SAMRecord> records = makeRecords();
+
+        final HsMetricCollector collector = makeCollector(targets, probes);
+        collector.setCoordinateSortedInput(coordinateSortedInput);
+        for (final SAMRecord rec : records) collector.acceptRecord(rec, null);
+        final HsMetrics metrics = finish(collector).getMetrics().get(0);
+
+        final BaseByBaseCounts expected = new BaseByBaseCounts(targets.getUniqueIntervals(), probes.getUniqueIntervals());
+        for (final SAMRecord rec : records) expected.accept(rec);
+
+        Assert.assertTrue(expected.onProbeBases > 0 && expected.nearProbeBases > 0 && expected.offProbeBases > 0);
+        Assert.assertEquals(metrics.TOTAL_READS, expected.totalReads);
+        Assert.assertEquals(metrics.PF_READS, expected.pfReads);
+        Assert.assertEquals(metrics.PF_UNIQUE_READS, expected.pfUniqueReads);
+        Assert.assertEquals(metrics.PF_UQ_READS_ALIGNED, expected.pfUqReadsAligned);
+        Assert.assertEquals(metrics.PF_UQ_BASES_ALIGNED, expected.pfUqBasesAligned);
+        Assert.assertEquals(metrics.HS_LIBRARY_SIZE, DuplicationMetrics.estimateLibrarySize(expected.pfSelectedPairs, expected.pfSelectedUniquePairs));
+        Assert.assertEquals(metrics.ON_BAIT_BASES, expected.onProbeBases);
+        Assert.assertEquals(metrics.NEAR_BAIT_BASES, expected.nearProbeBases);
+        Assert.assertEquals(metrics.OFF_BAIT_BASES, expected.offProbeBases);
+        Assert.assertEquals(metrics.ON_TARGET_BASES, expected.onTargetBases);
+        Assert.assertEquals(metrics.MEAN_TARGET_COVERAGE, expected.meanTargetCoverage(), 1e-9);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_2X, expected.basesAtDepth(2) / (double) metrics.TARGET_TERRITORY, 1e-9);
+        Assert.assertEquals(metrics.PCT_TARGET_BASES_10X, expected.basesAtDepth(10) / (double) metrics.TARGET_TERRITORY, 1e-9);
+        Assert.assertEquals(metrics.FOLD_80_BASE_PENALTY, expected.fold80BasePenalty(), 1e-9);
+        Assert.assertEquals(metrics.ZERO_CVG_TARGETS_PCT, expected.zeroCoverageTargetsPct(), 1e-9);
+    }
+
+    /**
+     * The state of the collector of half the reads merged into that of the other half gives the metrics of all of them,
+     * and the state of a collector without reads holds nothing for each target.
+     */
+    @Test
+    public void testStateRoundTrip() throws IOException {
+        final IntervalList targets = makeTargets();
+        final IntervalList probes = makeProbes();
+        final List<SAMRecord> records = makeRecords();
+
+        final HsMetricCollector whole = makeCollector(targets, probes);
+        for (final SAMRecord rec : records) whole.acceptRecord(rec, null);
+
+        final File state = File.createTempFile("TargetMetricsCollectorTest.", ".state");
+        state.deleteOnExit();
+        final HsMetricCollector firstHalf = makeCollector(targets, probes);
+        for (final SAMRecord rec : records.subList(0, records.size() / 2)) firstHalf.acceptRecord(rec, null);
+        firstHalf.writeState(state);
+        final HsMetricCollector secondHalf = makeCollector(targets, probes);
+        for (final SAMRecord rec : records.subList(records.size() / 2, records.size())) secondHalf.acceptRecord(rec, null);
+        secondHalf.mergeState(state);
+        Assert.assertTrue(finish(secondHalf).areMetricsEqual(finish(whole)));
+
+        makeCollector(targets, probes).writeState(state);
+        Assert.assertTrue(state.length() < 200, "State of " + state.length() + " bytes without reads");
+    }
+
+    private HsMetricCollector makeCollector(final IntervalList targets, final IntervalList probes) {
+        return new HsMetricCollector(CollectionUtil.makeSet(MetricAccumulationLevel.ALL_READS),
+                new ArrayList<SAMReadGroupRecord>(), null, null, targets, probes, "probes");
+    }
+
+    private static MetricsFile<HsMetrics, Integer> finish(final HsMetricCollector collector) {
+        collector.finish();
+        final MetricsFile<HsMetrics, Integer> metricsFile = new MetricsFile<HsMetrics, Integer>();
+        collector.addAllLevelsToFile(metricsFile);
+        return metricsFile;
+    }
+
+    private IntervalList makeTargets() {
+        return makeIntervalList(new int[][] {
+                {0, 1000, 1099}, {0, 1110, 1199}, {0, 1300, 1400}, {0, 2050, 2080}, {0, 4000, 4050}, {1, 100, 200}, {1, 2500, 2600}});
+    }
+
+    private IntervalList makeProbes() {
+        return makeIntervalList(new int[][] {
+                {0, 1000, 1200}, {0, 2000, 2100}, {0, 3000, 3100}, {0, 4000, 4100}, {1, 500, 600}, {1, 2400, 2700}});
+    }
+
+    /** Coordinate sorted reads on and around the targets and probes, with an unmapped read at the end. */
+    private List<SAMRecord> makeRecords() {
+        final List<SAMRecord> records = new ArrayList<SAMRecord>();
+        // Reads that end just before the padding of the probe at chr1:2000, at its first base and on its first base,
+        // and that start just after the probe, which is not padded after its end
+        records.add(makeRecord("beforePadding", 0, 1700, "50M"));
+        records.add(makeRecord("atPadding", 0, 1701, "50M"));
+        records.add(makeRecord("onProbeStart", 0, 1951, "50M"));
+        records.add(makeRecord("afterProbe", 0, 2101, "50M"));
+        // Spliced and deleted reads whose blocks span several targets, and the gaps between them
+        records.add(makeRecord("splicedOverTargets", 0, 1050, "30M100N40M150N30M"));
+        records.add(makeRecord("deletionOverGap", 0, 1090, "15M10D20M"));
+        records.add(makeRecord("insertionInTarget", 0, 1290, "5S20M3I20M"));
+        records.add(makeRecord("splicedOverProbes", 0, 3080, "40M880N40M"));
+        // Reads the collector skips at each step of its filtering
+        final SAMRecord secondary = makeRecord("secondary", 0, 1020, "50M");
+        secondary.setNotPrimaryAlignmentFlag(true);
+        records.add(secondary);
+        final SAMRecord pfFail = makeRecord("pfFail", 0, 1020, "50M");
+        pfFail.setReadFailsVendorQualityCheckFlag(true);
+        records.add(pfFail);
+        final SAMRecord duplicate = makeRecord("duplicate", 0, 1020, "50M");
+        duplicate.setDuplicateReadFlag(true);
+        records.add(duplicate);
+        final SAMRecord mapq0 = makeRecord("mapq0", 0, 1020, "50M");
+        mapq0.setMappingQuality(0);
+        records.add(mapq0);
+
+        final Random random = new Random(17);
+        for (int i = 0; i < 2000; ++i) {
+            final int sequenceIndex = random.nextInt(SEQUENCE_LENGTHS.length);
+            final SAMRecord rec = makeRecord("random" + i, sequenceIndex, 1 + random.nextInt(SEQUENCE_LENGTHS[sequenceIndex] - 1500),
+                    makeRandomCigar(random));
+            rec.setReadPairedFlag(random.nextBoolean());
+            if (rec.getReadPairedFlag()) {
+                rec.setFirstOfPairFlag(random.nextBoolean());
+                rec.setSecondOfPairFlag(!rec.getFirstOfPairFlag());
+                rec.setMateUnmappedFlag(random.nextInt(5) == 0);
+            }
+            rec.setDuplicateReadFlag(random.nextInt(10) == 0);
+            if (random.nextInt(20) == 0) rec.setMappingQuality(0);
+            records.add(rec);
+        }
+        Collections.sort(records, new SAMRecordCoordinateComparator());
+        final SAMRecord unmapped = makeRecord("unmapped", 0, 1020, "50M");
+        unmapped.setReadUnmappedFlag(true);
+        unmapped.setReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+        unmapped.setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+        unmapped.setCigarString("*");
+        records.add(unmapped);
+        return records;
+    }
+
+    /** A read that covers a target after a read past the end of it cannot be streamed. */
+    @Test(expectedExceptions = PicardException.class)
+    public void testUnsortedReadsOverFinishedTarget() {
+        final IntervalList targets = makeIntervalList(new int[][] {{0, 1000, 1099}, {0, 2000, 2100}});
+        final HsMetricCollector collector = makeCollector(targets, targets);
+        collector.setCoordinateSortedInput(true);
+        collector.acceptRecord(makeRecord("pastFirstTarget", 0, 2050, "50M"), null);
+        collector.acceptRecord(makeRecord("onFirstTarget", 0, 1050, "50M"), null);
+    }
+
+    /** The prefix sums of Coverage against depths added base by base, including ranges off either end. */
+    @Test
+    public void testCoverageRanges() {
+        final Interval interval = new Interval("chr1", 101, 150);
+        final TargetMetricsCollector.Coverage coverage = new TargetMetricsCollector.Coverage(interval, 0);
+        final int[] expected = new int[interval.length()];
+        final Random random = new Random(5);
+        for (int i = 0; i < 500; ++i) {
+            final int start = random.nextInt(interval.length() + 20) - 10;
+            final int end = start + random.nextInt(30) - 5;
+            if (random.nextBoolean()) {
+                coverage.addRange(start, end);
+                for (int offset = Math.max(start, 0); offset <= Math.min(end, expected.length - 1); ++offset) ++expected[offset];
+            } else {
+                final int count = 1 + random.nextInt(3);
+                coverage.addBases(start, count);
+                if (start >= 0 && start < expected.length) expected[start] += count;
+            }
+        }
+
+        long total = 0;
+        for (final int depth : expected) total += depth;
+        Assert.assertEquals(coverage.getDepths(), expected);
+        Assert.assertEquals(coverage.getTotal(), total);
+        Assert.assertTrue(coverage.hasCoverage());
+
+        final TargetMetricsCollector.Coverage single = new TargetMetricsCollector.Coverage(interval, 0);
+        single.addRange(0, interval.length() - 1);
+        Assert.assertFalse(single.hasCoverage());
+        single.addBase(interval.length() - 1);
+        Assert.assertTrue(single.hasCoverage());
+    }
+
+    /**
+     * Counts what the collector counted before the overlaps were worked out from the ends of the targets and probes:
+     * each overlap found by searching for the whole alignment, and each base of each block checked against it.
+     */
+    static class BaseByBaseCounts {
+        private final List<Interval> targets;
+        private final List<Interval> probes;
+        private final int[][] depths;
+
+        long totalReads, pfReads, pfUniqueReads, pfUqReadsAligned, pfUqBasesAligned, pfSelectedPairs, pfSelectedUniquePairs;
+        long onProbeBases, nearProbeBases, offProbeBases, onTargetBases;
+
+        BaseByBaseCounts(final List<Interval> targets, final List<Interval> probes) {
+            this.targets = targets;
+            this.probes = probes;
+            this.depths = new int[targets.size()][];
+            for (int t = 0; t < targets.size(); ++t) depths[t] = new int[targets.get(t).length()];
+        }
+
+        void accept(final SAMRecord rec) {
+            if (rec.isSecondaryOrSupplementary()) return;
+            ++totalReads;
+            if (rec.getReadFailsVendorQualityCheckFlag()) return;
+
+            final List<Interval> nearProbes = new ArrayList<Interval>();
+            if (!rec.getReadUnmappedFlag()) {
+                for (final Interval probe : probes) {
+                    if (probe.getSequence().equals(rec.getReferenceName()) && probe.getStart() - NEAR_PROBE_DISTANCE <= rec.getAlignmentEnd() &&
+                            probe.getEnd() >= rec.getAlignmentStart()) {
+                        nearProbes.add(probe);
+                    }
+                }
+            }
+
+            ++pfReads;
+            if (rec.getReadPairedFlag() && rec.getFirstOfPairFlag() && !rec.getReadUnmappedFlag() && !rec.getMateUnmappedFlag() &&
+                    !nearProbes.isEmpty()) {
+                ++pfSelectedPairs;
+                if (!rec.getDuplicateReadFlag()) ++pfSelectedUniquePairs;
+            }
+            if (rec.getDuplicateReadFlag()) return;
+            ++pfUniqueReads;
+            if (rec.getReadUnmappedFlag() || rec.getMappingQuality() == 0) return;
+            ++pfUqReadsAligned;
+
+            int mappedBases = 0;
+            int onProbe = 0;
+            for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
+                final int end = CoordMath.getEnd(block.getReferenceStart(), block.getLength());
+                for (int pos = block.getReferenceStart(); pos <= end; ++pos) {
+                    ++mappedBases;
+                    for (int t = 0; t < targets.size(); ++t) {
+                        final Interval target = targets.get(t);
+                        if (target.getSequence().equals(rec.getReferenceName()) && pos >= target.getStart() && pos <= target.getEnd()) {
+                            ++onTargetBases;
+                            ++depths[t][pos - target.getStart()];
+                        }
+                    }
+                    for (final Interval probe : nearProbes) {
+                        if (pos >= probe.getStart() && pos <= probe.getEnd()) ++onProbe;
+                    }
+                }
+            }
+            pfUqBasesAligned += mappedBases;
+            if (nearProbes.isEmpty()) {
+                offProbeBases += mappedBases;
+            } else {
+                onProbeBases += onProbe;
+                nearProbeBases += mappedBases - onProbe;
+            }
+        }
+
+        /** The mean depth over the targets that have a depth over 1 somewhere. */
+        double meanTargetCoverage() {
+            long total = 0;
+            long bases = 0;
+            for (final int[] targetDepths : depths) {
+                if (!isCovered(targetDepths)) continue;
+                for (final int depth : targetDepths) total += depth;
+                bases += targetDepths.length;
+            }
+            return total / (double) bases;
+        }
+
+        long basesAtDepth(final int minDepth) {
+            long bases = 0;
+            for (final int[] targetDepths : depths) {
+                for (final int depth : targetDepths) if (depth >= minDepth) ++bases;
+            }
+            return bases;
+        }
+
+        /**
+         * The mean target coverage over the depth at the 80th percentile, found by sorting the depths of the covered
+         * targets after a zero for each base of the others.
+         */
+        double fold80BasePenalty() {
+            int territory = 0;
+            for (final int[] targetDepths : depths) territory += targetDepths.length;
+            final int[] allDepths = new int[territory];
+            int index = 0;
+            int basesConsidered = 0;
+            for (final int[] targetDepths : depths) {
+                if (!isCovered(targetDepths)) continue;
+                for (final int depth : targetDepths) allDepths[index++] = depth;
+                basesConsidered += targetDepths.length;
+            }
+            Arrays.sort(allDepths);
+            final int indexOf80thPercentile = Math.max((allDepths.length - 1 - basesConsidered) + (int) (basesConsidered * 0.2), 0);
+            return meanTargetCoverage() / allDepths[indexOf80thPercentile];
+        }
+
+        double zeroCoverageTargetsPct() {
+            int zeroCoverageTargets = 0;
+            for (final int[] targetDepths : depths) if (!isCovered(targetDepths)) ++zeroCoverageTargets;
+            return zeroCoverageTargets / (double) depths.length;
+        }
+
+        /** The sum of the depths of the target with the given index. */
+        long totalCoverage(final int target) {
+            long total = 0;
+            for (final int depth : depths[target]) total += depth;
+            return total;
+        }
+
+        /** The AT and GC dropout, given the GC of each target. */
+        double[] dropout(final double[] gcByTarget) {
+            final long[] targetBasesByGc = new long[101];
+            final long[] alignedBasesByGc = new long[101];
+            long totalTarget = 0;
+            long totalBases = 0;
+            for (int t = 0; t < depths.length; ++t) {
+                final int gc = (int) Math.round(gcByTarget[t] * 100);
+                targetBasesByGc[gc] += depths[t].length;
+                alignedBasesByGc[gc] += totalCoverage(t);
+                totalTarget += depths[t].length;
+                totalBases += totalCoverage(t);
+            }
+
+            final double[] dropout = new double[2];
+            for (int gc = 0; gc < targetBasesByGc.length; ++gc) {
+                final double difference = (alignedBasesByGc[gc] / (double) totalBases - targetBasesByGc[gc] / (double) totalTarget) * 100d;
+                if (difference < 0) {
+                    if (gc <= 50) dropout[0] -= difference;
+                    if (gc >= 50) dropout[1] -= difference;
+                }
+            }
+            return dropout;
+        }
+
+        private static boolean isCovered(final int[] targetDepths) {
+            for (final int depth : targetDepths) if (depth > 1) return true;
+            return false;
+        }
+    }
+
+    /** Makes a cigar of several blocks, with insertions, deletions, skips and soft clips between and around them. */
+    private static String makeRandomCigar(final Random random) {
+        final StringBuilder cigar = new StringBuilder();
+        if (random.nextInt(4) == 0) cigar.append(1 + random.nextInt(10)).append('S');
+        final int numBlocks = 1 + random.nextInt(3);
+        for (int block = 0; block < numBlocks; ++block) {
+            if (block > 0) {
+                switch (random.nextInt(3)) {
+                    case 0: cigar.append(1 + random.nextInt(3)).append('I'); break;
+                    case 1: cigar.append(1 + random.nextInt(5)).append('D'); break;
+                    default: cigar.append(50 + random.nextInt(400)).append('N');
+                }
+            }
+            cigar.append(10 + random.nextInt(60)).append('M');
+        }
+        if (random.nextInt(4) == 0) cigar.append(1 + random.nextInt(10)).append('S');
+        return cigar.toString();
+    }
+
+    private SAMRecord makeRecord(final String name, final int sequenceIndex, final int start, final String cigar) {
+        final SAMRecord rec = new SAMRecord(header);
+        rec.setReadName(name);
+        rec.setReferenceIndex(sequenceIndex);
+        rec.setAlignmentStart(start);
+        rec.setCigarString(cigar);
+        rec.setMappingQuality(60);
+        final char[] bases = new char[rec.getCigar().getReadLength()];
+        final char[] quals = new char[bases.length];
+        for (int i = 0; i < bases.length; ++i) {
+            bases[i] = "ACGT".charAt(i % 4);
+            quals[i] = '5';
+        }
+        rec.setReadString(new String(bases));
+        rec.setBaseQualityString(new String(quals));
+        return rec;
+    }
+
+    /** Makes intervals from {sequence index, start, end} triples. */
+    private IntervalList makeIntervalList(final int[][] intervals) {
+        final IntervalList list = new IntervalList(header);
+        for (final int[] interval : intervals) {
+            list.add(new Interval(header.getSequence(interval[0]).getSequenceName(), interval[1], interval[2]));
+        }
+        return list;
+    }
+
+    private static SAMFileHeader makeHeader() {
+        final SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        for (int i = 0; i < SEQUENCE_LENGTHS.length; ++i) {
+            dictionary.addSequence(new SAMSequenceRecord("chr" + (i + 1), SEQUENCE_LENGTHS[i]));
+        }
+        header.setSequenceDictionary(dictionary);
+        return header;
+    }
+}
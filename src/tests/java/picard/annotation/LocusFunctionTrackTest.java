@@ -0,0 +1,95 @@
+package picard.annotation;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that LocusFunctionTrack gives each locus the same function as the transcripts over it do.
+ */
+public class LocusFunctionTrackTest {
+
+    @Test
+    public void testMatchesTranscripts() {
+        final Random random = new Random(1);
+        final List<Gene> genes = new ArrayList<Gene>();
+        for (int i = 0; i < 50; ++i) {
+            genes.add(makeGene(random, i % 2 == 0 ? "chr1" : "chr2", "gene" + i));
+        }
+        final LocusFunctionTrack track = new LocusFunctionTrack(genes);
+
+        for (final String sequence : new String[] {"chr1", "chr2", "chr3"}) {
+            final int start = 1;
+            final int end = 6000;
+            final LocusFunction[] expected = new LocusFunction[end - start + 1];
+            Arrays.fill(expected, LocusFunction.INTERGENIC);
+            for (final Gene gene : genes) {
+                if (!gene.getSequence().equals(sequence)) continue;
+                for (final Gene.Transcript transcript : gene) transcript.assignLocusFunctionForRange(start, expected);
+            }
+
+            // Ranges of every length from every locus would be slow, so check single loci and random ranges
+            for (int position = start; position <= end; ++position) {
+                final long[] counts = new long[LocusFunction.values().length];
+                track.countFunctions(sequence, position, position, counts);
+                Assert.assertEquals(counts[expected[position - start].ordinal()], 1, sequence + ":" + position);
+            }
+            for (int i = 0; i < 1000; ++i) {
+                final int rangeStart = start + random.nextInt(end - start + 1);
+                final int rangeEnd = Math.min(end, rangeStart + random.nextInt(300));
+                final long[] expectedCounts = new long[LocusFunction.values().length];
+                for (int position = rangeStart; position <= rangeEnd; ++position) {
+                    ++expectedCounts[expected[position - start].ordinal()];
+                }
+                final long[] counts = new long[LocusFunction.values().length];
+                track.countFunctions(sequence, rangeStart, rangeEnd, counts);
+                Assert.assertEquals(counts, expectedCounts, sequence + ":" + rangeStart + "-" + rangeEnd);
+            }
+        }
+    }
+
+    /** Makes a gene of one to three overlapping transcripts, some of them non-coding, with sorted exons. */
+    private Gene makeGene(final Random random, final String sequence, final String name) {
+        final int geneStart = 1 + random.nextInt(5000);
+        final int numTranscripts = 1 + random.nextInt(3);
+        final List<int[]> exonsByTranscript = new ArrayList<int[]>();
+        int geneEnd = geneStart;
+        for (int t = 0; t < numTranscripts; ++t) {
+            final int numExons = 1 + random.nextInt(4);
+            final int[] exons = new int[2 * numExons];
+            int position = geneStart + random.nextInt(50);
+            for (int e = 0; e < numExons; ++e) {
+                exons[2 * e] = position;
+                exons[2 * e + 1] = position + 1 + random.nextInt(100);
+                position = exons[2 * e + 1] + 1 + random.nextInt(200);
+            }
+            exonsByTranscript.add(exons);
+            geneEnd = Math.max(geneEnd, exons[exons.length - 1]);
+        }
+
+        final Gene gene = new Gene(sequence, geneStart, geneEnd, random.nextBoolean(), name);
+        for (int t = 0; t < numTranscripts; ++t) {
+            final int[] exons = exonsByTranscript.get(t);
+            final int transcriptionStart = exons[0];
+            final int transcriptionEnd = exons[exons.length - 1];
+            final int codingStart;
+            final int codingEnd;
+            if (random.nextInt(4) == 0) {
+                // Non-coding, as in refFlat files with cdsStart == cdsEnd
+                codingStart = transcriptionEnd + 1;
+                codingEnd = transcriptionEnd;
+            } else {
+                codingStart = transcriptionStart + random.nextInt(transcriptionEnd - transcriptionStart + 1);
+                codingEnd = codingStart + random.nextInt(transcriptionEnd - codingStart + 1);
+            }
+            final Gene.Transcript transcript = gene.addTranscript(name + "." + t, transcriptionStart, transcriptionEnd,
+                    codingStart, codingEnd, exons.length / 2);
+            for (int e = 0; e < exons.length; e += 2) transcript.addExon(exons[e], exons[e + 1]);
+        }
+        return gene;
+    }
+}
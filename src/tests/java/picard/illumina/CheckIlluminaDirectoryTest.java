@@ -16,13 +16,16 @@ import picard.illumina.parser.IlluminaFileUtilTest;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -341,6 +344,45 @@ public class CheckIlluminaDirectoryTest {
         Assert.assertEquals(1, result);
     }
 
+    @Test
+    public void malformedBclHeaderTest() {
+        final int lane = 5;
+        final List<Integer> tiles = makeList(1, 2, 3);
+        final int[] cycles = IlluminaFileUtilTest.cycleRange(1, 10);
+        final IlluminaDataType[] dataTypes = new IlluminaDataType[]{BaseCalls, IlluminaDataType.QualityScores};
+
+        makeFiles(new SupportedIlluminaFormat[]{Bcl}, lane, tiles, cycles);
+        writeTileMetricsOutFile(makeMap(makeList(lane), makeList(tiles)));
+        for (final int cycle : cycles) {
+            for (final int tile : tiles) {
+                writeBcl(new File(basecallDir, "L005/C" + cycle + ".1/s_5_" + tile + ".bcl"), 5, 5);
+            }
+        }
+        // Same size as the others, so only detected by checking the header.
+        writeBcl(new File(basecallDir, "L005/C5.1/s_5_2.bcl"), 6, 5);
+
+        final List<String> args = new ArrayList<String>(Arrays.asList(
+                makeCheckerArgs(basecallDir, lane, "10T", dataTypes, new ArrayList<Integer>(), false, false)));
+        Assert.assertEquals(new CheckIlluminaDirectory().instanceMain(args.toArray(new String[args.size()])), 0);
+
+        args.add("CHECK_FILE_HEADERS=true");
+        args.add("NUM_PROCESSORS=2");
+        // Its length disagrees with its header, and its header disagrees with the other cycles.
+        Assert.assertEquals(new CheckIlluminaDirectory().instanceMain(args.toArray(new String[args.size()])), 2);
+    }
+
+    private void writeBcl(final File file, final int numClustersInHeader, final int numClusters) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + numClusters).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(numClustersInHeader);
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(buffer.array());
+            out.close();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Test(expectedExceptions = SAMException.class)
     public void basedirDoesntExistTest() {
         final String[] args = makeCheckerArgs(new File("a_made_up_file/in_some_weird_location"), 1, "76T76T",
@@ -30,13 +30,18 @@ import htsjdk.samtools.util.StringUtil;
 import htsjdk.samtools.util.TestUtil;
 import org.testng.annotations.Test;
 import picard.illumina.parser.ReadStructure;
+import picard.util.ParallelBlockCompressedOutputStreamTest;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public class IlluminaBasecallsToFastqTest {
 
@@ -67,6 +72,42 @@ public class IlluminaBasecallsToFastqTest {
         IOUtil.assertFilesEqual(outputFastq2, new File(TEST_DATA_DIR, "nonBarcoded.2.fastq"));
     }
 
+    /** Compressed FASTQs are written in full BGZF blocks, however often the FASTQ writer flushes. */
+    @Test
+    public void testNonBarcodedCompressed() throws Exception {
+        final File outputDir = File.createTempFile("nonBarcodedCompressed.", ".dir");
+        try {
+            outputDir.delete();
+            outputDir.mkdir();
+            final File outputPrefix = new File(outputDir, "nonBarcoded");
+            new IlluminaBasecallsToFastq().instanceMain(new String[]{
+                    "BASECALLS_DIR=" + BASECALLS_DIR,
+                    "LANE=1",
+                    "READ_STRUCTURE=25T8B25T",
+                    "OUTPUT_PREFIX=" + outputPrefix,
+                    "RUN_BARCODE=HiMom",
+                    "MACHINE_NAME=machine1",
+                    "FLOWCELL_BARCODE=abcdeACXX",
+                    "COMPRESS_OUTPUTS=true",
+                    "COMPRESSION_THREADS=2"
+            });
+            for (final String end : new String[]{"1", "2"}) {
+                final File outputFastq = new File(outputDir, "nonBarcoded." + end + ".fastq.gz");
+                final File expectedFastq = new File(TEST_DATA_DIR, "nonBarcoded." + end + ".fastq");
+                final File uncompressedFastq = new File(outputDir, "nonBarcoded." + end + ".fastq");
+                final InputStream in = new GZIPInputStream(new FileInputStream(outputFastq));
+                final OutputStream out = new FileOutputStream(uncompressedFastq);
+                IOUtil.copyStream(in, out);
+                in.close();
+                out.close();
+                IOUtil.assertFilesEqual(uncompressedFastq, expectedFastq);
+                ParallelBlockCompressedOutputStreamTest.assertFullBlocks(outputFastq, expectedFastq.length());
+            }
+        } finally {
+            TestUtil.recursiveDelete(outputDir);
+        }
+    }
+
     @Test
     public void testMultiplexWithIlluminaReadNameHeaders() throws Exception {
         final File outputDir = File.createTempFile("testMultiplexRH.", ".dir");
@@ -29,13 +29,20 @@ import htsjdk.samtools.util.LineReader;
 import htsjdk.samtools.util.StringUtil;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import picard.PicardException;
+import picard.illumina.parser.ReadStructure;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Run IlluminaBasecallsToSam in various barcode & non-barcode modes
@@ -56,6 +63,19 @@ public class IlluminaBasecallsToSamTest {
     }
 
 
+    @Test
+    public void testOrderTilesForReading() {
+        final List<Integer> tiles = Arrays.asList(1101, 1102, 1103, 1104, 1105);
+        final Map<Integer, Long> clusterCounts = new HashMap<Integer, Long>();
+        clusterCounts.put(1101, 10L);
+        clusterCounts.put(1102, 30L);
+        clusterCounts.put(1103, 10L);
+        clusterCounts.put(1105, 50L);
+        Assert.assertEquals(IlluminaBasecallsConverter.orderTilesForReading(tiles, clusterCounts, 3),
+                Arrays.asList(1102, 1101, 1103, 1105, 1104));
+        Assert.assertEquals(IlluminaBasecallsConverter.orderTilesForReading(tiles, new HashMap<Integer, Long>(), 3), tiles);
+    }
+
     @Test
     public void testNonBarcoded() throws Exception {
         final File outputBam = File.createTempFile("nonBarcoded.", ".sam");
@@ -73,6 +93,182 @@ public class IlluminaBasecallsToSamTest {
         IOUtil.assertFilesEqual(outputBam, new File(TEST_DATA_DIR, "nonBarcoded.sam"));
     }
 
+    @Test
+    public void testNonBarcodedWithCheckpoint() throws Exception {
+        final File outputBam = File.createTempFile("nonBarcodedCheckpoint.", ".sam");
+        outputBam.deleteOnExit();
+        final File checkpointDir = File.createTempFile("checkpoint.", ".dir");
+        Assert.assertTrue(checkpointDir.delete());
+        try {
+            new IlluminaBasecallsToSam().instanceMain(new String[]{
+                    "BASECALLS_DIR=" + BASECALLS_DIR,
+                    "LANE=1",
+                    "READ_STRUCTURE=25S8S25T",
+                    "OUTPUT=" + outputBam,
+                    "RUN_BARCODE=HiMom",
+                    "SAMPLE_ALIAS=HiDad",
+                    "LIBRARY_NAME=Hello, World",
+                    "CHECKPOINT_DIR=" + checkpointDir
+            });
+            IOUtil.assertFilesEqual(outputBam, new File(TEST_DATA_DIR, "nonBarcoded.sam"));
+            // Every tile was written from its checkpoint, which was then deleted.
+            Assert.assertEquals(checkpointDir.list().length, 0);
+        } finally {
+            IOUtil.deleteDirectoryTree(checkpointDir);
+        }
+    }
+
+    /**
+     * Kills a run with a corrupt last tile, and then resumes it with a corrupt first tile instead, which can only
+     * succeed if the first tile comes from the checkpoint saved by the killed run.  The output must be the same as that
+     * of a run from scratch.
+     */
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        final File runDir = IOUtil.createTempDir("resumeFromCheckpoint.", ".dir");
+        try {
+            final File basecallsDir = new File(runDir, "Data/Intensities/BaseCalls");
+            final File checkpointDir = new File(runDir, "checkpoints");
+            final File outputBam = new File(runDir, "nonBarcoded.sam");
+            failRunAtLastTile(basecallsDir, outputBam, checkpointDir);
+
+            final File[] bcls = corruptBcl(basecallsDir, 1101);
+            IOUtil.copyFile(bcls[1], bcls[0]);
+            new IlluminaBasecallsToSam().instanceMain(makeCheckpointedRunArgs(basecallsDir, outputBam, checkpointDir, "HiMom"));
+            IOUtil.assertFilesEqual(outputBam, new File(TEST_DATA_DIR, "nonBarcoded.sam"));
+            Assert.assertEquals(checkpointDir.list().length, 0);
+        } finally {
+            IOUtil.deleteDirectoryTree(runDir);
+        }
+    }
+
+    /** Confirms that a run with a different RUN_BARCODE, and so different read names, does not use the checkpoints. */
+    @Test(expectedExceptions = PicardException.class)
+    public void testCheckpointOfDifferentSettings() throws Exception {
+        final File runDir = IOUtil.createTempDir("checkpointOfDifferentSettings.", ".dir");
+        try {
+            final File basecallsDir = new File(runDir, "Data/Intensities/BaseCalls");
+            final File checkpointDir = new File(runDir, "checkpoints");
+            final File outputBam = new File(runDir, "nonBarcoded.sam");
+            failRunAtLastTile(basecallsDir, outputBam, checkpointDir);
+
+            new IlluminaBasecallsToSam().instanceMain(makeCheckpointedRunArgs(basecallsDir, outputBam, checkpointDir, "HiDad"));
+        } finally {
+            IOUtil.deleteDirectoryTree(runDir);
+        }
+    }
+
+    /**
+     * Copies the test run to basecallsDir, and converts it on one thread with a corrupt bcl in the last tile, which
+     * kills the run once the tiles before it have been read and checkpointed.  Then puts the good bcl back.
+     */
+    private void failRunAtLastTile(final File basecallsDir, final File outputBam, final File checkpointDir) throws Exception {
+        Assert.assertTrue(basecallsDir.getParentFile().mkdirs());
+        IOUtil.copyDirectoryTree(BASECALLS_DIR.getParentFile(), basecallsDir.getParentFile());
+        final File[] bcls = corruptBcl(basecallsDir, 2101);
+        try {
+            new IlluminaBasecallsToSam().instanceMain(makeCheckpointedRunArgs(basecallsDir, outputBam, checkpointDir, "HiMom"));
+            Assert.fail("Run with a corrupt tile did not fail");
+        } catch (final PicardException e) {
+            // expected
+        }
+        Assert.assertTrue(new File(checkpointDir, "tile_1101.manifest").exists());
+        Assert.assertTrue(new File(checkpointDir, "tile_1201.manifest").exists());
+        Assert.assertFalse(new File(checkpointDir, "tile_2101.manifest").exists());
+        IOUtil.copyFile(bcls[1], bcls[0]);
+    }
+
+    /**
+     * Replaces the bcl of a template cycle of the tile with one that is too short for its cluster count.
+     *
+     * @return The bcl, and a copy of it as it was
+     */
+    private File[] corruptBcl(final File basecallsDir, final int tile) throws Exception {
+        final File bcl = new File(basecallsDir, "L001/C40.1/s_1_" + tile + ".bcl");
+        final File original = new File(basecallsDir.getParentFile(), bcl.getName() + ".orig");
+        IOUtil.copyFile(bcl, original);
+        final FileInputStream in = new FileInputStream(original);
+        final byte[] truncated = new byte[14];
+        Assert.assertEquals(in.read(truncated), truncated.length);
+        in.close();
+        final FileOutputStream out = new FileOutputStream(bcl);
+        out.write(truncated);
+        out.close();
+        return new File[]{bcl, original};
+    }
+
+    private String[] makeCheckpointedRunArgs(final File basecallsDir, final File outputBam, final File checkpointDir,
+                                             final String runBarcode) {
+        return new String[]{
+                "BASECALLS_DIR=" + basecallsDir,
+                "LANE=1",
+                "READ_STRUCTURE=25S8S25T",
+                "OUTPUT=" + outputBam,
+                "RUN_BARCODE=" + runBarcode,
+                "SAMPLE_ALIAS=HiDad",
+                "LIBRARY_NAME=Hello, World",
+                "NUM_PROCESSORS=1",
+                "CHECKPOINT_DIR=" + checkpointDir
+        };
+    }
+
+    @Test
+    public void testAwaitCompleteBasecallsBlocksOnMissingCycle() throws Exception {
+        final File runDir = IOUtil.createTempDir("awaitBasecalls.", ".dir");
+        try {
+            final File dataDir = new File(runDir, "Data");
+            IOUtil.copyDirectoryTree(BASECALLS_DIR.getParentFile().getParentFile(), dataDir);
+            final File interopDir = new File(runDir, "InterOp");
+            Assert.assertTrue(interopDir.mkdir());
+            writeTileMetricsOut(new File(interopDir, "TileMetricsOut.bin"), 1, 1101, 1201, 2101);
+
+            final File basecallsDir = new File(dataDir, "Intensities/BaseCalls");
+            final File cycleDir = new File(basecallsDir, "L001/C30.1");
+            final File movedCycleDir = new File(runDir, "C30.1");
+            Assert.assertTrue(cycleDir.renameTo(movedCycleDir));
+
+            final Throwable[] failure = new Throwable[1];
+            final Thread waiter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        IlluminaBasecallsConverter.awaitCompleteBasecalls(basecallsDir, basecallsDir, 1,
+                                new ReadStructure("25T8B25T"), true, 50, 60000);
+                    } catch (final Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            waiter.start();
+
+            Thread.sleep(500);
+            Assert.assertTrue(waiter.isAlive(), "Stopped waiting while a cycle was missing");
+
+            Assert.assertTrue(movedCycleDir.renameTo(cycleDir));
+            waiter.join(30000);
+            Assert.assertFalse(waiter.isAlive(), "Still waiting once every cycle was present");
+            Assert.assertNull(failure[0]);
+        } finally {
+            IOUtil.deleteDirectoryTree(runDir);
+        }
+    }
+
+    /** Writes a version 2 TileMetricsOut.bin with one metric for each of the given tiles of lane. */
+    private static void writeTileMetricsOut(final File tileMetricsOut, final int lane, final int... tiles) throws Exception {
+        final ByteBuffer buf = ByteBuffer.allocate(2 + 10 * tiles.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) 2);
+        buf.put((byte) 10);
+        for (final int tile : tiles) {
+            buf.putShort((short) lane);
+            buf.putShort((short) tile);
+            buf.putShort((short) 0);
+            buf.putFloat(0F);
+        }
+        final FileOutputStream out = new FileOutputStream(tileMetricsOut);
+        out.write(buf.array());
+        out.close();
+    }
+
     @Test
     public void testMultiplexed() throws Exception {
         runStandardTest(1, "multiplexedBarcode.", "barcode.params", 1, "25T8B25T", BASECALLS_DIR, TEST_DATA_DIR);
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.illumina;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.metrics.MetricBase;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picard.util.IlluminaUtil.IlluminaAdapterPair;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.Random;
+
+public class MarkIlluminaAdaptersTest {
+    private static final int READ_LENGTH = 76;
+
+    /**
+     * Marks enough reads for several batches on one thread and on several, and confirms that the records and the
+     * histogram of clipped bases are the same.  Adapter pruning depends on which reads have been marked when the
+     * threshold is reached, which differs from run to run on several threads, so it is turned off.
+     */
+    @Test
+    public void testMultiThreadedMatchesSingleThreaded() throws Exception {
+        final File input = File.createTempFile("MarkIlluminaAdaptersTest.", ".sam");
+        input.deleteOnExit();
+        writeReads(input, 25000);
+
+        final File singleThreadedSam = File.createTempFile("MarkIlluminaAdaptersTest.single.", ".sam");
+        singleThreadedSam.deleteOnExit();
+        final File singleThreadedMetrics = File.createTempFile("MarkIlluminaAdaptersTest.single.", ".metrics");
+        singleThreadedMetrics.deleteOnExit();
+        runMarkIlluminaAdapters(input, singleThreadedSam, singleThreadedMetrics, 1);
+
+        final File multiThreadedSam = File.createTempFile("MarkIlluminaAdaptersTest.multi.", ".sam");
+        multiThreadedSam.deleteOnExit();
+        final File multiThreadedMetrics = File.createTempFile("MarkIlluminaAdaptersTest.multi.", ".metrics");
+        multiThreadedMetrics.deleteOnExit();
+        runMarkIlluminaAdapters(input, multiThreadedSam, multiThreadedMetrics, 4);
+
+        IOUtil.assertFilesEqual(multiThreadedSam, singleThreadedSam);
+
+        final Histogram<Integer> singleThreadedHisto = readHistogram(singleThreadedMetrics);
+        final Histogram<Integer> multiThreadedHisto = readHistogram(multiThreadedMetrics);
+        Assert.assertFalse(singleThreadedHisto.isEmpty());
+        Assert.assertEquals(multiThreadedHisto.keySet(), singleThreadedHisto.keySet());
+        for (final Histogram<Integer>.Bin bin : singleThreadedHisto.values()) {
+            Assert.assertEquals(multiThreadedHisto.get(bin.getId()).getValue(), bin.getValue(), "clipped bases " + bin.getId());
+        }
+    }
+
+    private void runMarkIlluminaAdapters(final File input, final File output, final File metrics, final int numProcessors) {
+        Assert.assertEquals(new MarkIlluminaAdapters().instanceMain(new String[]{
+                "INPUT=" + input,
+                "OUTPUT=" + output,
+                "METRICS=" + metrics,
+                "PRUNE_ADAPTER_LIST_AFTER_THIS_MANY_ADAPTERS_SEEN=-1",
+                "NUM_PROCESSORS=" + numProcessors
+        }), 0);
+    }
+
+    private Histogram<Integer> readHistogram(final File metrics) throws Exception {
+        final MetricsFile<MetricBase, Integer> metricsFile = new MetricsFile<MetricBase, Integer>();
+        metricsFile.read(new FileReader(metrics));
+        return metricsFile.getHistogram();
+    }
+
+    /**
+     * Writes numReads units in query name order, most of them pairs and the rest single reads.  Half the units have
+     * INDEXED adapter from a random position, as if their insert were shorter than the read.
+     */
+    private void writeReads(final File file, final int numReads) {
+        final Random random = new Random(42);
+        final SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.queryname);
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, true, file);
+        for (int i = 0; i < numReads; ++i) {
+            final String name = String.format("read%06d", i);
+            final int adapterPosition = random.nextBoolean() ? random.nextInt(READ_LENGTH) : READ_LENGTH;
+            if (i % 10 == 0) {
+                writer.addAlignment(makeRead(header, name, random, adapterPosition,
+                        IlluminaAdapterPair.INDEXED.get3PrimeAdapterInReadOrder()));
+            } else {
+                final SAMRecord first = makeRead(header, name, random, adapterPosition,
+                        IlluminaAdapterPair.INDEXED.get3PrimeAdapterInReadOrder());
+                first.setReadPairedFlag(true);
+                first.setMateUnmappedFlag(true);
+                first.setFirstOfPairFlag(true);
+                final SAMRecord second = makeRead(header, name, random, adapterPosition,
+                        IlluminaAdapterPair.INDEXED.get5PrimeAdapterInReadOrder());
+                second.setReadPairedFlag(true);
+                second.setMateUnmappedFlag(true);
+                second.setSecondOfPairFlag(true);
+                writer.addAlignment(first);
+                writer.addAlignment(second);
+            }
+        }
+        writer.close();
+    }
+
+    /** An unmapped read of random bases, with adapter from adapterPosition to the end of the read. */
+    private SAMRecord makeRead(final SAMFileHeader header, final String name, final Random random,
+                               final int adapterPosition, final String adapter) {
+        final char[] bases = new char[READ_LENGTH];
+        final char[] quals = new char[READ_LENGTH];
+        for (int i = 0; i < READ_LENGTH; ++i) {
+            bases[i] = i < adapterPosition || i - adapterPosition >= adapter.length() ?
+                    "ACGT".charAt(random.nextInt(4)) : adapter.charAt(i - adapterPosition);
+            quals[i] = '5';
+        }
+        final SAMRecord rec = new SAMRecord(header);
+        rec.setReadName(name);
+        rec.setReadString(new String(bases));
+        rec.setBaseQualityString(new String(quals));
+        rec.setReadUnmappedFlag(true);
+        return rec;
+    }
+}
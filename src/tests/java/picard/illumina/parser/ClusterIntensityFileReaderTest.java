@@ -0,0 +1,77 @@
+package picard.illumina.parser;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+public class ClusterIntensityFileReaderTest {
+    private static final int FIRST_CYCLE = 3;
+    private static final int NUM_CYCLES = 2;
+    private static final int NUM_CLUSTERS = 5;
+
+    @DataProvider(name = "elementSizes")
+    public Object[][] elementSizes() {
+        return new Object[][]{{1}, {2}};
+    }
+
+    @Test(dataProvider = "elementSizes")
+    public void testBulkValuesMatchSingleValues(final int elementSize) throws IOException {
+        final File file = writeCif(elementSize);
+        final ClusterIntensityFileReader reader = new ClusterIntensityFileReader(file);
+        Assert.assertEquals(ClusterIntensityFileReader.getFileSize(ClusterIntensityFileReader.readHeaders(file)), file.length());
+        for (int cycle = FIRST_CYCLE; cycle < FIRST_CYCLE + NUM_CYCLES; ++cycle) {
+            final ShortBuffer[] block = reader.getValues(cycle, 1, NUM_CLUSTERS - 2);
+            for (final IntensityChannel channel : IntensityChannel.values()) {
+                final ShortBuffer values = block[channel.ordinal()];
+                Assert.assertEquals(values.remaining(), NUM_CLUSTERS - 2);
+                for (int i = 0; i < values.remaining(); ++i) {
+                    Assert.assertEquals(values.get(i), reader.getValue(i + 1, channel, cycle));
+                    Assert.assertEquals(values.get(i), expectedValue(cycle, channel, i + 1));
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testClustersOutOfRange() throws IOException {
+        new ClusterIntensityFileReader(writeCif(2)).getValues(FIRST_CYCLE, IntensityChannel.A, 1, NUM_CLUSTERS);
+    }
+
+    /** Negative for odd clusters, to check that values are signed. */
+    private static short expectedValue(final int cycle, final IntensityChannel channel, final int cluster) {
+        final int value = cycle * 20 + channel.ordinal() * 5 + cluster;
+        return (short) (cluster % 2 == 0 ? value : -value);
+    }
+
+    private static File writeCif(final int elementSize) throws IOException {
+        final File file = File.createTempFile("ClusterIntensityFileReaderTest.", ".cif");
+        file.deleteOnExit();
+        final ByteBuffer buffer = ByteBuffer.allocate(13 + NUM_CYCLES * IntensityChannel.NUM_CHANNELS * NUM_CLUSTERS * elementSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("CIF".getBytes());
+        buffer.put((byte) 1);
+        buffer.put((byte) elementSize);
+        buffer.putShort((short) FIRST_CYCLE);
+        buffer.putShort((short) NUM_CYCLES);
+        buffer.putInt(NUM_CLUSTERS);
+        for (int cycle = FIRST_CYCLE; cycle < FIRST_CYCLE + NUM_CYCLES; ++cycle) {
+            for (final IntensityChannel channel : IntensityChannel.values()) {
+                for (int cluster = 0; cluster < NUM_CLUSTERS; ++cluster) {
+                    if (elementSize == 1) buffer.put((byte) expectedValue(cycle, channel, cluster));
+                    else buffer.putShort(expectedValue(cycle, channel, cluster));
+                }
+            }
+        }
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(buffer.array());
+        out.close();
+        return file;
+    }
+}
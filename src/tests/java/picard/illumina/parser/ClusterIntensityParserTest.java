@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.illumina.parser;
+
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.PicardException;
+import picard.illumina.parser.IlluminaFileUtil.SupportedIlluminaFormat;
+import picard.illumina.parser.fakers.ClusterIntensityFileFaker;
+import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+
+import static htsjdk.samtools.util.CollectionUtil.makeList;
+
+public class ClusterIntensityParserTest {
+    private static final int LANE = 3;
+    private static final List<Integer> TILES = makeList(1101, 1102);
+    private static final int[] CYCLES = {1, 2, 3, 4, 5, 6};
+    private static final int NUM_CLUSTERS = 5;
+    // Cycle 3 is skipped, so the reads are cycles 1-2 and 4-6
+    private static final String READ_STRUCTURE = "2T1S3T";
+    private static final int[][] READ_CYCLES = {{1, 2}, {4, 5, 6}};
+
+    private File intensityDir;
+    private File basecallDir;
+    private File intensityLaneDir;
+
+    @BeforeMethod
+    private void setUp() throws Exception {
+        intensityDir = IOUtil.createTempDir("cip_test", "Intensities");
+        basecallDir = new File(intensityDir, "BaseCalls");
+        if (!basecallDir.mkdir()) {
+            throw new RuntimeException("Couldn't make basecalls dir " + basecallDir.getAbsolutePath());
+        }
+        intensityLaneDir = new File(intensityDir, IlluminaFileUtil.longLaneStr(LANE));
+    }
+
+    @AfterMethod
+    private void tearDown() {
+        IOUtil.deleteDirectoryTree(intensityDir);
+    }
+
+    @DataProvider(name = "intensityFormats")
+    public Object[][] intensityFormats() {
+        return new Object[][]{
+                {SupportedIlluminaFormat.Cif, IlluminaDataType.RawIntensities},
+                {SupportedIlluminaFormat.Cnf, IlluminaDataType.Noise}
+        };
+    }
+
+    /** The factory reads each data type from its own format, and the values of every cycle but the skipped one. */
+    @Test(dataProvider = "intensityFormats")
+    public void testValuesOfEachCycle(final SupportedIlluminaFormat format, final IlluminaDataType dataType) throws IOException {
+        for (final int tile : TILES) {
+            for (final int cycle : CYCLES) {
+                writeIntensityFile(cycleFile(format, cycle, tile), tile, cycle, NUM_CLUSTERS);
+            }
+        }
+
+        final IlluminaDataProviderFactory factory = makeFactory(dataType);
+        Assert.assertEquals(factory.formatToDataTypes.keySet(), Collections.singleton(format));
+        Assert.assertEquals(factory.getAvailableTiles(), TILES);
+
+        final IlluminaDataProvider provider = factory.makeDataProvider();
+        for (final int tile : TILES) {
+            for (int cluster = 0; cluster < NUM_CLUSTERS; ++cluster) {
+                Assert.assertTrue(provider.hasNext());
+                final ClusterData data = provider.next();
+                Assert.assertEquals(data.getNumReads(), READ_CYCLES.length);
+                for (int read = 0; read < READ_CYCLES.length; ++read) {
+                    final FourChannelIntensityData values = dataType == IlluminaDataType.RawIntensities ?
+                            data.getRead(read).getRawIntensities() : data.getRead(read).getNoise();
+                    for (final IntensityChannel channel : IntensityChannel.values()) {
+                        final short[] channelValues = values.getChannel(channel);
+                        Assert.assertEquals(channelValues.length, READ_CYCLES[read].length);
+                        for (int i = 0; i < channelValues.length; ++i) {
+                            Assert.assertEquals(channelValues[i], expectedValue(tile, READ_CYCLES[read][i], channel, cluster));
+                        }
+                    }
+                }
+            }
+        }
+        Assert.assertFalse(provider.hasNext());
+        provider.close();
+    }
+
+    /**
+     * Fills in the cycles missing from a tile with ClusterIntensityFileFaker, which must take the cluster count from
+     * the CIF or CNF header of a cycle that is there.  The faked files pass verification and are read as zeros.
+     */
+    @Test(dataProvider = "intensityFormats")
+    public void testFakedFiles(final SupportedIlluminaFormat format, final IlluminaDataType dataType) throws IOException {
+        for (final int tile : TILES) {
+            writeIntensityFile(cycleFile(format, 1, tile), tile, 1, NUM_CLUSTERS);
+        }
+        new IlluminaFileUtil(basecallDir, LANE).getUtil(format).fakeFiles(TILES, CYCLES, format);
+
+        final PerTilePerCycleFileUtil util = (PerTilePerCycleFileUtil) new IlluminaFileUtil(basecallDir, LANE).getUtil(format);
+        Assert.assertEquals(util.getDetectedCycles().size(), CYCLES.length);
+        Assert.assertTrue(util.verify(TILES, CYCLES).isEmpty(), util.verify(TILES, CYCLES).toString());
+        for (final int tile : TILES) {
+            Assert.assertTrue(util.verifyHeaders(tile, CYCLES).isEmpty(), util.verifyHeaders(tile, CYCLES).toString());
+            Assert.assertEquals(ClusterIntensityFileReader.readHeaders(cycleFile(format, 6, tile)).numClusters, NUM_CLUSTERS);
+        }
+
+        final IlluminaDataProvider provider = makeFactory(dataType).makeDataProvider();
+        for (final int tile : TILES) {
+            for (int cluster = 0; cluster < NUM_CLUSTERS; ++cluster) {
+                final ClusterData data = provider.next();
+                final FourChannelIntensityData values = dataType == IlluminaDataType.RawIntensities ?
+                        data.getRead(0).getRawIntensities() : data.getRead(0).getNoise();
+                Assert.assertEquals(values.getA()[0], expectedValue(tile, 1, IntensityChannel.A, cluster));
+                Assert.assertEquals(values.getA()[1], 0);
+            }
+        }
+        Assert.assertFalse(provider.hasNext());
+        provider.close();
+    }
+
+    /** A cycle with a different cluster count from the others, or a truncated file, fails the header check. */
+    @Test(dataProvider = "intensityFormats")
+    public void testVerifyHeadersReportsMismatches(final SupportedIlluminaFormat format, final IlluminaDataType dataType) throws IOException {
+        final ClusterIntensityFileFaker faker = new ClusterIntensityFileFaker();
+        for (final int tile : TILES) {
+            for (final int cycle : CYCLES) {
+                final File file = cycleFile(format, cycle, tile);
+                mkdirs(file.getParentFile());
+                faker.fakeFile(file, tile == 1101 && cycle == 6 ? NUM_CLUSTERS + 1 : NUM_CLUSTERS);
+            }
+        }
+        final RandomAccessFile truncated = new RandomAccessFile(cycleFile(format, 3, 1102), "rw");
+        truncated.setLength(truncated.length() - 2);
+        truncated.close();
+
+        final PerTilePerCycleFileUtil util = (PerTilePerCycleFileUtil) new IlluminaFileUtil(basecallDir, LANE).getUtil(format);
+        final List<String> countFailures = util.verifyHeaders(1101, CYCLES);
+        Assert.assertEquals(countFailures.size(), 1, countFailures.toString());
+        Assert.assertTrue(countFailures.get(0).contains((NUM_CLUSTERS + 1) + " clusters but"), countFailures.get(0));
+
+        final List<String> lengthFailures = util.verifyHeaders(1102, CYCLES);
+        Assert.assertEquals(lengthFailures.size(), 1, lengthFailures.toString());
+        Assert.assertTrue(lengthFailures.get(0).contains("its length is"), lengthFailures.get(0));
+    }
+
+    /** The parser will not read a tile whose cycles have different cluster counts. */
+    @Test(dataProvider = "intensityFormats", expectedExceptions = PicardException.class)
+    public void testMismatchedClusterCounts(final SupportedIlluminaFormat format, final IlluminaDataType dataType) throws IOException {
+        for (final int tile : TILES) {
+            for (final int cycle : CYCLES) {
+                writeIntensityFile(cycleFile(format, cycle, tile), tile, cycle, cycle == 5 ? NUM_CLUSTERS - 1 : NUM_CLUSTERS);
+            }
+        }
+        makeFactory(dataType).makeDataProvider();
+    }
+
+    private IlluminaDataProviderFactory makeFactory(final IlluminaDataType dataType) {
+        return new IlluminaDataProviderFactory(basecallDir, LANE, new ReadStructure(READ_STRUCTURE),
+                new BclQualityEvaluationStrategy(BclQualityEvaluationStrategy.ILLUMINA_ALLEGED_MINIMUM_QUALITY), dataType);
+    }
+
+    private File cycleFile(final SupportedIlluminaFormat format, final int cycle, final int tile) {
+        final String extension = format == SupportedIlluminaFormat.Cif ? ".cif" : ".cnf";
+        return new File(new File(intensityLaneDir, "C" + cycle + ".1"), "s_" + LANE + "_" + tile + extension);
+    }
+
+    private static File mkdirs(final File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Couldn't create directory " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /** Negative for odd clusters, to check that values are signed. */
+    private static short expectedValue(final int tile, final int cycle, final IntensityChannel channel, final int cluster) {
+        final int value = cycle * 1000 + channel.ordinal() * 100 + cluster * 10 + tile % 10;
+        return (short) (cluster % 2 == 0 ? value : -value);
+    }
+
+    /** Writes a single-cycle file of two-byte values, in the layout that both CIF and CNF files use. */
+    private static void writeIntensityFile(final File file, final int tile, final int cycle, final int numClusters) throws IOException {
+        mkdirs(file.getParentFile());
+        final ByteBuffer buffer = ByteBuffer.allocate(13 + IntensityChannel.NUM_CHANNELS * numClusters * 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("CIF".getBytes());
+        buffer.put((byte) 1);
+        buffer.put((byte) 2);
+        buffer.putShort((short) cycle);
+        buffer.putShort((short) 1);
+        buffer.putInt(numClusters);
+        for (final IntensityChannel channel : IntensityChannel.values()) {
+            for (int cluster = 0; cluster < numClusters; ++cluster) {
+                buffer.putShort(expectedValue(tile, cycle, channel, cluster));
+            }
+        }
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(buffer.array());
+        out.close();
+    }
+}
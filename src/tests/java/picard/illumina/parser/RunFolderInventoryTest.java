@@ -0,0 +1,77 @@
+package picard.illumina.parser;
+
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+public class RunFolderInventoryTest {
+    private static final Pattern BCL_PATTERN = Pattern.compile("^s_1_(\\d{1,5}).bcl$");
+
+    private File dir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        dir = File.createTempFile("RunFolderInventoryTest.", ".dir");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(dir);
+    }
+
+    @Test
+    public void testListingIsSortedAndFiltered() throws IOException {
+        writeFile("s_1_2.bcl", 10);
+        writeFile("s_1_11.bcl", 10);
+        writeFile("s_1_1.bcl", 0);
+        writeFile("s_2_1.bcl", 10);
+
+        final RunFolderInventory inventory = new RunFolderInventory();
+        final File[] matching = inventory.getFilesMatchingRegexp(dir, BCL_PATTERN);
+        Assert.assertEquals(matching, new File[]{new File(dir, "s_1_1.bcl"), new File(dir, "s_1_11.bcl"), new File(dir, "s_1_2.bcl")});
+        final File[] nonEmpty = inventory.getNonEmptyFilesMatchingRegexp(dir, BCL_PATTERN);
+        Assert.assertEquals(nonEmpty, new File[]{new File(dir, "s_1_11.bcl"), new File(dir, "s_1_2.bcl")});
+        Assert.assertTrue(inventory.exists(new File(dir, "s_2_1.bcl")));
+        Assert.assertFalse(inventory.exists(new File(dir, "s_2_2.bcl")));
+    }
+
+    @Test
+    public void testMissingDirectory() {
+        final RunFolderInventory inventory = new RunFolderInventory();
+        final File missing = new File(dir, "L001");
+        Assert.assertNull(inventory.getFilesMatchingRegexp(missing, BCL_PATTERN));
+        Assert.assertEquals(inventory.getNonEmptyFilesMatchingRegexp(missing, BCL_PATTERN).length, 0);
+        Assert.assertFalse(inventory.exists(new File(missing, "s_1_1.bcl")));
+    }
+
+    @Test
+    public void testInventoryIsASnapshot() throws IOException {
+        final File file = writeFile("s_1_1.bcl", 10);
+        final RunFolderInventory inventory = new RunFolderInventory();
+        Assert.assertEquals(inventory.getFilesMatchingRegexp(dir, BCL_PATTERN).length, 1);
+        Assert.assertEquals(inventory.length(file), 10);
+
+        writeFile("s_1_2.bcl", 10);
+        writeFile("s_1_1.bcl", 20);
+        Assert.assertEquals(inventory.getFilesMatchingRegexp(dir, BCL_PATTERN).length, 1);
+        Assert.assertEquals(inventory.length(file), 10);
+        Assert.assertEquals(new RunFolderInventory().getFilesMatchingRegexp(dir, BCL_PATTERN).length, 2);
+    }
+
+    private File writeFile(final String name, final int length) throws IOException {
+        final File file = new File(dir, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[length]);
+        out.close();
+        return file;
+    }
+}
@@ -7,6 +7,7 @@ import org.testng.annotations.Test;
 import picard.PicardException;
 
 import java.io.File;
+import java.util.BitSet;
 import java.util.NoSuchElementException;
 
 public class FilterFileReaderTest {
@@ -32,6 +33,25 @@ public class FilterFileReaderTest {
         Assert.assertEquals(false, reader.hasNext());
     }
 
+    @Test
+    public void readValidFileInBulk() {
+        final FilterFileReader reader = new FilterFileReader(PASSING_FILTER_FILE);
+        final int numToSkip = 5;
+        reader.skipRecords(numToSkip);
+        final BitSet pfs = reader.readPfs(expectedPfs.length - numToSkip);
+        for(int i = numToSkip; i < expectedPfs.length; i++) {
+            Assert.assertEquals(pfs.get(i - numToSkip), expectedPfs[i]);
+        }
+
+        Assert.assertEquals(false, reader.hasNext());
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void readPastEndInBulk() {
+        final FilterFileReader reader = new FilterFileReader(PASSING_FILTER_FILE);
+        reader.readPfs(expectedPfs.length + 1);
+    }
+
     @Test(expectedExceptions = NoSuchElementException.class)
     public void readPastEnd() {
         final FilterFileReader reader = new FilterFileReader(PASSING_FILTER_FILE);
@@ -77,4 +97,10 @@ public class FilterFileReaderTest {
             reader.next();
         }
     }
+
+    @Test(dataProvider = "failingFilesForPicardException", expectedExceptions = PicardException.class)
+    public void readInvalidValuesInBulkForPicardException(final String failingFile) {
+        final FilterFileReader reader = new FilterFileReader(new File(TEST_DATA_DIR, failingFile));
+        reader.readPfs((int) reader.numClusters);
+    }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 public class MMapBackedIteratorFactoryTest {
@@ -171,6 +172,37 @@ public class MMapBackedIteratorFactoryTest {
         ftd.test();
     }
 
+    @Test
+    public void bulkReadTest() {
+        final ByteBuffer expected = fileAsByteBuffer(15);
+        final IntBuffer expectedInts = expected.asIntBuffer();
+
+        final MMapBackedIteratorFactory.IntegerMMapIterator intIter = MMapBackedIteratorFactory.getIntegerIterator(15, BinFile);
+        Assert.assertEquals(intIter.nextInt(), expectedInts.get());
+        final int[] ints = new int[20];
+        final int numRead = intIter.readInts(ints, 1, 19);
+        Assert.assertEquals(numRead, expectedInts.remaining());
+        for (int i = 0; i < numRead; i++) {
+            Assert.assertEquals(ints[i + 1], expectedInts.get());
+        }
+        Assert.assertFalse(intIter.hasNext());
+        Assert.assertEquals(intIter.readInts(ints, 0, 1), 0);
+
+        final MMapBackedIteratorFactory.FloatMMapIterator floatIter = MMapBackedIteratorFactory.getFloatIterator(19, BinFile);
+        final ByteBuffer expectedFloats = fileAsByteBuffer(19);
+        final float[] floats = new float[3];
+        Assert.assertEquals(floatIter.readFloats(floats, 0, 3), 3);
+        for (final float f : floats) {
+            Assert.assertEquals(f, expectedFloats.getFloat());
+        }
+        Assert.assertEquals(floatIter.nextFloat(), expectedFloats.getFloat());
+
+        final MMapBackedIteratorFactory.ByteMMapIterator byteIter = MMapBackedIteratorFactory.getByteIterator(2, BinFile);
+        final byte[] bytes = new byte[FileLength];
+        Assert.assertEquals(byteIter.readBytes(bytes, 0, bytes.length), FileLength - 2);
+        Assert.assertEquals(Arrays.copyOf(bytes, FileLength - 2), fileAsBytes(2, FileLength - 1));
+    }
+
     @Test
     public void onlyHeaderTest() {
         final BinaryFileIterator<Integer> bbIter = MMapBackedIteratorFactory.getIntegerIterator((int)BinFile.length(), BinFile);
@@ -33,8 +33,16 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import picard.util.IlluminaUtil.IlluminaAdapterPair;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -377,4 +385,131 @@ public class ClippingUtilityTest {
         }
         return ret;
     }
+
+    /**
+     * Marks reads from several threads at once, so that the threads pass the threshold together, and confirms that the
+     * list is pruned to the adapter seen most.  The other adapter is in few enough reads that it cannot be the most
+     * frequent whenever the pruning thread sums the tallies.
+     */
+    @Test
+    public void testConcurrentAdapterListTruncation() throws Exception {
+        final AdapterMarker marker = new AdapterMarker(IlluminaAdapterPair.INDEXED, IlluminaAdapterPair.NEXTERA_V2).
+                setThresholdForSelectingAdaptersToKeep(200);
+        final int[] matches = markConcurrently(marker, 8, 100, 10);
+
+        // INDEXED is never pruned, so every read with it was marked.
+        Assert.assertEquals(matches[0], 8 * 100 - 10);
+        Assert.assertEquals(marker.getAdapters().length, 1, "Did not truncate adapter list to 1 element");
+        Assert.assertTrue(marker.getAdapters()[0].getName().contains(IlluminaAdapterPair.INDEXED.getName()),
+                marker.getAdapters()[0].getName());
+    }
+
+    /** Confirms that threads marking reads at once do not prune the adapter list when pruning is turned off. */
+    @Test
+    public void testConcurrentMarkingWithoutTruncation() throws Exception {
+        final AdapterMarker marker = new AdapterMarker(IlluminaAdapterPair.INDEXED, IlluminaAdapterPair.NEXTERA_V2).
+                setThresholdForSelectingAdaptersToKeep(-1);
+        final int[] matches = markConcurrently(marker, 8, 100, 10);
+
+        Assert.assertEquals(matches[0], 8 * 100 - 10);
+        Assert.assertEquals(matches[1], 10);
+        Assert.assertEquals(marker.getAdapters().length, 2);
+    }
+
+    /**
+     * Marks readsPerThread reads on each of numThreads threads, all started together.  The first numNextera reads of the
+     * first thread have NEXTERA_V2 adapter, and all the others have INDEXED adapter.
+     *
+     * @return The number of reads with INDEXED and with NEXTERA_V2 adapter that the marker matched to that adapter.
+     */
+    private int[] markConcurrently(final AdapterMarker marker, final int numThreads, final int readsPerThread,
+                                   final int numNextera) throws Exception {
+        final int readLength = 100;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+        for (int thread = 0; thread < numThreads; ++thread) {
+            final boolean first = thread == 0;
+            futures.add(executor.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    final int[] matches = new int[2];
+                    start.await();
+                    for (int i = 0; i < readsPerThread; ++i) {
+                        final boolean nextera = first && i < numNextera;
+                        final IlluminaAdapterPair adapterPair = nextera ? IlluminaAdapterPair.NEXTERA_V2 : IlluminaAdapterPair.INDEXED;
+                        final SAMRecord rec = createSamRecordWithAdapterSequence(readLength, adapterPair, 1 + i % 50);
+                        final AdapterPair matchedPair = marker.adapterTrimIlluminaSingleRead(rec);
+                        if (matchedPair != null && matchedPair.getName().contains(adapterPair.getName())) {
+                            ++matches[nextera ? 1 : 0];
+                        }
+                    }
+                    return matches;
+                }
+            }));
+        }
+        start.countDown();
+
+        final int[] matches = new int[2];
+        for (final Future<int[]> future : futures) {
+            final int[] threadMatches = future.get();
+            matches[0] += threadMatches[0];
+            matches[1] += threadMatches[1];
+        }
+        executor.shutdown();
+        return matches;
+    }
+
+    /**
+     * Compares findIndexOfClipSequence() with a straightforward base-by-base search on random reads, some of which
+     * contain noisy copies of the adapter, with no-calls and lower-case bases in both read and adapter, and with
+     * reads long enough to span several words of the bit-parallel search.
+     */
+    @Test
+    public void testMatchesBaseByBaseSearch() {
+        final Random random = new Random(42);
+        final byte[] alphabet = StringUtil.stringToBytes("ACGTNacgt.");
+        for (int trial = 0; trial < 20000; ++trial) {
+            final byte[] adapter = randomBases(random, 1 + random.nextInt(80), alphabet, 10);
+            final byte[] read = randomBases(random, random.nextInt(300), alphabet, 20);
+            if (read.length > 0 && random.nextBoolean()) {
+                final int adapterStart = random.nextInt(read.length);
+                for (int i = adapterStart; i < read.length && i - adapterStart < adapter.length; ++i) {
+                    read[i] = random.nextInt(15) == 0 ? alphabet[random.nextInt(4)] : adapter[i - adapterStart];
+                }
+            }
+            final int minMatch = random.nextInt(15);
+            final double maxErrorRate = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 0.3;
+
+            Assert.assertEquals(ClippingUtility.findIndexOfClipSequence(read, adapter, minMatch, maxErrorRate),
+                    findIndexOfClipSequenceBaseByBase(read, adapter, minMatch, maxErrorRate),
+                    StringUtil.bytesToString(read) + " " + StringUtil.bytesToString(adapter) + " " + minMatch + " " + maxErrorRate);
+        }
+    }
+
+    /** Mostly unambiguous bases, with one in oneInNAmbiguous drawn from the whole alphabet. */
+    private static byte[] randomBases(final Random random, final int length, final byte[] alphabet, final int oneInNAmbiguous) {
+        final byte[] bases = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bases[i] = alphabet[random.nextInt(random.nextInt(oneInNAmbiguous) == 0 ? alphabet.length : 4)];
+        }
+        return bases;
+    }
+
+    private static int findIndexOfClipSequenceBaseByBase(final byte[] read, final byte[] adapterSequence, final int minMatch,
+                                                         final double maxErrorRate) {
+        READ_LOOP:
+        for (int start = read.length - minMatch; start >= 0; --start) {
+            final int length = Math.min(read.length - start, adapterSequence.length);
+            final int mismatchesAllowed = (int) (length * maxErrorRate);
+            int mismatches = 0;
+            for (int i = 0; i < length; ++i) {
+                if (!SequenceUtil.isNoCall(adapterSequence[i]) && !SequenceUtil.basesEqual(adapterSequence[i], read[start + i])) {
+                    if (++mismatches > mismatchesAllowed) continue READ_LOOP;
+                }
+            }
+            return start;
+        }
+        return ClippingUtility.NO_MATCH;
+    }
 }
@@ -0,0 +1,124 @@
+package picard.util;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tests that ParallelBlockCompressedInputStream reads back what BGZF writers wrote, and rejects damaged input.
+ */
+public class ParallelBlockCompressedInputStreamTest {
+    private final ExecutorService inflater = ParallelBlockCompressedInputStream.newInflaterPool(4);
+    private final ExecutorService compressor = ParallelBlockCompressedOutputStream.newCompressorPool(4);
+
+    @AfterClass
+    public void shutdown() {
+        inflater.shutdown();
+        compressor.shutdown();
+    }
+
+    @DataProvider(name = "sizes")
+    public Object[][] sizes() {
+        return new Object[][]{
+                {0},
+                {1},
+                {ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE},
+                {ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE + 1},
+                {2000000}
+        };
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testReadsParallelOutput(final int size) throws IOException {
+        final byte[] data = makeData(size);
+        final File file = File.createTempFile("parallelBgzf.", ".gz");
+        file.deleteOnExit();
+        final OutputStream out = new ParallelBlockCompressedOutputStream(file, compressor, 5, null);
+        out.write(data);
+        out.close();
+
+        Assert.assertTrue(ParallelBlockCompressedInputStream.isBlockCompressed(file));
+        Assert.assertEquals(readFully(new ParallelBlockCompressedInputStream(file, inflater)), data);
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testReadsHtsjdkOutput(final int size) throws IOException {
+        final byte[] data = makeData(size);
+        final File file = File.createTempFile("bgzf.", ".gz");
+        file.deleteOnExit();
+        final OutputStream out = new BlockCompressedOutputStream(file);
+        out.write(data);
+        out.close();
+
+        Assert.assertEquals(readFully(new ParallelBlockCompressedInputStream(file, inflater)), data);
+    }
+
+    @Test
+    public void testNotBlockCompressed() throws IOException {
+        final File file = File.createTempFile("plain.", ".sam");
+        file.deleteOnExit();
+        final OutputStream out = new FileOutputStream(file);
+        out.write(makeData(100));
+        out.close();
+        Assert.assertFalse(ParallelBlockCompressedInputStream.isBlockCompressed(file));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testCorruptBlock() throws IOException {
+        final File file = File.createTempFile("corrupt.", ".gz");
+        file.deleteOnExit();
+        final OutputStream out = new ParallelBlockCompressedOutputStream(file, compressor, 5, null);
+        out.write(makeData(1000));
+        out.close();
+
+        // Flip a bit of the stored CRC of the first block
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final int blockLength = readBlockLength(raf);
+        raf.seek(blockLength - 8);
+        final int crcByte = raf.read();
+        raf.seek(blockLength - 8);
+        raf.write(crcByte ^ 1);
+        raf.close();
+
+        readFully(new ParallelBlockCompressedInputStream(file, inflater));
+    }
+
+    private static int readBlockLength(final RandomAccessFile raf) throws IOException {
+        raf.seek(16);
+        return (raf.readUnsignedByte() | (raf.readUnsignedByte() << 8)) + 1;
+    }
+
+    /** FASTQ-like, and so compressible, data. */
+    private static byte[] makeData(final int size) {
+        final Random random = new Random(size);
+        final byte[] data = new byte[size];
+        final byte[] bases = {'A', 'C', 'G', 'T'};
+        for (int i = 0; i < size; ++i) {
+            data[i] = i % 101 == 100 ? (byte) '\n' : bases[random.nextInt(bases.length)];
+        }
+        return data;
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,163 @@
+package picard.util;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests that ParallelBlockCompressedOutputStream writes data that gzip and BGZF readers can both read back, and that
+ * its .gzi index points at the right places.
+ */
+public class ParallelBlockCompressedOutputStreamTest {
+    private final ExecutorService compressor = ParallelBlockCompressedOutputStream.newCompressorPool(4);
+
+    @AfterClass
+    public void shutdown() {
+        compressor.shutdown();
+    }
+
+    @DataProvider(name = "sizes")
+    public Object[][] sizes() {
+        return new Object[][]{
+                {0},
+                {1},
+                {ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE},
+                {ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE + 1},
+                {2000000}
+        };
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testRoundTrip(final int size) throws IOException {
+        final byte[] data = makeData(size);
+        final File file = File.createTempFile("parallelBgzf.", ".gz");
+        final File indexFile = new File(file.getAbsolutePath() + ".gzi");
+        file.deleteOnExit();
+        indexFile.deleteOnExit();
+
+        final OutputStream out = new ParallelBlockCompressedOutputStream(file, compressor, 5, indexFile);
+        // Write in uneven pieces so that writes straddle block boundaries.
+        int offset = 0;
+        for (int i = 1; offset < size; ++i) {
+            final int length = Math.min(i * 37, size - offset);
+            out.write(data, offset, length);
+            offset += length;
+        }
+        out.close();
+
+        Assert.assertEquals(readFully(new GZIPInputStream(new FileInputStream(file))), data);
+        Assert.assertEquals(readFully(new BlockCompressedInputStream(file)), data);
+        Assert.assertEquals(BlockCompressedInputStream.checkTermination(file),
+                BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK);
+
+        final DataInputStream index = new DataInputStream(new FileInputStream(indexFile));
+        final long numEntries = Long.reverseBytes(index.readLong());
+        final int blockSize = ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE;
+        Assert.assertEquals(numEntries, Math.max(0, (size + blockSize - 1) / blockSize - 1));
+        final BlockCompressedInputStream reader = new BlockCompressedInputStream(file);
+        for (long i = 0; i < numEntries; ++i) {
+            final long compressedOffset = Long.reverseBytes(index.readLong());
+            final long uncompressedOffset = Long.reverseBytes(index.readLong());
+            Assert.assertEquals(uncompressedOffset, (i + 1) * blockSize);
+            reader.seek(compressedOffset << 16);
+            Assert.assertEquals((byte) reader.read(), data[(int) uncompressedOffset]);
+        }
+        reader.close();
+        index.close();
+    }
+
+    @Test
+    public void testIncompressibleData() throws IOException {
+        final byte[] data = new byte[3 * ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE];
+        new Random(42).nextBytes(data);
+        final File file = File.createTempFile("parallelBgzf.", ".gz");
+        file.deleteOnExit();
+        final OutputStream out = new ParallelBlockCompressedOutputStream(file, compressor, 9, null);
+        out.write(data);
+        out.close();
+
+        Assert.assertEquals(readFully(new BlockCompressedInputStream(file)), data);
+    }
+
+    /** A PrintStream flushes whenever its errors are checked, which must neither end a block nor wait for them. */
+    @Test
+    public void testFlushDoesNotEndBlock() throws IOException {
+        final byte[] data = makeData(1000000);
+        final File file = File.createTempFile("parallelBgzf.", ".gz");
+        file.deleteOnExit();
+        final PrintStream out = new PrintStream(new ParallelBlockCompressedOutputStream(file, compressor, 5, null));
+        for (int offset = 0; offset < data.length; offset += 101) {
+            out.write(data, offset, Math.min(101, data.length - offset));
+            Assert.assertFalse(out.checkError());
+        }
+        out.close();
+
+        Assert.assertEquals(readFully(new GZIPInputStream(new FileInputStream(file))), data);
+        assertFullBlocks(file, data.length);
+    }
+
+    /**
+     * Asserts that the BGZF file holds the given number of bytes in as few blocks as possible, i.e. that each block
+     * but the last holds UNCOMPRESSED_BLOCK_SIZE bytes, followed by the empty terminator block.
+     */
+    public static void assertFullBlocks(final File file, final long uncompressedLength) throws IOException {
+        final byte[] bytes = readFully(new FileInputStream(file));
+        final List<Integer> blockSizes = new ArrayList<Integer>();
+        for (int offset = 0; offset < bytes.length; ) {
+            Assert.assertEquals(bytes[offset], (byte) 0x1f);
+            Assert.assertEquals(bytes[offset + 1], (byte) 0x8b);
+            final int blockLength = ((bytes[offset + 16] & 0xff) | (bytes[offset + 17] & 0xff) << 8) + 1;
+            final int footer = offset + blockLength - 4;
+            blockSizes.add((bytes[footer] & 0xff) | (bytes[footer + 1] & 0xff) << 8 |
+                    (bytes[footer + 2] & 0xff) << 16 | (bytes[footer + 3] & 0xff) << 24);
+            offset += blockLength;
+        }
+
+        final int blockSize = ParallelBlockCompressedOutputStream.UNCOMPRESSED_BLOCK_SIZE;
+        final int numDataBlocks = (int) ((uncompressedLength + blockSize - 1) / blockSize);
+        Assert.assertEquals(blockSizes.size(), numDataBlocks + 1, "Block sizes " + blockSizes);
+        for (int i = 0; i < numDataBlocks; ++i) {
+            final long expected = i < numDataBlocks - 1 ? blockSize : uncompressedLength - (long) i * blockSize;
+            Assert.assertEquals(blockSizes.get(i).longValue(), expected, "Block sizes " + blockSizes);
+        }
+        Assert.assertEquals(blockSizes.get(numDataBlocks).intValue(), 0);
+    }
+
+    /** FASTQ-like, and so compressible, data. */
+    private static byte[] makeData(final int size) {
+        final Random random = new Random(size);
+        final byte[] data = new byte[size];
+        final byte[] bases = {'A', 'C', 'G', 'T'};
+        for (int i = 0; i < size; ++i) {
+            data[i] = i % 101 == 100 ? (byte) '\n' : bases[random.nextInt(bases.length)];
+        }
+        return data;
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,55 @@
+package picard.util;
+
+import htsjdk.samtools.util.Interval;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SortedIntervalSweepTest {
+    private final List<Interval> intervals = Arrays.asList(
+            new Interval("chr1", 10, 20),
+            new Interval("chr1", 30, 40),
+            new Interval("chr1", 50, 50),
+            new Interval("chr2", 5, 15));
+
+    @Test
+    public void testSortedPositions() {
+        final SortedIntervalSweep sweep = new SortedIntervalSweep(intervals);
+        Assert.assertEquals(sweep.size(), 4);
+        Assert.assertEquals(sweep.seek("chr1", 1), 0);
+        Assert.assertEquals(sweep.getLimit(), 3);
+        Assert.assertEquals(sweep.seek("chr1", 20), 0);
+        Assert.assertEquals(sweep.seek("chr1", 21), 1);
+        Assert.assertEquals(sweep.seek("chr1", 45), 2);
+        Assert.assertEquals(sweep.seek("chr1", 51), 3);
+        Assert.assertEquals(sweep.seek("chr2", 1), 3);
+        Assert.assertEquals(sweep.getLimit(), 4);
+        Assert.assertEquals(sweep.getStart(3), 5);
+        Assert.assertEquals(sweep.getEnd(3), 15);
+        Assert.assertEquals(sweep.seek("chr2", 16), 4);
+    }
+
+    @Test
+    public void testUnsortedPositions() {
+        final SortedIntervalSweep sweep = new SortedIntervalSweep(intervals);
+        Assert.assertEquals(sweep.seek("chr2", 10), 3);
+        Assert.assertEquals(sweep.seek("chr1", 35), 1);
+        Assert.assertEquals(sweep.seek("chr1", 15), 0);
+        Assert.assertEquals(sweep.seek("chr1", 50), 2);
+        final int noIntervals = sweep.seek("chrX", 1);
+        Assert.assertEquals(noIntervals, sweep.getLimit());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testOverlappingIntervals() {
+        new SortedIntervalSweep(Arrays.asList(new Interval("chr1", 10, 20), new Interval("chr1", 20, 30)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSequencesNotTogether() {
+        new SortedIntervalSweep(Arrays.asList(new Interval("chr1", 10, 20), new Interval("chr2", 1, 5),
+                new Interval("chr1", 30, 40)));
+    }
+}